@@ -15,53 +15,249 @@
 
 package org.entur.asag.mapbox;
 
+import com.google.common.io.ByteStreams;
 import org.apache.camel.Body;
 import org.apache.camel.Header;
 import org.entur.asag.mapbox.model.MapBoxAwsCredentials;
+import org.entur.asag.service.PipelineMetrics;
+import org.entur.asag.util.ZipFileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-
-import static org.apache.camel.Exchange.FILE_NAME;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
  * Implemented because of the requirement to use aws client with temporary session token.
+ * <p>
+ * Files larger than one part are uploaded as a multipart upload, with the parts sent concurrently over one pooled
+ * client. A part that fails is retried on its own, without restarting the upload.
+ * <p>
+ * There is one client for each set of temporary credentials, shared by the uploads using them, and kept until
+ * {@link #closeClients} at the end of the run, as shards uploaded at the same time may have credentials of their own.
  */
 @Service
 public class AwsS3Uploader {
     private static final Logger logger = LoggerFactory.getLogger(AwsS3Uploader.class);
 
+    private static final String CONTENT_TYPE = "application/json";
+
+    private static final String CONTENT_TYPE_MBTILES = "application/vnd.sqlite3";
+
+    private static final String MBTILES_FILE_EXTENSION = ".mbtiles";
+
+    private static final String CONTENT_ENCODING_GZIP = "gzip";
+
+    private static final long RETRY_BACKOFF_MILLIS = 200;
+
+    /**
+     * S3 requires all parts but the last to be at least 5 MB.
+     */
+    @Value("${mapbox.aws.upload.part.size:16777216}")
+    private long partSize = 16 * 1024 * 1024;
+
+    @Value("${mapbox.aws.upload.concurrency:4}")
+    private int uploadConcurrency = 4;
+
+    @Value("${mapbox.aws.upload.part.max.attempts:3}")
+    private int partMaxAttempts = 3;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics = new PipelineMetrics();
+
+    private final Map<String, S3Client> clients = new ConcurrentHashMap<>();
+
     public S3Client createClient(MapBoxAwsCredentials creds) {
         AwsSessionCredentials sessionCreds = AwsSessionCredentials.create(
                 creds.getAccessKeyId(), creds.getSecretAccessKey(), creds.getSessionToken());
         return S3Client.builder()
                 .region(Region.US_EAST_1)
                 .credentialsProvider(StaticCredentialsProvider.create(sessionCreds))
+                .httpClientBuilder(ApacheHttpClient.builder().maxConnections(Math.max(uploadConcurrency, 1)))
                 .build();
     }
 
-    public void upload(@Header("credentials") MapBoxAwsCredentials credentials,
-                       @Header(FILE_NAME) String filename,
-                       @Body InputStream inputStream) throws IOException {
-        logger.info("Uploading inputStream {} to aws. bucket: {}, key: {}, filename: {}", inputStream, credentials.getBucket(), credentials.getKey(), filename);
-        byte[] bytes = inputStream.readAllBytes();
-        S3Client s3Client = createClient(credentials);
-        PutObjectRequest request = PutObjectRequest.builder()
+    /**
+     * The client, and with it the connection pool, of the temporary credentials Mapbox handed out.
+     */
+    S3Client getClient(MapBoxAwsCredentials creds) {
+        return clients.computeIfAbsent(creds.getAccessKeyId() + "/" + creds.getSessionToken(), key -> createClient(creds));
+    }
+
+    /**
+     * Closes the clients of every upload, which must all be done.
+     */
+    public void closeClients() {
+        for (Iterator<S3Client> iterator = clients.values().iterator(); iterator.hasNext(); ) {
+            iterator.next().close();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Streams the file to S3 with a known content length, without reading it into memory. A gzipped file is stored
+     * as it is, with a gzip content encoding. An MBTiles file is stored as an SQLite database.
+     */
+    public void uploadFile(@Header("credentials") MapBoxAwsCredentials credentials,
+                           @Body File file) throws IOException {
+        long contentLength = file.length();
+        String contentType = file.getName().endsWith(MBTILES_FILE_EXTENSION) ? CONTENT_TYPE_MBTILES : CONTENT_TYPE;
+        String contentEncoding = ZipFileUtils.isGzipped(file) ? CONTENT_ENCODING_GZIP : null;
+        logger.info("Uploading file {} ({} bytes{}) to aws. bucket: {}, key: {}", file, contentLength,
+                contentEncoding != null ? ", " + contentEncoding : "", credentials.getBucket(), credentials.getKey());
+        S3Client s3Client = getClient(credentials);
+        if (contentLength > partSize) {
+            uploadMultipart(s3Client, credentials, file, contentType, contentEncoding);
+        } else {
+            PutObjectRequest request = PutObjectRequest.builder()
+                    .bucket(credentials.getBucket())
+                    .key(credentials.getKey())
+                    .contentType(contentType)
+                    .contentEncoding(contentEncoding)
+                    .contentLength(contentLength)
+                    .build();
+            s3Client.putObject(request, RequestBody.fromFile(file));
+        }
+        pipelineMetrics.countUpload(contentLength);
+    }
+
+    private void uploadMultipart(S3Client s3Client, MapBoxAwsCredentials credentials, File file, String contentType,
+                                 String contentEncoding) {
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                        .bucket(credentials.getBucket())
+                        .key(credentials.getKey())
+                        .contentType(contentType)
+                        .contentEncoding(contentEncoding)
+                        .checksumAlgorithm(ChecksumAlgorithm.CRC32)
+                        .build())
+                .uploadId();
+
+        long contentLength = file.length();
+        int partCount = (int) ((contentLength + partSize - 1) / partSize);
+        logger.info("Started multipart upload {} of {} parts with {} concurrent uploads", uploadId, partCount, uploadConcurrency);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(uploadConcurrency, partCount)));
+        try {
+            List<Future<CompletedPart>> futures = new ArrayList<>(partCount);
+            for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+                long offset = (partNumber - 1) * partSize;
+                long length = Math.min(partSize, contentLength - offset);
+                int currentPartNumber = partNumber;
+                futures.add(executorService.submit(() -> uploadPart(s3Client, credentials, uploadId, file, currentPartNumber, offset, length)));
+            }
+
+            List<CompletedPart> completedParts = new ArrayList<>(partCount);
+            for (Future<CompletedPart> future : futures) {
+                completedParts.add(future.get());
+            }
+            completedParts.sort(Comparator.comparing(CompletedPart::partNumber));
+
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(credentials.getBucket())
+                    .key(credentials.getKey())
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build());
+            logger.info("Completed multipart upload {}", uploadId);
+        } catch (InterruptedException | ExecutionException | RuntimeException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.warn("Aborting multipart upload {}: {}", uploadId, e.getMessage());
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(credentials.getBucket())
+                    .key(credentials.getKey())
+                    .uploadId(uploadId)
+                    .build());
+            throw new RuntimeException("Multipart upload of " + file + " failed: " + e.getMessage(), e);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Uploads one part, retrying only this part on failure. The CRC32 checksum of the part is calculated by the client
+     * while the part is streamed, and verified by S3.
+     */
+    private CompletedPart uploadPart(S3Client s3Client, MapBoxAwsCredentials credentials, String uploadId,
+                                     File file, int partNumber, long offset, long length) throws InterruptedException {
+        UploadPartRequest request = UploadPartRequest.builder()
                 .bucket(credentials.getBucket())
                 .key(credentials.getKey())
-                .contentType("application/json")
-                .contentLength((long) bytes.length)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength(length)
+                .checksumAlgorithm(ChecksumAlgorithm.CRC32)
                 .build();
-        s3Client.putObject(request, RequestBody.fromBytes(bytes));
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                UploadPartResponse response = s3Client.uploadPart(request,
+                        RequestBody.fromContentProvider(() -> openPart(file, offset, length), length, CONTENT_TYPE));
+                return CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(response.eTag())
+                        .checksumCRC32(response.checksumCRC32())
+                        .build();
+            } catch (SdkException | UncheckedIOException e) {
+                if (attempt >= partMaxAttempts) {
+                    throw e;
+                }
+                logger.warn("Upload of part {} failed (attempt {} of {}), retrying: {}", partNumber, attempt, partMaxAttempts, e.getMessage());
+                Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+            }
+        }
+    }
+
+    private static InputStream openPart(File file, long offset, long length) {
+        try {
+            FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ).position(offset);
+            return ByteStreams.limit(Channels.newInputStream(fileChannel), length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read part at offset " + offset + " of " + file, e);
+        }
+    }
+
+    void setPartSize(long partSize) {
+        this.partSize = partSize;
+    }
+
+    void setUploadConcurrency(int uploadConcurrency) {
+        this.uploadConcurrency = uploadConcurrency;
     }
 }
@@ -15,42 +15,85 @@
 
 package org.entur.asag.mapbox;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.camel.Body;
+import org.apache.camel.Header;
 import org.entur.asag.mapbox.filter.ValidityFilter;
+import org.entur.asag.mapbox.mapper.CompactFeature;
+import org.entur.asag.mapbox.mapper.FeatureProperty;
+import org.entur.asag.mapbox.mapper.FeatureType;
 import org.entur.asag.mapbox.mapper.ParkingToGeoJsonFeatureMapper;
 import org.entur.asag.mapbox.mapper.QuayToGeoJsonFeatureMapper;
 import org.entur.asag.mapbox.mapper.StopPlaceToGeoJsonFeatureMapper;
 import org.entur.asag.mapbox.mapper.TariffZoneToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.store.EntityStore;
+import org.entur.asag.mapbox.store.HeapEntityStore;
+import org.entur.asag.mapbox.store.TieredEntityStore;
+import org.entur.asag.netex.NetexEntityCodec;
+import org.entur.asag.netex.NetexEntityExtractor;
+import org.entur.asag.netex.NetexOffsetIndexer;
 import org.entur.asag.netex.PublicationDeliveryHelper;
-import org.geojson.Feature;
+import org.entur.asag.netex.UnmarshallerPool;
+import org.entur.asag.service.PipelineMetrics;
+import org.entur.asag.util.MappedFile;
+import org.entur.asag.util.ParallelGzipOutputStream;
 import org.rutebanken.netex.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Unmarshaller;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.GEOJSON_FILE;
+import static org.entur.asag.mapbox.mapper.StopPlaceToGeoJsonFeatureMapper.isPrimaryAdjacentSite;
 
 @Service
 public class DeliveryPublicationStreamToGeoJson {
 
     private static final Logger logger = LoggerFactory.getLogger(DeliveryPublicationStreamToGeoJson.class);
 
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Number of entities that may be sliced off the document ahead of the writer, per worker.
+     */
+    private static final int IN_FLIGHT_ENTITIES_PER_WORKER = 64;
+
+    private static final Future<SerializedFeatures> END_OF_DOCUMENT = CompletableFuture.completedFuture(null);
+
     private final StopPlaceToGeoJsonFeatureMapper stopPlaceToGeoJsonFeatureMapper;
 
     private final ParkingToGeoJsonFeatureMapper parkingToGeoJsonFeatureMapper;
@@ -61,19 +104,90 @@ public class DeliveryPublicationStreamToGeoJson {
 
     private final ValidityFilter validityFilter;
 
+    private Map<Class, AtomicInteger> incrementorsByType = new ConcurrentHashMap<>();
 
-    private ObjectMapper jacksonObjectMapper = new ObjectMapper();
+    private Map<String, Class<? extends EntityInVersionStructure>> mappableTypes = new HashMap<>();
 
-    private Map<Class, AtomicInteger> incrementorsByType = new HashMap<>();
+    private final UnmarshallerPool unmarshallerPool;
 
-    private Map<String, Class<? extends EntityInVersionStructure>> mappableTypes = new HashMap<>();
+    @Autowired
+    private PipelineMetrics pipelineMetrics = new PipelineMetrics();
+
+    @Value("${asag.transform.mode:BUFFERED}")
+    private TransformMode transformMode = TransformMode.BUFFERED;
+
+    /**
+     * Worker threads used in {@link TransformMode#PARALLEL}. Zero or less means one per available processor.
+     */
+    @Value("${asag.transform.workers:0}")
+    private int transformWorkers;
+
+    /**
+     * Where {@link TransformMode#BUFFERED} keeps the entities until the end of the document.
+     */
+    @Value("${asag.transform.store:HEAP}")
+    private EntityStoreType entityStoreType = EntityStoreType.HEAP;
+
+    /**
+     * Entities of each type kept as objects by the {@link EntityStoreType#TIERED} store, before it compresses the rest.
+     */
+    @Value("${asag.transform.store.hot.entities:50000}")
+    private int storeHotEntities = 50000;
+
+    /**
+     * Compressed bytes of each type the {@link EntityStoreType#TIERED} store keeps in memory, before it spills to disk.
+     */
+    @Value("${asag.transform.store.memory.budget:268435456}")
+    private long storeMemoryBudget = 256L << 20;
 
-    private final Unmarshaller unmarshaller;
+    @Value("${asag.transform.store.spill.directory:${java.io.tmpdir}}")
+    private String storeSpillDirectory = System.getProperty("java.io.tmpdir");
 
-    private Set<StopPlace> stopPlaces;
-    private Set<Parking> parkings;
-    private Set<TariffZone> tariffZones;
-    private Map<String, String> stopPlaceTypes;
+    @Value("${asag.transform.reader:JAXB}")
+    private EntityReader entityReader = EntityReader.JAXB;
+
+    @Value("${asag.output.format:FEATURE_COLLECTION}")
+    private OutputFormat outputFormat = OutputFormat.FEATURE_COLLECTION;
+
+    /**
+     * Gzip the file written by {@link #transformToFile} in independent blocks, compressed on other threads while the
+     * transform carries on.
+     */
+    @Value("${asag.output.gzip:false}")
+    private boolean gzipOutput;
+
+    /**
+     * Threads compressing the output. Zero or less means one per available processor.
+     */
+    @Value("${asag.output.gzip.threads:0}")
+    private int gzipThreads;
+
+    /**
+     * Decimals written for coordinates, unless set for the type of feature below. Nine is as precise as NeTEx gets.
+     */
+    @Value("${asag.coordinate.precision:9}")
+    private int coordinatePrecision = GeoJsonFeatureWriter.MAX_COORDINATE_PRECISION;
+
+    @Value("${asag.coordinate.precision.stop.place:${asag.coordinate.precision:9}}")
+    private int stopPlaceCoordinatePrecision = GeoJsonFeatureWriter.MAX_COORDINATE_PRECISION;
+
+    @Value("${asag.coordinate.precision.quay:${asag.coordinate.precision:9}}")
+    private int quayCoordinatePrecision = GeoJsonFeatureWriter.MAX_COORDINATE_PRECISION;
+
+    @Value("${asag.coordinate.precision.parking:${asag.coordinate.precision:9}}")
+    private int parkingCoordinatePrecision = GeoJsonFeatureWriter.MAX_COORDINATE_PRECISION;
+
+    @Value("${asag.coordinate.precision.tariff.zone:${asag.coordinate.precision:9}}")
+    private int tariffZoneCoordinatePrecision = GeoJsonFeatureWriter.MAX_COORDINATE_PRECISION;
+
+    private int[] coordinatePrecisionByType;
+
+    private FeatureHashIndex.Builder featureHashes;
+
+    private EntityStore<StopPlace> stopPlaces;
+    private EntityStore<Parking> parkings;
+    private EntityStore<TariffZone> tariffZones;
+    private StopPlaceTypeIndex stopPlaceTypes;
 
     @Autowired
     public DeliveryPublicationStreamToGeoJson(StopPlaceToGeoJsonFeatureMapper stopPlaceToGeoJsonFeatureMapper,
@@ -86,25 +200,486 @@ public class DeliveryPublicationStreamToGeoJson {
         this.quayToGeoJsonFeatureMapper = quayToGeoJsonFeatureMapper;
         this.tariffZoneToGeoJsonFeatureMapper = tariffZoneToGeoJsonFeatureMapper;
         this.validityFilter = validityFilter;
-        unmarshaller = PublicationDeliveryHelper.createUnmarshaller();
-        this.stopPlaces = new HashSet<>();
-        this.parkings = new HashSet<>();
-        this.tariffZones = new HashSet<>();
-
-        this.stopPlaceTypes = new HashMap<>();
+        unmarshallerPool = PublicationDeliveryHelper.unmarshallerPool();
         mappableTypes.put("StopPlace", StopPlace.class);
         mappableTypes.put("Parking", Parking.class);
         mappableTypes.put("TariffZone", TariffZone.class);
     }
 
+    public void setTransformMode(TransformMode transformMode) {
+        this.transformMode = transformMode;
+    }
+
+    public void setTransformWorkers(int transformWorkers) {
+        this.transformWorkers = transformWorkers;
+    }
+
+    public void setEntityStoreType(EntityStoreType entityStoreType) {
+        this.entityStoreType = entityStoreType;
+    }
+
+    public void setStoreLimits(int hotEntities, long memoryBudget, String spillDirectory) {
+        this.storeHotEntities = hotEntities;
+        this.storeMemoryBudget = memoryBudget;
+        this.storeSpillDirectory = spillDirectory;
+    }
+
+    public void setEntityReader(EntityReader entityReader) {
+        this.entityReader = entityReader;
+    }
+
+    public void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    public void setGzipOutput(boolean gzipOutput) {
+        this.gzipOutput = gzipOutput;
+    }
+
+    public void setCoordinatePrecision(FeatureType featureType, int precision) {
+        switch (featureType) {
+            case STOP_PLACE -> stopPlaceCoordinatePrecision = precision;
+            case QUAY -> quayCoordinatePrecision = precision;
+            case PARKING -> parkingCoordinatePrecision = precision;
+            case TARIFF_ZONE -> tariffZoneCoordinatePrecision = precision;
+            default -> coordinatePrecision = precision;
+        }
+    }
+
     public OutputStream transform(InputStream publicationDeliveryStream) {
-        return traverse(publicationDeliveryStream);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        transform(publicationDeliveryStream, outputStream);
+        return outputStream;
+    }
+
+    /**
+     * Transform straight into a file, so the GeoJSON never has to be held in memory. The NeTEx stream is closed when done.
+     *
+     * @return the written file, which is also the body passed on to the upload
+     */
+    public File transformToFile(@Body InputStream publicationDeliveryStream, @Header(GEOJSON_FILE) String targetFile) {
+        try (InputStream inputStream = publicationDeliveryStream) {
+            return writeFile(targetFile, outputStream -> transform(pipelineMetrics.meterXml(inputStream), outputStream));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Closing NeTEx stream failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Like {@link #transformToFile}, for NeTEx already extracted to a file, which {@link TransformMode#INDEXED} maps
+     * into memory instead of reading it as a stream.
+     */
+    public File transformFileToFile(@Body File publicationDeliveryFile, @Header(GEOJSON_FILE) String targetFile) {
+        if (transformMode != TransformMode.INDEXED) {
+            try {
+                return transformToFile(new BufferedInputStream(new FileInputStream(publicationDeliveryFile), OUTPUT_BUFFER_SIZE), targetFile);
+            } catch (FileNotFoundException e) {
+                throw new UncheckedIOException("Reading NeTEx from " + publicationDeliveryFile + " failed: " + e.getMessage(), e);
+            }
+        }
+        try (MappedFile mappedFile = MappedFile.open(publicationDeliveryFile.toPath())) {
+            pipelineMetrics.countXml(mappedFile.size());
+            return writeFile(targetFile, outputStream -> {
+                startTransform();
+                indexedTraverse(mappedFile, outputStream);
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Reading NeTEx from " + publicationDeliveryFile + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    private File writeFile(String targetFile, Consumer<OutputStream> transformer) {
+        Path path = Paths.get(targetFile);
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             OutputStream outputStream = gzipOutput
+                     ? new ParallelGzipOutputStream(Channels.newOutputStream(fileChannel), gzipThreads)
+                     : new BufferedOutputStream(Channels.newOutputStream(fileChannel), OUTPUT_BUFFER_SIZE)) {
+            transformer.accept(pipelineMetrics.meterGeoJson(outputStream));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Writing GeoJSON to " + path + " failed: " + e.getMessage(), e);
+        }
+        logger.info("Wrote GeoJSON as {}{} to {} ({} bytes)", outputFormat, gzipOutput ? ", gzipped," : "", path, path.toFile().length());
+
+        Path indexPath = FeatureChangeDetector.pendingIndex(targetFile);
+        try {
+            FeatureHashIndex featureHashIndex = featureHashes.build();
+            featureHashIndex.write(indexPath);
+            logger.info("Wrote hashes of {} features to {}", featureHashIndex.size(), indexPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Writing feature hash index to " + indexPath + " failed: " + e.getMessage(), e);
+        }
+        return path.toFile();
+    }
+
+    /**
+     * Transform into the given stream, which is neither buffered nor closed here.
+     */
+    public void transform(InputStream publicationDeliveryStream, OutputStream outputStream) {
+        startTransform();
+        switch (transformMode) {
+            case STREAMING -> streamingTraverse(publicationDeliveryStream, outputStream);
+            case PARALLEL -> parallelTraverse(publicationDeliveryStream, outputStream);
+            case INDEXED -> {
+                logger.warn("Transforming NeTEx as {}, as only files can be transformed as {}", TransformMode.STREAMING, TransformMode.INDEXED);
+                streamingTraverse(publicationDeliveryStream, outputStream);
+            }
+            default -> traverse(publicationDeliveryStream, outputStream);
+        }
+    }
+
+    private void startTransform() {
+        coordinatePrecisionByType = GeoJsonFeatureWriter.coordinatePrecision(coordinatePrecision, Map.of(
+                FeatureType.STOP_PLACE, stopPlaceCoordinatePrecision,
+                FeatureType.QUAY, quayCoordinatePrecision,
+                FeatureType.PARKING, parkingCoordinatePrecision,
+                FeatureType.TARIFF_ZONE, tariffZoneCoordinatePrecision));
+        featureHashes = new FeatureHashIndex.Builder();
+        stopPlaces = new HeapEntityStore<>();
+        parkings = new HeapEntityStore<>();
+        tariffZones = new HeapEntityStore<>();
+        stopPlaceTypes = new StopPlaceTypeIndex();
+    }
+
+    /**
+     * The heap stores are created for each transform by {@link #startTransform}, while a tiered store is closed at the
+     * end of the transform, so that its spill files are deleted when done.
+     */
+    private void traverse(InputStream publicationDeliveryStream, OutputStream outputStream) {
+        if (entityStoreType != EntityStoreType.TIERED) {
+            traverse(publicationDeliveryStream, outputStream, stopPlaces, parkings, tariffZones);
+            return;
+        }
+        try (EntityStore<StopPlace> tieredStopPlaces = tieredStore(StopPlace.class);
+             EntityStore<Parking> tieredParkings = tieredStore(Parking.class);
+             EntityStore<TariffZone> tieredTariffZones = tieredStore(TariffZone.class)) {
+            traverse(publicationDeliveryStream, outputStream, tieredStopPlaces, tieredParkings, tieredTariffZones);
+            logger.info("Buffered entities in {}, {} and {}", tieredStopPlaces, tieredParkings, tieredTariffZones);
+        }
+    }
+
+    private void traverse(InputStream publicationDeliveryStream,
+                          OutputStream outputStream,
+                          EntityStore<StopPlace> stopPlaces,
+                          EntityStore<Parking> parkings,
+                          EntityStore<TariffZone> tariffZones) {
+        parse(publicationDeliveryStream, entity -> {
+            if (entity instanceof StopPlace) {
+                StopPlace stopPlace = (StopPlace) entity;
+                stopPlaceTypes.put(stopPlace.getId(), getStopPlaceType(stopPlace));
+                stopPlaces.add(stopPlace);
+            } else if (entity instanceof Parking) {
+                parkings.add((Parking) entity);
+            } else if (entity instanceof TariffZone) {
+                tariffZones.add((TariffZone) entity);
+            }
+        });
+        writeGeoJson(outputStream, stopPlaces, parkings, tariffZones);
+    }
+
+    private <T extends EntityInVersionStructure> EntityStore<T> tieredStore(Class<T> type) {
+        try {
+            return new TieredEntityStore<>(type.getSimpleName(), new NetexEntityCodec<>(type),
+                    storeHotEntities, storeMemoryBudget, Paths.get(storeSpillDirectory));
+        } catch (JAXBException e) {
+            throw new RuntimeException("Creating store for " + type.getSimpleName() + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes features while parsing. Only the stop place types and the primary adjacent sites are kept
+     * until the end of the document, so memory use does not grow with the size of the NeTEx entity graphs.
+     */
+    private void streamingTraverse(InputStream publicationDeliveryStream, OutputStream outputStream) {
+        GeoJsonFeatureWriter output = new GeoJsonFeatureWriter(outputStream, outputFormat, coordinatePrecisionByType, featureHashes);
+        StopPlaceTypeIndex streamedStopPlaceTypes = new StopPlaceTypeIndex();
+        List<DeferredStopPlace> deferredStopPlaces = new ArrayList<>();
+
+        try {
+            output.startCollection();
+            parse(publicationDeliveryStream, entity -> streamEntity(entity, streamedStopPlaceTypes, deferredStopPlaces, output));
+            endStreamedOutput(output, streamedStopPlaceTypes, deferredStopPlaces);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Writing GeoJSON failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The first pass only keeps the offsets of the entities, and the types of the stop places that will be written. The
+     * second pass reads each entity again from its offset and writes it right away, as by then the types of all stop
+     * places in any adjacent site group are known. Features are written in document order.
+     */
+    private void indexedTraverse(MappedFile mappedFile, OutputStream outputStream) {
+        NetexOffsetIndexer indexer = new NetexOffsetIndexer(mappedFile, mappableTypes.keySet());
+        List<String> types = new ArrayList<>(mappableTypes.keySet());
+        EntityOffsets offsets = new EntityOffsets();
+        StopPlaceTypeIndex indexedStopPlaceTypes = new StopPlaceTypeIndex();
+
+        long start = System.nanoTime();
+        indexer.scan((type, entityStart, entityEnd, summary) -> {
+            offsets.add(types.indexOf(type), entityStart, entityEnd);
+            if (summary != null && validityFilter.isValidNow(summary.getValidBetween())
+                    && (summary.getCentroid() != null || summary.getPolygon() != null)) {
+                indexedStopPlaceTypes.put(summary.getId(), getStopPlaceType(summary));
+            }
+        });
+        logger.info("Indexed {} entities and the types of {} stop places in {} ms",
+                offsets.size(), indexedStopPlaceTypes.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        GeoJsonFeatureWriter output = new GeoJsonFeatureWriter(outputStream, outputFormat, coordinatePrecisionByType, featureHashes);
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        Unmarshaller unmarshaller = null;
+        try {
+            unmarshaller = unmarshallerPool.borrow();
+            output.startCollection();
+            for (int i = 0; i < offsets.size(); i++) {
+                String type = types.get(offsets.type(i));
+                EntityInVersionStructure entity = readEntity(xmlInputFactory, unmarshaller, type,
+                        indexer.openEntity(offsets.start(i), offsets.end(i)));
+                accept(entity, accepted -> writeIndexed(accepted, indexedStopPlaceTypes, output));
+            }
+            output.endCollection();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Writing GeoJSON failed: " + e.getMessage(), e);
+        } catch (UncheckedIOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Parsing of DeliveryPublications failed: " + e.getMessage(), e);
+        } finally {
+            unmarshallerPool.release(unmarshaller);
+        }
+    }
+
+    private EntityInVersionStructure readEntity(XMLInputFactory xmlInputFactory,
+                                                Unmarshaller unmarshaller,
+                                                String type,
+                                                InputStream entityStream) throws XMLStreamException, JAXBException {
+        long start = System.nanoTime();
+        XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(entityStream);
+        try {
+            // Past the element wrapping the entity, onto the entity itself
+            xmlStreamReader.nextTag();
+            xmlStreamReader.nextTag();
+            EntityInVersionStructure entity = entityReader == EntityReader.STAX
+                    ? NetexEntityExtractor.extract(xmlStreamReader)
+                    : unmarshaller.unmarshal(xmlStreamReader, mappableTypes.get(type)).getValue();
+            recordParse(type, System.nanoTime() - start);
+            return entity;
+        } finally {
+            xmlStreamReader.close();
+        }
+    }
+
+    private void writeIndexed(EntityInVersionStructure entity, StopPlaceTypeIndex indexedStopPlaceTypes, GeoJsonFeatureWriter output) {
+        long start = System.nanoTime();
+        if (entity instanceof StopPlace) {
+            StopPlace stopPlace = (StopPlace) entity;
+            TreeSet<String> adjacentSites = PublicationDeliveryHelper.resolveAdjacentSites(stopPlace);
+            writeStop(stopPlace, indexedStopPlaceTypes.finalStopPlaceType(adjacentSites, getStopPlaceType(stopPlace)), output);
+        } else if (entity instanceof Parking) {
+            output.write(parkingToGeoJsonFeatureMapper.mapParking((Parking) entity));
+        } else if (entity instanceof TariffZone) {
+            output.write(tariffZoneToGeoJsonFeatureMapper.mapTariffZone((TariffZone) entity));
+        }
+        recordMap(entity, start);
     }
 
-    private OutputStream traverse(InputStream publicationDeliveryStream) {
+    /**
+     * Same output as {@link #streamingTraverse}, with the work spread over three stages: this thread writes, a reader
+     * thread slices the subtree of each mappable element off the document, and a pool of workers unmarshals, filters,
+     * maps and serializes each slice into its own buffers. The reader hands the writer the futures of the workers in
+     * document order, through a bounded queue that also limits how far ahead of the writer the reader can get.
+     */
+    private void parallelTraverse(InputStream publicationDeliveryStream, OutputStream outputStream) {
+        int workers = transformWorkers > 0 ? transformWorkers : Runtime.getRuntime().availableProcessors();
+        GeoJsonFeatureWriter output = new GeoJsonFeatureWriter(outputStream, outputFormat, coordinatePrecisionByType, featureHashes);
+        StopPlaceTypeIndex streamedStopPlaceTypes = new StopPlaceTypeIndex();
+        List<DeferredStopPlace> deferredStopPlaces = new ArrayList<>();
+        BlockingQueue<Future<SerializedFeatures>> orderedResults = new ArrayBlockingQueue<>(workers * IN_FLIGHT_ENTITIES_PER_WORKER);
+
+        ExecutorService workerExecutor = Executors.newFixedThreadPool(workers);
+        ExecutorService readerExecutor = Executors.newSingleThreadExecutor();
+        try {
+            readerExecutor.execute(() -> readSlices(publicationDeliveryStream, workerExecutor, orderedResults, streamedStopPlaceTypes));
+
+            output.startCollection();
+            for (Future<SerializedFeatures> next = orderedResults.take(); next != END_OF_DOCUMENT; next = orderedResults.take()) {
+                SerializedFeatures serializedFeatures = next.get();
+                output.writeSerialized(serializedFeatures.features);
+                featureHashes.addAll(serializedFeatures.featureHashes);
+                deferredStopPlaces.addAll(serializedFeatures.deferredStopPlaces);
+            }
+            endStreamedOutput(output, streamedStopPlaceTypes, deferredStopPlaces);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Writing GeoJSON failed: " + e.getMessage(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw (UncheckedIOException) cause;
+            }
+            throw new RuntimeException("Parsing of DeliveryPublications failed: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while transforming DeliveryPublications", e);
+        } finally {
+            readerExecutor.shutdownNow();
+            workerExecutor.shutdownNow();
+        }
+        logger.info("Transformed with {} workers", workers);
+    }
 
-        boolean lastWasMapped = false;
+    /**
+     * Runs on the reader thread. Failures are handed to the writer as a failed result in place of the next entity.
+     * With the StAX reader, entities are extracted on this thread, as that costs less than slicing off their events.
+     */
+    private void readSlices(InputStream publicationDeliveryStream,
+                            ExecutorService workerExecutor,
+                            BlockingQueue<Future<SerializedFeatures>> orderedResults,
+                            StopPlaceTypeIndex streamedStopPlaceTypes) {
         try {
+            try {
+                if (entityReader == EntityReader.STAX) {
+                    XMLStreamReader xmlStreamReader = XMLInputFactory.newInstance().createXMLStreamReader(publicationDeliveryStream);
+                    while (xmlStreamReader.hasNext()) {
+                        if (xmlStreamReader.next() == XMLStreamConstants.START_ELEMENT && mappableTypes.containsKey(xmlStreamReader.getLocalName())) {
+                            String type = xmlStreamReader.getLocalName();
+                            long start = System.nanoTime();
+                            EntityInVersionStructure entity = NetexEntityExtractor.extract(xmlStreamReader);
+                            recordParse(type, System.nanoTime() - start);
+                            orderedResults.put(workerExecutor.submit(() -> serializeEntity(entity, streamedStopPlaceTypes)));
+                        }
+                    }
+                    orderedResults.put(END_OF_DOCUMENT);
+                    return;
+                }
+
+                XMLEventReader xmlEventReader = XMLInputFactory.newInstance().createXMLEventReader(publicationDeliveryStream);
+                while (xmlEventReader.hasNext()) {
+                    XMLEvent xmlEvent = xmlEventReader.nextEvent();
+                    if (xmlEvent.isStartElement()) {
+                        Class<? extends EntityInVersionStructure> clazz = mappableTypes.get(xmlEvent.asStartElement().getName().getLocalPart());
+                        if (clazz != null) {
+                            long start = System.nanoTime();
+                            List<XMLEvent> slice = sliceElement(xmlEvent, xmlEventReader);
+                            long sliceNanos = System.nanoTime() - start;
+                            orderedResults.put(workerExecutor.submit(() -> serializeSlice(slice, clazz, sliceNanos, streamedStopPlaceTypes)));
+                        }
+                    }
+                }
+                orderedResults.put(END_OF_DOCUMENT);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                orderedResults.put(CompletableFuture.failedFuture(e));
+            }
+        } catch (InterruptedException e) {
+            // The writer has given up, and no one is waiting for more results
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<XMLEvent> sliceElement(XMLEvent startElement, XMLEventReader xmlEventReader) throws XMLStreamException {
+        List<XMLEvent> slice = new ArrayList<>();
+        slice.add(startElement);
+        int depth = 1;
+        while (depth > 0) {
+            XMLEvent xmlEvent = xmlEventReader.nextEvent();
+            if (xmlEvent.isStartElement()) {
+                depth++;
+            } else if (xmlEvent.isEndElement()) {
+                depth--;
+            }
+            slice.add(xmlEvent);
+        }
+        return slice;
+    }
+
+    /**
+     * Runs on a worker thread. The entity is counted as parsed in the time it took the reader to slice it off the
+     * document and the time it takes to unmarshal it here.
+     */
+    private SerializedFeatures serializeSlice(List<XMLEvent> slice,
+                                              Class<? extends EntityInVersionStructure> clazz,
+                                              long sliceNanos,
+                                              StopPlaceTypeIndex streamedStopPlaceTypes) throws JAXBException, IOException {
+        EntityInVersionStructure entity;
+        long start = System.nanoTime();
+        Unmarshaller unmarshaller = unmarshallerPool.borrow();
+        try {
+            entity = unmarshaller.unmarshal(new XMLEventListReader(slice), clazz).getValue();
+        } finally {
+            unmarshallerPool.release(unmarshaller);
+        }
+        recordParse(clazz.getSimpleName(), sliceNanos + System.nanoTime() - start);
+        return serializeEntity(entity, streamedStopPlaceTypes);
+    }
+
+    /**
+     * Runs on a worker thread.
+     */
+    private SerializedFeatures serializeEntity(EntityInVersionStructure entity, StopPlaceTypeIndex streamedStopPlaceTypes) throws IOException {
+        List<DeferredStopPlace> deferredStopPlaces = new ArrayList<>(1);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        FeatureHashIndex.Builder entityFeatureHashes = new FeatureHashIndex.Builder();
+        GeoJsonFeatureWriter output = new GeoJsonFeatureWriter(buffer, outputFormat, coordinatePrecisionByType, entityFeatureHashes);
+        accept(entity, accepted -> streamEntity(accepted, streamedStopPlaceTypes, deferredStopPlaces, output));
+        output.flush();
+        return new SerializedFeatures(buffer.toByteArray(), entityFeatureHashes, deferredStopPlaces);
+    }
+
+    private void streamEntity(EntityInVersionStructure entity,
+                              StopPlaceTypeIndex streamedStopPlaceTypes,
+                              List<DeferredStopPlace> deferredStopPlaces,
+                              GeoJsonFeatureWriter output) {
+        long start = System.nanoTime();
+        if (entity instanceof StopPlace) {
+            streamStop((StopPlace) entity, streamedStopPlaceTypes, deferredStopPlaces, output);
+        } else if (entity instanceof Parking) {
+            output.write(parkingToGeoJsonFeatureMapper.mapParking((Parking) entity));
+        } else if (entity instanceof TariffZone) {
+            output.write(tariffZoneToGeoJsonFeatureMapper.mapTariffZone((TariffZone) entity));
+        }
+        recordMap(entity, start);
+    }
+
+    private void streamStop(StopPlace stopPlace,
+                            StopPlaceTypeIndex streamedStopPlaceTypes,
+                            List<DeferredStopPlace> deferredStopPlaces,
+                            GeoJsonFeatureWriter output) {
+        String stopPlaceType = getStopPlaceType(stopPlace);
+        streamedStopPlaceTypes.put(stopPlace.getId(), stopPlaceType);
+
+        TreeSet<String> adjacentSites = PublicationDeliveryHelper.resolveAdjacentSites(stopPlace);
+        if (!adjacentSites.isEmpty() && isPrimaryAdjacentSite(adjacentSites, stopPlace.getId())) {
+            deferredStopPlaces.add(new DeferredStopPlace(stopPlaceToGeoJsonFeatureMapper.mapStopPlace(stopPlace, null),
+                    adjacentSites, stopPlaceType));
+        } else {
+            output.write(stopPlaceToGeoJsonFeatureMapper.mapStopPlace(stopPlace, stopPlaceType));
+        }
+
+        quayToGeoJsonFeatureMapper.mapQuays(stopPlace.getQuays()).forEach(output::write);
+    }
+
+    private void endStreamedOutput(GeoJsonFeatureWriter output,
+                                   StopPlaceTypeIndex streamedStopPlaceTypes,
+                                   List<DeferredStopPlace> deferredStopPlaces) throws IOException {
+        for (DeferredStopPlace deferredStopPlace : deferredStopPlaces) {
+            deferredStopPlace.feature.set(FeatureProperty.FINAL_STOP_PLACE_TYPE,
+                    streamedStopPlaceTypes.finalStopPlaceType(deferredStopPlace.adjacentSites, deferredStopPlace.stopPlaceType));
+            output.write(deferredStopPlace.feature);
+        }
+        output.endCollection();
+        logger.info("Streamed {} stop places, of which {} were deferred as primary adjacent sites",
+                streamedStopPlaceTypes.size(), deferredStopPlaces.size());
+    }
+
+    private void parse(InputStream publicationDeliveryStream, Consumer<EntityInVersionStructure> entityConsumer) {
+        if (entityReader == EntityReader.STAX) {
+            extract(publicationDeliveryStream, entityConsumer);
+            return;
+        }
+        Unmarshaller unmarshaller = null;
+        try {
+            unmarshaller = unmarshallerPool.borrow();
 
             XMLEventReader xmlEventReader = XMLInputFactory.newInstance().createXMLEventReader(publicationDeliveryStream);
 
@@ -114,88 +689,81 @@ public class DeliveryPublicationStreamToGeoJson {
                 if (xmlEvent.isStartElement()) {
                     StartElement startElement = xmlEvent.asStartElement();
                     String localPartOfName = startElement.getName().getLocalPart();
-                    if(mappableTypes.containsKey(localPartOfName)) {
-                        lastWasMapped = handle(localPartOfName,
-                                lastWasMapped,
-                                xmlEventReader,
-                                mappableTypes.get(localPartOfName));
+                    if (mappableTypes.containsKey(localPartOfName)) {
+                        // The unmarshaller consumes the whole element, leaving the reader at the event following it
+                        handle(unmarshaller, xmlEventReader, mappableTypes.get(localPartOfName), entityConsumer);
+                        continue;
                     }
                 }
                 xmlEventReader.next();
             }
 
 
+        } catch (UncheckedIOException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Parsing of DeliveryPublications failed: " + e.getMessage(), e);
+        } finally {
+            unmarshallerPool.release(unmarshaller);
         }
-        return writeGeoJson();
     }
 
-    private OutputStream writeGeoJson() {
-        stopPlaceTypes.putAll(stopPlaces.stream().collect(Collectors.toMap(stopPlace -> stopPlace.getId(), stopPlace -> getStopPlaceType(stopPlace))));
+    private void extract(InputStream publicationDeliveryStream, Consumer<EntityInVersionStructure> entityConsumer) {
+        try {
+            XMLStreamReader xmlStreamReader = XMLInputFactory.newInstance().createXMLStreamReader(publicationDeliveryStream);
+            while (xmlStreamReader.hasNext()) {
+                if (xmlStreamReader.next() == XMLStreamConstants.START_ELEMENT && mappableTypes.containsKey(xmlStreamReader.getLocalName())) {
+                    String type = xmlStreamReader.getLocalName();
+                    long start = System.nanoTime();
+                    EntityInVersionStructure entity = NetexEntityExtractor.extract(xmlStreamReader);
+                    recordParse(type, System.nanoTime() - start);
+                    accept(entity, entityConsumer);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Parsing of DeliveryPublications failed: " + e.getMessage(), e);
+        }
+    }
 
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        OutputStreamWriter outputStreamWriter = new OutputStreamWriter(outputStream);
+    private void writeGeoJson(OutputStream outputStream,
+                              EntityStore<StopPlace> stopPlaces,
+                              EntityStore<Parking> parkings,
+                              EntityStore<TariffZone> tariffZones) {
+        GeoJsonFeatureWriter output = new GeoJsonFeatureWriter(outputStream, outputFormat, coordinatePrecisionByType, featureHashes);
 
         try {
             // Start of geoJson file
-            writeFeatureCollectionStart(outputStreamWriter);
-
+            output.startCollection();
 
             //Write all stops
-            Iterator<StopPlace> stopPlaceIterator = stopPlaces.iterator();
-            while (stopPlaceIterator.hasNext()) {
-                StopPlace stopPlace = stopPlaceIterator.next();
+            for (StopPlace stopPlace : stopPlaces) {
+                long start = System.nanoTime();
                 TreeSet<String> adjacentSites = PublicationDeliveryHelper.resolveAdjacentSites(stopPlace);
-                Set<String> adjacentSitesTypes = new HashSet<>();
-                if (!adjacentSites.isEmpty()) {
-                    for (String siteRef : adjacentSites) {
-                        Optional<String> adjacentSiteType = Optional.ofNullable(stopPlaceTypes.get(siteRef));
-                        adjacentSiteType.ifPresent(adjacentSitesTypes::add);
-
-                    }
-                    adjacentSitesTypes.add(getStopPlaceType(stopPlace));
-                }
-                String finalStopType = adjacentSitesTypes.stream().sorted().collect(Collectors.joining("_"));
-                writeStop(stopPlace,finalStopType, outputStream,outputStreamWriter);
-                if (stopPlaceIterator.hasNext()) {
-                    writeComma(outputStreamWriter);
-                }
+                String finalStopType = stopPlaceTypes.finalStopPlaceType(adjacentSites, getStopPlaceType(stopPlace));
+                writeStop(stopPlace, finalStopType, output);
+                recordMap(stopPlace, start);
             }
 
-            if (!parkings.isEmpty()) {
-                writeComma(outputStreamWriter);
-            }
             //Write all parkings
-            Iterator<Parking> parkingIterator = parkings.iterator();
-            while (parkingIterator.hasNext()) {
-                writeParking(parkingIterator.next(), outputStream);
-                if (parkingIterator.hasNext()) {
-                    writeComma(outputStreamWriter);
-                }
+            for (Parking parking : parkings) {
+                long start = System.nanoTime();
+                output.write(parkingToGeoJsonFeatureMapper.mapParking(parking));
+                recordMap(parking, start);
             }
 
             //Write all traffizones
-            if (!tariffZones.isEmpty()) {
-                writeComma(outputStreamWriter);
-            }
-
-            Iterator<TariffZone> tariffZoneIterator = tariffZones.iterator();
-            while (tariffZoneIterator.hasNext()) {
-                writeTariffZone(tariffZoneIterator.next(), outputStream);
-                if (tariffZoneIterator.hasNext()) {
-                    writeComma(outputStreamWriter);
-                }
+            for (TariffZone tariffZone : tariffZones) {
+                long start = System.nanoTime();
+                output.write(tariffZoneToGeoJsonFeatureMapper.mapTariffZone(tariffZone));
+                recordMap(tariffZone, start);
             }
             //End of geoJson file
-            writeFeatureCollectionEnd(outputStreamWriter);
+            output.endCollection();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("Writing GeoJSON failed: " + e.getMessage(), e);
         }
-
-
-
-        return outputStream;
     }
 
     private String getStopPlaceType(StopPlace stopPlace) {
@@ -213,82 +781,128 @@ public class DeliveryPublicationStreamToGeoJson {
 
     }
 
-    private <T extends EntityInVersionStructure> boolean handle(String localPartOfName,
-                                                                boolean lastWasMapped,
-                                                                XMLEventReader xmlEventReader,
-                                                                Class<T> clazz) throws JAXBException {
-
-        if (clazz.getSimpleName().equals(localPartOfName)) {
-            T unmarshalledEntity = unmarshaller.unmarshal(xmlEventReader, clazz).getValue();
-            if (validityFilter.isValidNow(unmarshalledEntity.getValidBetween())) {
+    private <T extends EntityInVersionStructure> void handle(Unmarshaller unmarshaller,
+                                                             XMLEventReader xmlEventReader,
+                                                             Class<T> clazz,
+                                                             Consumer<EntityInVersionStructure> entityConsumer) throws JAXBException {
 
-                if(unmarshalledEntity instanceof Zone_VersionStructure) {
-                    Zone_VersionStructure zone = (Zone_VersionStructure) unmarshalledEntity;
-                    if(zone.getPolygon() == null && zone.getCentroid() == null) {
-                        logger.warn("Got zone ({}) without centroid and polygon. Ignoring it.", zone.getId());
-                        return lastWasMapped;
-                    }
-                }
+        long start = System.nanoTime();
+        T entity = unmarshaller.unmarshal(xmlEventReader, clazz).getValue();
+        recordParse(clazz.getSimpleName(), System.nanoTime() - start);
+        accept(entity, entityConsumer);
+    }
 
-                if(StopPlace.class.isAssignableFrom(clazz)) {
-                    StopPlace stopPlace = (StopPlace) unmarshalledEntity;
-                    stopPlaces.add(stopPlace);
-                } else if(Parking.class.isAssignableFrom(clazz)) {
-                    Parking parking = (Parking) unmarshalledEntity;
-                    parkings.add(parking);
-                } else if(TariffZone.class.isAssignableFrom(clazz)) {
-                    TariffZone tariffZone = (TariffZone) unmarshalledEntity;
-                    tariffZones.add(tariffZone);
+    /**
+     * Passes the entity on if it is valid now and has a geometry.
+     */
+    private void accept(EntityInVersionStructure entity, Consumer<EntityInVersionStructure> entityConsumer) {
+        String type = entity.getClass().getSimpleName();
+        if (validityFilter.isValidNow(entity.getValidBetween())) {
+
+            if(entity instanceof Zone_VersionStructure) {
+                Zone_VersionStructure zone = (Zone_VersionStructure) entity;
+                if(zone.getPolygon() == null && zone.getCentroid() == null) {
+                    logger.warn("Got zone ({}) without centroid and polygon. Ignoring it.", zone.getId());
+                    pipelineMetrics.countEntity(type, PipelineMetrics.OUTCOME_NO_GEOMETRY);
+                    return;
                 }
+            }
 
-                AtomicInteger counter = incrementorsByType.computeIfAbsent(clazz, key -> new AtomicInteger());
-                counter.incrementAndGet();
-                logEveryN(1000, counter, localPartOfName);
+            entityConsumer.accept(entity);
+            pipelineMetrics.countEntity(type, PipelineMetrics.OUTCOME_ACCEPTED);
 
-                return true;
-            }
+            AtomicInteger counter = incrementorsByType.computeIfAbsent(entity.getClass(), key -> new AtomicInteger());
+            counter.incrementAndGet();
+            logEveryN(1000, counter, type);
+        } else {
+            pipelineMetrics.countEntity(type, PipelineMetrics.OUTCOME_INVALID);
         }
-        return lastWasMapped;
     }
 
-    private void writeParking(Parking parking, OutputStream outputStream) throws IOException {
-        Feature feature = parkingToGeoJsonFeatureMapper.mapParkingToGeoJson(parking);
-        jacksonObjectMapper.writeValue(outputStream, feature);
+    private void recordParse(String type, long nanos) {
+        pipelineMetrics.parseTimer(type).record(nanos, TimeUnit.NANOSECONDS);
     }
 
-    private void writeStop(StopPlace stopPlace,String finalStopPlaceType, OutputStream outputStream, OutputStreamWriter outputStreamWriter) throws IOException {
-        Feature feature = stopPlaceToGeoJsonFeatureMapper.mapStopPlaceToGeoJson(stopPlace, finalStopPlaceType);
-        jacksonObjectMapper.writeValue(outputStream, feature);
-
-        for(Feature quayFeature : quayToGeoJsonFeatureMapper.mapQuaysToGeojsonFeatures(stopPlace.getQuays())) {
-            writeComma(outputStreamWriter);
-            jacksonObjectMapper.writeValue(outputStream, quayFeature);
-        }
+    private void recordMap(EntityInVersionStructure entity, long start) {
+        pipelineMetrics.mapTimer(entity.getClass().getSimpleName()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     }
 
-    private void writeTariffZone(TariffZone tariffZone, OutputStream outputStream) throws IOException {
-        Feature feature = tariffZoneToGeoJsonFeatureMapper.mapTariffZoneToGeoJson(tariffZone);
-        jacksonObjectMapper.writeValue(outputStream, feature);
+    private void writeStop(StopPlace stopPlace, String finalStopPlaceType, GeoJsonFeatureWriter output) {
+        output.write(stopPlaceToGeoJsonFeatureMapper.mapStopPlace(stopPlace, finalStopPlaceType));
+        quayToGeoJsonFeatureMapper.mapQuays(stopPlace.getQuays()).forEach(output::write);
     }
 
-    private void writeComma(OutputStreamWriter outputStreamWriter) throws IOException {
-        outputStreamWriter.write(",\n");
-        outputStreamWriter.flush();
+    private void logEveryN(int n, AtomicInteger counter, String type) {
+        if (counter.get() % n == 0) {
+            logger.info("Transformed {} {}", counter.get(), type);
+        }
     }
 
-    private void writeFeatureCollectionStart(OutputStreamWriter outputStreamWriter) throws IOException {
-        outputStreamWriter.write("{\n\"features\": [");
-        outputStreamWriter.flush();
+    /**
+     * The features of one entity, serialized by a worker in the order they would have been written.
+     */
+    private static class SerializedFeatures {
+        private final byte[] features;
+        private final FeatureHashIndex.Builder featureHashes;
+        private final List<DeferredStopPlace> deferredStopPlaces;
+
+        SerializedFeatures(byte[] features, FeatureHashIndex.Builder featureHashes, List<DeferredStopPlace> deferredStopPlaces) {
+            this.features = features;
+            this.featureHashes = featureHashes;
+            this.deferredStopPlaces = deferredStopPlaces;
+        }
     }
 
-    private void writeFeatureCollectionEnd(OutputStreamWriter outputStreamWriter) throws IOException {
-        outputStreamWriter.write("\n], \"type\": \"FeatureCollection\"\n}");
-        outputStreamWriter.flush();
+    /**
+     * Where each entity of a memory mapped document starts and ends, and its type, in arrays of primitives.
+     */
+    private static class EntityOffsets {
+        private long[] starts = new long[1024];
+        private long[] ends = new long[1024];
+        private byte[] types = new byte[1024];
+        private int size;
+
+        void add(int type, long start, long end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                types = Arrays.copyOf(types, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            types[size] = (byte) type;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int type(int i) {
+            return types[i];
+        }
+
+        long start(int i) {
+            return starts[i];
+        }
+
+        long end(int i) {
+            return ends[i];
+        }
     }
 
-    private void logEveryN(int n, AtomicInteger counter, String type) {
-        if (counter.get() % n == 0) {
-            logger.info("Transformed {} {}", counter.get(), type);
+    /**
+     * A mapped primary adjacent site, waiting for its final stop place type.
+     */
+    private static class DeferredStopPlace {
+        private final CompactFeature feature;
+        private final TreeSet<String> adjacentSites;
+        private final String stopPlaceType;
+
+        DeferredStopPlace(CompactFeature feature, TreeSet<String> adjacentSites, String stopPlaceType) {
+            this.feature = feature;
+            this.adjacentSites = adjacentSites;
+            this.stopPlaceType = stopPlaceType;
         }
     }
 }
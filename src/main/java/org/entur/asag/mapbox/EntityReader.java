@@ -0,0 +1,32 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+/**
+ * How {@link DeliveryPublicationStreamToGeoJson} reads the NeTEx entities it maps.
+ */
+public enum EntityReader {
+
+    /**
+     * Unmarshal each entity with JAXB, materialising the whole NeTEx object tree.
+     */
+    JAXB,
+
+    /**
+     * Read only the mapped fields with {@link org.entur.asag.netex.NetexEntityExtractor}, skipping the rest.
+     */
+    STAX
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+/**
+ * Where {@link TransformMode#BUFFERED} keeps the entities until the end of the document.
+ */
+public enum EntityStoreType {
+
+    /**
+     * Every entity as an object on the heap.
+     */
+    HEAP,
+
+    /**
+     * The first entities of each type on the heap, the rest compressed in memory, and spilled to disk past a budget.
+     * Slower, but the memory used no longer grows with the size of the document.
+     */
+    TIERED
+}
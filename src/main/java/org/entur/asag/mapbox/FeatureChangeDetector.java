@@ -0,0 +1,83 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+import com.google.common.base.Strings;
+import org.apache.camel.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.GEOJSON_FILE;
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.UPLOAD_CONFIGURATION;
+
+/**
+ * Compares the feature hash index of the GeoJSON just written with the index of the last GeoJSON that Mapbox
+ * accepted. The new index is written as pending by {@link DeliveryPublicationStreamToGeoJson#transformToFile}, and only
+ * replaces the accepted index once the upload has completed, so a failed upload is retried by the next run even if
+ * nothing changed in between. The accepted index is kept in the {@link UploadStateStore}, as the next run starts in a
+ * new working directory.
+ * <p>
+ * The pending index also records the configuration of the upload, so that a change of it counts as a change.
+ */
+@Service
+public class FeatureChangeDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(FeatureChangeDetector.class);
+
+    static final String INDEX_SUFFIX = ".index";
+    static final String PENDING_INDEX_SUFFIX = ".index.pending";
+
+    @Autowired
+    private UploadStateStore uploadStateStore = new UploadStateStore();
+
+    public FeatureChangeReport detectChanges(@Header(GEOJSON_FILE) String geoJsonFile,
+                                             @Header(UPLOAD_CONFIGURATION) String uploadConfiguration) throws IOException {
+        FeatureHashIndex pending = FeatureHashIndex.read(pendingIndex(geoJsonFile)).withConfiguration(Strings.nullToEmpty(uploadConfiguration));
+        pending.write(pendingIndex(geoJsonFile));
+        uploadStateStore.restore(acceptedIndex(geoJsonFile));
+        FeatureHashIndex accepted = FeatureHashIndex.read(acceptedIndex(geoJsonFile));
+        FeatureChangeReport report = pending.diff(accepted);
+        logger.info("Changes since the last upload: {}", report);
+        return report;
+    }
+
+    /**
+     * Makes the pending index the one the next run compares against.
+     */
+    public void acceptPendingIndex(@Header(GEOJSON_FILE) String geoJsonFile) throws IOException {
+        Path pending = pendingIndex(geoJsonFile);
+        if (Files.exists(pending)) {
+            Files.move(pending, acceptedIndex(geoJsonFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            uploadStateStore.persist(acceptedIndex(geoJsonFile));
+        }
+    }
+
+    static Path pendingIndex(String geoJsonFile) {
+        return Paths.get(geoJsonFile + PENDING_INDEX_SUFFIX);
+    }
+
+    static Path acceptedIndex(String geoJsonFile) {
+        return Paths.get(geoJsonFile + INDEX_SUFFIX);
+    }
+}
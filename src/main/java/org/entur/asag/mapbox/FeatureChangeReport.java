@@ -0,0 +1,124 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Features added, removed and changed since the previous run, with the first few ids of each for the log.
+ */
+public class FeatureChangeReport {
+
+    private static final int EXAMPLE_IDS = 10;
+
+    private final int previousFeatures;
+    private final int features;
+
+    private int added;
+    private int removed;
+    private int changed;
+
+    private String previousConfiguration;
+    private String configuration;
+
+    private final List<String> addedIds = new ArrayList<>();
+    private final List<String> removedIds = new ArrayList<>();
+    private final List<String> changedIds = new ArrayList<>();
+
+    FeatureChangeReport(int previousFeatures, int features) {
+        this.previousFeatures = previousFeatures;
+        this.features = features;
+    }
+
+    void added(String id) {
+        added++;
+        addExample(addedIds, id);
+    }
+
+    void removed(String id) {
+        removed++;
+        addExample(removedIds, id);
+    }
+
+    void changed(String id) {
+        changed++;
+        addExample(changedIds, id);
+    }
+
+    void configurationChanged(String previousConfiguration, String configuration) {
+        this.previousConfiguration = previousConfiguration;
+        this.configuration = configuration;
+    }
+
+    private static void addExample(List<String> ids, String id) {
+        if (ids.size() < EXAMPLE_IDS) {
+            ids.add(id);
+        }
+    }
+
+    public boolean hasChanges() {
+        return added > 0 || removed > 0 || changed > 0 || isConfigurationChanged();
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    public int getChanged() {
+        return changed;
+    }
+
+    /**
+     * True if the features were last uploaded with another configuration, or one not recorded, so they have to be
+     * uploaded again even if none of them changed.
+     */
+    public boolean isConfigurationChanged() {
+        return configuration != null;
+    }
+
+    public int getFeatures() {
+        return features;
+    }
+
+    public List<String> getAddedIds() {
+        return addedIds;
+    }
+
+    public List<String> getRemovedIds() {
+        return removedIds;
+    }
+
+    public List<String> getChangedIds() {
+        return changedIds;
+    }
+
+    @Override
+    public String toString() {
+        return "FeatureChangeReport{" +
+                "features=" + features +
+                ", previousFeatures=" + previousFeatures +
+                ", added=" + added + (added > 0 ? " " + addedIds : "") +
+                ", removed=" + removed + (removed > 0 ? " " + removedIds : "") +
+                ", changed=" + changed + (changed > 0 ? " " + changedIds : "") +
+                (isConfigurationChanged() ? ", configuration=" + previousConfiguration + " -> " + configuration : "") +
+                '}';
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * The hash of every feature written, sorted by feature id. Persisted next to the GeoJSON, so the next run can tell
+ * which features were added, removed or changed.
+ * <p>
+ * On disk, ids are front coded: each id is stored as the length of the prefix it shares with the previous id, followed
+ * by the rest of it.
+ * <p>
+ * The index also records the configuration the features were uploaded with, as a change of output format or sharding
+ * has to reach Mapbox even if no feature changed.
+ */
+public class FeatureHashIndex {
+
+    private static final int MAGIC = 0x41534849;
+    private static final int VERSION = 2;
+
+    private static final int VERSION_WITHOUT_CONFIGURATION = 1;
+
+    private static final FeatureHashIndex EMPTY = new FeatureHashIndex(new String[0], new long[0], "");
+
+    private final String[] ids;
+    private final long[] hashes;
+    private final String configuration;
+
+    private FeatureHashIndex(String[] ids, long[] hashes, String configuration) {
+        this.ids = ids;
+        this.hashes = hashes;
+        this.configuration = configuration;
+    }
+
+    public static FeatureHashIndex empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return the configuration of the upload, or null if the index was written before it was recorded
+     */
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    public FeatureHashIndex withConfiguration(String configuration) {
+        return new FeatureHashIndex(ids, hashes, configuration);
+    }
+
+    long hashOf(String id) {
+        int index = Arrays.binarySearch(ids, id);
+        if (index < 0) {
+            throw new IllegalArgumentException("No hash for " + id);
+        }
+        return hashes[index];
+    }
+
+    /**
+     * @return the index in the file, or an empty index if there is no such file
+     */
+    public static FeatureHashIndex read(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return EMPTY;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION && version != VERSION_WITHOUT_CONFIGURATION) {
+                throw new IOException("Not a feature hash index of version " + VERSION + ": " + path);
+            }
+            String configuration = version == VERSION ? in.readUTF() : null;
+            int size = in.readInt();
+            String[] ids = new String[size];
+            long[] hashes = new long[size];
+            String previous = "";
+            for (int index = 0; index < size; index++) {
+                int sharedPrefix = in.readUnsignedShort();
+                ids[index] = previous.substring(0, sharedPrefix) + in.readUTF();
+                hashes[index] = in.readLong();
+                previous = ids[index];
+            }
+            return new FeatureHashIndex(ids, hashes, configuration);
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so an interrupted write never leaves a truncated index behind.
+     */
+    public void write(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(configuration);
+            out.writeInt(ids.length);
+            String previous = "";
+            for (int index = 0; index < ids.length; index++) {
+                int sharedPrefix = sharedPrefixLength(previous, ids[index]);
+                out.writeShort(sharedPrefix);
+                out.writeUTF(ids[index].substring(sharedPrefix));
+                out.writeLong(hashes[index]);
+                previous = ids[index];
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Walks both sorted indexes side by side. A previous index without features, like when there was none, has no
+     * configuration to compare with.
+     */
+    public FeatureChangeReport diff(FeatureHashIndex previous) {
+        FeatureChangeReport report = new FeatureChangeReport(previous.size(), size());
+        if (previous.size() > 0 && !configuration.equals(previous.configuration)) {
+            report.configurationChanged(previous.configuration, configuration);
+        }
+        int current = 0;
+        int old = 0;
+        while (current < ids.length || old < previous.ids.length) {
+            int comparison = current == ids.length ? 1
+                    : old == previous.ids.length ? -1
+                    : ids[current].compareTo(previous.ids[old]);
+            if (comparison < 0) {
+                report.added(ids[current++]);
+            } else if (comparison > 0) {
+                report.removed(previous.ids[old++]);
+            } else {
+                if (hashes[current] != previous.hashes[old]) {
+                    report.changed(ids[current]);
+                }
+                current++;
+                old++;
+            }
+        }
+        return report;
+    }
+
+    private static int sharedPrefixLength(String previous, String id) {
+        int max = Math.min(Math.min(previous.length(), id.length()), 0xFFFF);
+        int length = 0;
+        while (length < max && previous.charAt(length) == id.charAt(length)) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Collects hashes while features are written. Not thread safe: each writer thread has its own, merged with
+     * {@link #addAll} afterwards.
+     */
+    public static class Builder {
+
+        private String[] ids = new String[16];
+        private long[] hashes = new long[16];
+        private int size;
+
+        public void add(String id, long hash) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            ids[size] = id;
+            hashes[size] = hash;
+            size++;
+        }
+
+        public void addAll(Builder other) {
+            for (int index = 0; index < other.size; index++) {
+                add(other.ids[index], other.hashes[index]);
+            }
+        }
+
+        /**
+         * Sorts by id. Features written more than once with the same id are combined into one hash, taken in hash
+         * order so the result does not depend on the order they were written in.
+         */
+        public FeatureHashIndex build() {
+            int[] order = IntStream.range(0, size)
+                    .boxed()
+                    .sorted(Comparator.<Integer, String>comparing(index -> ids[index]).thenComparingLong(index -> hashes[index]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+
+            String[] sortedIds = new String[size];
+            long[] sortedHashes = new long[size];
+            int unique = 0;
+            for (int index : order) {
+                if (unique > 0 && sortedIds[unique - 1].equals(ids[index])) {
+                    sortedHashes[unique - 1] = sortedHashes[unique - 1] * 31 + hashes[index];
+                } else {
+                    sortedIds[unique] = ids[index];
+                    sortedHashes[unique] = hashes[index];
+                    unique++;
+                }
+            }
+            return new FeatureHashIndex(Arrays.copyOf(sortedIds, unique), Arrays.copyOf(sortedHashes, unique), "");
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.cfg.JsonNodeFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.entur.asag.util.ZipFileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the features of a written GeoJSON file back one at a time, whether it holds a FeatureCollection or
+ * newline-delimited features, and whether it is gzipped or not. The FeatureCollection is never read into memory as a
+ * whole, and numbers are kept as they were written.
+ */
+public final class GeoJsonFeatureReader {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+            .enable(JsonGenerator.Feature.WRITE_BIGDECIMAL_AS_PLAIN)
+            .configure(JsonNodeFeature.STRIP_TRAILING_BIGDECIMAL_ZEROES, false);
+
+    private static final String FEATURES = "features";
+    private static final String GEOMETRY = "geometry";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    @FunctionalInterface
+    public interface FeatureConsumer {
+        void accept(JsonNode feature) throws IOException;
+    }
+
+    private GeoJsonFeatureReader() {
+    }
+
+    public static void forEachFeature(Path path, FeatureConsumer consumer) throws IOException {
+        try (InputStream inputStream = open(path);
+             JsonParser parser = OBJECT_MAPPER.getFactory().createParser(inputStream)) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                // The root object is either a feature or a FeatureCollection, whose features are read one by one.
+                ObjectNode root = OBJECT_MAPPER.createObjectNode();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    if (parser.nextToken() == JsonToken.START_ARRAY && FEATURES.equals(name)) {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            consumer.accept(parser.readValueAsTree());
+                        }
+                    } else {
+                        root.set(name, parser.readValueAsTree());
+                    }
+                }
+                if (root.has(GEOMETRY)) {
+                    consumer.accept(root);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the feature as compact JSON, with its numbers as they were read
+     */
+    public static byte[] serialize(JsonNode feature) throws IOException {
+        return OBJECT_MAPPER.writeValueAsBytes(feature);
+    }
+
+    private static InputStream open(Path path) throws IOException {
+        InputStream inputStream = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+        if (ZipFileUtils.isGzipped(path.toFile())) {
+            inputStream = new GZIPInputStream(inputStream, BUFFER_SIZE);
+        }
+        return inputStream;
+    }
+}
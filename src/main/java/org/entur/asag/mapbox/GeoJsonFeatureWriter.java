@@ -0,0 +1,335 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.entur.asag.mapbox.mapper.CompactFeature;
+import org.entur.asag.mapbox.mapper.FeatureProperty;
+import org.entur.asag.mapbox.mapper.FeatureType;
+import org.geojson.jackson.LngLatAltSerializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes mapped features into a GeoJSON FeatureCollection, or one feature per line, on one long-lived
+ * {@link JsonGenerator}, straight from the slots and coordinate arrays of each {@link CompactFeature}. Keys are
+ * pre-encoded, and nothing is flushed to the target stream until the end.
+ * <p>
+ * Each feature is written as <code>{"type":"Feature","properties":{..},"geometry":{..},"id":".."}</code>, the same
+ * layout as geojson-jackson uses.
+ */
+class GeoJsonFeatureWriter {
+
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .disable(StreamWriteFeature.FLUSH_PASSED_TO_STREAM)
+            .rootValueSeparator((String) null)
+            .build();
+
+    private static final SerializedString TYPE = new SerializedString("type");
+    private static final SerializedString FEATURE = new SerializedString("Feature");
+    private static final SerializedString PROPERTIES = new SerializedString("properties");
+    private static final SerializedString GEOMETRY = new SerializedString("geometry");
+    private static final SerializedString ID = new SerializedString("id");
+    private static final SerializedString COORDINATES = new SerializedString("coordinates");
+    private static final SerializedString POINT = new SerializedString("Point");
+    private static final SerializedString POLYGON = new SerializedString("Polygon");
+
+    /**
+     * The precision geojson-jackson writes coordinates with, and the highest supported.
+     */
+    static final int MAX_COORDINATE_PRECISION = 9;
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L,
+            100_000_000L, 1_000_000_000L};
+
+    /**
+     * Coordinates at or beyond this are not scaled into a long, but written as they are.
+     */
+    private static final double MAX_FORMATTED_COORDINATE = 1e9;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final OutputStream outputStream;
+    private final OutputFormat outputFormat;
+    private final byte[] separatorBytes;
+    private final JsonGenerator generator;
+    private final int[] coordinatePrecisionByType;
+    private final char[] numberBuffer = new char[32];
+    private final FeatureHashIndex.Builder featureHashes;
+
+    private boolean empty = true;
+    private long featureHash;
+
+    GeoJsonFeatureWriter(OutputStream outputStream) {
+        this(outputStream, coordinatePrecision(MAX_COORDINATE_PRECISION, Map.of()));
+    }
+
+    /**
+     * @param coordinatePrecisionByType decimals to write coordinates with, indexed by {@link FeatureType} ordinal
+     */
+    GeoJsonFeatureWriter(OutputStream outputStream, int[] coordinatePrecisionByType) {
+        this(outputStream, coordinatePrecisionByType, null);
+    }
+
+    /**
+     * @param featureHashes receives the id and hash of every feature with an id, or null if not needed
+     */
+    GeoJsonFeatureWriter(OutputStream outputStream, int[] coordinatePrecisionByType, FeatureHashIndex.Builder featureHashes) {
+        this(outputStream, OutputFormat.FEATURE_COLLECTION, coordinatePrecisionByType, featureHashes);
+    }
+
+    GeoJsonFeatureWriter(OutputStream outputStream, OutputFormat outputFormat, int[] coordinatePrecisionByType,
+                         FeatureHashIndex.Builder featureHashes) {
+        this.outputStream = outputStream;
+        this.outputFormat = outputFormat;
+        this.separatorBytes = outputFormat.getSeparator().asUnquotedUTF8();
+        this.coordinatePrecisionByType = coordinatePrecisionByType;
+        this.featureHashes = featureHashes;
+        try {
+            this.generator = JSON_FACTORY.createGenerator(outputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return decimals per {@link FeatureType} ordinal, taken from the map or else the default
+     */
+    static int[] coordinatePrecision(int defaultPrecision, Map<FeatureType, Integer> precisionByType) {
+        int[] coordinatePrecision = new int[FeatureType.values().length];
+        for (FeatureType type : FeatureType.values()) {
+            int precision = precisionByType.getOrDefault(type, defaultPrecision);
+            if (precision < 0 || precision > MAX_COORDINATE_PRECISION) {
+                throw new IllegalArgumentException("Coordinate precision of " + type + " must be between 0 and "
+                        + MAX_COORDINATE_PRECISION + ", was " + precision);
+            }
+            coordinatePrecision[type.ordinal()] = precision;
+        }
+        return coordinatePrecision;
+    }
+
+    void startCollection() throws IOException {
+        generator.writeRaw(outputFormat.getStart());
+    }
+
+    void endCollection() throws IOException {
+        generator.writeRaw(outputFormat.getEnd());
+        generator.flush();
+        outputStream.flush();
+    }
+
+    /**
+     * Appends features already serialized by another writer of the same format, without the surrounding collection.
+     */
+    void writeSerialized(byte[] features) throws IOException {
+        if (features.length == 0) {
+            return;
+        }
+        generator.flush();
+        if (!empty) {
+            outputStream.write(separatorBytes);
+        }
+        outputStream.write(features);
+        empty = false;
+    }
+
+    /**
+     * Writes what the generator has buffered to the target stream, without flushing the stream itself.
+     */
+    void flush() throws IOException {
+        generator.flush();
+    }
+
+    /**
+     * Writes the feature with its properties in slot order, leaving out properties that are not set.
+     * <p>
+     * A 64 bit FNV-1a hash of the feature is calculated on the way, from its properties and its coordinates as
+     * written. The hash is stable between runs, and does not change with coordinate noise below the written precision.
+     */
+    void write(CompactFeature feature) {
+        featureHash = FNV_OFFSET_BASIS;
+        try {
+            if (!empty) {
+                generator.writeRaw(outputFormat.getSeparator());
+            }
+            generator.writeStartObject();
+            generator.writeFieldName(TYPE);
+            generator.writeString(FEATURE);
+            generator.writeFieldName(PROPERTIES);
+            generator.writeStartObject();
+            for (int slot = 0; slot < feature.getSlotCount(); slot++) {
+                Object value = feature.getValue(slot);
+                if (value != null) {
+                    FeatureProperty property = feature.getProperty(slot);
+                    hash(property.ordinal());
+                    writeProperty(property.getKey(), value);
+                }
+            }
+            generator.writeEndObject();
+            writeGeometry(feature.getGeometryType(), feature.getCoordinates(), coordinatePrecisionByType[feature.getType().ordinal()]);
+            if (feature.getId() != null) {
+                generator.writeFieldName(ID);
+                generator.writeString(feature.getId());
+            }
+            generator.writeEndObject();
+            generator.writeRaw(outputFormat.getTerminator());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        empty = false;
+        if (featureHashes != null && feature.getId() != null) {
+            featureHashes.add(feature.getId(), featureHash);
+        }
+    }
+
+    private void writeProperty(SerializedString key, Object value) throws IOException {
+        generator.writeFieldName(key);
+        if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object element : (Collection<?>) value) {
+                generator.writeString((String) element);
+                hash((String) element);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeString((String) value);
+            hash((String) value);
+        }
+    }
+
+    /**
+     * @param coordinates pairs of latitude and longitude, written as GeoJSON positions with longitude first
+     */
+    private void writeGeometry(CompactFeature.GeometryType geometryType, double[] coordinates, int precision) throws IOException {
+        generator.writeFieldName(GEOMETRY);
+        hash(geometryType.ordinal());
+        switch (geometryType) {
+            case POINT:
+                startGeometry(POINT);
+                writePosition(coordinates[1], coordinates[0], precision);
+                generator.writeEndObject();
+                break;
+            case POLYGON:
+                startGeometry(POLYGON);
+                generator.writeStartArray();
+                generator.writeStartArray();
+                for (int index = 0; index + 1 < coordinates.length; index += 2) {
+                    writePosition(coordinates[index + 1], coordinates[index], precision);
+                }
+                generator.writeEndArray();
+                generator.writeEndArray();
+                generator.writeEndObject();
+                break;
+            default:
+                generator.writeNull();
+        }
+    }
+
+    private void startGeometry(SerializedString type) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(TYPE);
+        generator.writeString(type);
+        generator.writeFieldName(COORDINATES);
+    }
+
+    private void writePosition(double longitude, double latitude, int precision) throws IOException {
+        generator.writeStartArray();
+        writeCoordinate(longitude, precision);
+        writeCoordinate(latitude, precision);
+        generator.writeEndArray();
+    }
+
+    private void writeCoordinate(double value, int precision) throws IOException {
+        if (Math.abs(value) < MAX_FORMATTED_COORDINATE) {
+            int length = formatCoordinate(value, precision, numberBuffer);
+            generator.writeNumber(numberBuffer, 0, length);
+            for (int index = 0; index < length; index++) {
+                hash(numberBuffer[index]);
+            }
+            hash(' ');
+        } else {
+            generator.writeNumber(value);
+            hash(Double.toString(value));
+        }
+    }
+
+    /**
+     * Hashes the characters followed by a terminator, so that adjacent values cannot run into each other.
+     */
+    private void hash(String value) {
+        for (int index = 0; index < value.length(); index++) {
+            hash(value.charAt(index));
+        }
+        hash('\uFFFF');
+    }
+
+    private void hash(int value) {
+        featureHash = (featureHash ^ value) * FNV_PRIME;
+    }
+
+    /**
+     * Formats the value into the buffer the same way as {@link LngLatAltSerializer#fastDoubleToString}, without
+     * creating any objects: rounded half up to the given number of decimals, with trailing zeros dropped but at least
+     * one decimal.
+     *
+     * @return the number of characters written
+     */
+    static int formatCoordinate(double value, int precision, char[] buffer) {
+        int position = 0;
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        long scale = POWERS_OF_TEN[precision];
+        long scaled = (long) (value * scale + 0.5);
+        long integerPart = scaled / scale;
+        long fractionPart = scaled % scale;
+
+        int integerDigits = 1;
+        while (integerDigits < POWERS_OF_TEN.length && integerPart >= POWERS_OF_TEN[integerDigits]) {
+            integerDigits++;
+        }
+        for (int index = position + integerDigits - 1; index >= position; index--) {
+            buffer[index] = (char) ('0' + integerPart % 10);
+            integerPart /= 10;
+        }
+        position += integerDigits;
+        buffer[position++] = '.';
+
+        if (precision == 0) {
+            buffer[position++] = '0';
+            return position;
+        }
+        for (int index = position + precision - 1; index >= position; index--) {
+            buffer[index] = (char) ('0' + fractionPart % 10);
+            fractionPart /= 10;
+        }
+        int end = position + precision;
+        while (end > position + 1 && buffer[end - 1] == '0') {
+            end--;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.camel.Header;
+import org.entur.asag.mapbox.mapper.ZoneToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.model.TilesetShard;
+import org.entur.asag.util.ZipFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.GEOJSON_FILE;
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.TILESET_NAME;
+
+/**
+ * Splits the written GeoJSON into shards, each written to a file of its own in the same format next to it, and
+ * uploaded to a tileset of its own. Features are grouped by entity type or codeSpace, and a group with more features
+ * than the cap per shard is spread over numbered shards.
+ */
+@Service
+public class GeoJsonShardWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeoJsonShardWriter.class);
+
+    /**
+     * Mapbox limits the name of a tileset, after the username, to 32 characters.
+     */
+    private static final int MAX_TILESET_NAME_LENGTH = 32;
+
+    private static final String GEOJSON_FILE_EXTENSION = ".geojson";
+
+    /**
+     * The group of features without an entity type or codeSpace.
+     */
+    private static final String OTHER = "other";
+
+    @Value("${asag.shard.by:NONE}")
+    private ShardStrategy shardBy = ShardStrategy.NONE;
+
+    /**
+     * Most features in a shard. Zero or less puts every feature of a group in the same shard.
+     */
+    @Value("${asag.shard.max.features:0}")
+    private int maxFeatures;
+
+    @Value("${asag.output.format:FEATURE_COLLECTION}")
+    private OutputFormat outputFormat = OutputFormat.FEATURE_COLLECTION;
+
+    /**
+     * @param tilesetName the tileset every feature would have been uploaded to, as username.name
+     * @return the shards in order of key. Shards are gzipped if the GeoJSON file is gzipped, so they are uploaded with
+     * the same content encoding as an unsharded upload would have been
+     */
+    public List<TilesetShard> writeShards(@Header(GEOJSON_FILE) String geoJsonFile,
+                                          @Header(TILESET_NAME) String tilesetName) throws IOException {
+        Path path = Paths.get(geoJsonFile);
+        boolean gzipped = ZipFileUtils.isGzipped(path.toFile());
+        Map<String, ShardFile> shardFiles = new TreeMap<>();
+        Map<String, Integer> featuresByGroup = new HashMap<>();
+        try {
+            GeoJsonFeatureReader.forEachFeature(path, feature -> {
+                String group = groupOf(feature);
+                int features = featuresByGroup.merge(group, 1, Integer::sum);
+                String key = keyOf(group, maxFeatures > 0 ? (features - 1) / maxFeatures + 1 : 1);
+                ShardFile shardFile = shardFiles.get(key);
+                if (shardFile == null) {
+                    shardFile = new ShardFile(key, shardPath(path, key), gzipped);
+                    shardFiles.put(key, shardFile);
+                }
+                shardFile.write(GeoJsonFeatureReader.serialize(feature));
+            });
+        } finally {
+            for (ShardFile shardFile : shardFiles.values()) {
+                shardFile.close();
+            }
+        }
+
+        List<TilesetShard> shards = new ArrayList<>(shardFiles.size());
+        for (ShardFile shardFile : shardFiles.values()) {
+            shards.add(new TilesetShard(shardFile.key, shardTilesetName(tilesetName, shardFile.key), shardFile.path.toFile(),
+                    shardFile.features));
+        }
+        logger.info("Wrote {} shards of {} by {} with at most {} features each: {}", shards.size(), geoJsonFile, shardBy,
+                maxFeatures > 0 ? maxFeatures : "all", shards);
+        return shards;
+    }
+
+    private String groupOf(JsonNode feature) {
+        JsonNode properties = feature.path("properties");
+        switch (shardBy) {
+            case ENTITY_TYPE: {
+                String entityType = properties.path(ZoneToGeoJsonFeatureMapper.ENTITY_TYPE).textValue();
+                return entityType != null ? TilesetSourceWriter.layerName(entityType) : OTHER;
+            }
+            case CODE_SPACE: {
+                String codeSpace = properties.path(ZoneToGeoJsonFeatureMapper.CODE_SPACE).textValue();
+                return codeSpace != null ? codeSpace : OTHER;
+            }
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * @return the group and part number, as lower case letters, digits, dashes and underscores only
+     */
+    private String keyOf(String group, int part) {
+        String key;
+        if (group.isEmpty()) {
+            key = Integer.toString(part);
+        } else if (maxFeatures > 0) {
+            key = group + "_" + part;
+        } else {
+            key = group;
+        }
+        return key.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_-]", "_");
+    }
+
+    static Path shardPath(Path geoJsonFile, String key) {
+        String fileName = geoJsonFile.getFileName().toString();
+        int extension = fileName.lastIndexOf(GEOJSON_FILE_EXTENSION);
+        if (extension < 0) {
+            extension = fileName.length();
+        }
+        return geoJsonFile.resolveSibling(fileName.substring(0, extension) + "_" + key + fileName.substring(extension));
+    }
+
+    static String shardTilesetName(String tilesetName, String key) {
+        String shardTilesetName = tilesetName + "_" + key;
+        int nameLength = shardTilesetName.length() - shardTilesetName.indexOf('.') - 1;
+        if (nameLength > MAX_TILESET_NAME_LENGTH) {
+            throw new IllegalArgumentException("Mapbox limits tileset names to " + MAX_TILESET_NAME_LENGTH
+                    + " characters after the username, the name of shard " + key + " would be " + shardTilesetName);
+        }
+        return shardTilesetName;
+    }
+
+    void setShardBy(ShardStrategy shardBy) {
+        this.shardBy = shardBy;
+    }
+
+    void setMaxFeatures(int maxFeatures) {
+        this.maxFeatures = maxFeatures;
+    }
+
+    void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    private class ShardFile {
+
+        private final String key;
+        private final Path path;
+        private final OutputStream outputStream;
+        private final GeoJsonFeatureWriter writer;
+        private final byte[] terminator;
+        private int features;
+
+        private ShardFile(String key, Path path, boolean gzipped) throws IOException {
+            this.key = key;
+            this.path = path;
+            OutputStream fileStream = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16);
+            this.outputStream = gzipped ? new GZIPOutputStream(fileStream, 1 << 16) : fileStream;
+            this.writer = new GeoJsonFeatureWriter(outputStream, outputFormat,
+                    GeoJsonFeatureWriter.coordinatePrecision(GeoJsonFeatureWriter.MAX_COORDINATE_PRECISION, Map.of()), null);
+            this.terminator = outputFormat.getTerminator().asUnquotedUTF8();
+            writer.startCollection();
+        }
+
+        private void write(byte[] feature) throws IOException {
+            if (terminator.length > 0) {
+                byte[] terminated = new byte[feature.length + terminator.length];
+                System.arraycopy(feature, 0, terminated, 0, feature.length);
+                System.arraycopy(terminator, 0, terminated, feature.length, terminator.length);
+                feature = terminated;
+            }
+            writer.writeSerialized(feature);
+            features++;
+        }
+
+        private void close() throws IOException {
+            try {
+                writer.endCollection();
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+}
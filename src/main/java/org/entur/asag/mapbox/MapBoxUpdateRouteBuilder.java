@@ -21,16 +21,28 @@ import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
 import org.apache.camel.model.dataformat.JsonLibrary;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.micrometer.routepolicy.MicrometerRoutePolicyFactory;
+import org.apache.camel.model.RouteDefinition;
 import org.apache.commons.io.FileUtils;
 import org.entur.asag.mapbox.model.MapBoxAwsCredentials;
 import org.entur.asag.mapbox.model.MapBoxUploadStatus;
+import org.entur.asag.mapbox.model.MapboxTilesetJob;
+import org.entur.asag.mapbox.model.MapboxTilesetPublishResponse;
 import org.entur.asag.mapbox.model.MapboxUploadRequest;
+import org.entur.asag.mapbox.model.TilesetShard;
+import org.entur.asag.mapbox.tiles.VectorTileEngine;
+import org.entur.asag.service.PipelineMetrics;
 import org.entur.asag.util.ZipFileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static org.apache.camel.Exchange.FILE_NAME;
 import static org.apache.commons.io.FileUtils.deleteDirectory;
@@ -41,6 +53,19 @@ public class MapBoxUpdateRouteBuilder extends RouteBuilder {
     private static final String TIAMAT_EXPORT_GCP_PATH = "tiamat-export";
     public static final String LOOP_COUNTER = "LoopCounter";
     public static final String FILE_HANDLE = "FileHandle";
+    public static final String GEOJSON_FILE = "GeoJsonFile";
+    public static final String FEATURE_CHANGES = "FeatureChanges";
+    public static final String UPLOAD_CONFIGURATION = "UploadConfiguration";
+    public static final String TILESET_SOURCES = "TilesetSources";
+    public static final String TILESET_SOURCE_ID = "TilesetSourceId";
+    public static final String TILESET_RECIPE = "TilesetRecipe";
+    public static final String TILESET_JOB_ID = "TilesetJobId";
+    public static final String MBTILES_FILE = "MbtilesFile";
+    public static final String TILESET_NAME = "TilesetName";
+    public static final String TILESET_SHARD = "TilesetShard";
+    public static final String TILESET_SHARDS = "TilesetShards";
+    public static final String SHARD_STATES = "ShardStates";
+    public static final String POLL_DELAY = "PollDelay";
 
     public static final String TIAMAT_EXPORT_LATEST_FILE_NAME = "tiamat_export_geocoder_latest.zip";
 
@@ -48,6 +73,7 @@ public class MapBoxUpdateRouteBuilder extends RouteBuilder {
     public static final String STATE_FINISHED = "finished";
     public static final String STATE_ERROR = "error";
     public static final String STATE_TIMEOUT = "timeout";
+    public static final String STATE_UNCHANGED = "unchanged";
 
     /**
      * Use the same tiamat data as the geocoder
@@ -76,39 +102,279 @@ public class MapBoxUpdateRouteBuilder extends RouteBuilder {
     @Value("${mapbox.upload.status.max.retries:20}")
     private int mapboxUploadPollMaxRetries;
 
-    @Value("${mapbox.upload.status.poll.delay:20000}")
-    private int mapboxUploadPollDelay;
+    /**
+     * Threads making the status polls of every upload and shard, which do not hold any other thread while waiting.
+     */
+    @Value("${mapbox.upload.status.poll.threads:1}")
+    private int mapboxUploadPollThreads;
+
+    /**
+     * Unzip the export while downloading it and parse the XML entry directly, instead of going through local files.
+     */
+    @Value("${mapbox.stream.tiamat.export:false}")
+    private boolean streamTiamatExport;
+
+    @Value("${mapbox.stream.read.ahead.buffer.size:1048576}")
+    private int streamReadAheadBufferSize;
+
+    /**
+     * Skip the upload when no feature was added, removed or changed since the last upload Mapbox completed, with the
+     * same output format, gzip, publisher and sharding.
+     */
+    @Value("${mapbox.upload.skip.unchanged:false}")
+    private boolean skipUnchangedUpload;
+
+    /**
+     * Decides the extension of the uploaded file, which must match what is written by the transform.
+     */
+    @Value("${asag.output.format:FEATURE_COLLECTION}")
+    private OutputFormat outputFormat;
+
+    @Value("${asag.output.gzip:false}")
+    private boolean gzipOutput;
+
+    @Value("${mapbox.publisher:UPLOADS}")
+    private MapboxPublisher mapboxPublisher;
+
+    /**
+     * Build vector tiles into an MBTiles file next to the GeoJSON.
+     */
+    @Value("${asag.tiles.build:false}")
+    private boolean buildTiles;
+
+    /**
+     * Upload the MBTiles file instead of the GeoJSON, so that Mapbox has no tiling left to do.
+     */
+    @Value("${mapbox.upload.mbtiles:false}")
+    private boolean uploadMbtiles;
+
+    @Value("${asag.shard.by:NONE}")
+    private ShardStrategy shardBy;
+
+    @Value("${asag.shard.max.features:0}")
+    private int shardMaxFeatures;
+
+    /**
+     * Shards uploaded at the same time. Each shard has at most one Mapbox API call in flight while uploading, and
+     * releases its thread to the status poll threads while waiting for Mapbox to process it.
+     */
+    @Value("${mapbox.shard.upload.concurrency:4}")
+    private int shardUploadConcurrency;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
 
     @Override
     public void configure() throws Exception {
 
+        // Times every route, which makes a timer of each stage of the pipeline
+        MicrometerRoutePolicyFactory routePolicyFactory = new MicrometerRoutePolicyFactory();
+        routePolicyFactory.setMeterRegistry(pipelineMetrics.getRegistry());
+        getContext().addRoutePolicyFactory(routePolicyFactory);
+
         /*
           	the map ID to create or replace in the format  username.nameoftileset - limited to 32 characters
           	(only  - and  _ special characters allowed, limit does not include username)
          */
         final String tilesetName = mapboxUser + "." + (Strings.isNullOrEmpty(mapboxTilesetFileName) ? "tileset" : mapboxTilesetFileName);
-        final String geojsonFilename = (Strings.isNullOrEmpty(mapboxTilesetFileName) ? mapboxUser : mapboxTilesetFileName) + ".geojson";
-
-        from("direct:uploadTiamatToMapboxAsGeoJson")
+        final ScheduledExecutorService statusPollScheduler = getContext().getExecutorServiceManager()
+                .newScheduledThreadPool(this, "MapboxStatusPoll", mapboxUploadPollThreads);
+        final String geojsonFilename = (Strings.isNullOrEmpty(mapboxTilesetFileName) ? mapboxUser : mapboxTilesetFileName) + outputFormat.getFileExtension()
+                + (gzipOutput ? ".gz" : "");
+
+        RouteDefinition uploadRoute = from("direct:uploadTiamatToMapboxAsGeoJson");
+        uploadRoute
+                .onCompletion()
+                    .bean("awsS3Uploader", "closeClients")
+                    .bean("pipelineMetrics", "publish")
+                .end();
+        uploadRoute
                 .bean("uploadStatusHubotReporter", "postStarted")
+                .setHeader(TILESET_NAME, constant(tilesetName))
                 .setHeader(TIAMAT_EXPORT_GCP_PATH, simple(blobStoreSubdirectoryForTiamatGeoCoderExport + "/" + TIAMAT_EXPORT_LATEST_FILE_NAME))
-                .to("direct:recreateLocalMapboxDirectory")
-                .to("direct:downloadLatestTiamatExportToMapboxFolder")
-                .to("direct:mapboxUnzipLatestTiamatExportToFolder")
-                .to("direct:retrieveMapboxAwsCredentials")
-                .to("direct:findFirstXmlFileRecursive")
+                .to("direct:recreateLocalMapboxDirectory");
+
+        if (mapboxPublisher == MapboxPublisher.TILING_SERVICE && outputFormat != OutputFormat.GEOJSON_SEQ) {
+            throw new IllegalArgumentException("Publishing through the Mapbox Tiling Service requires the "
+                    + OutputFormat.GEOJSON_SEQ + " output format, was " + outputFormat);
+        }
+        boolean useUploadsApi = mapboxPublisher == MapboxPublisher.UPLOADS;
+        if (uploadMbtiles && !useUploadsApi) {
+            throw new IllegalArgumentException("MBTiles can only be uploaded through the Uploads API, the publisher was " + mapboxPublisher);
+        }
+        boolean sharded = shardBy != ShardStrategy.NONE || shardMaxFeatures > 0;
+        if (sharded && (!useUploadsApi || uploadMbtiles)) {
+            throw new IllegalArgumentException("Shards can only be uploaded as GeoJSON through the Uploads API");
+        }
+        // Shards fetch credentials of their own, since each upload needs its own staging file.
+        boolean fetchCredentialsFirst = useUploadsApi && !sharded;
+
+        if (streamTiamatExport) {
+            if (fetchCredentialsFirst) {
+                uploadRoute.to("direct:retrieveMapboxAwsCredentials");
+            }
+            uploadRoute.to("direct:streamLatestTiamatExportXml");
+        } else {
+            uploadRoute
+                    .to("direct:downloadLatestTiamatExportToMapboxFolder")
+                    .to("direct:mapboxUnzipLatestTiamatExportToFolder");
+            if (fetchCredentialsFirst) {
+                uploadRoute.to("direct:retrieveMapboxAwsCredentials");
+            }
+            uploadRoute.to("direct:findFirstXmlFileRecursive");
+        }
+
+        // Part of the feature index, so that an upload in another form is not skipped as unchanged
+        final String uploadConfiguration = "format=" + outputFormat + ",gzip=" + gzipOutput + ",publisher=" + mapboxPublisher
+                + ",shardBy=" + shardBy + ",shardMaxFeatures=" + shardMaxFeatures + ",mbtiles=" + uploadMbtiles;
+        uploadRoute
+                .setHeader(GEOJSON_FILE, constant(localWorkingDirectory + "/" + geojsonFilename))
+                .setHeader(UPLOAD_CONFIGURATION, constant(uploadConfiguration))
                 .to("direct:transformToGeoJsonFromTiamat")
-                .setHeader(FILE_NAME, constant(geojsonFilename))
-                .to("file://" + localWorkingDirectory + "?fileName=" + geojsonFilename)
+                .to("direct:endIfFeaturesUnchanged");
+
+        if (buildTiles || uploadMbtiles) {
+            uploadRoute.to("direct:buildVectorTiles");
+        }
+
+        if (sharded) {
+            uploadRoute.to("direct:uploadShardsToMapbox");
+        } else if (useUploadsApi) {
+            if (uploadMbtiles) {
+                uploadRoute.setBody(header(MBTILES_FILE));
+            }
+            uploadRoute
+                    .setHeader(FILE_NAME, constant(uploadMbtiles ? VectorTileEngine.mbtilesFileName(geojsonFilename) : geojsonFilename))
+                    .to("direct:uploadMapboxDataAws")
+                    .to("direct:initiateMapboxUpload")
+                    .to("direct:pollRetryMapboxStatus");
+        } else {
+            uploadRoute.to("direct:publishToMapboxTilingService");
+        }
+        uploadRoute.routeId("mapbox-convert-upload-tiamat-data");
+
+        from("direct:uploadShardsToMapbox")
+                .setProperty(TILESET_SHARDS, method("geoJsonShardWriter", "writeShards"))
+                .process(e -> e.setProperty(SHARD_STATES, new ConcurrentSkipListMap<String, String>()))
+                .split(exchangeProperty(TILESET_SHARDS), MapBoxUpdateRouteBuilder::collectShardState)
+                    .parallelProcessing()
+                    .executorService(getContext().getExecutorServiceManager().newFixedThreadPool(this, "MapboxShardUpload", shardUploadConcurrency))
+                    .to("direct:uploadShardToMapbox")
+                .end()
+                .process(e -> e.setProperty(PROPERTY_STATE, summarizeShardStates(e.getProperty(SHARD_STATES, Map.class))))
+                .log(LoggingLevel.INFO, "Uploaded shards: ${exchangeProperty." + SHARD_STATES + "}")
+                .filter(exchangeProperty(PROPERTY_STATE).isEqualTo(STATE_FINISHED))
+                    .bean("featureChangeDetector", "acceptPendingIndex")
+                .end()
+                .routeId("mapbox-upload-shards");
+
+        from("direct:uploadShardToMapbox")
+                .setProperty(TILESET_SHARD, body())
+                .setHeader(TILESET_NAME, simple("${body.tilesetName}"))
+                .setHeader(FILE_NAME, simple("${body.file.name}"))
+                .to("direct:retrieveMapboxAwsCredentials")
+                .setBody(simple("${exchangeProperty." + TILESET_SHARD + ".file}"))
                 .to("direct:uploadMapboxDataAws")
                 .to("direct:initiateMapboxUpload")
-                .delay(mapboxUploadPollDelay)
                 .to("direct:pollRetryMapboxStatus")
-                .routeId("mapbox-convert-upload-tiamat-data");
+                .routeId("mapbox-upload-shard");
+
+        from("direct:publishToMapboxTilingService")
+                .setProperty(TILESET_SOURCES, method("tilesetSourceWriter", "writeSources"))
+                .split(exchangeProperty(TILESET_SOURCES)).stopOnException()
+                    .filter(simple("${body.changed}"))
+                        .to("direct:replaceMapboxTilesetSource")
+                    .end()
+                .end()
+                .to("direct:updateMapboxTilesetRecipe")
+                .to("direct:publishMapboxTileset")
+                .to("direct:pollRetryMapboxTilesetJob")
+                .routeId("mapbox-publish-tiling-service");
+
+        from("direct:replaceMapboxTilesetSource")
+                .log(LoggingLevel.INFO, "Replacing tileset source ${body.id} with ${body.features} features")
+                .setProperty(TILESET_SOURCE_ID, simple("${body.id}"))
+                .setBody(method("tilesetSourceWriter", "sourceUpload"))
+                .removeHeader(Exchange.CONTENT_TYPE)
+                .setHeader(Exchange.HTTP_METHOD, constant(org.apache.camel.component.http.HttpMethods.PUT))
+                .toD(mapboxApiUrl + "/tilesets/v1/sources/" + mapboxUser + "/${exchangeProperty." + TILESET_SOURCE_ID + "}?access_token=" + mapboxAccessToken)
+                .log(LoggingLevel.INFO, "Replaced tileset source ${exchangeProperty." + TILESET_SOURCE_ID + "}")
+                .routeId("mapbox-replace-tileset-source");
+
+        from("direct:updateMapboxTilesetRecipe")
+                .setProperty(TILESET_RECIPE, method("tilesetSourceWriter", "recipe"))
+                .setBody(exchangeProperty(TILESET_RECIPE))
+                .marshal().json(JsonLibrary.Jackson)
+                .setHeader(Exchange.HTTP_METHOD, constant(org.apache.camel.component.http.HttpMethods.PATCH))
+                .setHeader(Exchange.CONTENT_TYPE, constant("application/json"))
+                .to(mapboxApiUrl + "/tilesets/v1/" + tilesetName + "/recipe?access_token=" + mapboxAccessToken + "&throwExceptionOnFailure=false")
+                .choice()
+                    .when(header(Exchange.HTTP_RESPONSE_CODE).isEqualTo(404))
+                        .log(LoggingLevel.INFO, "Tileset " + tilesetName + " does not exist, creating it")
+                        .process(e -> e.getIn().setBody(Map.of("name", tilesetName, "recipe", e.getProperty(TILESET_RECIPE))))
+                        .marshal().json(JsonLibrary.Jackson)
+                        .setHeader(Exchange.HTTP_METHOD, constant(org.apache.camel.component.http.HttpMethods.POST))
+                        .to(mapboxApiUrl + "/tilesets/v1/" + tilesetName + "?access_token=" + mapboxAccessToken)
+                    .when(header(Exchange.HTTP_RESPONSE_CODE).isGreaterThanOrEqualTo(300))
+                        .process(e -> {
+                            throw new IllegalStateException("Updating the recipe of tileset " + tilesetName + " failed with status "
+                                    + e.getIn().getHeader(Exchange.HTTP_RESPONSE_CODE) + ": " + e.getIn().getBody(String.class));
+                        })
+                .end()
+                .routeId("mapbox-update-tileset-recipe");
+
+        from("direct:publishMapboxTileset")
+                .setBody(simple(""))
+                .setHeader(Exchange.HTTP_METHOD, constant(org.apache.camel.component.http.HttpMethods.POST))
+                .to(mapboxApiUrl + "/tilesets/v1/" + tilesetName + "/publish?access_token=" + mapboxAccessToken)
+                .unmarshal().json(JsonLibrary.Jackson, MapboxTilesetPublishResponse.class)
+                .log(LoggingLevel.INFO, "Publishing tileset " + tilesetName + " in job ${body.jobId}")
+                .setProperty(TILESET_JOB_ID, simple("${body.jobId}"))
+                .routeId("mapbox-publish-tileset");
+
+        from("direct:pollRetryMapboxTilesetJob")
+                .process(e -> e.getIn().setHeader(LOOP_COUNTER, 0))
+                .loopDoWhile(simple("${header." + LOOP_COUNTER + "} < " + mapboxUploadPollMaxRetries))
+                    .process(e -> e.getIn().setHeader(LOOP_COUNTER, (Integer) e.getIn().getHeader(LOOP_COUNTER, 0) + 1))
+                    .setHeader(POLL_DELAY, method("statusPollBackoff", "nextDelay"))
+                    .delay(header(POLL_DELAY)).asyncDelayed().executorService(statusPollScheduler)
+                    .removeHeader(POLL_DELAY)
+                    .to("direct:fetchMapboxTilesetJob")
+                    .choice()
+                        .when(simple("${body.stage} == '" + MapboxTilesetJob.STAGE_SUCCESS + "'"))
+                            .log(LoggingLevel.INFO, "Tileset published: ${body.tilesetId}")
+                            .setProperty(PROPERTY_STATE, simple(STATE_FINISHED))
+                            .bean("featureChangeDetector", "acceptPendingIndex")
+                            .bean("tilesetSourceWriter", "acceptSources")
+                            .bean("uploadStatusHubotReporter", "postTilesetJobStatusToHubot")
+                            .stop()
+                        .when(simple("${body.stage} == '" + MapboxTilesetJob.STAGE_FAILED + "'"))
+                            .log(LoggingLevel.ERROR, "Got error publishing tileset. ${body}")
+                            .setProperty(PROPERTY_STATE, simple(STATE_ERROR))
+                            .bean("uploadStatusHubotReporter", "postTilesetJobStatusToHubot")
+                            .stop()
+                        .otherwise()
+                            .log(LoggingLevel.INFO, "Tileset job ${body.id} is ${body.stage}.. wait a bit and try again. (${header.\"" + LOOP_COUNTER + "\"})")
+                    .end()
+                .end()
+                .log(LoggingLevel.WARN, getClass().getName(), "Giving up after polling " + mapboxUploadPollMaxRetries + " times")
+                .setProperty(PROPERTY_STATE, simple(STATE_TIMEOUT))
+                .bean("uploadStatusHubotReporter", "postTilesetJobStatusToHubot")
+                .routeId("mapbox-poll-retry-tileset-job");
+
+        from("direct:fetchMapboxTilesetJob")
+                .setBody(simple(""))
+                .setHeader(Exchange.HTTP_METHOD, constant(org.apache.camel.component.http.HttpMethods.GET))
+                .setHeader(Exchange.HTTP_PATH, exchangeProperty(TILESET_JOB_ID))
+                .to(mapboxApiUrl + "/tilesets/v1/" + tilesetName + "/jobs?access_token=" + mapboxAccessToken)
+                .removeHeader(Exchange.HTTP_PATH)
+                .unmarshal().json(JsonLibrary.Jackson, MapboxTilesetJob.class)
+                .log("Received tileset job ${body}")
+                .routeId("fetch-mapbox-tileset-job");
 
         from("direct:initiateMapboxUpload")
                 .process(exchange -> exchange.getMessage().setBody(
-                        new MapboxUploadRequest(tilesetName,
+                        new MapboxUploadRequest(exchange.getIn().getHeader(TILESET_NAME, tilesetName, String.class),
                             ((MapBoxAwsCredentials) exchange.getIn().getHeader("credentials")).getUrl(),
                             exchange.getIn().getHeader(FILE_NAME).toString())))
                 .marshal().json(JsonLibrary.Jackson)
@@ -122,46 +388,53 @@ public class MapBoxUpdateRouteBuilder extends RouteBuilder {
                 .routeId("initiate-mapbox-upload");
 
         from("direct:uploadMapboxDataAws")
-                .bean("awsS3Uploader", "upload")
+                .bean("awsS3Uploader", "uploadFile")
                 .routeId("upload-mapbox-data-aws");
 
         from("direct:findFirstXmlFileRecursive")
                 .process(e -> e.getIn().setBody( FileUtils.listFiles(new File(localWorkingDirectory + "/tiamat"), new String[]{"xml"}, true).stream().findFirst().get()))
                 .routeId("mapbox-find-first-xml-file-recursive");
 
+        // Polls at most as many times as the tileset job, checking each status it fetches
         from("direct:pollRetryMapboxStatus")
+                .to("direct:endIfMapboxUploadDone")
                 .process(e -> e.getIn().setHeader(LOOP_COUNTER, 0))
-                .loopDoWhile(simple("${header."+LOOP_COUNTER +"} <= " + mapboxUploadPollMaxRetries))
-                .process(e -> e.getIn().setHeader(LOOP_COUNTER, (Integer) e.getIn().getHeader(LOOP_COUNTER, 0) + 1))
-                .to("direct:endIfMapboxUploadError")
+                .loopDoWhile(simple("${header." + LOOP_COUNTER + "} < " + mapboxUploadPollMaxRetries))
+                    .process(e -> e.getIn().setHeader(LOOP_COUNTER, (Integer) e.getIn().getHeader(LOOP_COUNTER, 0) + 1))
+                    .setHeader(POLL_DELAY, method("statusPollBackoff", "nextDelay"))
+                    .log(LoggingLevel.INFO, "Tileset upload ${body.id}: Not complete yet, progress ${body.progress}.. polling again in ${header." + POLL_DELAY + "} ms. (${header.\"" + LOOP_COUNTER + "\"})")
+                    .delay(header(POLL_DELAY)).asyncDelayed().executorService(statusPollScheduler)
+                    .removeHeader(POLL_DELAY)
+                    .to("direct:fetchMapboxUploadStatus")
+                    .to("direct:endIfMapboxUploadDone")
+                .end()
+                .log(LoggingLevel.WARN, getClass().getName(), "Giving up after polling " + mapboxUploadPollMaxRetries + " times")
+                .setProperty(PROPERTY_STATE, simple(STATE_TIMEOUT))
+                .bean("uploadStatusHubotReporter", "postUploadStatusToHubot")
+                .routeId("mapbox-poll-retry-upload-status");
 
+        from("direct:endIfMapboxUploadDone")
+                .to("direct:endIfMapboxUploadError")
                 .choice()
                     .when(simple("${body.complete}"))
                         .log(LoggingLevel.INFO,"Tileset upload complete: ${body.id}")
                         .setProperty(PROPERTY_STATE, simple(STATE_FINISHED))
+                        .to("direct:acceptUploadedFeatures")
                         .bean("uploadStatusHubotReporter", "postUploadStatusToHubot")
                         .stop()
-                    .otherwise()
-                        .choice()
-                            .when(simple("${body.message}"))
-                            .log(LoggingLevel.INFO, "Got message, Exiting: ${body.message}")
-                            .bean("uploadStatusHubotReporter", "postUploadStatusToHubot")
-                            .stop()
-                        .otherwise()
-                            .log(LoggingLevel.INFO, "Tileset upload ${body.id}: Not complete yet.. wait a bit and try again. (${header.\"" + LOOP_COUNTER + "\"})")
-                            .delay(mapboxUploadPollDelay)
-                            .to("direct:fetchMapboxUploadStatus")
-                        .end()
-                .endChoice()
-
-                .choice()
-                    .when(simple("${header." + LOOP_COUNTER + "} > " + mapboxUploadPollMaxRetries))
-                        .log(LoggingLevel.WARN, getClass().getName(), "Giving up after looping after " + mapboxUploadPollMaxRetries + " iterations")
-                        .setProperty(PROPERTY_STATE, simple(STATE_TIMEOUT))
+                    .when(simple("${body.message}"))
+                        .log(LoggingLevel.INFO, "Got message, Exiting: ${body.message}")
                         .bean("uploadStatusHubotReporter", "postUploadStatusToHubot")
-                        .stop() // end route?
-                .endChoice()
-                .routeId("mapbox-poll-retry-upload-status");
+                        .stop()
+                .end()
+                .routeId("mapbox-end-if-upload-done");
+
+        // Shards are accepted together, once every shard is uploaded.
+        from("direct:acceptUploadedFeatures")
+                .filter(exchangeProperty(Exchange.SPLIT_INDEX).isNull())
+                    .bean("featureChangeDetector", "acceptPendingIndex")
+                .end()
+                .routeId("mapbox-accept-uploaded-features");
 
         from("direct:endIfMapboxUploadError")
                 .choice()
@@ -173,18 +446,32 @@ public class MapBoxUpdateRouteBuilder extends RouteBuilder {
                 .endChoice()
                 .routeId("mapbox-end-if-upload-error");
 
+        from("direct:endIfFeaturesUnchanged")
+                .setHeader(FEATURE_CHANGES, method("featureChangeDetector", "detectChanges"))
+                .choice()
+                    .when(e -> skipUnchangedUpload && !e.getIn().getHeader(FEATURE_CHANGES, FeatureChangeReport.class).hasChanges())
+                    .log(LoggingLevel.INFO, "No features changed since the last upload, skipping upload to Mapbox")
+                    .setProperty(PROPERTY_STATE, simple(STATE_UNCHANGED))
+                    .bean("uploadStatusHubotReporter", "postUnchanged")
+                    .stop()
+                .endChoice()
+                .routeId("mapbox-end-if-features-unchanged");
+
         from("direct:fetchMapboxUploadStatus")
                 .setProperty("tilesetId", simple("${body.id}"))
                 .log("Checking status for tileset: ${exchangeProperty.tilesetId}")
                 .setBody(simple(""))
                 .setHeader(Exchange.HTTP_METHOD, constant(org.apache.camel.component.http.HttpMethods.GET))
-                .toD(mapboxApiUrl + "/uploads/v1/" + mapboxUser + "/${exchangeProperty.tilesetId}?access_token=" + mapboxAccessToken)
+                .setHeader(Exchange.HTTP_PATH, exchangeProperty("tilesetId"))
+                .to(mapboxApiUrl + "/uploads/v1/" + mapboxUser + "?access_token=" + mapboxAccessToken)
+                .removeHeader(Exchange.HTTP_PATH)
                 .unmarshal().json(JsonLibrary.Jackson, MapBoxUploadStatus.class)
                 .log("Received status ${body}")
                 .routeId("fetch-mapbox-upload-status");
 
         from("direct:retrieveMapboxAwsCredentials")
                 .log(LoggingLevel.INFO, "About to retrieve credentials for aws from mapbox. User: "+ mapboxUser)
+                .setHeader(Exchange.HTTP_METHOD, constant(org.apache.camel.component.http.HttpMethods.GET))
                 .to(mapboxApiUrl + "/uploads/v1/" + mapboxUser + "/credentials?access_token=" + mapboxAccessToken)
                 .unmarshal().json(JsonLibrary.Jackson, MapBoxAwsCredentials.class)
                 .setHeader("credentials", simple("${body}"))
@@ -194,6 +481,7 @@ public class MapBoxUpdateRouteBuilder extends RouteBuilder {
         from("direct:downloadLatestTiamatExportToMapboxFolder")
                 .setHeader(FILE_HANDLE, header(TIAMAT_EXPORT_GCP_PATH))
                 .bean("blobStoreService", "getBlob")
+                .setBody(method("pipelineMetrics", "meterExport"))
                 .choice()
                 .when(body().isNotEqualTo(null))
                 .to("file:" + localWorkingDirectory + "/tiamat/?fileName=" + TIAMAT_EXPORT_LATEST_FILE_NAME)
@@ -201,6 +489,14 @@ public class MapBoxUpdateRouteBuilder extends RouteBuilder {
                 .log(LoggingLevel.INFO, getClass().getName(), "${header." + FILE_HANDLE + "} was empty when trying to fetch it from blobstore.")
                 .routeId("mapbox-download-latest-tiamat-export-to-folder");
 
+        from("direct:streamLatestTiamatExportXml")
+                .setHeader(FILE_HANDLE, header(TIAMAT_EXPORT_GCP_PATH))
+                .bean("blobStoreService", "getBlob")
+                .setBody(method("pipelineMetrics", "meterExport"))
+                .process(e -> e.getIn().setBody(ZipFileUtils.openFirstXmlEntry(e.getIn().getBody(InputStream.class), streamReadAheadBufferSize)))
+                .log(LoggingLevel.INFO, "Streaming XML from ${header." + FILE_HANDLE + "}")
+                .routeId("mapbox-stream-tiamat-export-xml");
+
         from("direct:mapboxUnzipLatestTiamatExportToFolder")
                 .process(e -> ZipFileUtils.unzipFile(new FileInputStream(localWorkingDirectory + "/tiamat/" + TIAMAT_EXPORT_LATEST_FILE_NAME), localWorkingDirectory + "/tiamat"))
                 .log(LoggingLevel.INFO, "Unzipped file to folder tiamat")
@@ -214,13 +510,53 @@ public class MapBoxUpdateRouteBuilder extends RouteBuilder {
 
         from("direct:transformToGeoJsonFromTiamat")
                 .log(LoggingLevel.INFO, "convert tiamat data to geojson")
-                .bean("deliveryPublicationStreamToGeoJson", "transform")
+                .choice()
+                    .when(body().isInstanceOf(File.class))
+                        .bean("deliveryPublicationStreamToGeoJson", "transformFileToFile")
+                    .otherwise()
+                        .bean("deliveryPublicationStreamToGeoJson", "transformToFile")
+                .end()
+                .bean("polygonSimplifier", "logReport")
                 .routeId("mapbox-transform-from-tiamat");
 
+        from("direct:buildVectorTiles")
+                .log(LoggingLevel.INFO, "build vector tiles from ${header." + GEOJSON_FILE + "}")
+                .setHeader(MBTILES_FILE, method("vectorTileEngine", "buildMbtiles"))
+                .routeId("mapbox-build-vector-tiles");
+
         from("direct:cleanUpLocalDirectory")
                 .log(LoggingLevel.DEBUG, getClass().getName(), "Deleting local directory ${exchangeProperty." + Exchange.FILE_PARENT + "} ...")
                 .process(e -> deleteDirectory(new File(e.getIn().getHeader(Exchange.FILE_PARENT, String.class))))
                 .log(LoggingLevel.DEBUG, getClass().getName(),  "Local directory ${exchangeProperty." + Exchange.FILE_PARENT + "} cleanup done.")
                 .routeId("cleanup-local-dir");
     }
+
+    /**
+     * Records the state the upload of each shard ended in. A shard that failed or was stopped neither stops the
+     * other shards nor the route they were split from.
+     */
+    private static Exchange collectShardState(Exchange oldExchange, Exchange newExchange) {
+        TilesetShard shard = newExchange.getProperty(TILESET_SHARD, TilesetShard.class);
+        String state = newExchange.getException() != null ? STATE_ERROR
+                : newExchange.getProperty(PROPERTY_STATE, STATE_ERROR, String.class);
+        @SuppressWarnings("unchecked")
+        Map<String, String> shardStates = newExchange.getProperty(SHARD_STATES, Map.class);
+        shardStates.put(shard != null ? shard.getTilesetName() : newExchange.getIn().getHeader(TILESET_NAME, String.class), state);
+
+        Exchange result = oldExchange != null ? oldExchange : newExchange;
+        result.setException(null);
+        result.setRouteStop(false);
+        return result;
+    }
+
+    /**
+     * @return finished if every shard finished, or else the state of the first shard that did not
+     */
+    static String summarizeShardStates(Map<?, ?> shardStates) {
+        return shardStates.values().stream()
+                .map(String::valueOf)
+                .filter(state -> !STATE_FINISHED.equals(state))
+                .findFirst()
+                .orElse(STATE_FINISHED);
+    }
 }
@@ -0,0 +1,32 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package org.entur.asag.mapbox;
+
+/**
+ * Which Mapbox API the written GeoJSON is published through.
+ */
+public enum MapboxPublisher {
+
+    /**
+     * Put the whole GeoJSON file on the S3 staging bucket of the Uploads API, and let Mapbox reprocess the tileset.
+     */
+    UPLOADS,
+
+    /**
+     * Replace one line-delimited tileset source per entity type through the Mapbox Tiling Service, skipping sources
+     * that did not change, and publish the tileset with a recipe that has one layer per source.
+     */
+    TILING_SERVICE
+}
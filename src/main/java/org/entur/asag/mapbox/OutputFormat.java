@@ -0,0 +1,75 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * How {@link GeoJsonFeatureWriter} lays out the features it writes.
+ */
+public enum OutputFormat {
+
+    /**
+     * A single GeoJSON FeatureCollection, with the features separated by commas in its features array.
+     */
+    FEATURE_COLLECTION(".geojson", "{\n\"features\": [", ",\n", "", "\n], \"type\": \"FeatureCollection\"\n}"),
+
+    /**
+     * Newline-delimited GeoJSON, with each feature on a line of its own and nothing around them. Any sequence of
+     * written features can be appended to another, and the output can be split and parsed line by line.
+     */
+    GEOJSON_SEQ(".geojson.ld", "", "", "\n", "");
+
+    private final String fileExtension;
+    private final SerializedString start;
+    private final SerializedString separator;
+    private final SerializedString terminator;
+    private final SerializedString end;
+
+    OutputFormat(String fileExtension, String start, String separator, String terminator, String end) {
+        this.fileExtension = fileExtension;
+        this.start = new SerializedString(start);
+        this.separator = new SerializedString(separator);
+        this.terminator = new SerializedString(terminator);
+        this.end = new SerializedString(end);
+    }
+
+    public String getFileExtension() {
+        return fileExtension;
+    }
+
+    SerializedString getStart() {
+        return start;
+    }
+
+    /**
+     * Written between two features.
+     */
+    SerializedString getSeparator() {
+        return separator;
+    }
+
+    /**
+     * Written after every feature.
+     */
+    SerializedString getTerminator() {
+        return terminator;
+    }
+
+    SerializedString getEnd() {
+        return end;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox;
+
+/**
+ * How the written GeoJSON is split into several tilesets, which Mapbox builds in parallel.
+ */
+public enum ShardStrategy {
+
+    /**
+     * One tileset with every feature, unless a size cap per shard is set.
+     */
+    NONE,
+
+    /**
+     * One tileset per entity type, like stop_place or tariff_zone.
+     */
+    ENTITY_TYPE,
+
+    /**
+     * One tileset per codeSpace, the prefix of the NeTEx id, like nsr.
+     */
+    CODE_SPACE
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox;
+
+import org.apache.camel.Exchange;
+import org.entur.asag.mapbox.model.MapBoxUploadStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.LOOP_COUNTER;
+
+/**
+ * Decides how long to wait before polling Mapbox for the status of an upload or tileset job again. The wait grows
+ * exponentially from the poll delay up to the max delay, and is spread by a random jitter so that uploads started
+ * together do not poll together. Once an upload has reported progress twice, the wait is instead the time it is
+ * expected to take to complete at the rate it progressed so far.
+ */
+@Service
+public class StatusPollBackoff {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatusPollBackoff.class);
+
+    /**
+     * The first progress reported by the upload being polled, and when it was seen.
+     */
+    static final String FIRST_PROGRESS = "PollFirstProgress";
+    static final String FIRST_PROGRESS_AT = "PollFirstProgressAt";
+
+    @Value("${mapbox.upload.status.poll.delay:20000}")
+    private long initialDelay = 20000;
+
+    @Value("${mapbox.upload.status.poll.max.delay:120000}")
+    private long maxDelay = 120000;
+
+    /**
+     * Shortest wait when the upload is expected to complete sooner.
+     */
+    @Value("${mapbox.upload.status.poll.min.delay:2000}")
+    private long minDelay = 2000;
+
+    @Value("${mapbox.upload.status.poll.backoff.multiplier:1.5}")
+    private double multiplier = 1.5;
+
+    /**
+     * Each wait is randomly made up to this fraction shorter or longer.
+     */
+    @Value("${mapbox.upload.status.poll.jitter:0.1}")
+    private double jitter = 0.1;
+
+    /**
+     * @return milliseconds to wait before the next poll, given the status in the body of the exchange
+     */
+    public long nextDelay(Exchange exchange) {
+        int attempt = exchange.getIn().getHeader(LOOP_COUNTER, 1, Integer.class);
+        Long remaining = null;
+        if (exchange.getIn().getBody() instanceof MapBoxUploadStatus status && status.getProgress() != null) {
+            long now = System.currentTimeMillis();
+            Double firstProgress = exchange.getProperty(FIRST_PROGRESS, Double.class);
+            if (firstProgress == null) {
+                exchange.setProperty(FIRST_PROGRESS, status.getProgress());
+                exchange.setProperty(FIRST_PROGRESS_AT, now);
+            } else {
+                remaining = remainingMillis(firstProgress, exchange.getProperty(FIRST_PROGRESS_AT, Long.class),
+                        status.getProgress(), now);
+            }
+        }
+        long delay = delay(attempt, remaining, ThreadLocalRandom.current().nextDouble());
+        logger.debug("Polling again in {} ms, attempt {}, expected to complete in {} ms", delay, attempt, remaining);
+        return delay;
+    }
+
+    /**
+     * @param attempt   the poll about to be made, from 1
+     * @param remaining milliseconds the upload is expected to take to complete, or null if not known
+     * @param random    a number from 0 up to 1 deciding the jitter
+     */
+    long delay(int attempt, Long remaining, double random) {
+        long delay = remaining != null
+                ? Math.max(Math.min(minDelay, initialDelay), Math.min(remaining, maxDelay))
+                : backoff(attempt);
+        return Math.min(maxDelay, Math.round(delay * (1 + jitter * (2 * random - 1))));
+    }
+
+    long backoff(int attempt) {
+        double delay = initialDelay * Math.pow(multiplier, Math.max(0, attempt - 1));
+        return (long) Math.min(delay, maxDelay);
+    }
+
+    /**
+     * @return milliseconds left until the progress reaches 1 at the rate it went up since it was first seen, or null
+     * if it has not gone up
+     */
+    static Long remainingMillis(double firstProgress, long firstProgressAt, double progress, long now) {
+        if (progress <= firstProgress || now <= firstProgressAt) {
+            return null;
+        }
+        double perMillisecond = (progress - firstProgress) / (now - firstProgressAt);
+        return (long) Math.ceil(Math.max(0, 1 - progress) / perMillisecond);
+    }
+
+    void setBackoff(long initialDelay, long minDelay, long maxDelay, double multiplier, double jitter) {
+        this.initialDelay = initialDelay;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+import org.entur.asag.util.SymbolTable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The type of every stop place seen, by id, for resolving the final stop place type of adjacent sites.
+ * <p>
+ * Ids like NSR:StopPlace:123 are not kept as strings. The part before the last colon is encoded as a symbol, and packed
+ * with the number after it into a long key of an open addressing table, which holds the symbol of the type in an int.
+ * Other ids are kept in a map. The few distinct final types of adjacent site groups are joined once per combination.
+ * Only {@link #put} adds prefixes and types, so looking up ids that were never put, like refs to adjacent sites
+ * outside the document, does not grow the tables.
+ * <p>
+ * Safe for use by several threads.
+ */
+class StopPlaceTypeIndex {
+
+    private static final int NUMBER_BITS = 40;
+
+    private static final long MAX_NUMBER = (1L << NUMBER_BITS) - 1;
+
+    private static final int MAX_NUMBER_DIGITS = 12;
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private final SymbolTable prefixes = new SymbolTable();
+
+    private final SymbolTable types = new SymbolTable();
+
+    /**
+     * Packed ids, with zero for an empty slot, as the prefix symbol is stored plus one.
+     */
+    private long[] keys = new long[INITIAL_CAPACITY];
+
+    private int[] typeSymbols = new int[INITIAL_CAPACITY];
+
+    private int packedSize;
+
+    private final Map<String, Integer> otherIds = new HashMap<>();
+
+    /**
+     * Joined final types by the set of their type symbols, for symbols below 64.
+     */
+    private final Map<Long, String> finalTypes = new HashMap<>();
+
+    synchronized void put(String id, String stopPlaceType) {
+        int typeSymbol = types.symbol(stopPlaceType);
+        long key = pack(id, true);
+        if (key == 0) {
+            otherIds.put(id, typeSymbol);
+            return;
+        }
+        int slot = slot(key);
+        if (keys[slot] == 0) {
+            keys[slot] = key;
+            packedSize++;
+        }
+        typeSymbols[slot] = typeSymbol;
+        if (packedSize * 3 > keys.length * 2) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * @return the type of the stop place, or null if not seen
+     */
+    synchronized String get(String id) {
+        int typeSymbol = typeSymbol(id);
+        return typeSymbol < 0 ? null : types.value(typeSymbol);
+    }
+
+    synchronized int size() {
+        return packedSize + otherIds.size();
+    }
+
+    int prefixCount() {
+        return prefixes.size();
+    }
+
+    /**
+     * The final stop place type of an adjacent site group is the sorted, underscore separated set of the types of all
+     * stop places in the group. Stop places without adjacent sites get an empty final type here, as the mapper only
+     * uses it for primary adjacent sites.
+     */
+    synchronized String finalStopPlaceType(TreeSet<String> adjacentSites, String stopPlaceType) {
+        if (adjacentSites.isEmpty()) {
+            return "";
+        }
+        long typeSet = 0;
+        int ownSymbol = types.find(stopPlaceType);
+        if (ownSymbol < 0 || ownSymbol >= Long.SIZE) {
+            return joinTypes(adjacentSites, stopPlaceType);
+        }
+        typeSet |= 1L << ownSymbol;
+        for (String siteRef : adjacentSites) {
+            int typeSymbol = typeSymbol(siteRef);
+            if (typeSymbol >= Long.SIZE) {
+                return joinTypes(adjacentSites, stopPlaceType);
+            }
+            if (typeSymbol >= 0) {
+                typeSet |= 1L << typeSymbol;
+            }
+        }
+        return finalTypes.computeIfAbsent(typeSet, key -> joinTypes(adjacentSites, stopPlaceType));
+    }
+
+    private String joinTypes(TreeSet<String> adjacentSites, String stopPlaceType) {
+        TreeSet<String> adjacentSitesTypes = new TreeSet<>();
+        adjacentSitesTypes.add(stopPlaceType);
+        for (String siteRef : adjacentSites) {
+            int typeSymbol = typeSymbol(siteRef);
+            if (typeSymbol >= 0) {
+                adjacentSitesTypes.add(types.value(typeSymbol));
+            }
+        }
+        return String.join("_", adjacentSitesTypes);
+    }
+
+    private int typeSymbol(String id) {
+        long key = pack(id, false);
+        if (key == 0) {
+            Integer typeSymbol = otherIds.get(id);
+            return typeSymbol == null ? -1 : typeSymbol;
+        }
+        int slot = slot(key);
+        return keys[slot] == 0 ? -1 : typeSymbols[slot];
+    }
+
+    /**
+     * The slot holding the key, or the empty slot where it belongs.
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldTypeSymbols = typeSymbols;
+        keys = new long[capacity];
+        typeSymbols = new int[capacity];
+        for (int index = 0; index < oldKeys.length; index++) {
+            if (oldKeys[index] != 0) {
+                int slot = slot(oldKeys[index]);
+                keys[slot] = oldKeys[index];
+                typeSymbols[slot] = oldTypeSymbols[index];
+            }
+        }
+    }
+
+    /**
+     * @param add whether to add the prefix if it is new, which only putting does. A lookup of an id with a new prefix
+     *            gets zero, and finds nothing among the other ids either.
+     * @return the prefix symbol plus one in the high bits and the number in the low bits, or zero if the id does not end
+     * with a number that can be packed without losing its formatting
+     */
+    private long pack(String id, boolean add) {
+        if (id == null) {
+            return 0;
+        }
+        int colon = id.lastIndexOf(':');
+        int digits = id.length() - colon - 1;
+        if (colon <= 0 || digits == 0 || digits > MAX_NUMBER_DIGITS || (digits > 1 && id.charAt(colon + 1) == '0')) {
+            return 0;
+        }
+        long number = 0;
+        for (int index = colon + 1; index < id.length(); index++) {
+            char digit = id.charAt(index);
+            if (digit < '0' || digit > '9') {
+                return 0;
+            }
+            number = number * 10 + (digit - '0');
+        }
+        if (number > MAX_NUMBER) {
+            return 0;
+        }
+        long prefix = (add ? prefixes.symbol(id, 0, colon) : prefixes.find(id, 0, colon)) + 1L;
+        if (prefix == 0 || prefix >= 1L << (Long.SIZE - 1 - NUMBER_BITS)) {
+            return 0;
+        }
+        return prefix << NUMBER_BITS | number;
+    }
+
+    private static int mix(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package org.entur.asag.mapbox;
+
+import org.apache.camel.Body;
+import org.apache.camel.ExchangeProperty;
+import org.apache.camel.Header;
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.entur.asag.mapbox.mapper.ZoneToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.model.TilesetSource;
+import org.entur.asag.util.ZipFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.GEOJSON_FILE;
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.TILESET_SOURCES;
+
+/**
+ * Splits the line-delimited GeoJSON into one Mapbox Tiling Service tileset source per entity type, so a source is
+ * only uploaded again when its features changed. Each source is hashed as the sum of the hashes of its lines, which
+ * does not depend on the order the features were written in. As with {@link FeatureChangeDetector}, the hashes are
+ * written as pending, and only replace the accepted hashes once the tileset has been published. The accepted hashes
+ * are kept in the {@link UploadStateStore}, so the next run compares against them even in a new working directory.
+ */
+@Service
+public class TilesetSourceWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TilesetSourceWriter.class);
+
+    static final String SOURCE_HASHES_SUFFIX = ".sources";
+    static final String PENDING_SOURCE_HASHES_SUFFIX = ".sources.pending";
+
+    private static final String SOURCE_FILE_EXTENSION = ".geojson.ld";
+
+    /**
+     * Keys are written without whitespace, and quotes within values are escaped, so this only matches the key.
+     */
+    private static final String ENTITY_TYPE_KEY = "\"" + ZoneToGeoJsonFeatureMapper.ENTITY_TYPE + "\":\"";
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    @Value("${mapbox.user:entur}")
+    private String mapboxUser = "entur";
+
+    /**
+     * Prepended to the layer name to make the id of each tileset source, which Mapbox limits to 32 characters.
+     */
+    @Value("${mapbox.mts.source.prefix:asag}")
+    private String sourcePrefix = "asag";
+
+    @Value("${mapbox.mts.minzoom:0}")
+    private int minZoom;
+
+    @Value("${mapbox.mts.maxzoom:16}")
+    private int maxZoom = 16;
+
+    @Autowired
+    private UploadStateStore uploadStateStore = new UploadStateStore();
+
+    public void setUploadStateStore(UploadStateStore uploadStateStore) {
+        this.uploadStateStore = uploadStateStore;
+    }
+
+    /**
+     * Writes the features of each entity type in the line-delimited GeoJSON file to a source file next to it. The
+     * GeoJSON file may be gzipped, the source files are not.
+     *
+     * @return the sources in order of layer name, each marked as changed unless it has the same hash as when the
+     * tileset was last published
+     */
+    public List<TilesetSource> writeSources(@Header(GEOJSON_FILE) String geoJsonFile) throws IOException {
+        Path path = Paths.get(geoJsonFile);
+        Map<String, SourceFile> sourceFiles = new TreeMap<>();
+        try (BufferedReader reader = openLines(path)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String layer = layerOf(line);
+                SourceFile sourceFile = sourceFiles.get(layer);
+                if (sourceFile == null) {
+                    String sourceId = sourcePrefix + "_" + layer;
+                    sourceFile = new SourceFile(layer, sourceId, path.resolveSibling(sourceId + SOURCE_FILE_EXTENSION));
+                    sourceFiles.put(layer, sourceFile);
+                }
+                sourceFile.write(line);
+            }
+        } finally {
+            for (SourceFile sourceFile : sourceFiles.values()) {
+                sourceFile.close();
+            }
+        }
+
+        uploadStateStore.restore(acceptedHashes(geoJsonFile));
+        Properties acceptedHashes = readHashes(acceptedHashes(geoJsonFile));
+        Properties pendingHashes = new Properties();
+        List<TilesetSource> sources = new ArrayList<>(sourceFiles.size());
+        for (SourceFile sourceFile : sourceFiles.values()) {
+            String hash = Long.toHexString(sourceFile.hash) + "/" + sourceFile.features;
+            boolean changed = !hash.equals(acceptedHashes.getProperty(sourceFile.sourceId));
+            pendingHashes.setProperty(sourceFile.sourceId, hash);
+            sources.add(new TilesetSource(sourceFile.layer, sourceFile.sourceId, sourceFile.path.toFile(), sourceFile.features, changed));
+        }
+        writeHashes(pendingHashes, pendingHashes(geoJsonFile));
+        logger.info("Wrote tileset sources {}", sources);
+        return sources;
+    }
+
+    /**
+     * Makes the pending source hashes the ones the next run compares against.
+     */
+    public void acceptSources(@Header(GEOJSON_FILE) String geoJsonFile) throws IOException {
+        Path pending = pendingHashes(geoJsonFile);
+        if (Files.exists(pending)) {
+            Files.move(pending, acceptedHashes(geoJsonFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            uploadStateStore.persist(acceptedHashes(geoJsonFile));
+        }
+    }
+
+    /**
+     * @return a recipe with one layer per source, named like the source without the prefix
+     */
+    public Map<String, Object> recipe(@ExchangeProperty(TILESET_SOURCES) List<TilesetSource> sources) {
+        Map<String, Object> layers = new LinkedHashMap<>();
+        for (TilesetSource source : sources) {
+            Map<String, Object> layer = new LinkedHashMap<>();
+            layer.put("source", "mapbox://tileset-source/" + mapboxUser + "/" + source.getId());
+            layer.put("minzoom", minZoom);
+            layer.put("maxzoom", maxZoom);
+            layers.put(source.getLayer(), layer);
+        }
+        Map<String, Object> recipe = new LinkedHashMap<>();
+        recipe.put("version", 1);
+        recipe.put("layers", layers);
+        return recipe;
+    }
+
+    /**
+     * @return the multipart body Mapbox expects when a tileset source is replaced
+     */
+    public HttpEntity sourceUpload(@Body TilesetSource source) {
+        return MultipartEntityBuilder.create()
+                .addBinaryBody("file", source.getFile(), ContentType.APPLICATION_OCTET_STREAM, source.getFile().getName())
+                .build();
+    }
+
+    /**
+     * @return the entity type of the feature on the line, in snake case, like stop_place for StopPlace
+     */
+    static String layerOf(String line) {
+        int start = line.indexOf(ENTITY_TYPE_KEY);
+        if (start < 0) {
+            throw new IllegalArgumentException("Expected a feature with " + ZoneToGeoJsonFeatureMapper.ENTITY_TYPE
+                    + " on each line, got: " + (line.length() > 100 ? line.substring(0, 100) + ".." : line));
+        }
+        start += ENTITY_TYPE_KEY.length();
+        return layerName(line.substring(start, line.indexOf('"', start)));
+    }
+
+    /**
+     * @return the entity type in snake case, like stop_place for StopPlace
+     */
+    static String layerName(String entityType) {
+        return entityType.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toLowerCase(Locale.ROOT);
+    }
+
+    private static BufferedReader openLines(Path path) throws IOException {
+        InputStream inputStream = Files.newInputStream(path);
+        if (ZipFileUtils.isGzipped(path.toFile())) {
+            inputStream = new GZIPInputStream(inputStream, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static Properties readHashes(Path path) throws IOException {
+        Properties hashes = new Properties();
+        if (Files.exists(path)) {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                hashes.load(reader);
+            }
+        }
+        return hashes;
+    }
+
+    private static void writeHashes(Properties hashes, Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            hashes.store(writer, null);
+        }
+    }
+
+    static Path pendingHashes(String geoJsonFile) {
+        return Paths.get(geoJsonFile + PENDING_SOURCE_HASHES_SUFFIX);
+    }
+
+    static Path acceptedHashes(String geoJsonFile) {
+        return Paths.get(geoJsonFile + SOURCE_HASHES_SUFFIX);
+    }
+
+    private static class SourceFile {
+
+        private final String layer;
+        private final String sourceId;
+        private final Path path;
+        private final BufferedWriter writer;
+        private long hash;
+        private int features;
+
+        private SourceFile(String layer, String sourceId, Path path) throws IOException {
+            this.layer = layer;
+            this.sourceId = sourceId;
+            this.path = path;
+            this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        }
+
+        private void write(String line) throws IOException {
+            writer.write(line);
+            writer.write('\n');
+            long lineHash = FNV_OFFSET_BASIS;
+            for (int index = 0; index < line.length(); index++) {
+                lineHash = (lineHash ^ line.charAt(index)) * FNV_PRIME;
+            }
+            hash += lineHash;
+            features++;
+        }
+
+        private void close() throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+/**
+ * How {@link DeliveryPublicationStreamToGeoJson} holds entities between parsing and writing.
+ */
+public enum TransformMode {
+
+    /**
+     * Keep every unmarshalled stop place, parking and tariff zone until the end of the document, then write them all.
+     */
+    BUFFERED,
+
+    /**
+     * Write parkings, tariff zones, quays and most stop places as soon as they are parsed.
+     * Only the id and type of each stop place is kept, plus the mapped features of primary adjacent sites, as their
+     * final stop place type depends on stop places later in the document.
+     */
+    STREAMING,
+
+    /**
+     * Like {@link #STREAMING}, but with entities unmarshalled, mapped and serialized on a pool of worker threads.
+     * The output is identical to {@link #STREAMING}, as the serialized entities are written in document order.
+     */
+    PARALLEL,
+
+    /**
+     * Read an extracted file twice through a memory mapping. The first pass only finds where each entity starts and
+     * ends, and the types of the valid stop places. The second pass reads the entities one at a time from their offsets
+     * and writes them with their final stop place type, so nothing but the index is held. Streams that are not files are
+     * transformed as in {@link #STREAMING}.
+     */
+    INDEXED
+}
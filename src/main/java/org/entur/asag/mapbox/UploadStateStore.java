@@ -0,0 +1,88 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+import com.google.common.base.Strings;
+import org.entur.asag.service.BlobStoreService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps what was last accepted by Mapbox, like the feature hash index, in the blob store, as the local working
+ * directory does not outlive the pod of a run. The local file is only the working copy: it is restored from the blob
+ * store before it is compared against, and written back once a new one is accepted.
+ */
+@Service
+public class UploadStateStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadStateStore.class);
+
+    private final BlobStoreService blobStoreService;
+
+    private final String subdirectory;
+
+    /**
+     * Keeps the state in the local working directory only.
+     */
+    public UploadStateStore() {
+        this(null, "");
+    }
+
+    @Autowired
+    public UploadStateStore(BlobStoreService blobStoreService,
+                            @Value("${mapbox.state.blobstore.subdirectory:asag/state}") String subdirectory) {
+        this.blobStoreService = blobStoreService;
+        this.subdirectory = subdirectory;
+    }
+
+    /**
+     * Replaces the local file with the one in the blob store, if there is one there.
+     */
+    public void restore(Path path) throws IOException {
+        if (!enabled()) {
+            return;
+        }
+        byte[] content = blobStoreService.readBlob(blobName(path));
+        if (content != null) {
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(temporary, content);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Restored {} from the blob store", path);
+        }
+    }
+
+    public void persist(Path path) throws IOException {
+        if (enabled() && Files.exists(path)) {
+            blobStoreService.writeBlob(blobName(path), Files.readAllBytes(path));
+        }
+    }
+
+    String blobName(Path path) {
+        return subdirectory + "/" + path.getFileName();
+    }
+
+    private boolean enabled() {
+        return blobStoreService != null && !Strings.isNullOrEmpty(subdirectory);
+    }
+}
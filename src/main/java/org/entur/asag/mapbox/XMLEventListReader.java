@@ -0,0 +1,100 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Replays events already read off a document, so a worker thread can unmarshal an element sliced off the stream by
+ * another thread.
+ */
+class XMLEventListReader implements XMLEventReader {
+
+    private final List<XMLEvent> events;
+    private int position;
+
+    XMLEventListReader(List<XMLEvent> events) {
+        this.events = events;
+    }
+
+    @Override
+    public XMLEvent nextEvent() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more events");
+        }
+        return events.get(position++);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < events.size();
+    }
+
+    @Override
+    public XMLEvent peek() {
+        return hasNext() ? events.get(position) : null;
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        while (hasNext()) {
+            XMLEvent event = nextEvent();
+            if (event.isEndElement()) {
+                return text.toString();
+            }
+            if (event.isCharacters()) {
+                text.append(event.asCharacters().getData());
+            } else if (event.isStartElement()) {
+                throw new XMLStreamException("Element text cannot contain elements", event.getLocation());
+            }
+        }
+        throw new XMLStreamException("Reached end of events before end of element");
+    }
+
+    @Override
+    public XMLEvent nextTag() throws XMLStreamException {
+        while (hasNext()) {
+            XMLEvent event = nextEvent();
+            if (event.isStartElement() || event.isEndElement()) {
+                return event;
+            }
+            if (event.isCharacters() && !event.asCharacters().isWhiteSpace()) {
+                throw new XMLStreamException("Expected a tag, but got text", event.getLocation());
+            }
+        }
+        throw new XMLStreamException("Reached end of events before next tag");
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        throw new IllegalArgumentException("Property not supported: " + name);
+    }
+
+    @Override
+    public void close() {
+        position = events.size();
+    }
+
+    @Override
+    public Object next() {
+        return nextEvent();
+    }
+}
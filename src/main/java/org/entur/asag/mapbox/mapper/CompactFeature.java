@@ -0,0 +1,143 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox.mapper;
+
+import org.geojson.Feature;
+import org.geojson.GeoJsonObject;
+import org.geojson.LngLatAlt;
+import org.geojson.Point;
+import org.geojson.Polygon;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A mapped feature, held with as few objects as possible: one slot per property of its {@link FeatureType}, and the
+ * coordinates of its geometry in one flat array.
+ * <p>
+ * Coordinates are kept as in GML, with latitude before longitude. A point has one pair, a polygon has the pairs of its
+ * exterior ring.
+ */
+public class CompactFeature {
+
+    public enum GeometryType {
+        NONE, POINT, POLYGON
+    }
+
+    private final FeatureType type;
+    private final String id;
+    private final Object[] values;
+
+    private GeometryType geometryType = GeometryType.NONE;
+    private double[] coordinates;
+
+    public CompactFeature(FeatureType type, String id) {
+        this.type = type;
+        this.id = id;
+        this.values = new Object[type.slotCount()];
+    }
+
+    public FeatureType getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void set(FeatureProperty property, String value) {
+        values[type.slot(property)] = value;
+    }
+
+    public void set(FeatureProperty property, Collection<String> value) {
+        values[type.slot(property)] = value;
+    }
+
+    /**
+     * @return the value of the property, a string or a collection of strings, or null if not set
+     */
+    public Object get(FeatureProperty property) {
+        return values[type.slot(property)];
+    }
+
+    public int getSlotCount() {
+        return values.length;
+    }
+
+    public FeatureProperty getProperty(int slot) {
+        return type.property(slot);
+    }
+
+    public Object getValue(int slot) {
+        return values[slot];
+    }
+
+    public void setPoint(double longitude, double latitude) {
+        geometryType = GeometryType.POINT;
+        coordinates = new double[]{latitude, longitude};
+    }
+
+    /**
+     * @param latitudeLongitudePairs a GML posList, with latitude before longitude. The array is kept, not copied.
+     */
+    public void setPolygon(double[] latitudeLongitudePairs) {
+        geometryType = GeometryType.POLYGON;
+        coordinates = latitudeLongitudePairs;
+    }
+
+    public GeometryType getGeometryType() {
+        return geometryType;
+    }
+
+    public double[] getCoordinates() {
+        return coordinates;
+    }
+
+    /**
+     * Converts to a geojson-jackson feature, with the properties in slot order.
+     */
+    public Feature toGeoJsonFeature() {
+        Feature feature = new Feature();
+        feature.setId(id);
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                feature.setProperty(type.property(slot).getKey().getValue(), values[slot]);
+            }
+        }
+        feature.setGeometry(toGeometry());
+        return feature;
+    }
+
+    private GeoJsonObject toGeometry() {
+        switch (geometryType) {
+            case POINT:
+                return new Point(new LngLatAlt(coordinates[1], coordinates[0]));
+            case POLYGON:
+                return new Polygon(convertCoordinatesToLngLatList(coordinates));
+            default:
+                return null;
+        }
+    }
+
+    public static List<LngLatAlt> convertCoordinatesToLngLatList(double[] latitudeLongitudePairs) {
+        List<LngLatAlt> lngLatAlts = new ArrayList<>(latitudeLongitudePairs.length / 2);
+        for (int index = 0; index + 1 < latitudeLongitudePairs.length; index += 2) {
+            lngLatAlts.add(new LngLatAlt(latitudeLongitudePairs[index + 1], latitudeLongitudePairs[index]));
+        }
+        return lngLatAlts;
+    }
+}
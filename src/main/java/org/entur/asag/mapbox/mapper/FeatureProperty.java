@@ -0,0 +1,62 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox.mapper;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import static org.entur.asag.mapbox.mapper.MapperHelper.LANG;
+
+/**
+ * The properties written for features, with their pre-encoded GeoJSON keys.
+ * All properties hold strings, except {@link #ADJACENT_SITES} which holds a collection of strings.
+ */
+public enum FeatureProperty {
+
+    NAME(ZoneToGeoJsonFeatureMapper.NAME),
+    NAME_LANG(ZoneToGeoJsonFeatureMapper.NAME + LANG),
+    DESCRIPTION(ZoneToGeoJsonFeatureMapper.DESCRIPTION),
+    DESCRIPTION_LANG(ZoneToGeoJsonFeatureMapper.DESCRIPTION + LANG),
+    PRIVATE_CODE(ZoneToGeoJsonFeatureMapper.PRIVATE_CODE),
+    ID(ZoneToGeoJsonFeatureMapper.ID),
+    CODE_SPACE(ZoneToGeoJsonFeatureMapper.CODE_SPACE),
+    ENTITY_TYPE(ZoneToGeoJsonFeatureMapper.ENTITY_TYPE),
+    PUBLIC_CODE(StopPlaceToGeoJsonFeatureMapper.PUBLIC_CODE),
+    HAS_PARENT_SITE_REF(StopPlaceToGeoJsonFeatureMapper.HAS_PARENT_SITE_REF),
+
+    SUBMODE(StopPlaceToGeoJsonFeatureMapper.SUBMODE),
+    STOP_PLACE_TYPE(StopPlaceToGeoJsonFeatureMapper.STOP_PLACE_TYPE),
+    WEIGHTING(StopPlaceToGeoJsonFeatureMapper.WEIGHTING),
+    IS_PARENT_STOP_PLACE(StopPlaceToGeoJsonFeatureMapper.IS_PARENT_STOP_PLACE),
+    ADJACENT_SITES(StopPlaceToGeoJsonFeatureMapper.ADJACENT_SITES),
+    IS_PRIMARY_ADJACENT_SITE(StopPlaceToGeoJsonFeatureMapper.IS_PRIMARY_ADJACENT_SITE),
+    FINAL_STOP_PLACE_TYPE(StopPlaceToGeoJsonFeatureMapper.FINAL_STOP_PLACE_TYPE),
+
+    TOTAL_CAPACITY(ParkingToGeoJsonFeatureMapper.TOTAL_CAPACITY),
+    PRINCIPAL_CAPACITY(ParkingToGeoJsonFeatureMapper.PRINCIPAL_CAPACITY),
+    NUMBER_OF_PARKING_LEVELS(ParkingToGeoJsonFeatureMapper.NUMBER_OF_PARKING_LEVELS),
+    COVERED(ParkingToGeoJsonFeatureMapper.COVERED),
+    PARKING_VEHICLE_TYPES(ParkingToGeoJsonFeatureMapper.PARKING_VEHICLE_TYPES);
+
+    private final SerializedString key;
+
+    FeatureProperty(String key) {
+        this.key = new SerializedString(key);
+    }
+
+    public SerializedString getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox.mapper;
+
+import org.rutebanken.netex.model.Parking;
+import org.rutebanken.netex.model.Quay;
+import org.rutebanken.netex.model.StopPlace;
+import org.rutebanken.netex.model.TariffZone;
+import org.rutebanken.netex.model.Zone_VersionStructure;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.stream.Stream;
+
+import static org.entur.asag.mapbox.mapper.FeatureProperty.*;
+
+/**
+ * The kinds of features written, each with a fixed slot for every property it can have.
+ */
+public enum FeatureType {
+
+    ZONE(),
+    STOP_PLACE(SUBMODE, STOP_PLACE_TYPE, PUBLIC_CODE, WEIGHTING, HAS_PARENT_SITE_REF, IS_PARENT_STOP_PLACE,
+            ADJACENT_SITES, IS_PRIMARY_ADJACENT_SITE, FINAL_STOP_PLACE_TYPE),
+    QUAY(PUBLIC_CODE),
+    PARKING(TOTAL_CAPACITY, PRINCIPAL_CAPACITY, NUMBER_OF_PARKING_LEVELS, PUBLIC_CODE, COVERED, PARKING_VEHICLE_TYPES,
+            HAS_PARENT_SITE_REF),
+    TARIFF_ZONE();
+
+    private final FeatureProperty[] properties;
+    private final int[] slots;
+
+    FeatureType(FeatureProperty... ownProperties) {
+        EnumSet<FeatureProperty> unique = EnumSet.noneOf(FeatureProperty.class);
+        properties = Stream.concat(Arrays.stream(ZoneProperties.PROPERTIES), Arrays.stream(ownProperties))
+                .filter(unique::add)
+                .toArray(FeatureProperty[]::new);
+        slots = new int[FeatureProperty.values().length];
+        Arrays.fill(slots, -1);
+        for (int slot = 0; slot < properties.length; slot++) {
+            slots[properties[slot].ordinal()] = slot;
+        }
+    }
+
+    public static FeatureType of(Zone_VersionStructure zone) {
+        if (zone instanceof StopPlace) {
+            return STOP_PLACE;
+        } else if (zone instanceof Quay) {
+            return QUAY;
+        } else if (zone instanceof Parking) {
+            return PARKING;
+        } else if (zone instanceof TariffZone) {
+            return TARIFF_ZONE;
+        }
+        return ZONE;
+    }
+
+    /**
+     * @param entityType the simple class name written as the entity type of each feature
+     */
+    public static FeatureType ofEntityType(String entityType) {
+        if (entityType == null) {
+            return ZONE;
+        }
+        switch (entityType) {
+            case "StopPlace":
+                return STOP_PLACE;
+            case "Quay":
+                return QUAY;
+            case "Parking":
+                return PARKING;
+            case "TariffZone":
+                return TARIFF_ZONE;
+            default:
+                return ZONE;
+        }
+    }
+
+    int slotCount() {
+        return properties.length;
+    }
+
+    FeatureProperty property(int slot) {
+        return properties[slot];
+    }
+
+    int slot(FeatureProperty property) {
+        int slot = slots[property.ordinal()];
+        if (slot < 0) {
+            throw new IllegalArgumentException(name() + " features have no " + property + " property");
+        }
+        return slot;
+    }
+
+    /**
+     * The properties all zones have, first in every type. Held here as enum constants cannot read static fields of
+     * their own enum while being constructed.
+     */
+    private static class ZoneProperties {
+        private static final FeatureProperty[] PROPERTIES = {NAME, NAME_LANG, DESCRIPTION, DESCRIPTION_LANG, PRIVATE_CODE, ID, CODE_SPACE, ENTITY_TYPE};
+    }
+}
@@ -16,14 +16,17 @@
 package org.entur.asag.mapbox.mapper;
 
 import com.google.common.base.Strings;
-import org.geojson.Feature;
 import org.rutebanken.netex.model.MultilingualString;
 import org.rutebanken.netex.model.PrivateCodeStructure;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
 import java.math.BigInteger;
+import java.util.Optional;
 import java.util.function.BiConsumer;
 
 public class MapperHelper {
@@ -31,29 +34,47 @@ public class MapperHelper {
     public static final String LANG = "Lang";
     private static final Logger logger = LoggerFactory.getLogger(MapperHelper.class);
 
-    public static void mapMultilingualString(String property, Feature feature, MultilingualString multilingualString) {
+    private static final MethodType VALUE_ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * The value() accessor of each enum class, looked up the first time an enum of the class is seen.
+     */
+    private static final ClassValue<Optional<MethodHandle>> VALUE_ACCESSORS = new ClassValue<>() {
+        @Override
+        protected Optional<MethodHandle> computeValue(Class<?> type) {
+            try {
+                Method valueMethod = type.getMethod("value");
+                return Optional.of(MethodHandles.publicLookup().unreflect(valueMethod).asType(VALUE_ACCESSOR_TYPE));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                logger.warn("Cannot resolve values from enums of type {}", type.getName(), e);
+                return Optional.empty();
+            }
+        }
+    };
+
+    public static void mapMultilingualString(FeatureProperty property, FeatureProperty langProperty, CompactFeature feature, MultilingualString multilingualString) {
         if (multilingualString != null) {
-            feature.setProperty(property, multilingualString.getValue());
+            feature.set(property, multilingualString.getValue());
             if (multilingualString.getLang() != null) {
-                feature.setProperty(property + LANG, multilingualString.getLang());
+                feature.set(langProperty, multilingualString.getLang());
             }
         }
     }
 
 
-    public static void setIfNotNull(String key, String value, BiConsumer<String, String> consumer) {
+    public static void setIfNotNull(FeatureProperty key, String value, BiConsumer<FeatureProperty, String> consumer) {
         if (!Strings.isNullOrEmpty(value)) {
             consumer.accept(key, value);
         }
     }
 
-    public static void setIfNotNull(String key, BigInteger value, BiConsumer<String, String> consumer) {
+    public static void setIfNotNull(FeatureProperty key, BigInteger value, BiConsumer<FeatureProperty, String> consumer) {
         if (value != null) {
             consumer.accept(key, value.toString());
         }
     }
 
-    public static void setPrivateCode(String key, PrivateCodeStructure privateCodeStructure, BiConsumer<String, String> keyValue) {
+    public static void setPrivateCode(FeatureProperty key, PrivateCodeStructure privateCodeStructure, BiConsumer<FeatureProperty, String> keyValue) {
         if (privateCodeStructure != null) {
             if (!Strings.isNullOrEmpty(privateCodeStructure.getValue())) {
                 keyValue.accept(key, privateCodeStructure.getValue());
@@ -61,7 +82,7 @@ public class MapperHelper {
         }
     }
 
-    public static void setResolvedValue(String key, Object enumObject, BiConsumer<String, String> keyValue) {
+    public static void setResolvedValue(FeatureProperty key, Object enumObject, BiConsumer<FeatureProperty, String> keyValue) {
         if (enumObject != null) {
             Object value = getEnumValue(enumObject);
             if (value != null) {
@@ -71,9 +92,13 @@ public class MapperHelper {
     }
 
     public static Object getEnumValue(Object enumObject) {
+        Optional<MethodHandle> valueAccessor = VALUE_ACCESSORS.get(enumObject.getClass());
+        if (valueAccessor.isEmpty()) {
+            return null;
+        }
         try {
-            return enumObject.getClass().getMethod("value", null).invoke(enumObject);
-        } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+            return (Object) valueAccessor.get().invokeExact(enumObject);
+        } catch (Throwable e) {
             logger.warn("Error resolving value from enum {}", enumObject, e);
         }
         return null;
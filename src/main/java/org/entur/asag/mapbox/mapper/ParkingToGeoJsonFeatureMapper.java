@@ -45,6 +45,7 @@ public class ParkingToGeoJsonFeatureMapper {
     public static final String COVERED = "covered";
     public static final String PARKING_VEHICLE_TYPES = "parkingVehicleTypes";
 
+
     private final ZoneToGeoJsonFeatureMapper zoneToGeoJsonFeatureMapper;
 
     @Autowired
@@ -53,25 +54,30 @@ public class ParkingToGeoJsonFeatureMapper {
     }
 
     public Feature mapParkingToGeoJson(Parking parking) {
-        Feature feature = zoneToGeoJsonFeatureMapper.mapZoneToGeoJson(parking);
+        return mapParking(parking).toGeoJsonFeature();
+    }
 
-        setIfNotNull(TOTAL_CAPACITY, parking.getTotalCapacity(), feature::setProperty);
-        setIfNotNull(PRINCIPAL_CAPACITY, parking.getPrincipalCapacity(), feature::setProperty);
-        setIfNotNull(NUMBER_OF_PARKING_LEVELS, parking.getNumberOfParkingLevels(), feature::setProperty);
-        setIfNotNull(PUBLIC_CODE, parking.getPublicCode(), feature::setProperty);
-        setResolvedValue(COVERED, parking.getCovered(), feature::setProperty);
+    public CompactFeature mapParking(Parking parking) {
+        CompactFeature feature = new CompactFeature(FeatureType.PARKING, parking.getId());
+        zoneToGeoJsonFeatureMapper.mapZoneProperties(parking, feature);
 
-        feature.setProperty(PARKING_VEHICLE_TYPES, Stream.of(parking.getParkingVehicleTypes())
+        setIfNotNull(FeatureProperty.TOTAL_CAPACITY, parking.getTotalCapacity(), feature::set);
+        setIfNotNull(FeatureProperty.PRINCIPAL_CAPACITY, parking.getPrincipalCapacity(), feature::set);
+        setIfNotNull(FeatureProperty.NUMBER_OF_PARKING_LEVELS, parking.getNumberOfParkingLevels(), feature::set);
+        setIfNotNull(FeatureProperty.PUBLIC_CODE, parking.getPublicCode(), feature::set);
+        setResolvedValue(FeatureProperty.COVERED, parking.getCovered(), feature::set);
+
+        feature.set(FeatureProperty.PARKING_VEHICLE_TYPES, Stream.of(parking.getParkingVehicleTypes())
                 .filter(Objects::nonNull)
                 .flatMap(Collection::stream)
                 .map(ParkingVehicleEnumeration::value)
                 .sorted(Comparator.naturalOrder())
                 .collect(Collectors.joining(",")));
 
-        feature.setProperty(HAS_PARENT_SITE_REF, String.valueOf(parking.getParentSiteRef() != null));
+        feature.set(FeatureProperty.HAS_PARENT_SITE_REF, String.valueOf(parking.getParentSiteRef() != null));
 
+        zoneToGeoJsonFeatureMapper.mapGeometry(parking, feature);
         return feature;
-
     }
 
 }
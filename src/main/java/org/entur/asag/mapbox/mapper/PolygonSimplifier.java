@@ -0,0 +1,303 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox.mapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Douglas-Peucker simplification of tariff zone and parking polygons, with a tolerance derived from the highest zoom
+ * level the polygons are shown at: vertices closer to the simplified ring than a fraction of a pixel at that zoom are
+ * dropped. Distances are measured in web mercator, like the tiles are rendered.
+ * <p>
+ * Rings stay closed, and a ring is left as it is if simplifying it would leave fewer than three distinct vertices or
+ * make it intersect itself.
+ */
+@Service
+public class PolygonSimplifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(PolygonSimplifier.class);
+
+    /**
+     * Mapbox renders vector tiles 512 pixels wide.
+     */
+    private static final int TILE_SIZE = 512;
+
+    private static final int MIN_RING_POSITIONS = 4;
+
+    /**
+     * Highest zoom level tariff zones are shown at. Less than zero leaves them unsimplified.
+     */
+    @Value("${asag.simplify.tariffzone.max.zoom:-1}")
+    private int tariffZoneMaxZoom = -1;
+
+    /**
+     * Highest zoom level parkings are shown at. Less than zero leaves them unsimplified.
+     */
+    @Value("${asag.simplify.parking.max.zoom:-1}")
+    private int parkingMaxZoom = -1;
+
+    @Value("${asag.simplify.tolerance.pixels:0.5}")
+    private double tolerancePixels = 0.5;
+
+    private final Map<FeatureType, LongAdder> verticesBefore = new EnumMap<>(FeatureType.class);
+    private final Map<FeatureType, LongAdder> verticesAfter = new EnumMap<>(FeatureType.class);
+
+    public PolygonSimplifier() {
+        for (FeatureType type : FeatureType.values()) {
+            verticesBefore.put(type, new LongAdder());
+            verticesAfter.put(type, new LongAdder());
+        }
+    }
+
+    /**
+     * @param ring a closed GML posList, with latitude before longitude
+     * @return the simplified ring, or the same ring if features of the type are not simplified
+     */
+    public double[] simplify(FeatureType type, double[] ring) {
+        int maxZoom = maxZoom(type);
+        if (maxZoom < 0) {
+            return ring;
+        }
+        double[] simplified = simplify(ring, toleranceForZoom(maxZoom, tolerancePixels));
+        verticesBefore.get(type).add(ring.length / 2);
+        verticesAfter.get(type).add(simplified.length / 2);
+        return simplified;
+    }
+
+    /**
+     * Logs the vertex reduction per feature type since the last report, and starts counting anew.
+     */
+    public void logReport() {
+        for (FeatureType type : FeatureType.values()) {
+            long before = verticesBefore.get(type).sumThenReset();
+            long after = verticesAfter.get(type).sumThenReset();
+            if (before > 0) {
+                logger.info("Simplified {} polygons at max zoom {} from {} to {} vertices ({}% fewer)",
+                        type, maxZoom(type), before, after, Math.round(100.0 * (before - after) / before));
+            }
+        }
+    }
+
+    long getVerticesBefore(FeatureType type) {
+        return verticesBefore.get(type).sum();
+    }
+
+    long getVerticesAfter(FeatureType type) {
+        return verticesAfter.get(type).sum();
+    }
+
+    void setTariffZoneMaxZoom(int tariffZoneMaxZoom) {
+        this.tariffZoneMaxZoom = tariffZoneMaxZoom;
+    }
+
+    void setParkingMaxZoom(int parkingMaxZoom) {
+        this.parkingMaxZoom = parkingMaxZoom;
+    }
+
+    private int maxZoom(FeatureType type) {
+        switch (type) {
+            case TARIFF_ZONE:
+                return tariffZoneMaxZoom;
+            case PARKING:
+                return parkingMaxZoom;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return the width of the given number of pixels at the zoom level, in degrees of longitude
+     */
+    public static double toleranceForZoom(int zoom, double pixels) {
+        return 360.0 / (TILE_SIZE * Math.pow(2, zoom)) * pixels;
+    }
+
+    /**
+     * @param tolerance in degrees of longitude, which in web mercator is the same distance at every latitude
+     */
+    public static double[] simplify(double[] ring, double tolerance) {
+        int count = ring.length / 2;
+        if (count <= MIN_RING_POSITIONS) {
+            return ring;
+        }
+
+        double[] x = new double[count];
+        double[] y = new double[count];
+        for (int index = 0; index < count; index++) {
+            y[index] = mercatorY(ring[2 * index]);
+            x[index] = ring[2 * index + 1];
+        }
+
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        int last = count - 1;
+        if (x[0] == x[last] && y[0] == y[last]) {
+            // The segment from the first to the closing vertex has no length, so split the ring at the vertex
+            // farthest from the first, and simplify each half.
+            int farthest = 1;
+            double farthestDistance = -1;
+            for (int index = 1; index < last; index++) {
+                double distance = squared(x[index] - x[0]) + squared(y[index] - y[0]);
+                if (distance > farthestDistance) {
+                    farthest = index;
+                    farthestDistance = distance;
+                }
+            }
+            keep[farthest] = true;
+            douglasPeucker(x, y, 0, farthest, tolerance * tolerance, keep);
+            douglasPeucker(x, y, farthest, last, tolerance * tolerance, keep);
+        } else {
+            douglasPeucker(x, y, 0, last, tolerance * tolerance, keep);
+        }
+
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) {
+                kept++;
+            }
+        }
+        if (kept == count || kept < MIN_RING_POSITIONS) {
+            return ring;
+        }
+
+        double[] simplified = new double[kept * 2];
+        double[] simplifiedX = new double[kept];
+        double[] simplifiedY = new double[kept];
+        int position = 0;
+        for (int index = 0; index < count; index++) {
+            if (keep[index]) {
+                simplified[2 * position] = ring[2 * index];
+                simplified[2 * position + 1] = ring[2 * index + 1];
+                simplifiedX[position] = x[index];
+                simplifiedY[position] = y[index];
+                position++;
+            }
+        }
+        return intersectsItself(simplifiedX, simplifiedY) ? ring : simplified;
+    }
+
+    /**
+     * Marks the vertices between first and last to keep, working through the sections with an explicit stack.
+     */
+    private static void douglasPeucker(double[] x, double[] y, int first, int last, double squaredTolerance, boolean[] keep) {
+        int[] stack = new int[32];
+        int size = 0;
+        stack[size++] = first;
+        stack[size++] = last;
+        while (size > 0) {
+            int end = stack[--size];
+            int start = stack[--size];
+            int farthest = -1;
+            double farthestDistance = squaredTolerance;
+            for (int index = start + 1; index < end; index++) {
+                double distance = squaredSegmentDistance(x[index], y[index], x[start], y[start], x[end], y[end]);
+                if (distance > farthestDistance) {
+                    farthest = index;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                if (size + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[size++] = start;
+                stack[size++] = farthest;
+                stack[size++] = farthest;
+                stack[size++] = end;
+            }
+        }
+    }
+
+    private static double squaredSegmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return squared(px - ax) + squared(py - ay);
+        }
+        double t = Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+        return squared(px - (ax + t * dx)) + squared(py - (ay + t * dy));
+    }
+
+    /**
+     * Checks every pair of edges of the closed ring that do not share a vertex, plus adjacent edges folding back
+     * over each other.
+     */
+    static boolean intersectsItself(double[] x, double[] y) {
+        int edges = x.length - 1;
+        for (int i = 0; i < edges; i++) {
+            for (int j = i + 1; j < edges; j++) {
+                boolean adjacent = j == i + 1 || (i == 0 && j == edges - 1);
+                if (adjacent) {
+                    int shared = j == i + 1 ? j : i;
+                    int before = j == i + 1 ? i : j;
+                    int after = j == i + 1 ? j + 1 : i + 1;
+                    if (orientation(x[before], y[before], x[shared], y[shared], x[after], y[after]) == 0
+                            && (x[after] - x[shared]) * (x[before] - x[shared]) + (y[after] - y[shared]) * (y[before] - y[shared]) > 0) {
+                        return true;
+                    }
+                } else if (segmentsIntersect(x[i], y[i], x[i + 1], y[i + 1], x[j], y[j], x[j + 1], y[j + 1])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean segmentsIntersect(double ax, double ay, double bx, double by,
+                                             double cx, double cy, double dx, double dy) {
+        int o1 = orientation(ax, ay, bx, by, cx, cy);
+        int o2 = orientation(ax, ay, bx, by, dx, dy);
+        int o3 = orientation(cx, cy, dx, dy, ax, ay);
+        int o4 = orientation(cx, cy, dx, dy, bx, by);
+        if (o1 != o2 && o3 != o4) {
+            return true;
+        }
+        return (o1 == 0 && onSegment(ax, ay, bx, by, cx, cy))
+                || (o2 == 0 && onSegment(ax, ay, bx, by, dx, dy))
+                || (o3 == 0 && onSegment(cx, cy, dx, dy, ax, ay))
+                || (o4 == 0 && onSegment(cx, cy, dx, dy, bx, by));
+    }
+
+    private static int orientation(double ax, double ay, double bx, double by, double cx, double cy) {
+        return (int) Math.signum((bx - ax) * (cy - ay) - (by - ay) * (cx - ax));
+    }
+
+    private static boolean onSegment(double ax, double ay, double bx, double by, double px, double py) {
+        return px >= Math.min(ax, bx) && px <= Math.max(ax, bx) && py >= Math.min(ay, by) && py <= Math.max(ay, by);
+    }
+
+    /**
+     * Web mercator y of the latitude, in the same unit as degrees of longitude.
+     */
+    private static double mercatorY(double latitude) {
+        return Math.toDegrees(Math.log(Math.tan(Math.PI / 4 + Math.toRadians(latitude) / 2)));
+    }
+
+    private static double squared(double value) {
+        return value * value;
+    }
+}
@@ -23,8 +23,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
-import java.util.HashSet;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -43,25 +43,35 @@ public class QuayToGeoJsonFeatureMapper {
     }
 
     public Set<Feature> mapQuaysToGeojsonFeatures(Quays_RelStructure quays_relStructure) {
+        return mapQuays(quays_relStructure).stream()
+                .map(CompactFeature::toGeoJsonFeature)
+                .collect(Collectors.toSet());
+    }
 
-        Set<Feature> mappedQuays = new HashSet<>();
+    /**
+     * Maps the quays in document order.
+     */
+    public List<CompactFeature> mapQuays(Quays_RelStructure quays_relStructure) {
+        List<CompactFeature> features = new ArrayList<>();
         if (quays_relStructure != null && !CollectionUtils.isEmpty(quays_relStructure.getQuayRefOrQuay())) {
-            return quays_relStructure.getQuayRefOrQuay().stream()
-                    .filter(Objects::nonNull)
-                    .map(JAXBElement::getValue)
-                    .filter(o -> o instanceof Quay)
-                    .map(o -> (Quay) o)
-                    .map(this::mapQuayToGeojsonFeature)
-                    .collect(Collectors.toSet());
+            for (JAXBElement<?> quayRefOrQuay : quays_relStructure.getQuayRefOrQuay()) {
+                if (quayRefOrQuay != null && quayRefOrQuay.getValue() instanceof Quay) {
+                    features.add(mapQuay((Quay) quayRefOrQuay.getValue()));
+                }
+            }
         }
-        return mappedQuays;
+        return features;
     }
 
     public Feature mapQuayToGeojsonFeature(Quay quay) {
+        return mapQuay(quay).toGeoJsonFeature();
+    }
 
-        Feature feature = zoneToGeoJsonFeatureMapper.mapZoneToGeoJson(quay);
-        setIfNotNull(PUBLIC_CODE, quay.getPublicCode(), feature::setProperty);
+    public CompactFeature mapQuay(Quay quay) {
+        CompactFeature feature = new CompactFeature(FeatureType.QUAY, quay.getId());
+        zoneToGeoJsonFeatureMapper.mapZoneProperties(quay, feature);
+        setIfNotNull(FeatureProperty.PUBLIC_CODE, quay.getPublicCode(), feature::set);
+        zoneToGeoJsonFeatureMapper.mapGeometry(quay, feature);
         return feature;
-
     }
 }
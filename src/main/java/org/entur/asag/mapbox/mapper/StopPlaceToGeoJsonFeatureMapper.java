@@ -37,7 +37,7 @@ import static org.entur.asag.mapbox.mapper.MapperHelper.setResolvedValue;
 public class StopPlaceToGeoJsonFeatureMapper {
 
     static final String NETEX_IS_PARENT_STOP_PLACE = "IS_PARENT_STOP_PLACE";
-    static final String FINAL_STOP_PLACE_TYPE = "finalStopPlaceType";
+    public static final String FINAL_STOP_PLACE_TYPE = "finalStopPlaceType";
     static final String SUBMODE = "submode";
     static final String PUBLIC_CODE = "publicCode";
     static final String STOP_PLACE_TYPE = "stopPlaceType";
@@ -46,6 +46,8 @@ public class StopPlaceToGeoJsonFeatureMapper {
     static final String IS_PARENT_STOP_PLACE = "isParentStopPlace";
     static final String ADJACENT_SITES = "adjacentSites";
     static final String IS_PRIMARY_ADJACENT_SITE = "isPrimaryAdjacentSite";
+
+
     private final ZoneToGeoJsonFeatureMapper zoneToGeoJsonFeatureMapper;
 
     @Autowired
@@ -54,39 +56,54 @@ public class StopPlaceToGeoJsonFeatureMapper {
     }
 
     public Feature mapStopPlaceToGeoJson(StopPlace stopPlace, String finalStopPlaceType) {
-        Feature feature = zoneToGeoJsonFeatureMapper.mapZoneToGeoJson(stopPlace);
+        return mapStopPlace(stopPlace, finalStopPlaceType).toGeoJsonFeature();
+    }
+
+    /**
+     * @param finalStopPlaceType only used if the stop place is a primary adjacent site. Other stop places get their
+     *                           submode, or else their stop place type, as final stop place type. It may be
+     *                           left null, and set on the returned feature later.
+     */
+    public CompactFeature mapStopPlace(StopPlace stopPlace, String finalStopPlaceType) {
+        CompactFeature feature = new CompactFeature(FeatureType.STOP_PLACE, stopPlace.getId());
+        zoneToGeoJsonFeatureMapper.mapZoneProperties(stopPlace, feature);
 
         Optional<String> optionalSubmode = PublicationDeliveryHelper.resolveFirstSubmodeToSingleValue(stopPlace);
         TreeSet<String> optionalAdjacentSites = PublicationDeliveryHelper.resolveAdjacentSites(stopPlace);
+        String stopPlaceType = stopPlace.getStopPlaceType() != null ? stopPlace.getStopPlaceType().value() : null;
 
-        optionalSubmode.ifPresent(submode -> {
-            feature.setProperty(SUBMODE, submode);
-            feature.setProperty(FINAL_STOP_PLACE_TYPE, submode);
-        });
-
-        if (stopPlace.getStopPlaceType() != null) {
-            feature.setProperty(STOP_PLACE_TYPE, stopPlace.getStopPlaceType().value());
-            if (!optionalSubmode.isPresent()) {
-                feature.setProperty(FINAL_STOP_PLACE_TYPE, stopPlace.getStopPlaceType().value());
-            }
+        optionalSubmode.ifPresent(submode -> feature.set(FeatureProperty.SUBMODE, submode));
+        if (stopPlaceType != null) {
+            feature.set(FeatureProperty.STOP_PLACE_TYPE, stopPlaceType);
         }
 
-        setIfNotNull(PUBLIC_CODE, stopPlace.getPublicCode(), feature::setProperty);
-        setResolvedValue(WEIGHTING, stopPlace.getWeighting(), feature::setProperty);
-        feature.setProperty(HAS_PARENT_SITE_REF, String.valueOf(stopPlace.getParentSiteRef() != null));
-        getValueByKey(stopPlace, NETEX_IS_PARENT_STOP_PLACE).ifPresent(isParent -> feature.setProperty(IS_PARENT_STOP_PLACE, isParent));
+        setIfNotNull(FeatureProperty.PUBLIC_CODE, stopPlace.getPublicCode(), feature::set);
+        setResolvedValue(FeatureProperty.WEIGHTING, stopPlace.getWeighting(), feature::set);
+        feature.set(FeatureProperty.HAS_PARENT_SITE_REF, String.valueOf(stopPlace.getParentSiteRef() != null));
+        getValueByKey(stopPlace, NETEX_IS_PARENT_STOP_PLACE).ifPresent(isParent -> feature.set(FeatureProperty.IS_PARENT_STOP_PLACE, isParent));
 
+        boolean isPrimaryAdjacent = false;
         if (!optionalAdjacentSites.isEmpty()) {
-            feature.setProperty(ADJACENT_SITES, optionalAdjacentSites);
-            boolean isPrimaryAdjacent = optionalAdjacentSites.higher(stopPlace.getId()) == null ? true : false;
-            feature.setProperty(IS_PRIMARY_ADJACENT_SITE, String.valueOf(isPrimaryAdjacent));
+            feature.set(FeatureProperty.ADJACENT_SITES, optionalAdjacentSites);
+            isPrimaryAdjacent = isPrimaryAdjacentSite(optionalAdjacentSites, stopPlace.getId());
+            feature.set(FeatureProperty.IS_PRIMARY_ADJACENT_SITE, String.valueOf(isPrimaryAdjacent));
+        }
 
-            if (isPrimaryAdjacent) {
-                feature.setProperty(FINAL_STOP_PLACE_TYPE, finalStopPlaceType);
-            }
+        if (isPrimaryAdjacent) {
+            feature.set(FeatureProperty.FINAL_STOP_PLACE_TYPE, finalStopPlaceType);
+        } else if (optionalSubmode.isPresent() || stopPlaceType != null) {
+            feature.set(FeatureProperty.FINAL_STOP_PLACE_TYPE, optionalSubmode.orElse(stopPlaceType));
         }
 
+        zoneToGeoJsonFeatureMapper.mapGeometry(stopPlace, feature);
         return feature;
+    }
 
+    /**
+     * The primary adjacent site is the one sorting last among its adjacent sites. Only this stop place gets the
+     * combined type of all adjacent sites as its final stop place type.
+     */
+    public static boolean isPrimaryAdjacentSite(TreeSet<String> adjacentSites, String stopPlaceId) {
+        return adjacentSites.higher(stopPlaceId) == null;
     }
 }
@@ -40,4 +40,8 @@ public class TariffZoneToGeoJsonFeatureMapper {
         Feature feature = zoneToGeoJsonFeatureMapper.mapZoneToGeoJson(tariffZone);
         return feature;
     }
+
+    public CompactFeature mapTariffZone(TariffZone tariffZone) {
+        return zoneToGeoJsonFeatureMapper.mapZone(tariffZone);
+    }
 }
@@ -19,17 +19,16 @@ import com.google.common.base.CharMatcher;
 import net.opengis.gml._3.AbstractRingPropertyType;
 import net.opengis.gml._3.DirectPositionListType;
 import net.opengis.gml._3.LinearRingType;
+import org.entur.asag.netex.PackedPositionList;
+import org.entur.asag.util.SymbolTable;
 import org.geojson.Feature;
-import org.geojson.LngLatAlt;
-import org.geojson.Point;
-import org.geojson.Polygon;
 import org.rutebanken.netex.model.Zone_VersionStructure;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import jakarta.xml.bind.JAXBElement;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -47,67 +46,96 @@ public class ZoneToGeoJsonFeatureMapper {
     public static final String PRIVATE_CODE = "privateCode";
     public static final String CODE_SPACE = "codeSpace";
 
+    private final PolygonSimplifier polygonSimplifier;
 
-    public Feature mapZoneToGeoJson(Zone_VersionStructure zone) {
+    /**
+     * The few code spaces, so that each is taken out of the ids without allocating.
+     */
+    private final SymbolTable codeSpaces = new SymbolTable();
 
-        Feature feature = new Feature();
-        feature.setId(zone.getId());
+    /**
+     * Maps polygons without simplifying them.
+     */
+    public ZoneToGeoJsonFeatureMapper() {
+        this(new PolygonSimplifier());
+    }
 
-        mapMultilingualString(NAME, feature, zone.getName());
-        mapMultilingualString(DESCRIPTION, feature, zone.getDescription());
-        setPrivateCode(PRIVATE_CODE, zone.getPrivateCode(), feature::setProperty);
-        setIfNotNull(ID, zone.getId(), feature::setProperty);
-        parseAndMapCodeSpace(zone, feature);
-        feature.setProperty(ENTITY_TYPE, zone.getClass().getSimpleName());
+    @Autowired
+    public ZoneToGeoJsonFeatureMapper(PolygonSimplifier polygonSimplifier) {
+        this.polygonSimplifier = polygonSimplifier;
+    }
 
-        mapGeometry(zone, feature);
+    public Feature mapZoneToGeoJson(Zone_VersionStructure zone) {
+        return mapZone(zone).toGeoJsonFeature();
+    }
 
+    public CompactFeature mapZone(Zone_VersionStructure zone) {
+        CompactFeature feature = new CompactFeature(FeatureType.of(zone), zone.getId());
+        mapZoneProperties(zone, feature);
+        mapGeometry(zone, feature);
         return feature;
     }
 
-    public void parseAndMapCodeSpace(Zone_VersionStructure zone, Feature feature) {
+    /**
+     * Maps the properties common to all zones. Mappers of subtypes add their own properties, and then the geometry.
+     */
+    public void mapZoneProperties(Zone_VersionStructure zone, CompactFeature feature) {
+        mapMultilingualString(FeatureProperty.NAME, FeatureProperty.NAME_LANG, feature, zone.getName());
+        mapMultilingualString(FeatureProperty.DESCRIPTION, FeatureProperty.DESCRIPTION_LANG, feature, zone.getDescription());
+        setPrivateCode(FeatureProperty.PRIVATE_CODE, zone.getPrivateCode(), feature::set);
+        setIfNotNull(FeatureProperty.ID, zone.getId(), feature::set);
+        parseAndMapCodeSpace(zone, feature);
+        feature.set(FeatureProperty.ENTITY_TYPE, zone.getClass().getSimpleName());
+    }
+
+    public void parseAndMapCodeSpace(Zone_VersionStructure zone, CompactFeature feature) {
         if(zone.getId() != null) {
             if(CharMatcher.is(':').countIn(zone.getId()) == 2) {
-                feature.setProperty(CODE_SPACE, zone.getId().split(":")[0]);
+                feature.set(FeatureProperty.CODE_SPACE, codeSpaces.intern(zone.getId(), 0, zone.getId().indexOf(':')));
             }
         }
     }
 
-    public void mapGeometry(Zone_VersionStructure zone, Feature feature) {
+    public void mapGeometry(Zone_VersionStructure zone, CompactFeature feature) {
             if (zone.getCentroid() != null && zone.getCentroid().getLocation() != null) {
                 double latitude = zone.getCentroid().getLocation().getLatitude().doubleValue();
                 double longitude = zone.getCentroid().getLocation().getLongitude().doubleValue();
 
-                LngLatAlt lngLatAlt = new LngLatAlt(longitude, latitude);
-                Point multiPoint = new Point(lngLatAlt);
-                feature.setGeometry(multiPoint);
+                feature.setPoint(longitude, latitude);
             } else if (zone.getPolygon() != null) {
-                List<Double> doubles = extractValues(zone.getPolygon().getExterior());
-                Polygon polygon = new Polygon(convertCoordinateListToLngLatList(doubles));
-                feature.setGeometry(polygon);
+                feature.setPolygon(polygonSimplifier.simplify(feature.getType(), extractCoordinates(zone.getPolygon().getExterior())));
             } else {
                 logger.warn("Cannot find centroid or polygon for Zone with ID: " + zone.getId());
             }
         }
 
-    public List<LngLatAlt> convertCoordinateListToLngLatList(List<Double> coordinateList) {
-        List<LngLatAlt> lngLatAlts = new ArrayList<>();
-        for (int index = 0; index < coordinateList.size(); index += 2) {
-            LngLatAlt lngLatAlt = new LngLatAlt(coordinateList.get(index + 1), coordinateList.get(index));
-            lngLatAlts.add(lngLatAlt);
+    /**
+     * Returns the posList of the ring as a flat array, without boxing if the ring was read by
+     * {@link org.entur.asag.netex.NetexEntityExtractor}.
+     */
+    public double[] extractCoordinates(AbstractRingPropertyType abstractRingPropertyType) {
+        DirectPositionListType posList = extractPosList(abstractRingPropertyType);
+        if (posList instanceof PackedPositionList) {
+            return ((PackedPositionList) posList).getCoordinates();
         }
-        return lngLatAlts;
-
+        List<Double> values = posList.getValue();
+        double[] coordinates = new double[values.size()];
+        for (int index = 0; index < coordinates.length; index++) {
+            coordinates[index] = values.get(index);
+        }
+        return coordinates;
     }
 
-
     public List<Double> extractValues(AbstractRingPropertyType abstractRingPropertyType) {
+        return extractPosList(abstractRingPropertyType).getValue();
+    }
+
+    private static DirectPositionListType extractPosList(AbstractRingPropertyType abstractRingPropertyType) {
         return Optional.of(abstractRingPropertyType)
                 .map(AbstractRingPropertyType::getAbstractRing)
                 .map(JAXBElement::getValue)
                 .map(abstractRing -> ((LinearRingType) abstractRing))
                 .map(LinearRingType::getPosList)
-                .map(DirectPositionListType::getValue)
                 .get();
     }
 }
\ No newline at end of file
@@ -59,8 +59,11 @@ public class MapBoxUploadStatus {
     @JsonProperty("owner")
     private String owner;
 
+    /**
+     * How far Mapbox has come processing the upload, from 0 to 1.
+     */
     @JsonProperty("progress")
-    private Integer progress;
+    private Double progress;
 
     @JsonProperty("message")
     private String message;
@@ -146,12 +149,12 @@ public class MapBoxUploadStatus {
     }
 
     @JsonProperty("progress")
-    public Integer getProgress() {
+    public Double getProgress() {
         return progress;
     }
 
     @JsonProperty("progress")
-    public void setProgress(Integer progress) {
+    public void setProgress(Double progress) {
         this.progress = progress;
     }
 
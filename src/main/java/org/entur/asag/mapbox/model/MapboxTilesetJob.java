@@ -0,0 +1,105 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package org.entur.asag.mapbox.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+
+import java.util.List;
+
+/**
+ * Status of a Mapbox Tiling Service publish job, which is in the stage queued, processing, success or failed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class MapboxTilesetJob {
+
+    public static final String STAGE_SUCCESS = "success";
+    public static final String STAGE_FAILED = "failed";
+
+    @JsonProperty("id")
+    private String id;
+    @JsonProperty("stage")
+    private String stage;
+    @JsonProperty("tilesetId")
+    private String tilesetId;
+    @JsonProperty("errors")
+    private List<Object> errors;
+    @JsonProperty("warnings")
+    private List<Object> warnings;
+
+    @JsonProperty("id")
+    public String getId() {
+        return id;
+    }
+
+    @JsonProperty("id")
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    @JsonProperty("stage")
+    public String getStage() {
+        return stage;
+    }
+
+    @JsonProperty("stage")
+    public void setStage(String stage) {
+        this.stage = stage;
+    }
+
+    @JsonProperty("tilesetId")
+    public String getTilesetId() {
+        return tilesetId;
+    }
+
+    @JsonProperty("tilesetId")
+    public void setTilesetId(String tilesetId) {
+        this.tilesetId = tilesetId;
+    }
+
+    @JsonProperty("errors")
+    public List<Object> getErrors() {
+        return errors;
+    }
+
+    @JsonProperty("errors")
+    public void setErrors(List<Object> errors) {
+        this.errors = errors;
+    }
+
+    @JsonProperty("warnings")
+    public List<Object> getWarnings() {
+        return warnings;
+    }
+
+    @JsonProperty("warnings")
+    public void setWarnings(List<Object> warnings) {
+        this.warnings = warnings;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", id)
+                .add("stage", stage)
+                .add("tilesetId", tilesetId)
+                .add("errors", errors)
+                .add("warnings", warnings)
+                .toString();
+    }
+}
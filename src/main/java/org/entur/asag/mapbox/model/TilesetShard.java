@@ -0,0 +1,67 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.model;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.File;
+
+/**
+ * A GeoJSON file holding part of the features, to be uploaded as a tileset of its own.
+ */
+public class TilesetShard {
+
+    private final String key;
+    private final String tilesetName;
+    private final File file;
+    private final int features;
+
+    public TilesetShard(String key, String tilesetName, File file, int features) {
+        this.key = key;
+        this.tilesetName = tilesetName;
+        this.file = file;
+        this.features = features;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the tileset the shard is uploaded to, as username.name
+     */
+    public String getTilesetName() {
+        return tilesetName;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getFeatures() {
+        return features;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("key", key)
+                .add("tilesetName", tilesetName)
+                .add("features", features)
+                .toString();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package org.entur.asag.mapbox.model;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.File;
+
+/**
+ * A line-delimited GeoJSON file holding the features of one tileset layer, to be uploaded as a Mapbox Tiling Service
+ * tileset source.
+ */
+public class TilesetSource {
+
+    private final String layer;
+    private final String id;
+    private final File file;
+    private final int features;
+    private final boolean changed;
+
+    public TilesetSource(String layer, String id, File file, int features, boolean changed) {
+        this.layer = layer;
+        this.id = id;
+        this.file = file;
+        this.features = features;
+        this.changed = changed;
+    }
+
+    public String getLayer() {
+        return layer;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getFeatures() {
+        return features;
+    }
+
+    /**
+     * @return whether the features differ from those of the source the last time the tileset was published
+     */
+    public boolean isChanged() {
+        return changed;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("layer", layer)
+                .add("id", id)
+                .add("features", features)
+                .add("changed", changed)
+                .toString();
+    }
+}
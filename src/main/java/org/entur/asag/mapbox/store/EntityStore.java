@@ -0,0 +1,35 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox.store;
+
+import java.io.Closeable;
+
+/**
+ * Entities held between parsing and writing. The order of iteration is up to the store, and iterating may not be
+ * mixed with adding more.
+ */
+public interface EntityStore<T> extends Iterable<T>, Closeable {
+
+    void add(T entity);
+
+    long size();
+
+    /**
+     * Release what the store holds, including any files it has written.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,303 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox.store;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps the first entities as objects on the heap, and the rest encoded in compressed blocks. The blocks stay in
+ * memory up to a budget of compressed bytes, after which they are appended to a file in the spill directory. Memory
+ * use is then bounded by the hot entities, the budget and one block, whatever the number of entities, at the cost of
+ * encoding and compressing the overflow, and decoding it again on iteration.
+ * <p>
+ * Iteration gives the entities in the order they were added, decoding one block at a time. Not thread safe.
+ */
+public class TieredEntityStore<T> implements EntityStore<T> {
+
+    /**
+     * Encoded bytes gathered before a block is compressed.
+     */
+    static final int BLOCK_SIZE = 1 << 20;
+
+    private final EntityCodec<T> codec;
+
+    private final int hotCapacity;
+
+    private final long memoryBudget;
+
+    private final Path spillDirectory;
+
+    private final String name;
+
+    private final List<T> hot = new ArrayList<>();
+
+    private final List<Block> blocks = new ArrayList<>();
+
+    private final ByteArrayOutputStream openBlock = new ByteArrayOutputStream();
+
+    private final DataOutputStream openBlockOutput = new DataOutputStream(openBlock);
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+    private int openBlockEntities;
+
+    private long compressedInMemory;
+
+    private long compressedOnDisk;
+
+    private long size;
+
+    private Path spillFile;
+
+    private FileChannel spillChannel;
+
+    /**
+     * @param name           used in the name of the spill file and in logging
+     * @param hotCapacity    entities kept as objects
+     * @param memoryBudget   compressed bytes kept in memory before blocks are spilled to disk
+     * @param spillDirectory where the spill file is created, when needed
+     */
+    public TieredEntityStore(String name, EntityCodec<T> codec, int hotCapacity, long memoryBudget, Path spillDirectory) {
+        this.name = name;
+        this.codec = codec;
+        this.hotCapacity = Math.max(0, hotCapacity);
+        this.memoryBudget = Math.max(0, memoryBudget);
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public void add(T entity) {
+        size++;
+        if (hot.size() < hotCapacity) {
+            hot.add(entity);
+            return;
+        }
+        byte[] encoded = codec.encode(entity);
+        try {
+            openBlockOutput.writeInt(encoded.length);
+            openBlockOutput.write(encoded);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        openBlockEntities++;
+        if (openBlock.size() >= BLOCK_SIZE) {
+            closeBlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        closeBlock();
+        return new TieredIterator();
+    }
+
+    @Override
+    public void close() {
+        hot.clear();
+        blocks.clear();
+        openBlock.reset();
+        openBlockEntities = 0;
+        deflater.end();
+        if (spillChannel != null) {
+            try {
+                spillChannel.close();
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Deleting spill file " + spillFile + " failed: " + e.getMessage(), e);
+            } finally {
+                spillChannel = null;
+            }
+        }
+    }
+
+    long hotEntities() {
+        return hot.size();
+    }
+
+    long compressedInMemory() {
+        return compressedInMemory;
+    }
+
+    long compressedOnDisk() {
+        return compressedOnDisk;
+    }
+
+    Path spillFile() {
+        return spillFile;
+    }
+
+    private void closeBlock() {
+        if (openBlockEntities == 0) {
+            return;
+        }
+        byte[] compressed = compress();
+        Block block = new Block(openBlockEntities);
+        if (compressedInMemory + compressed.length <= memoryBudget) {
+            block.compressed = compressed;
+            compressedInMemory += compressed.length;
+        } else {
+            spill(block, compressed);
+        }
+        blocks.add(block);
+        openBlock.reset();
+        openBlockEntities = 0;
+    }
+
+    private byte[] compress() {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(openBlock.size() / 4);
+        deflater.reset();
+        try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(compressed, deflater)) {
+            openBlock.writeTo(deflaterOutputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    private void spill(Block block, byte[] compressed) {
+        try {
+            if (spillChannel == null) {
+                Files.createDirectories(spillDirectory);
+                spillFile = Files.createTempFile(spillDirectory, "asag-" + name + "-", ".spill");
+                spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            block.offset = compressedOnDisk;
+            block.length = compressed.length;
+            ByteBuffer buffer = ByteBuffer.wrap(compressed);
+            while (buffer.hasRemaining()) {
+                spillChannel.write(buffer, block.offset + buffer.position());
+            }
+            compressedOnDisk += compressed.length;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Spilling " + name + " to " + spillDirectory + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    private List<T> decode(Block block) {
+        byte[] compressed = block.compressed != null ? block.compressed : readSpilled(block);
+        List<T> entities = new ArrayList<>(block.entities);
+        Inflater inflater = new Inflater(true);
+        try (DataInputStream input = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed), inflater))) {
+            for (int i = 0; i < block.entities; i++) {
+                byte[] encoded = new byte[input.readInt()];
+                input.readFully(encoded);
+                entities.add(codec.decode(encoded));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Reading " + name + " block failed: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        return entities;
+    }
+
+    private byte[] readSpilled(Block block) {
+        ByteBuffer buffer = ByteBuffer.allocate(block.length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (spillChannel.read(buffer, block.offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of spill file at " + (block.offset + buffer.position()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Reading " + name + " from " + spillFile + " failed: " + e.getMessage(), e);
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("name", name)
+                .add("size", size)
+                .add("hot", hot.size())
+                .add("blocks", blocks.size())
+                .add("compressedInMemory", compressedInMemory)
+                .add("compressedOnDisk", compressedOnDisk)
+                .toString();
+    }
+
+    /**
+     * Compressed entities, either in memory or at an offset of the spill file.
+     */
+    private static class Block {
+
+        private final int entities;
+
+        private byte[] compressed;
+
+        private long offset;
+
+        private int length;
+
+        Block(int entities) {
+            this.entities = entities;
+        }
+    }
+
+    private class TieredIterator implements Iterator<T> {
+
+        private Iterator<T> current = hot.iterator();
+
+        private int nextBlock;
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (nextBlock >= blocks.size()) {
+                    current = Collections.emptyIterator();
+                    return false;
+                }
+                current = decode(blocks.get(nextBlock++)).iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+}
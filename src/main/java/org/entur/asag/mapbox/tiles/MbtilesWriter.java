@@ -0,0 +1,104 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.tiles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+/**
+ * Writes tiles into an MBTiles 1.3 file, the SQLite database Mapbox accepts as an upload and tile servers serve
+ * from. Tiles are inserted in batches, in one transaction which is only committed when every tile is written.
+ */
+final class MbtilesWriter implements AutoCloseable {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final Connection connection;
+    private final PreparedStatement insertTile;
+    private int batched;
+
+    MbtilesWriter(Path file) throws IOException, SQLException {
+        Files.deleteIfExists(file);
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.toAbsolutePath());
+        try (Statement statement = connection.createStatement()) {
+            // The file is written from scratch, and is of no use if the transform fails half way.
+            statement.execute("PRAGMA journal_mode = OFF");
+            statement.execute("PRAGMA synchronous = OFF");
+            statement.execute("CREATE TABLE metadata (name TEXT, value TEXT)");
+            statement.execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)");
+        }
+        connection.setAutoCommit(false);
+        insertTile = connection.prepareStatement("INSERT INTO tiles (zoom_level, tile_column, tile_row, tile_data) VALUES (?, ?, ?, ?)");
+    }
+
+    /**
+     * @param y counted from the top, which is flipped into the TMS rows MBTiles counts from the bottom
+     */
+    void writeTile(int zoom, int x, int y, byte[] data) throws SQLException {
+        insertTile.setInt(1, zoom);
+        insertTile.setInt(2, x);
+        insertTile.setInt(3, (1 << zoom) - 1 - y);
+        insertTile.setBytes(4, data);
+        insertTile.addBatch();
+        if (++batched == BATCH_SIZE) {
+            insertTile.executeBatch();
+            batched = 0;
+        }
+    }
+
+    void writeMetadata(Map<String, String> metadata) throws SQLException {
+        try (PreparedStatement insertMetadata = connection.prepareStatement("INSERT INTO metadata (name, value) VALUES (?, ?)")) {
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                insertMetadata.setString(1, entry.getKey());
+                insertMetadata.setString(2, entry.getValue());
+                insertMetadata.addBatch();
+            }
+            insertMetadata.executeBatch();
+        }
+    }
+
+    /**
+     * Indexes the tiles once they are all inserted, which is faster than keeping the index up to date, and commits.
+     */
+    void commit() throws SQLException {
+        if (batched > 0) {
+            insertTile.executeBatch();
+            batched = 0;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+            statement.execute("CREATE UNIQUE INDEX name ON metadata (name)");
+        }
+        connection.commit();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            insertTile.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
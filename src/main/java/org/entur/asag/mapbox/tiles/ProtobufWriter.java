@@ -0,0 +1,148 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.tiles;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes protocol buffer messages field by field, with just the wire types the vector tile schema uses.
+ */
+final class ProtobufWriter {
+
+    static final int WIRE_TYPE_VARINT = 0;
+    static final int WIRE_TYPE_FIXED64 = 1;
+    static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+
+    private byte[] buffer;
+    private int size;
+
+    ProtobufWriter() {
+        this(64);
+    }
+
+    ProtobufWriter(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    void writeVarintField(int field, long value) {
+        writeTag(field, WIRE_TYPE_VARINT);
+        writeVarint(value);
+    }
+
+    void writeSignedVarintField(int field, long value) {
+        writeVarintField(field, zigZag(value));
+    }
+
+    void writeBoolField(int field, boolean value) {
+        writeVarintField(field, value ? 1 : 0);
+    }
+
+    void writeDoubleField(int field, double value) {
+        writeTag(field, WIRE_TYPE_FIXED64);
+        long bits = Double.doubleToRawLongBits(value);
+        ensureCapacity(Long.BYTES);
+        for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE) {
+            buffer[size++] = (byte) (bits >>> shift);
+        }
+    }
+
+    void writeStringField(int field, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeBytesField(field, bytes, bytes.length);
+    }
+
+    void writeMessageField(int field, ProtobufWriter message) {
+        writeBytesField(field, message.buffer, message.size);
+    }
+
+    /**
+     * Appends fields already written by another writer.
+     */
+    void writeRaw(ProtobufWriter fields) {
+        ensureCapacity(fields.size);
+        System.arraycopy(fields.buffer, 0, buffer, size, fields.size);
+        size += fields.size;
+    }
+
+    /**
+     * Writes unsigned 32 bit integers as one length delimited field.
+     */
+    void writePackedField(int field, int[] values, int count) {
+        int length = 0;
+        for (int index = 0; index < count; index++) {
+            length += varintSize(Integer.toUnsignedLong(values[index]));
+        }
+        writeTag(field, WIRE_TYPE_LENGTH_DELIMITED);
+        writeVarint(length);
+        for (int index = 0; index < count; index++) {
+            writeVarint(Integer.toUnsignedLong(values[index]));
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeBytesField(int field, byte[] bytes, int length) {
+        writeTag(field, WIRE_TYPE_LENGTH_DELIMITED);
+        writeVarint(length);
+        ensureCapacity(length);
+        System.arraycopy(bytes, 0, buffer, size, length);
+        size += length;
+    }
+
+    private void writeTag(int field, int wireType) {
+        writeVarint(((long) field << 3) | wireType);
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7fL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    private static int varintSize(long value) {
+        int bytes = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.tiles;
+
+import org.entur.asag.mapbox.mapper.FeatureType;
+
+/**
+ * A feature read back from the GeoJSON, with the positions of a point in world coordinates and those of a polygon in
+ * latitude and longitude, so that they can be simplified for each zoom level before they are projected.
+ */
+final class TileFeature {
+
+    private final FeatureType type;
+    private final String[] keys;
+    private final Object[] values;
+    private final double[] point;
+    private final double[][] rings;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    private TileFeature(FeatureType type, String[] keys, Object[] values, double[] point, double[][] rings,
+                        double minX, double minY, double maxX, double maxY) {
+        this.type = type;
+        this.keys = keys;
+        this.values = values;
+        this.point = point;
+        this.rings = rings;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    static TileFeature point(FeatureType type, String[] keys, Object[] values, double latitude, double longitude) {
+        double x = TileGeometry.worldX(longitude);
+        double y = TileGeometry.worldY(latitude);
+        return new TileFeature(type, keys, values, new double[]{x, y}, null, x, y, x, y);
+    }
+
+    /**
+     * @param rings the exterior ring followed by its holes, each closed, with latitude before longitude
+     */
+    static TileFeature polygon(FeatureType type, String[] keys, Object[] values, double[][] rings) {
+        double[] exterior = rings[0];
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int index = 0; index < exterior.length; index += 2) {
+            double x = TileGeometry.worldX(exterior[index + 1]);
+            double y = TileGeometry.worldY(exterior[index]);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        return new TileFeature(type, keys, values, null, rings, minX, minY, maxX, maxY);
+    }
+
+    FeatureType getType() {
+        return type;
+    }
+
+    String[] getKeys() {
+        return keys;
+    }
+
+    Object[] getValues() {
+        return values;
+    }
+
+    boolean isPoint() {
+        return point != null;
+    }
+
+    /**
+     * @return the world x and y of a point
+     */
+    double[] getPoint() {
+        return point;
+    }
+
+    double[][] getRings() {
+        return rings;
+    }
+
+    double getMinX() {
+        return minX;
+    }
+
+    double getMinY() {
+        return minY;
+    }
+
+    double getMaxX() {
+        return maxX;
+    }
+
+    double getMaxY() {
+        return maxY;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.tiles;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.entur.asag.mapbox.GeoJsonFeatureReader;
+import org.entur.asag.mapbox.mapper.FeatureType;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.entur.asag.mapbox.mapper.ZoneToGeoJsonFeatureMapper.ENTITY_TYPE;
+
+/**
+ * Reads the points and polygons of a written GeoJSON file into tile features, with their properties as values a
+ * vector tile can hold.
+ */
+final class TileFeatureReader {
+
+    /**
+     * Every feature of a type has the same keys, which are kept once.
+     */
+    private final Map<String, String> keys = new HashMap<>();
+
+    private int skipped;
+
+    List<TileFeature> read(Path path) throws IOException {
+        List<TileFeature> features = new ArrayList<>();
+        GeoJsonFeatureReader.forEachFeature(path, feature -> add(features, feature));
+        return features;
+    }
+
+    /**
+     * @return the number of features read without a point or polygon geometry
+     */
+    int getSkipped() {
+        return skipped;
+    }
+
+    private void add(List<TileFeature> features, JsonNode feature) {
+        JsonNode properties = feature.path("properties");
+        List<String> featureKeys = new ArrayList<>(properties.size());
+        List<Object> featureValues = new ArrayList<>(properties.size());
+        for (Iterator<Map.Entry<String, JsonNode>> fields = properties.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            Object value = valueOf(field.getValue());
+            if (value != null) {
+                featureKeys.add(keys.computeIfAbsent(field.getKey(), key -> key));
+                featureValues.add(value);
+            }
+        }
+        FeatureType type = FeatureType.ofEntityType(properties.path(ENTITY_TYPE).textValue());
+        String[] keyArray = featureKeys.toArray(new String[0]);
+        Object[] valueArray = featureValues.toArray();
+
+        JsonNode geometry = feature.path("geometry");
+        JsonNode coordinates = geometry.path("coordinates");
+        switch (geometry.path("type").asText()) {
+            case "Point":
+                features.add(TileFeature.point(type, keyArray, valueArray,
+                        coordinates.get(1).asDouble(), coordinates.get(0).asDouble()));
+                break;
+            case "Polygon":
+                double[][] rings = new double[coordinates.size()][];
+                for (int ring = 0; ring < rings.length; ring++) {
+                    JsonNode positions = coordinates.get(ring);
+                    rings[ring] = new double[positions.size() * 2];
+                    for (int position = 0; position < positions.size(); position++) {
+                        rings[ring][2 * position] = positions.get(position).get(1).asDouble();
+                        rings[ring][2 * position + 1] = positions.get(position).get(0).asDouble();
+                    }
+                }
+                if (rings.length > 0 && rings[0].length >= 8) {
+                    features.add(TileFeature.polygon(type, keyArray, valueArray, rings));
+                } else {
+                    skipped++;
+                }
+                break;
+            default:
+                skipped++;
+        }
+    }
+
+    /**
+     * Vector tiles have no arrays or objects, so those are kept as JSON strings, as Mapbox does for uploaded GeoJSON.
+     */
+    private static Object valueOf(JsonNode node) {
+        if (node.isTextual()) {
+            return node.textValue();
+        } else if (node.isBoolean()) {
+            return node.booleanValue();
+        } else if (node.isIntegralNumber() && node.canConvertToLong()) {
+            return node.longValue();
+        } else if (node.isNumber()) {
+            return node.doubleValue();
+        } else if (node.isContainerNode()) {
+            return node.toString();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.tiles;
+
+import java.util.Arrays;
+
+/**
+ * Web mercator projection, clipping and quantization of feature geometries into tile coordinates.
+ * <p>
+ * World coordinates run from 0 to 1, west to east and north to south, so that a tile at zoom z covers 1 / 2^z of
+ * them in each direction.
+ */
+final class TileGeometry {
+
+    private static final double MAX_LATITUDE = 85.0511287798066;
+
+    private TileGeometry() {
+    }
+
+    static double worldX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    static double worldY(double latitude) {
+        double sin = Math.sin(Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    static double longitude(double worldX) {
+        return worldX * 360 - 180;
+    }
+
+    static double latitude(double worldY) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * worldY))));
+    }
+
+    /**
+     * Clips a ring to a square with the Sutherland-Hodgman algorithm. The clipped ring follows the square's edges
+     * where the ring was cut, which keeps the area filled when the square is part of a larger polygon.
+     *
+     * @param ring x and y pairs, without the closing position
+     * @return the clipped ring, without the closing position, and empty if nothing is inside the square
+     */
+    static double[] clip(double[] ring, double min, double max) {
+        double[] clipped = ring;
+        for (int edge = 0; edge < 4 && clipped.length > 0; edge++) {
+            clipped = clipEdge(clipped, edge, edge < 2 ? min : max);
+        }
+        return clipped;
+    }
+
+    /**
+     * Rounds the ring to integer tile coordinates, and drops positions rounded onto the one before.
+     *
+     * @param ring x and y pairs, without the closing position
+     * @return the quantized ring, or null if less than three positions are left
+     */
+    static int[] quantize(double[] ring) {
+        int[] quantized = new int[ring.length];
+        int length = 0;
+        for (int index = 0; index < ring.length; index += 2) {
+            int x = (int) Math.round(ring[index]);
+            int y = (int) Math.round(ring[index + 1]);
+            if (length == 0 || x != quantized[length - 2] || y != quantized[length - 1]) {
+                quantized[length++] = x;
+                quantized[length++] = y;
+            }
+        }
+        while (length >= 4 && quantized[0] == quantized[length - 2] && quantized[1] == quantized[length - 1]) {
+            length -= 2;
+        }
+        return length < 6 ? null : Arrays.copyOf(quantized, length);
+    }
+
+    /**
+     * @return twice the area of the ring by the surveyor's formula, positive for a ring going clockwise when y points
+     * down, as in tile coordinates
+     */
+    static long signedArea(int[] ring) {
+        long area = 0;
+        int length = ring.length;
+        for (int index = 0; index < length; index += 2) {
+            int next = (index + 2) % length;
+            area += (long) ring[index] * ring[next + 1] - (long) ring[next] * ring[index + 1];
+        }
+        return area;
+    }
+
+    /**
+     * Reverses the order of the positions in the ring, in place.
+     */
+    static void reverse(int[] ring) {
+        for (int left = 0, right = ring.length - 2; left < right; left += 2, right -= 2) {
+            int x = ring[left];
+            int y = ring[left + 1];
+            ring[left] = ring[right];
+            ring[left + 1] = ring[right + 1];
+            ring[right] = x;
+            ring[right + 1] = y;
+        }
+    }
+
+    /**
+     * @param edge 0 for the left, 1 for the top, 2 for the right and 3 for the bottom edge
+     */
+    private static double[] clipEdge(double[] ring, int edge, double bound) {
+        int axis = edge % 2;
+        boolean keepAbove = edge < 2;
+        double[] clipped = new double[ring.length * 2];
+        int length = 0;
+        int count = ring.length / 2;
+        double previousX = ring[ring.length - 2];
+        double previousY = ring[ring.length - 1];
+        boolean previousInside = inside(axis == 0 ? previousX : previousY, bound, keepAbove);
+        for (int index = 0; index < count; index++) {
+            double x = ring[2 * index];
+            double y = ring[2 * index + 1];
+            boolean inside = inside(axis == 0 ? x : y, bound, keepAbove);
+            if (inside != previousInside) {
+                double t = ((axis == 0 ? previousX : previousY) - bound)
+                        / ((axis == 0 ? previousX - x : previousY - y));
+                clipped[length++] = axis == 0 ? bound : previousX + (x - previousX) * t;
+                clipped[length++] = axis == 0 ? previousY + (y - previousY) * t : bound;
+            }
+            if (inside) {
+                clipped[length++] = x;
+                clipped[length++] = y;
+            }
+            previousX = x;
+            previousY = y;
+            previousInside = inside;
+        }
+        return length == clipped.length ? clipped : Arrays.copyOf(clipped, length);
+    }
+
+    private static boolean inside(double value, double bound, boolean keepAbove) {
+        return keepAbove ? value >= bound : value <= bound;
+    }
+}
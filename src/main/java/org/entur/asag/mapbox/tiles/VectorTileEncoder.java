@@ -0,0 +1,190 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.tiles;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the features of one tile as a single layer of a Mapbox Vector Tile, version 2.1, with the keys and values
+ * of their properties shared in the layer's tables.
+ */
+final class VectorTileEncoder {
+
+    private static final int TILE_LAYERS = 3;
+
+    private static final int LAYER_NAME = 1;
+    private static final int LAYER_FEATURES = 2;
+    private static final int LAYER_KEYS = 3;
+    private static final int LAYER_VALUES = 4;
+    private static final int LAYER_EXTENT = 5;
+    private static final int LAYER_VERSION = 15;
+
+    private static final int FEATURE_TAGS = 2;
+    private static final int FEATURE_TYPE = 3;
+    private static final int FEATURE_GEOMETRY = 4;
+
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_DOUBLE = 3;
+    private static final int VALUE_UINT = 5;
+    private static final int VALUE_SINT = 6;
+    private static final int VALUE_BOOL = 7;
+
+    static final int GEOMETRY_POINT = 1;
+    static final int GEOMETRY_POLYGON = 3;
+
+    private static final int COMMAND_MOVE_TO = 1;
+    private static final int COMMAND_LINE_TO = 2;
+    private static final int COMMAND_CLOSE_PATH = 7;
+
+    private static final int VERSION = 2;
+
+    private final String layerName;
+    private final int extent;
+    private final Map<String, Integer> keys = new LinkedHashMap<>();
+    private final Map<Object, Integer> values = new LinkedHashMap<>();
+    private final ProtobufWriter features = new ProtobufWriter(1024);
+
+    private int[] tags = new int[32];
+    private int[] geometry = new int[64];
+    private int geometryLength;
+    private int cursorX;
+    private int cursorY;
+    private int featureCount;
+
+    VectorTileEncoder(String layerName, int extent) {
+        this.layerName = layerName;
+        this.extent = extent;
+    }
+
+    /**
+     * @param values strings, booleans, longs or doubles, with the same index as their keys
+     */
+    void addPoint(String[] keys, Object[] values, int x, int y) {
+        startGeometry();
+        command(COMMAND_MOVE_TO, 1);
+        position(x, y);
+        addFeature(keys, values, GEOMETRY_POINT);
+    }
+
+    /**
+     * @param rings the exterior ring followed by its holes, as x and y pairs in tile coordinates, oriented as the
+     *              specification requires and without the closing position
+     */
+    void addPolygon(String[] keys, Object[] values, List<int[]> rings) {
+        startGeometry();
+        for (int[] ring : rings) {
+            command(COMMAND_MOVE_TO, 1);
+            position(ring[0], ring[1]);
+            command(COMMAND_LINE_TO, ring.length / 2 - 1);
+            for (int index = 2; index < ring.length; index += 2) {
+                position(ring[index], ring[index + 1]);
+            }
+            command(COMMAND_CLOSE_PATH, 1);
+        }
+        addFeature(keys, values, GEOMETRY_POLYGON);
+    }
+
+    boolean isEmpty() {
+        return featureCount == 0;
+    }
+
+    byte[] encode() {
+        ProtobufWriter layer = new ProtobufWriter(features.size() + 1024);
+        layer.writeStringField(LAYER_NAME, layerName);
+        layer.writeRaw(features);
+        for (String key : keys.keySet()) {
+            layer.writeStringField(LAYER_KEYS, key);
+        }
+        for (Object value : values.keySet()) {
+            layer.writeMessageField(LAYER_VALUES, encodeValue(value));
+        }
+        layer.writeVarintField(LAYER_EXTENT, extent);
+        layer.writeVarintField(LAYER_VERSION, VERSION);
+
+        ProtobufWriter tile = new ProtobufWriter(layer.size() + 8);
+        tile.writeMessageField(TILE_LAYERS, layer);
+        return tile.toByteArray();
+    }
+
+    private void addFeature(String[] featureKeys, Object[] featureValues, int type) {
+        int tagCount = 0;
+        for (int index = 0; index < featureKeys.length; index++) {
+            if (featureValues[index] == null) {
+                continue;
+            }
+            if (tagCount + 2 > tags.length) {
+                tags = Arrays.copyOf(tags, tags.length * 2);
+            }
+            tags[tagCount++] = keys.computeIfAbsent(featureKeys[index], key -> keys.size());
+            tags[tagCount++] = values.computeIfAbsent(featureValues[index], value -> values.size());
+        }
+
+        // Features are written into the layer one by one, so each is prefixed by its tag and length.
+        ProtobufWriter feature = new ProtobufWriter(geometryLength * 2 + tagCount * 2 + 16);
+        feature.writePackedField(FEATURE_TAGS, tags, tagCount);
+        feature.writeVarintField(FEATURE_TYPE, type);
+        feature.writePackedField(FEATURE_GEOMETRY, geometry, geometryLength);
+        features.writeMessageField(LAYER_FEATURES, feature);
+        featureCount++;
+    }
+
+    private static ProtobufWriter encodeValue(Object value) {
+        ProtobufWriter writer = new ProtobufWriter(16);
+        if (value instanceof Boolean) {
+            writer.writeBoolField(VALUE_BOOL, (Boolean) value);
+        } else if (value instanceof Long) {
+            long longValue = (Long) value;
+            if (longValue >= 0) {
+                writer.writeVarintField(VALUE_UINT, longValue);
+            } else {
+                writer.writeSignedVarintField(VALUE_SINT, longValue);
+            }
+        } else if (value instanceof Double) {
+            writer.writeDoubleField(VALUE_DOUBLE, (Double) value);
+        } else {
+            writer.writeStringField(VALUE_STRING, value.toString());
+        }
+        return writer;
+    }
+
+    private void startGeometry() {
+        geometryLength = 0;
+        cursorX = 0;
+        cursorY = 0;
+    }
+
+    private void command(int id, int count) {
+        append((id & 0x7) | (count << 3));
+    }
+
+    private void position(int x, int y) {
+        append(ProtobufWriter.zigZag(x - cursorX));
+        append(ProtobufWriter.zigZag(y - cursorY));
+        cursorX = x;
+        cursorY = y;
+    }
+
+    private void append(int value) {
+        if (geometryLength == geometry.length) {
+            geometry = Arrays.copyOf(geometry, geometry.length * 2);
+        }
+        geometry[geometryLength++] = value;
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.tiles;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.camel.Header;
+import org.entur.asag.mapbox.mapper.FeatureType;
+import org.entur.asag.mapbox.mapper.PolygonSimplifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.GEOJSON_FILE;
+
+/**
+ * Builds vector tiles from the written GeoJSON, instead of leaving the tiling to Mapbox, and writes them to an
+ * MBTiles file next to it. The file can be uploaded to Mapbox as it is, or served locally.
+ * <p>
+ * For every zoom level, polygons are simplified with the same tolerance as {@link PolygonSimplifier} uses, and each
+ * feature is assigned to the tiles it covers, including a buffer around each tile. The zoom levels are prepared in
+ * parallel, and their tiles are then clipped and encoded in parallel while the encoded tiles are written to the file
+ * on the calling thread.
+ */
+@Service
+public class VectorTileEngine {
+    private static final Logger logger = LoggerFactory.getLogger(VectorTileEngine.class);
+
+    public static final String MBTILES_FILE_EXTENSION = ".mbtiles";
+
+    private static final String GEOJSON_FILE_EXTENSION = ".geojson";
+
+    /**
+     * Mapbox rejects uploads with tiles larger than this.
+     */
+    private static final int MAPBOX_MAX_TILE_SIZE = 500 * 1024;
+
+    private static final int IN_FLIGHT_TILES_PER_THREAD = 4;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Value("${asag.tiles.minzoom:0}")
+    private int minZoom = 0;
+
+    @Value("${asag.tiles.maxzoom:14}")
+    private int maxZoom = 14;
+
+    /**
+     * Lowest zoom level stop places are shown at, which keeps the tiles at low zoom levels small.
+     */
+    @Value("${asag.tiles.stop.place.minzoom:8}")
+    private int stopPlaceMinZoom = 8;
+
+    @Value("${asag.tiles.quay.minzoom:13}")
+    private int quayMinZoom = 13;
+
+    @Value("${asag.tiles.parking.minzoom:12}")
+    private int parkingMinZoom = 12;
+
+    @Value("${asag.tiles.layer.name:asag}")
+    private String layerName = "asag";
+
+    @Value("${asag.tiles.extent:4096}")
+    private int extent = 4096;
+
+    /**
+     * Width of the area around each tile, in tile coordinates, that features are kept in. Lets symbols and lines
+     * drawn across the edge of a tile be rendered without seams.
+     */
+    @Value("${asag.tiles.buffer:64}")
+    private int buffer = 64;
+
+    /**
+     * Threads preparing zoom levels and encoding tiles. Zero or less uses one per available processor.
+     */
+    @Value("${asag.tiles.threads:0}")
+    private int threads;
+
+    @Value("${asag.simplify.tolerance.pixels:0.5}")
+    private double tolerancePixels = 0.5;
+
+    /**
+     * @return the MBTiles file written
+     */
+    public File buildMbtiles(@Header(GEOJSON_FILE) String geoJsonFile) throws IOException, SQLException, InterruptedException {
+        long started = System.currentTimeMillis();
+        Path source = Paths.get(geoJsonFile);
+        Path target = source.resolveSibling(mbtilesFileName(source.getFileName().toString()));
+
+        TileFeatureReader reader = new TileFeatureReader();
+        List<TileFeature> features = reader.read(source);
+        logger.info("Read {} features from {} to build tiles at zoom levels {} to {}, skipped {} without point or polygon",
+                features.size(), source, minZoom, maxZoom, reader.getSkipped());
+
+        int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        TileStatistics statistics = new TileStatistics();
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try (MbtilesWriter writer = new MbtilesWriter(target)) {
+            List<Future<ZoomLevel>> zoomLevels = new ArrayList<>();
+            for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+                int currentZoom = zoom;
+                zoomLevels.add(executorService.submit(() -> prepare(features, currentZoom)));
+            }
+
+            CompletionService<EncodedTile> completionService = new ExecutorCompletionService<>(executorService);
+            int maxInFlight = threadCount * IN_FLIGHT_TILES_PER_THREAD;
+            int inFlight = 0;
+            for (int index = 0; index < zoomLevels.size(); index++) {
+                ZoomLevel zoomLevel = get(zoomLevels.get(index));
+                // Let go of the zoom level once its tiles are encoded.
+                zoomLevels.set(index, null);
+                for (Map.Entry<Long, TileFeatures> tile : zoomLevel.tiles.entrySet()) {
+                    if (inFlight == maxInFlight) {
+                        write(writer, get(completionService.take()), statistics);
+                        inFlight--;
+                    }
+                    long key = tile.getKey();
+                    TileFeatures tileFeatures = tile.getValue();
+                    completionService.submit(() -> encode(features, zoomLevel, (int) (key >>> 32), (int) key, tileFeatures));
+                    inFlight++;
+                }
+            }
+            for (; inFlight > 0; inFlight--) {
+                write(writer, get(completionService.take()), statistics);
+            }
+
+            writer.writeMetadata(metadata(features));
+            writer.commit();
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        statistics.log(target, System.currentTimeMillis() - started);
+        return target.toFile();
+    }
+
+    /**
+     * @return the name of the MBTiles file built from a GeoJSON file, without its GeoJSON and gzip extensions
+     */
+    public static String mbtilesFileName(String geoJsonFileName) {
+        int extension = geoJsonFileName.lastIndexOf(GEOJSON_FILE_EXTENSION);
+        return (extension > 0 ? geoJsonFileName.substring(0, extension) : geoJsonFileName) + MBTILES_FILE_EXTENSION;
+    }
+
+    private ZoomLevel prepare(List<TileFeature> features, int zoom) {
+        int tileCount = 1 << zoom;
+        double margin = (double) buffer / extent / tileCount;
+        double tolerance = PolygonSimplifier.toleranceForZoom(zoom, tolerancePixels);
+        ZoomLevel zoomLevel = new ZoomLevel(zoom, features.size());
+        for (int index = 0; index < features.size(); index++) {
+            TileFeature feature = features.get(index);
+            if (zoom < minZoom(feature.getType())) {
+                continue;
+            }
+            if (!feature.isPoint()) {
+                zoomLevel.rings[index] = project(feature.getRings(), tolerance);
+            }
+            int minTileX = tileIndex(feature.getMinX() - margin, tileCount);
+            int maxTileX = tileIndex(feature.getMaxX() + margin, tileCount);
+            int minTileY = tileIndex(feature.getMinY() - margin, tileCount);
+            int maxTileY = tileIndex(feature.getMaxY() + margin, tileCount);
+            for (int x = minTileX; x <= maxTileX; x++) {
+                for (int y = minTileY; y <= maxTileY; y++) {
+                    zoomLevel.tiles.computeIfAbsent(((long) x << 32) | y, key -> new TileFeatures()).add(index);
+                }
+            }
+        }
+        return zoomLevel;
+    }
+
+    private EncodedTile encode(List<TileFeature> features, ZoomLevel zoomLevel, int x, int y, TileFeatures tileFeatures) {
+        VectorTileEncoder encoder = new VectorTileEncoder(layerName, extent);
+        double scale = (1 << zoomLevel.zoom) * (double) extent;
+        double offsetX = (double) x * extent;
+        double offsetY = (double) y * extent;
+        int min = -buffer;
+        int max = extent + buffer;
+        for (int position = 0; position < tileFeatures.size; position++) {
+            int index = tileFeatures.indices[position];
+            TileFeature feature = features.get(index);
+            if (feature.isPoint()) {
+                double pointX = feature.getPoint()[0] * scale - offsetX;
+                double pointY = feature.getPoint()[1] * scale - offsetY;
+                if (pointX >= min && pointX <= max && pointY >= min && pointY <= max) {
+                    encoder.addPoint(feature.getKeys(), feature.getValues(), (int) Math.round(pointX), (int) Math.round(pointY));
+                }
+                continue;
+            }
+
+            double[][] worldRings = zoomLevel.rings[index];
+            List<int[]> rings = new ArrayList<>(worldRings.length);
+            for (int ring = 0; ring < worldRings.length; ring++) {
+                double[] tileRing = new double[worldRings[ring].length];
+                for (int coordinate = 0; coordinate < tileRing.length; coordinate += 2) {
+                    tileRing[coordinate] = worldRings[ring][coordinate] * scale - offsetX;
+                    tileRing[coordinate + 1] = worldRings[ring][coordinate + 1] * scale - offsetY;
+                }
+                double[] clipped = TileGeometry.clip(tileRing, min, max);
+                int[] quantized = clipped.length == 0 ? null : TileGeometry.quantize(clipped);
+                long area = quantized == null ? 0 : TileGeometry.signedArea(quantized);
+                if (area == 0) {
+                    if (ring == 0) {
+                        // Holes are of no use once the exterior ring is gone.
+                        break;
+                    }
+                    continue;
+                }
+                // Exterior rings go clockwise and holes counterclockwise.
+                if ((ring == 0) != (area > 0)) {
+                    TileGeometry.reverse(quantized);
+                }
+                rings.add(quantized);
+            }
+            if (!rings.isEmpty()) {
+                encoder.addPolygon(feature.getKeys(), feature.getValues(), rings);
+            }
+        }
+        return encoder.isEmpty() ? null : new EncodedTile(zoomLevel.zoom, x, y, gzip(encoder.encode()));
+    }
+
+    /**
+     * @return the rings simplified and projected to world coordinates, without their closing positions
+     */
+    private static double[][] project(double[][] rings, double tolerance) {
+        double[][] projected = new double[rings.length][];
+        for (int ring = 0; ring < rings.length; ring++) {
+            double[] simplified = PolygonSimplifier.simplify(rings[ring], tolerance);
+            int positions = simplified.length / 2 - 1;
+            projected[ring] = new double[positions * 2];
+            for (int position = 0; position < positions; position++) {
+                projected[ring][2 * position] = TileGeometry.worldX(simplified[2 * position + 1]);
+                projected[ring][2 * position + 1] = TileGeometry.worldY(simplified[2 * position]);
+            }
+        }
+        return projected;
+    }
+
+    private static int tileIndex(double world, int tileCount) {
+        return Math.max(0, Math.min(tileCount - 1, (int) Math.floor(world * tileCount)));
+    }
+
+    private int minZoom(FeatureType type) {
+        switch (type) {
+            case STOP_PLACE:
+                return stopPlaceMinZoom;
+            case QUAY:
+                return quayMinZoom;
+            case PARKING:
+                return parkingMinZoom;
+            default:
+                return minZoom;
+        }
+    }
+
+    private static void write(MbtilesWriter writer, EncodedTile tile, TileStatistics statistics) throws SQLException {
+        if (tile != null) {
+            writer.writeTile(tile.zoom, tile.x, tile.y, tile.data);
+            statistics.add(tile);
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws InterruptedException, IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IllegalStateException("Building vector tiles failed", e.getCause());
+        }
+    }
+
+    private Map<String, String> metadata(List<TileFeature> features) throws JsonProcessingException {
+        double minX = 0;
+        double minY = 0;
+        double maxX = 1;
+        double maxY = 1;
+        if (!features.isEmpty()) {
+            minX = features.stream().mapToDouble(TileFeature::getMinX).min().getAsDouble();
+            minY = features.stream().mapToDouble(TileFeature::getMinY).min().getAsDouble();
+            maxX = features.stream().mapToDouble(TileFeature::getMaxX).max().getAsDouble();
+            maxY = features.stream().mapToDouble(TileFeature::getMaxY).max().getAsDouble();
+        }
+
+        Map<String, String> fields = new TreeMap<>();
+        for (TileFeature feature : features) {
+            for (int index = 0; index < feature.getKeys().length; index++) {
+                Object value = feature.getValues()[index];
+                fields.putIfAbsent(feature.getKeys()[index],
+                        value instanceof Boolean ? "Boolean" : value instanceof Number ? "Number" : "String");
+            }
+        }
+        ObjectNode json = OBJECT_MAPPER.createObjectNode();
+        ObjectNode layer = json.putArray("vector_layers").addObject();
+        layer.put("id", layerName);
+        layer.put("minzoom", minZoom);
+        layer.put("maxzoom", maxZoom);
+        fields.forEach(layer.putObject("fields")::put);
+
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("name", layerName);
+        metadata.put("format", "pbf");
+        metadata.put("type", "overlay");
+        metadata.put("minzoom", Integer.toString(minZoom));
+        metadata.put("maxzoom", Integer.toString(maxZoom));
+        metadata.put("bounds", TileGeometry.longitude(minX) + "," + TileGeometry.latitude(maxY) + ","
+                + TileGeometry.longitude(maxX) + "," + TileGeometry.latitude(minY));
+        metadata.put("center", TileGeometry.longitude((minX + maxX) / 2) + "," + TileGeometry.latitude((minY + maxY) / 2)
+                + "," + minZoom);
+        metadata.put("json", OBJECT_MAPPER.writeValueAsString(json));
+        return metadata;
+    }
+
+    private static byte[] gzip(byte[] tile) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(tile.length / 2 + 32);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+            gzipOutputStream.write(tile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    void setZoomLevels(int minZoom, int maxZoom) {
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+    }
+
+    void setFeatureMinZoom(int stopPlaceMinZoom, int quayMinZoom, int parkingMinZoom) {
+        this.stopPlaceMinZoom = stopPlaceMinZoom;
+        this.quayMinZoom = quayMinZoom;
+        this.parkingMinZoom = parkingMinZoom;
+    }
+
+    /**
+     * The polygons simplified for one zoom level, and the features of each tile it has, by tile x and y.
+     */
+    private static final class ZoomLevel {
+        private final int zoom;
+        private final double[][][] rings;
+        private final Map<Long, TileFeatures> tiles = new HashMap<>();
+
+        private ZoomLevel(int zoom, int featureCount) {
+            this.zoom = zoom;
+            this.rings = new double[featureCount][][];
+        }
+    }
+
+    private static final class TileFeatures {
+        private int[] indices = new int[4];
+        private int size;
+
+        private void add(int index) {
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, size * 2);
+            }
+            indices[size++] = index;
+        }
+    }
+
+    private static final class EncodedTile {
+        private final int zoom;
+        private final int x;
+        private final int y;
+        private final byte[] data;
+
+        private EncodedTile(int zoom, int x, int y, byte[] data) {
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Tile counts and sizes per zoom level, so that the effect of the zoom and simplification settings can be seen.
+     */
+    private static final class TileStatistics {
+        private final Map<Integer, long[]> countAndSizeByZoom = new TreeMap<>();
+        private EncodedTile largest;
+        private int tooLarge;
+
+        private void add(EncodedTile tile) {
+            long[] countAndSize = countAndSizeByZoom.computeIfAbsent(tile.zoom, zoom -> new long[2]);
+            countAndSize[0]++;
+            countAndSize[1] += tile.data.length;
+            if (largest == null || tile.data.length > largest.data.length) {
+                largest = tile;
+            }
+            if (tile.data.length > MAPBOX_MAX_TILE_SIZE) {
+                tooLarge++;
+            }
+        }
+
+        private void log(Path target, long millis) {
+            countAndSizeByZoom.forEach((zoom, countAndSize) -> logger.info("Zoom level {}: {} tiles of {} bytes on average",
+                    zoom, countAndSize[0], countAndSize[1] / countAndSize[0]));
+            if (largest != null) {
+                logger.info("Largest tile is {}/{}/{} with {} bytes", largest.zoom, largest.x, largest.y, largest.data.length);
+            }
+            if (tooLarge > 0) {
+                logger.warn("{} tiles are larger than the {} bytes Mapbox accepts. Raise the min zoom of the feature types, "
+                        + "or the simplification tolerance", tooLarge, MAPBOX_MAX_TILE_SIZE);
+            }
+            logger.info("Wrote {} tiles to {} in {} ms", countAndSizeByZoom.values().stream().mapToLong(countAndSize -> countAndSize[0]).sum(),
+                    target, millis);
+        }
+    }
+}
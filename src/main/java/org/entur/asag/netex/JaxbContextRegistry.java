@@ -0,0 +1,55 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.netex;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide JAXB contexts, created on first use. A JAXBContext is thread safe and expensive to create,
+ * as it introspects the whole NeTEx model, so it should only be built once per root type.
+ */
+public class JaxbContextRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(JaxbContextRegistry.class);
+
+    private static final Map<Class<?>, JAXBContext> contexts = new ConcurrentHashMap<>();
+
+    private JaxbContextRegistry() {
+    }
+
+    public static JAXBContext getContext(Class<?> rootType) throws JAXBException {
+        JAXBContext context = contexts.get(rootType);
+        if (context != null) {
+            return context;
+        }
+        synchronized (contexts) {
+            context = contexts.get(rootType);
+            if (context == null) {
+                long start = System.currentTimeMillis();
+                context = JAXBContext.newInstance(rootType);
+                contexts.put(rootType, context);
+                logger.info("Created JAXB context for {} in {} ms", rootType.getSimpleName(), System.currentTimeMillis() - start);
+            }
+            return context;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.netex;
+
+import org.entur.asag.mapbox.store.EntityCodec;
+import org.rutebanken.netex.model.EntityInVersionStructure;
+import org.rutebanken.netex.model.PublicationDeliveryStructure;
+
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes a NeTEx entity as the XML element it was read from, with the marshaller and unmarshaller of the shared
+ * context. Not thread safe.
+ */
+public class NetexEntityCodec<T extends EntityInVersionStructure> implements EntityCodec<T> {
+
+    private static final String NETEX_NAMESPACE = "http://www.netex.org.uk/netex";
+
+    private final Class<T> type;
+
+    private final QName elementName;
+
+    private final Marshaller marshaller;
+
+    private final Unmarshaller unmarshaller;
+
+    public NetexEntityCodec(Class<T> type) throws JAXBException {
+        this.type = type;
+        this.elementName = new QName(NETEX_NAMESPACE, type.getSimpleName());
+        this.marshaller = JaxbContextRegistry.getContext(PublicationDeliveryStructure.class).createMarshaller();
+        this.marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        this.unmarshaller = JaxbContextRegistry.getContext(PublicationDeliveryStructure.class).createUnmarshaller();
+    }
+
+    @Override
+    public byte[] encode(T entity) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            marshaller.marshal(new JAXBElement<>(elementName, type, entity), outputStream);
+        } catch (JAXBException e) {
+            throw new RuntimeException("Encoding " + entity.getId() + " failed: " + e.getMessage(), e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        try {
+            return unmarshaller.unmarshal(new StreamSource(new ByteArrayInputStream(bytes)), type).getValue();
+        } catch (JAXBException e) {
+            throw new RuntimeException("Decoding " + type.getSimpleName() + " failed: " + e.getMessage(), e);
+        }
+    }
+}
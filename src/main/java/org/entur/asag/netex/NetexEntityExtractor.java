@@ -0,0 +1,462 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.netex;
+
+import net.opengis.gml._3.AbstractRingPropertyType;
+import net.opengis.gml._3.LinearRingType;
+import net.opengis.gml._3.PolygonType;
+import org.rutebanken.netex.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Reads StopPlace, Quay, Parking and TariffZone elements straight off a StAX cursor, as an alternative to unmarshalling
+ * them with JAXB.
+ * <p>
+ * Only the fields used when mapping to GeoJSON and filtering on validity are read, into otherwise empty NeTEx objects,
+ * so the mappers work on them as they do on unmarshalled entities. Everything else, like accessibility assessments,
+ * equipment and alternative names, is skipped without being materialised.
+ */
+public class NetexEntityExtractor {
+
+    private static final Logger logger = LoggerFactory.getLogger(NetexEntityExtractor.class);
+
+    private static final ObjectFactory netexObjectFactory = new ObjectFactory();
+    private static final net.opengis.gml._3.ObjectFactory openGisObjectFactory = new net.opengis.gml._3.ObjectFactory();
+
+    private static final Map<String, BiConsumer<StopPlace, String>> SUBMODE_SETTERS = new HashMap<>();
+
+    static {
+        SUBMODE_SETTERS.put("AirSubmode", (stopPlace, value) -> stopPlace.setAirSubmode(enumValue(value, AirSubmodeEnumeration::fromValue)));
+        SUBMODE_SETTERS.put("BusSubmode", (stopPlace, value) -> stopPlace.setBusSubmode(enumValue(value, BusSubmodeEnumeration::fromValue)));
+        SUBMODE_SETTERS.put("CoachSubmode", (stopPlace, value) -> stopPlace.setCoachSubmode(enumValue(value, CoachSubmodeEnumeration::fromValue)));
+        SUBMODE_SETTERS.put("FunicularSubmode", (stopPlace, value) -> stopPlace.setFunicularSubmode(enumValue(value, FunicularSubmodeEnumeration::fromValue)));
+        SUBMODE_SETTERS.put("MetroSubmode", (stopPlace, value) -> stopPlace.setMetroSubmode(enumValue(value, MetroSubmodeEnumeration::fromValue)));
+        SUBMODE_SETTERS.put("TramSubmode", (stopPlace, value) -> stopPlace.setTramSubmode(enumValue(value, TramSubmodeEnumeration::fromValue)));
+        SUBMODE_SETTERS.put("TelecabinSubmode", (stopPlace, value) -> stopPlace.setTelecabinSubmode(enumValue(value, TelecabinSubmodeEnumeration::fromValue)));
+        SUBMODE_SETTERS.put("RailSubmode", (stopPlace, value) -> stopPlace.setRailSubmode(enumValue(value, RailSubmodeEnumeration::fromValue)));
+        SUBMODE_SETTERS.put("WaterSubmode", (stopPlace, value) -> stopPlace.setWaterSubmode(enumValue(value, WaterSubmodeEnumeration::fromValue)));
+    }
+
+    @FunctionalInterface
+    private interface ChildReader {
+        /**
+         * Reads the child element the cursor is at, leaving the cursor at its end element.
+         *
+         * @return false if the child is not read, and should be skipped
+         */
+        boolean read(String localName) throws XMLStreamException;
+    }
+
+    /**
+     * Reads the element the cursor is at, leaving the cursor at its end element.
+     *
+     * @return the extracted entity, or null if the element is not one of the extracted types
+     */
+    public static Zone_VersionStructure extract(XMLStreamReader reader) throws XMLStreamException {
+        switch (reader.getLocalName()) {
+            case "StopPlace":
+                return extractStopPlace(reader);
+            case "Parking":
+                return extractParking(reader);
+            case "TariffZone":
+                return extractTariffZone(reader);
+            case "Quay":
+                return extractQuay(reader);
+            default:
+                skipElement(reader);
+                return null;
+        }
+    }
+
+    static StopPlace extractStopPlace(XMLStreamReader reader) throws XMLStreamException {
+        StopPlace stopPlace = new StopPlace().withId(reader.getAttributeValue(null, "id"));
+        readChildren(reader, localName -> {
+            if (readZoneChild(stopPlace, localName, reader)) {
+                return true;
+            }
+            switch (localName) {
+                case "StopPlaceType":
+                    stopPlace.setStopPlaceType(enumValue(reader.getElementText(), StopTypeEnumeration::fromValue));
+                    return true;
+                case "Weighting":
+                    stopPlace.setWeighting(enumValue(reader.getElementText(), InterchangeWeightingEnumeration::fromValue));
+                    return true;
+                case "PublicCode":
+                    stopPlace.setPublicCode(reader.getElementText());
+                    return true;
+                case "ParentSiteRef":
+                    stopPlace.setParentSiteRef(readSiteRef(reader));
+                    return true;
+                case "adjacentSites":
+                    stopPlace.setAdjacentSites(readAdjacentSites(reader));
+                    return true;
+                case "quays":
+                    stopPlace.setQuays(readQuays(reader));
+                    return true;
+                default:
+                    BiConsumer<StopPlace, String> submodeSetter = SUBMODE_SETTERS.get(localName);
+                    if (submodeSetter != null) {
+                        submodeSetter.accept(stopPlace, reader.getElementText());
+                        return true;
+                    }
+                    return false;
+            }
+        });
+        return stopPlace;
+    }
+
+    static Quay extractQuay(XMLStreamReader reader) throws XMLStreamException {
+        Quay quay = new Quay().withId(reader.getAttributeValue(null, "id"));
+        readChildren(reader, localName -> {
+            if (readZoneChild(quay, localName, reader)) {
+                return true;
+            }
+            if ("PublicCode".equals(localName)) {
+                quay.setPublicCode(reader.getElementText());
+                return true;
+            }
+            return false;
+        });
+        return quay;
+    }
+
+    static Parking extractParking(XMLStreamReader reader) throws XMLStreamException {
+        Parking parking = new Parking().withId(reader.getAttributeValue(null, "id"));
+        readChildren(reader, localName -> {
+            if (readZoneChild(parking, localName, reader)) {
+                return true;
+            }
+            switch (localName) {
+                case "TotalCapacity":
+                    parking.setTotalCapacity(integerValue(reader.getElementText()));
+                    return true;
+                case "PrincipalCapacity":
+                    parking.setPrincipalCapacity(integerValue(reader.getElementText()));
+                    return true;
+                case "NumberOfParkingLevels":
+                    parking.setNumberOfParkingLevels(integerValue(reader.getElementText()));
+                    return true;
+                case "PublicCode":
+                    parking.setPublicCode(reader.getElementText());
+                    return true;
+                case "Covered":
+                    parking.setCovered(enumValue(reader.getElementText(), CoveredEnumeration::fromValue));
+                    return true;
+                case "ParentSiteRef":
+                    parking.setParentSiteRef(readSiteRef(reader));
+                    return true;
+                case "ParkingVehicleTypes":
+                    for (String value : reader.getElementText().trim().split("\\s+")) {
+                        ParkingVehicleEnumeration parkingVehicleType = enumValue(value, ParkingVehicleEnumeration::fromValue);
+                        if (parkingVehicleType != null) {
+                            parking.getParkingVehicleTypes().add(parkingVehicleType);
+                        }
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        });
+        return parking;
+    }
+
+    static TariffZone extractTariffZone(XMLStreamReader reader) throws XMLStreamException {
+        TariffZone tariffZone = new TariffZone().withId(reader.getAttributeValue(null, "id"));
+        readChildren(reader, localName -> readZoneChild(tariffZone, localName, reader));
+        return tariffZone;
+    }
+
+    /**
+     * Reads the children common to all zones.
+     */
+    private static boolean readZoneChild(Zone_VersionStructure zone, String localName, XMLStreamReader reader) throws XMLStreamException {
+        switch (localName) {
+            case "ValidBetween":
+                zone.getValidBetween().add(readValidBetween(reader));
+                return true;
+            case "keyList":
+                zone.setKeyList(readKeyList(reader));
+                return true;
+            case "Name":
+                zone.setName(readMultilingualString(reader));
+                return true;
+            case "Description":
+                zone.setDescription(readMultilingualString(reader));
+                return true;
+            case "PrivateCode":
+                zone.setPrivateCode(new PrivateCodeStructure().withValue(reader.getElementText()));
+                return true;
+            case "Centroid":
+                zone.setCentroid(readCentroid(reader));
+                return true;
+            case "Polygon":
+                zone.setPolygon(readPolygon(reader));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static ValidBetween readValidBetween(XMLStreamReader reader) throws XMLStreamException {
+        ValidBetween validBetween = new ValidBetween();
+        readChildren(reader, localName -> {
+            switch (localName) {
+                case "FromDate":
+                    validBetween.setFromDate(dateTimeValue(reader.getElementText()));
+                    return true;
+                case "ToDate":
+                    validBetween.setToDate(dateTimeValue(reader.getElementText()));
+                    return true;
+                default:
+                    return false;
+            }
+        });
+        return validBetween;
+    }
+
+    private static KeyListStructure readKeyList(XMLStreamReader reader) throws XMLStreamException {
+        KeyListStructure keyList = new KeyListStructure();
+        readChildren(reader, localName -> {
+            if (!"KeyValue".equals(localName)) {
+                return false;
+            }
+            KeyValueStructure keyValue = new KeyValueStructure();
+            readChildren(reader, keyValueChild -> {
+                switch (keyValueChild) {
+                    case "Key":
+                        keyValue.setKey(reader.getElementText());
+                        return true;
+                    case "Value":
+                        keyValue.setValue(reader.getElementText());
+                        return true;
+                    default:
+                        return false;
+                }
+            });
+            keyList.getKeyValue().add(keyValue);
+            return true;
+        });
+        return keyList;
+    }
+
+    private static MultilingualString readMultilingualString(XMLStreamReader reader) throws XMLStreamException {
+        String lang = reader.getAttributeValue(null, "lang");
+        return new MultilingualString()
+                .withLang(lang)
+                .withValue(reader.getElementText());
+    }
+
+    private static SimplePoint_VersionStructure readCentroid(XMLStreamReader reader) throws XMLStreamException {
+        SimplePoint_VersionStructure centroid = new SimplePoint_VersionStructure();
+        readChildren(reader, localName -> {
+            if (!"Location".equals(localName)) {
+                return false;
+            }
+            LocationStructure location = new LocationStructure();
+            readChildren(reader, locationChild -> {
+                switch (locationChild) {
+                    case "Longitude":
+                        location.setLongitude(new BigDecimal(reader.getElementText().trim()));
+                        return true;
+                    case "Latitude":
+                        location.setLatitude(new BigDecimal(reader.getElementText().trim()));
+                        return true;
+                    default:
+                        return false;
+                }
+            });
+            centroid.setLocation(location);
+            return true;
+        });
+        return centroid;
+    }
+
+    /**
+     * Only the posList of the exterior ring is read, as that is all that is mapped.
+     */
+    private static PolygonType readPolygon(XMLStreamReader reader) throws XMLStreamException {
+        PolygonType polygon = new PolygonType().withId(reader.getAttributeValue(null, "id"));
+        readChildren(reader, localName -> {
+            if (!"exterior".equals(localName)) {
+                return false;
+            }
+            readChildren(reader, exteriorChild -> {
+                if (!"LinearRing".equals(exteriorChild)) {
+                    return false;
+                }
+                LinearRingType linearRing = new LinearRingType();
+                readChildren(reader, linearRingChild -> {
+                    if (!"posList".equals(linearRingChild)) {
+                        return false;
+                    }
+                    linearRing.setPosList(new PackedPositionList(doubleValues(reader.getElementText())));
+                    return true;
+                });
+                polygon.setExterior(new AbstractRingPropertyType().withAbstractRing(openGisObjectFactory.createLinearRing(linearRing)));
+                return true;
+            });
+            return true;
+        });
+        return polygon;
+    }
+
+    private static SiteRefStructure readSiteRef(XMLStreamReader reader) throws XMLStreamException {
+        SiteRefStructure siteRef = new SiteRefStructure()
+                .withRef(reader.getAttributeValue(null, "ref"))
+                .withVersion(reader.getAttributeValue(null, "version"));
+        skipElement(reader);
+        return siteRef;
+    }
+
+    private static SiteRefs_RelStructure readAdjacentSites(XMLStreamReader reader) throws XMLStreamException {
+        SiteRefs_RelStructure adjacentSites = new SiteRefs_RelStructure();
+        readChildren(reader, localName -> {
+            adjacentSites.getSiteRef().add(netexObjectFactory.createSiteRef(readSiteRef(reader)));
+            return true;
+        });
+        return adjacentSites;
+    }
+
+    private static Quays_RelStructure readQuays(XMLStreamReader reader) throws XMLStreamException {
+        Quays_RelStructure quays = new Quays_RelStructure();
+        readChildren(reader, localName -> {
+            if (!"Quay".equals(localName)) {
+                return false;
+            }
+            quays.getQuayRefOrQuay().add(netexObjectFactory.createQuay(extractQuay(reader)));
+            return true;
+        });
+        return quays;
+    }
+
+    /**
+     * Hands each child element of the element the cursor is at to the child reader, skipping those it does not read,
+     * and leaves the cursor at the end element.
+     */
+    private static void readChildren(XMLStreamReader reader, ChildReader childReader) throws XMLStreamException {
+        int event;
+        while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.START_ELEMENT && !childReader.read(reader.getLocalName())) {
+                skipElement(reader);
+            }
+        }
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    static boolean isStopPlaceTypeElement(String localName) {
+        return "StopPlaceType".equals(localName) || SUBMODE_SETTERS.containsKey(localName);
+    }
+
+    /**
+     * Sets the stop place type or submode from the text of the child element of a stop place with the given name, for
+     * readers that do not go through a StAX cursor.
+     *
+     * @return false if the element is neither
+     */
+    static boolean readStopPlaceType(StopPlace stopPlace, String localName, String text) {
+        if ("StopPlaceType".equals(localName)) {
+            stopPlace.setStopPlaceType(enumValue(text, StopTypeEnumeration::fromValue));
+            return true;
+        }
+        BiConsumer<StopPlace, String> submodeSetter = SUBMODE_SETTERS.get(localName);
+        if (submodeSetter != null) {
+            submodeSetter.accept(stopPlace, text);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Unknown values become null, as when unmarshalling with JAXB.
+     */
+    private static <T> T enumValue(String value, Function<String, T> fromValue) {
+        try {
+            return fromValue.apply(value.trim());
+        } catch (IllegalArgumentException e) {
+            logger.debug("Ignoring unknown enumeration value {}", value);
+            return null;
+        }
+    }
+
+    private static BigInteger integerValue(String value) {
+        return new BigInteger(value.trim());
+    }
+
+    /**
+     * Date times without offset are local, like in NeTEx from Tiamat. Others are converted to local time.
+     */
+    static LocalDateTime dateTimeValue(String value) {
+        String trimmed = value.trim();
+        try {
+            return LocalDateTime.parse(trimmed);
+        } catch (DateTimeParseException e) {
+            return OffsetDateTime.parse(trimmed).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+        }
+    }
+
+    /**
+     * Parses whitespace separated numbers straight into an array, growing it as needed.
+     */
+    private static double[] doubleValues(String value) {
+        double[] values = new double[16];
+        int count = 0;
+        int length = value.length();
+        int index = 0;
+        while (index < length) {
+            while (index < length && Character.isWhitespace(value.charAt(index))) {
+                index++;
+            }
+            int start = index;
+            while (index < length && !Character.isWhitespace(value.charAt(index))) {
+                index++;
+            }
+            if (start < index) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = Double.parseDouble(value.substring(start, index));
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.netex;
+
+import org.entur.asag.util.MappedFile;
+import org.rutebanken.netex.model.StopPlace;
+import org.rutebanken.netex.model.ValidBetween;
+import org.rutebanken.netex.model.SimplePoint_VersionStructure;
+import net.opengis.gml._3.PolygonType;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * First pass over a memory mapped NeTEx document, finding where each element of the given types starts and ends
+ * without parsing it. Tags are only told apart by their bytes, and only the names of the tags that matter are decoded.
+ * <p>
+ * For a stop place, the few fields that decide whether it is valid now and what type it has are decoded into a summary:
+ * an otherwise empty {@link StopPlace} with its id, validity, stop place type, submodes, and an empty centroid or
+ * polygon if it has one. The document must be in an encoding compatible with ASCII, like UTF-8. Comments, processing
+ * instructions and CDATA sections are skipped.
+ * <p>
+ * A document that ends before its document element is closed, like one cut short while downloading, or whose tags
+ * cannot be read, is rejected with the offset it went wrong at, rather than indexed as far as it got.
+ */
+public class NetexOffsetIndexer {
+
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    private static final byte[] COMMENT_END = "-->".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] CDATA_START = "<![CDATA[".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] CDATA_END = "]]>".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] DECLARATION_END = "?>".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] SLICE_END = "</slice>".getBytes(StandardCharsets.US_ASCII);
+
+    @FunctionalInterface
+    public interface EntityListener {
+
+        /**
+         * @param start   offset of the start tag of the element
+         * @param end     offset just after its end tag
+         * @param summary for a stop place, its summary, otherwise null
+         */
+        void entity(String type, long start, long end, StopPlace summary);
+    }
+
+    private final MappedFile file;
+
+    private final Set<String> types;
+
+    /**
+     * Namespace declarations of the elements around the entities, by attribute name.
+     */
+    private final Map<String, String> namespaces = new LinkedHashMap<>();
+
+    private String encoding = StandardCharsets.UTF_8.name();
+
+    private byte[] sliceStart;
+
+    private long position;
+
+    private boolean selfClosing;
+
+    private String id;
+
+    public NetexOffsetIndexer(MappedFile file, Set<String> types) {
+        this.file = file;
+        this.types = types;
+    }
+
+    public void scan(EntityListener listener) {
+        String entityType = null;
+        long entityStart = 0;
+        int depth = 0;
+        StopPlace summary = null;
+        String child = null;
+        ValidBetween validBetween = null;
+        String textElement = null;
+        long textStart = 0;
+        int openElements = 0;
+        boolean documentElement = false;
+
+        position = 0;
+        for (long tag = indexOf((byte) '<', 0); tag >= 0; tag = indexOf((byte) '<', position)) {
+            if (textElement != null) {
+                readText(summary, validBetween, textElement, decode(textStart, tag).trim());
+                textElement = null;
+            }
+
+            byte next = byteAt(tag + 1);
+            if (next == '?') {
+                readDeclaration(tag);
+                continue;
+            }
+            if (next == '!') {
+                position = startsWith(tag, CDATA_START) ? endOf(CDATA_END, tag) : next(tag) == '-' ? endOf(COMMENT_END, tag) : find((byte) '>', tag) + 1;
+                continue;
+            }
+            if (next == '/') {
+                position = find((byte) '>', tag) + 1;
+                if (entityType == null) {
+                    openElements--;
+                } else {
+                    depth--;
+                    if (depth == 0) {
+                        listener.entity(entityType, entityStart, position, summary);
+                        entityType = null;
+                        summary = null;
+                    } else if (depth == 1) {
+                        child = null;
+                    }
+                }
+                continue;
+            }
+
+            long nameEnd = nameEnd(tag + 1);
+            boolean named = entityType == null || (summary != null && depth <= 2);
+            String localName = named ? localName(tag + 1, nameEnd) : null;
+            readAttributes(nameEnd, entityType == null);
+
+            if (entityType == null) {
+                documentElement = true;
+                if (!types.contains(localName)) {
+                    if (!selfClosing) {
+                        openElements++;
+                    }
+                } else {
+                    entityType = localName;
+                    entityStart = tag;
+                    depth = 1;
+                    summary = "StopPlace".equals(localName) ? new StopPlace().withId(id) : null;
+                    if (selfClosing) {
+                        listener.entity(entityType, entityStart, position, summary);
+                        entityType = null;
+                        summary = null;
+                    }
+                }
+                continue;
+            }
+
+            if (summary != null && depth == 1) {
+                child = localName;
+                switch (localName) {
+                    case "ValidBetween":
+                        validBetween = new ValidBetween();
+                        summary.getValidBetween().add(validBetween);
+                        break;
+                    case "Centroid":
+                        summary.setCentroid(new SimplePoint_VersionStructure());
+                        break;
+                    case "Polygon":
+                        summary.setPolygon(new PolygonType());
+                        break;
+                    default:
+                        if (NetexEntityExtractor.isStopPlaceTypeElement(localName)) {
+                            textElement = localName;
+                        }
+                }
+            } else if (summary != null && depth == 2 && "ValidBetween".equals(child)
+                    && ("FromDate".equals(localName) || "ToDate".equals(localName))) {
+                textElement = localName;
+            }
+
+            if (selfClosing) {
+                textElement = null;
+            } else {
+                depth++;
+                textStart = position;
+            }
+        }
+
+        if (entityType != null) {
+            throw new IllegalStateException("The " + entityType + " at offset " + entityStart + " is not closed before the end of the "
+                    + file.size() + " bytes of the document, which may be truncated");
+        }
+        if (!documentElement || openElements > 0) {
+            throw new IllegalStateException("The document element is not closed before the end of the " + file.size()
+                    + " bytes of the document, which may be truncated");
+        }
+    }
+
+    /**
+     * The bytes of an element found by {@link #scan}, wrapped in an element declaring the namespaces in scope around
+     * it, so that it can be read as a document of its own.
+     */
+    public InputStream openEntity(long start, long end) {
+        if (sliceStart == null) {
+            StringBuilder slice = new StringBuilder("<?xml version=\"1.0\" encoding=\"").append(encoding).append("\"?><slice");
+            namespaces.forEach((name, value) -> slice.append(' ').append(name).append("=\"").append(value).append('"'));
+            sliceStart = slice.append('>').toString().getBytes(StandardCharsets.US_ASCII);
+        }
+        return new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(sliceStart),
+                file.openStream(start, end),
+                new ByteArrayInputStream(SLICE_END))));
+    }
+
+    Map<String, String> namespaces() {
+        return namespaces;
+    }
+
+    String encoding() {
+        return encoding;
+    }
+
+    private void readText(StopPlace summary, ValidBetween validBetween, String element, String text) {
+        switch (element) {
+            case "FromDate":
+                validBetween.setFromDate(NetexEntityExtractor.dateTimeValue(text));
+                break;
+            case "ToDate":
+                validBetween.setToDate(NetexEntityExtractor.dateTimeValue(text));
+                break;
+            default:
+                NetexEntityExtractor.readStopPlaceType(summary, element, text);
+        }
+    }
+
+    private void readDeclaration(long tag) {
+        position = endOf(DECLARATION_END, tag);
+        if (tag == 0 || (tag == 3 && file.get(0) == (byte) 0xEF)) {
+            Matcher matcher = ENCODING.matcher(decode(tag, position));
+            if (matcher.find()) {
+                encoding = matcher.group(1);
+            }
+        }
+    }
+
+    /**
+     * Reads the attributes of the start tag up to its end, keeping the id and, if asked, the namespace declarations.
+     */
+    private void readAttributes(long from, boolean keepNamespaces) {
+        id = null;
+        long current = from;
+        while (true) {
+            byte b = byteAt(current);
+            if (b == '>') {
+                selfClosing = false;
+                position = current + 1;
+                return;
+            }
+            if (b == '/') {
+                selfClosing = true;
+                position = find((byte) '>', current) + 1;
+                return;
+            }
+            if (isWhitespace(b)) {
+                current++;
+                continue;
+            }
+            long nameStart = current;
+            for (byte c = b; !isWhitespace(c) && c != '=' && c != '>' && c != '/'; c = byteAt(current)) {
+                current++;
+            }
+            long nameEnd = current;
+            current = skipWhitespace(current);
+            if (file.get(current) != '=') {
+                throw malformed("'=' after the attribute name", current);
+            }
+            current = skipWhitespace(current + 1);
+            byte quote = file.get(current);
+            if (quote != '"' && quote != '\'') {
+                throw malformed("a quoted attribute value", current);
+            }
+            long valueStart = current + 1;
+            long valueEnd = find(quote, valueStart);
+            current = valueEnd + 1;
+
+            if (nameEnd - nameStart == 2 && file.get(nameStart) == 'i' && file.get(nameStart + 1) == 'd') {
+                id = decode(valueStart, valueEnd);
+            } else if (keepNamespaces && isNamespaceDeclaration(nameStart, nameEnd)
+                    && namespaces.putIfAbsent(decode(nameStart, nameEnd), decode(valueStart, valueEnd)) == null) {
+                sliceStart = null;
+            }
+        }
+    }
+
+    private boolean isNamespaceDeclaration(long nameStart, long nameEnd) {
+        return nameEnd - nameStart >= 5 && startsWith(nameStart, "xmlns".getBytes(StandardCharsets.US_ASCII))
+                && (nameEnd - nameStart == 5 || file.get(nameStart + 5) == ':');
+    }
+
+    private long nameEnd(long from) {
+        long current = from;
+        for (byte b = byteAt(current); !isWhitespace(b) && b != '>' && b != '/'; b = byteAt(current)) {
+            current++;
+        }
+        return current;
+    }
+
+    private long skipWhitespace(long from) {
+        long current = from;
+        while (isWhitespace(byteAt(current))) {
+            current++;
+        }
+        return current;
+    }
+
+    /**
+     * The byte at the offset, which must be within the document.
+     */
+    private byte byteAt(long offset) {
+        if (offset >= file.size()) {
+            throw malformed("more of the tag", offset);
+        }
+        return file.get(offset);
+    }
+
+    /**
+     * Like {@link #indexOf}, for a byte that must be there.
+     */
+    private long find(byte value, long from) {
+        long index = indexOf(value, from);
+        if (index < 0) {
+            throw malformed("'" + (char) value + "'", from);
+        }
+        return index;
+    }
+
+    private IllegalStateException malformed(String expected, long offset) {
+        return new IllegalStateException("Expected " + expected + " at offset " + offset + " of the " + file.size()
+                + " bytes of the document, which may be truncated");
+    }
+
+    /**
+     * The name without its prefix.
+     */
+    private String localName(long start, long end) {
+        for (long current = end - 1; current > start; current--) {
+            if (file.get(current) == ':') {
+                return decode(current + 1, end);
+            }
+        }
+        return decode(start, end);
+    }
+
+    private byte next(long tag) {
+        return tag + 2 < file.size() ? file.get(tag + 2) : 0;
+    }
+
+    private long indexOf(byte value, long from) {
+        long size = file.size();
+        for (long current = from; current < size; current++) {
+            if (file.get(current) == value) {
+                return current;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Offset just after the next occurrence of the bytes, which must be there.
+     */
+    private long endOf(byte[] bytes, long from) {
+        for (long current = indexOf(bytes[0], from); current >= 0; current = indexOf(bytes[0], current + 1)) {
+            if (startsWith(current, bytes)) {
+                return current + bytes.length;
+            }
+        }
+        throw malformed("'" + new String(bytes, StandardCharsets.US_ASCII) + "'", from);
+    }
+
+    private boolean startsWith(long from, byte[] bytes) {
+        if (from + bytes.length > file.size()) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (file.get(from + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        file.get(start, bytes, 0, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+}
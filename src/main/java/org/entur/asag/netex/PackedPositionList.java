@@ -0,0 +1,49 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.netex;
+
+import net.opengis.gml._3.DirectPositionListType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A GML posList holding its values in a flat array, so that large polygons are read without boxing every coordinate.
+ * The boxed {@link #getValue()} list is only created if asked for, and is a copy of the array.
+ */
+public class PackedPositionList extends DirectPositionListType {
+
+    private final double[] coordinates;
+
+    public PackedPositionList(double[] coordinates) {
+        this.coordinates = coordinates;
+    }
+
+    public double[] getCoordinates() {
+        return coordinates;
+    }
+
+    @Override
+    public List<Double> getValue() {
+        if (value == null) {
+            value = new ArrayList<>(coordinates.length);
+            for (double coordinate : coordinates) {
+                value.add(coordinate);
+            }
+        }
+        return value;
+    }
+}
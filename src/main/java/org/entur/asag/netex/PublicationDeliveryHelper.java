@@ -21,16 +21,20 @@ import org.rutebanken.netex.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBElement;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Unmarshaller;
 import javax.xml.transform.stream.StreamSource;
 import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -38,14 +42,21 @@ import java.util.TreeSet;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static jakarta.xml.bind.JAXBContext.newInstance;
-
 /**
  * Common useful methods for resolving parts of NeTEx
  */
 public class PublicationDeliveryHelper {
     private static final Logger logger = LoggerFactory.getLogger(StopPlaceToGeoJsonFeatureMapper.class);
 
+    private static final int MAX_IDLE_UNMARSHALLERS = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static volatile UnmarshallerPool unmarshallerPool;
+
+    /**
+     * The submode getters of stop places, looked up once and sorted by name.
+     */
+    private static final List<MethodHandle> SUBMODE_GETTERS = findSubmodeGetters();
+
 
     public static Stream<StopPlace> resolveStops(PublicationDeliveryStructure publicationDelivery) {
 
@@ -80,13 +91,38 @@ public class PublicationDeliveryHelper {
     }
 
     public static PublicationDeliveryStructure unmarshall(InputStream in) throws Exception {
-        JAXBElement<PublicationDeliveryStructure> jaxbElement = createUnmarshaller().unmarshal(new StreamSource(in), PublicationDeliveryStructure.class);
-        return jaxbElement.getValue();
+        UnmarshallerPool pool = unmarshallerPool();
+        Unmarshaller unmarshaller = pool.borrow();
+        try {
+            JAXBElement<PublicationDeliveryStructure> jaxbElement = unmarshaller.unmarshal(new StreamSource(in), PublicationDeliveryStructure.class);
+            return jaxbElement.getValue();
+        } finally {
+            pool.release(unmarshaller);
+        }
     }
 
+    /**
+     * Creates an unmarshaller from the shared NeTEx context. Prefer borrowing from {@link #unmarshallerPool()}.
+     */
     public static Unmarshaller createUnmarshaller() throws JAXBException {
-        JAXBContext publicationDeliveryContext = newInstance(PublicationDeliveryStructure.class);
-        return publicationDeliveryContext.createUnmarshaller();
+        return JaxbContextRegistry.getContext(PublicationDeliveryStructure.class).createUnmarshaller();
+    }
+
+    /**
+     * The process wide pool of NeTEx unmarshallers, created together with the shared context on first use.
+     */
+    public static UnmarshallerPool unmarshallerPool() throws JAXBException {
+        UnmarshallerPool pool = unmarshallerPool;
+        if (pool == null) {
+            synchronized (PublicationDeliveryHelper.class) {
+                pool = unmarshallerPool;
+                if (pool == null) {
+                    pool = new UnmarshallerPool(JaxbContextRegistry.getContext(PublicationDeliveryStructure.class), MAX_IDLE_UNMARSHALLERS);
+                    unmarshallerPool = pool;
+                }
+            }
+        }
+        return pool;
     }
 
     public static TreeSet<String> resolveAdjacentSites(StopPlace stopPlace) {
@@ -104,23 +140,39 @@ public class PublicationDeliveryHelper {
     }
 
     public static Optional<String> resolveFirstSubmodeToSingleValue(StopPlace stopPlace) {
-        return Arrays.stream(StopPlace_VersionStructure.class.getDeclaredMethods())
-                .filter(method -> method.getName().startsWith("get") && method.getName().endsWith("Submode"))
-                .map(method -> safeInvoke(method, stopPlace))
-                .filter(Objects::nonNull)
-                .map(MapperHelper::getEnumValue)
-                .filter(Objects::nonNull)
-                .map(String::valueOf)
-                .filter(value -> !"unknown".equals(value))
-                .findAny();
+        for (MethodHandle submodeGetter : SUBMODE_GETTERS) {
+            Object submode = safeInvoke(submodeGetter, stopPlace);
+            if (submode != null) {
+                Object value = MapperHelper.getEnumValue(submode);
+                if (value != null && !"unknown".equals(String.valueOf(value))) {
+                    return Optional.of(String.valueOf(value));
+                }
+            }
+        }
+        return Optional.empty();
     }
 
+    private static List<MethodHandle> findSubmodeGetters() {
+        MethodType getterType = MethodType.methodType(Object.class, StopPlace_VersionStructure.class);
+        List<MethodHandle> submodeGetters = new ArrayList<>();
+        Arrays.stream(StopPlace_VersionStructure.class.getDeclaredMethods())
+                .filter(method -> method.getName().startsWith("get") && method.getName().endsWith("Submode") && method.getParameterCount() == 0)
+                .sorted(Comparator.comparing(Method::getName))
+                .forEach(method -> {
+                    try {
+                        submodeGetters.add(MethodHandles.publicLookup().unreflect(method).asType(getterType));
+                    } catch (IllegalAccessException e) {
+                        logger.warn("Cannot resolve submode with {}. Ignoring this method", method.getName(), e);
+                    }
+                });
+        return List.copyOf(submodeGetters);
+    }
 
-    private static Object safeInvoke(Method method, StopPlace stopPlace) {
+    private static Object safeInvoke(MethodHandle submodeGetter, StopPlace stopPlace) {
         try {
-            return method.invoke(stopPlace);
-        } catch (InvocationTargetException | IllegalAccessException e) {
-            logger.warn("Error resolving submode from stop place {}. Ignoring this method: {}", stopPlace.getId(), method.getName(), e);
+            return (Object) submodeGetter.invokeExact((StopPlace_VersionStructure) stopPlace);
+        } catch (Throwable e) {
+            logger.warn("Error resolving submode from stop place {}. Ignoring this getter: {}", stopPlace.getId(), submodeGetter, e);
         }
         return null;
     }
@@ -0,0 +1,58 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.netex;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Unmarshaller;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Unmarshallers are cheap compared to their context, but not thread safe. Threads borrow one for the duration of
+ * their parsing and release it afterwards. Borrowing never blocks: a new unmarshaller is created when none is idle,
+ * and at most {@code maxIdle} of them are kept for reuse.
+ */
+public class UnmarshallerPool {
+
+    private final JAXBContext context;
+
+    private final BlockingQueue<Unmarshaller> idle;
+
+    public UnmarshallerPool(JAXBContext context, int maxIdle) {
+        this.context = context;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    public Unmarshaller borrow() throws JAXBException {
+        Unmarshaller unmarshaller = idle.poll();
+        if (unmarshaller == null) {
+            unmarshaller = context.createUnmarshaller();
+        }
+        return unmarshaller;
+    }
+
+    public void release(Unmarshaller unmarshaller) {
+        if (unmarshaller != null) {
+            idle.offer(unmarshaller);
+        }
+    }
+
+    int idleCount() {
+        return idle.size();
+    }
+}
@@ -15,6 +15,8 @@
 
 package org.entur.asag.service;
 
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import org.apache.camel.Header;
 import org.rutebanken.helper.gcp.BlobStoreHelper;
@@ -56,4 +58,18 @@ public class BlobStoreService {
         logger.info("Getting blob: {} from container {}", name, containerName);
         return BlobStoreHelper.getBlob(storage, containerName, name);
     }
+
+    /**
+     * @return the content of the blob, or null if there is no such blob
+     */
+    public byte[] readBlob(String name) {
+        Blob blob = storage.get(containerName, name);
+        logger.info("Read blob: {} from container {} ({})", name, containerName, blob == null ? "missing" : blob.getSize() + " bytes");
+        return blob == null ? null : blob.getContent();
+    }
+
+    public void writeBlob(String name, byte[] content) {
+        storage.create(BlobInfo.newBuilder(containerName, name).build(), content);
+        logger.info("Wrote blob: {} to container {} ({} bytes)", name, containerName, content.length);
+    }
 }
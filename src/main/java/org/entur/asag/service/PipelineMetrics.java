@@ -0,0 +1,315 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.service;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.apache.camel.Body;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangeProperty;
+import org.entur.asag.util.MeteredInputStream;
+import org.entur.asag.util.MeteredOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.PROPERTY_STATE;
+
+/**
+ * Meters of a run, kept until the end of it and then pushed to a Prometheus Pushgateway and/or written to a file in
+ * the Prometheus text format, as the job does not live long enough to be scraped. Every Camel route is timed on its
+ * own by the route policy set up in the route builder, this adds what happens inside the transform and the upload.
+ */
+@Service
+public class PipelineMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineMetrics.class);
+
+    public static final String OUTCOME_ACCEPTED = "accepted";
+    public static final String OUTCOME_INVALID = "invalid";
+    public static final String OUTCOME_NO_GEOMETRY = "no_geometry";
+
+    private static final String PROMETHEUS_TEXT_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final Duration PUSH_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final AtomicLong PEAK_HEAP_USED = new AtomicLong();
+
+    static {
+        listenToGarbageCollections();
+    }
+
+    private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    private final Map<String, Timer> parseTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> mapTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> entityCounters = new ConcurrentHashMap<>();
+
+    private final Counter exportBytes;
+    private final Counter xmlBytes;
+    private final Counter geoJsonBytes;
+    private final Counter uploadBytes;
+    private final Timer writeTimer;
+
+    /**
+     * Base URL of the Pushgateway, like http://pushgateway:9091. Not pushed when empty.
+     */
+    @Value("${asag.metrics.pushgateway.url:}")
+    private String pushgatewayUrl = "";
+
+    @Value("${asag.metrics.pushgateway.job:asag}")
+    private String pushgatewayJob = "asag";
+
+    /**
+     * File the meters are written to, like one in the directory of the node exporter textfile collector. Not written
+     * when empty.
+     */
+    @Value("${asag.metrics.file:}")
+    private String metricsFile = "";
+
+    public PipelineMetrics() {
+        exportBytes = Counter.builder("asag.export.bytes")
+                .description("Bytes of the zipped Tiamat export read from the blob store")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        xmlBytes = Counter.builder("asag.xml.bytes")
+                .description("Bytes of NeTEx XML read by the transform")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        geoJsonBytes = Counter.builder("asag.geojson.bytes")
+                .description("Bytes of GeoJSON written by the transform, before any compression")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        uploadBytes = Counter.builder("asag.upload.bytes")
+                .description("Bytes of files uploaded to S3")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        writeTimer = Timer.builder("asag.write")
+                .description("Time the transform was held up writing GeoJSON")
+                .register(registry);
+        Gauge.builder("asag.heap.peak", PipelineMetrics::peakHeapUsed)
+                .description("Peak heap used since the start of the job")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Time to read each NeTEx entity of the type off the XML.
+     */
+    public Timer parseTimer(String entityType) {
+        return parseTimers.computeIfAbsent(entityType, type -> Timer.builder("asag.parse")
+                .description("Time to read NeTEx entities off the XML")
+                .tag("type", type)
+                .register(registry));
+    }
+
+    /**
+     * Time to map each NeTEx entity of the type and serialize its features.
+     */
+    public Timer mapTimer(String entityType) {
+        return mapTimers.computeIfAbsent(entityType, type -> Timer.builder("asag.map")
+                .description("Time to map NeTEx entities to GeoJSON features and serialize them")
+                .tag("type", type)
+                .register(registry));
+    }
+
+    public void countEntity(String entityType, String outcome) {
+        entityCounters.computeIfAbsent(entityType + "/" + outcome, key -> Counter.builder("asag.entities")
+                .description("NeTEx entities read, by whether they were transformed or left out")
+                .tag("type", entityType)
+                .tag("outcome", outcome)
+                .register(registry)).increment();
+    }
+
+    /**
+     * @return the export read from the blob store, counting the bytes read from it, or null if there is none
+     */
+    public InputStream meterExport(@Body InputStream inputStream) {
+        return inputStream != null ? new MeteredInputStream(inputStream, exportBytes) : null;
+    }
+
+    public InputStream meterXml(InputStream inputStream) {
+        return new MeteredInputStream(inputStream, xmlBytes);
+    }
+
+    /**
+     * For XML that is not read as a stream, like a memory mapped file.
+     */
+    public void countXml(long bytes) {
+        xmlBytes.increment(bytes);
+    }
+
+    public OutputStream meterGeoJson(OutputStream outputStream) {
+        return new MeteredOutputStream(outputStream, geoJsonBytes, writeTimer);
+    }
+
+    public void countUpload(long bytes) {
+        uploadBytes.increment(bytes);
+    }
+
+    /**
+     * Pushes and writes the meters at the end of a run. The state the run ended in is counted first, failed if the
+     * route failed. Failing to publish the meters does not fail the run.
+     */
+    public void publish(@ExchangeProperty(PROPERTY_STATE) String state, Exchange exchange) {
+        Counter.builder("asag.runs")
+                .description("Runs of the job, by the state they ended in")
+                .tag("state", exchange.isFailed() ? "failed" : state != null ? state : "none")
+                .register(registry)
+                .increment();
+        if (pushgatewayUrl.isEmpty() && metricsFile.isEmpty()) {
+            return;
+        }
+        String metrics = registry.scrape();
+        if (!metricsFile.isEmpty()) {
+            try {
+                writeFile(Paths.get(metricsFile), metrics);
+                logger.info("Wrote metrics to {}", metricsFile);
+            } catch (IOException e) {
+                logger.warn("Writing metrics to {} failed: {}", metricsFile, e.getMessage(), e);
+            }
+        }
+        if (!pushgatewayUrl.isEmpty()) {
+            try {
+                push(metrics);
+            } catch (IOException e) {
+                logger.warn("Pushing metrics to {} failed: {}", pushgatewayUrl, e.getMessage(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while pushing metrics to {}", pushgatewayUrl);
+            }
+        }
+    }
+
+    /**
+     * Replaces the file in one move, so that a collector reading it never sees it half written.
+     */
+    private static void writeFile(Path path, String metrics) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        Files.writeString(tempFile, metrics);
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces every metric earlier runs pushed for the job.
+     */
+    private void push(String metrics) throws IOException, InterruptedException {
+        URI uri = URI.create(pushgatewayUrl.replaceAll("/+$", "") + "/metrics/job/"
+                + URLEncoder.encode(pushgatewayJob, StandardCharsets.UTF_8));
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(PUSH_TIMEOUT)
+                .header("Content-Type", PROMETHEUS_TEXT_CONTENT_TYPE)
+                .PUT(HttpRequest.BodyPublishers.ofString(metrics))
+                .build();
+        HttpResponse<String> response;
+        try (HttpClient httpClient = HttpClient.newBuilder().connectTimeout(PUSH_TIMEOUT).build()) {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        }
+        if (response.statusCode() >= 300) {
+            throw new IOException("Pushgateway responded " + response.statusCode() + ": " + response.body());
+        }
+        logger.info("Pushed metrics to {}", uri);
+    }
+
+    /**
+     * Heap used at its highest since the class was loaded. Heap use is highest just before a collection, so the heap
+     * used before each collection is kept, as told by the collectors, along with the heap used whenever it is read.
+     * Unlike the peak of each heap pool, this is the heap used at one moment, as the pools peak at different times.
+     */
+    static long peakHeapUsed() {
+        return recordHeapUsed(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+
+    static long recordHeapUsed(long used) {
+        return PEAK_HEAP_USED.accumulateAndGet(used, Math::max);
+    }
+
+    /**
+     * Listens to the collectors once for the whole JVM, however many instances there are.
+     */
+    private static void listenToGarbageCollections() {
+        Set<String> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .map(MemoryPoolMXBean::getName)
+                .collect(Collectors.toSet());
+        NotificationListener listener = (notification, handback) -> {
+            if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                GcInfo gcInfo = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()).getGcInfo();
+                recordHeapUsed(gcInfo.getMemoryUsageBeforeGc().entrySet().stream()
+                        .filter(pool -> heapPools.contains(pool.getKey()))
+                        .mapToLong(pool -> pool.getValue().getUsed())
+                        .sum());
+            }
+        };
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(listener, null, null);
+            }
+        }
+    }
+
+    void setPushgateway(String pushgatewayUrl, String pushgatewayJob) {
+        this.pushgatewayUrl = pushgatewayUrl;
+        this.pushgatewayJob = pushgatewayJob;
+    }
+
+    void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+}
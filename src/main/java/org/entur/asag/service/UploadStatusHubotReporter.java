@@ -17,7 +17,10 @@ package org.entur.asag.service;
 
 import org.apache.camel.Body;
 import org.apache.camel.ExchangeProperty;
+import org.apache.camel.Header;
+import org.entur.asag.mapbox.FeatureChangeReport;
 import org.entur.asag.mapbox.model.MapBoxUploadStatus;
+import org.entur.asag.mapbox.model.MapboxTilesetJob;
 import org.rutebanken.helper.slack.SlackPostService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,7 +28,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.FEATURE_CHANGES;
 import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.PROPERTY_STATE;
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.STATE_FINISHED;
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.STATE_UNCHANGED;
 
 @Service
 public class UploadStatusHubotReporter {
@@ -50,6 +56,15 @@ public class UploadStatusHubotReporter {
         hubotPostService.publish(new SlackPostService.SlackPayload("Started mapbox update" + hostName + ICON));
     }
 
+    public void postUnchanged(@Header(FEATURE_CHANGES) FeatureChangeReport featureChanges) {
+        String message = "*" + STATE_UNCHANGED + "*: None of the " + featureChanges.getFeatures()
+                + " features changed since the last upload, skipped mapbox update " + OK_ICON + ".";
+
+        logger.info("About to post message to hubot: {}", message);
+
+        hubotPostService.publish(new SlackPostService.SlackPayload(message + hostName + ICON));
+    }
+
     public void postUploadStatusToHubot(@Body MapBoxUploadStatus mapBoxUploadStatus, @ExchangeProperty(PROPERTY_STATE) String state) {
 
         String message;
@@ -70,4 +85,24 @@ public class UploadStatusHubotReporter {
 
         hubotPostService.publish(new SlackPostService.SlackPayload(message + hostName + ICON));
     }
+
+    public void postTilesetJobStatusToHubot(@Body MapboxTilesetJob tilesetJob, @ExchangeProperty(PROPERTY_STATE) String state) {
+
+        String message;
+
+        if (STATE_FINISHED.equals(state)) {
+            message = "Tileset `" + tilesetJob.getTilesetId() + "` published to mapbox successfully " + OK_ICON + ".";
+        } else {
+            message = state != null ? "*" + state + "*: " : "";
+            message += "Tileset job `" + tilesetJob.getId()
+                    + "`, tileset: `" + tilesetJob.getTilesetId()
+                    + "`, stage: `" + tilesetJob.getStage()
+                    + "`, errors: " + tilesetJob.getErrors()
+                    + " " + WARN_ICON;
+        }
+
+        logger.info("About to post message to hubot: {}", message);
+
+        hubotPostService.publish(new SlackPostService.SlackPayload(message + hostName + ICON));
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read only file mapped into memory in chunks, as a single buffer cannot map more than two gigabytes. Bytes are read
+ * by their position in the file, and any range of them can be read as a stream without copying the file.
+ * <p>
+ * The mapping is released when the buffers are garbage collected, not on {@link #close()}, which only closes the file.
+ */
+public class MappedFile implements Closeable {
+
+    static final int DEFAULT_CHUNK_BITS = 30;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer[] chunks;
+
+    private final int chunkBits;
+
+    private final int chunkMask;
+
+    private final long size;
+
+    public static MappedFile open(Path path) throws IOException {
+        return new MappedFile(path, DEFAULT_CHUNK_BITS);
+    }
+
+    MappedFile(Path path, int chunkBits) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1 << chunkBits) - 1;
+        this.size = channel.size();
+        long chunkSize = 1L << chunkBits;
+        int chunkCount = (int) ((size + chunkSize - 1) >>> chunkBits);
+        this.chunks = new MappedByteBuffer[chunkCount];
+        try {
+            for (int i = 0; i < chunkCount; i++) {
+                long position = (long) i << chunkBits;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunkSize, size - position));
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public byte get(long position) {
+        return chunks[(int) (position >>> chunkBits)].get((int) (position & chunkMask));
+    }
+
+    /**
+     * Copy bytes from the given position into the array, across chunks if need be.
+     */
+    public void get(long position, byte[] destination, int offset, int length) {
+        while (length > 0) {
+            MappedByteBuffer chunk = chunks[(int) (position >>> chunkBits)];
+            int chunkPosition = (int) (position & chunkMask);
+            int count = Math.min(length, chunk.limit() - chunkPosition);
+            chunk.get(chunkPosition, destination, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * The bytes from start, inclusive, to end, exclusive.
+     */
+    public InputStream openStream(long start, long end) {
+        return new RangeInputStream(start, Math.min(end, size));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private class RangeInputStream extends InputStream {
+
+        private long position;
+
+        private final long end;
+
+        RangeInputStream(long start, long end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() {
+            return position < end ? get(position++) & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int count = (int) Math.min(length, end - position);
+            get(position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the bytes written through it, and times how long the writer is held up writing and flushing them.
+ * Meant to be written to in blocks, like from a JSON generator, as each call is timed on its own.
+ */
+public class MeteredOutputStream extends FilterOutputStream {
+
+    private final Counter bytes;
+    private final Timer writeTime;
+
+    public MeteredOutputStream(OutputStream outputStream, Counter bytes, Timer writeTime) {
+        super(outputStream);
+        this.bytes = bytes;
+        this.writeTime = writeTime;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        out.write(b);
+        writeTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        bytes.increment();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        out.write(buffer, offset, length);
+        writeTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        bytes.increment(length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        out.flush();
+        writeTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
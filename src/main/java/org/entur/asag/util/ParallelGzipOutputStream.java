@@ -0,0 +1,200 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package org.entur.asag.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compression spread over a pool of threads, the way pigz does it: the written bytes are cut into blocks, each
+ * block is compressed into a gzip member of its own, and the members are written in order. Concatenated members are
+ * a valid gzip file (RFC 1952), which any gzip reader inflates back into the written bytes.
+ * <p>
+ * Blocks are compressed while the writer carries on, with at most two blocks per thread in flight before a write
+ * waits for the oldest to be done.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    /**
+     * Magic, deflate, no flags, no modification time, no extra flags and unknown operating system.
+     */
+    private static final byte[] MEMBER_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final int IN_FLIGHT_BLOCKS_PER_THREAD = 2;
+
+    private final OutputStream outputStream;
+    private final int blockSize;
+    private final int level;
+    private final ExecutorService executorService;
+    private final int maxInFlightBlocks;
+    private final Deque<Future<byte[]>> inFlightBlocks = new ArrayDeque<>();
+
+    private byte[] block;
+    private int blockLength;
+    private boolean empty = true;
+    private boolean closed;
+
+    /**
+     * @param threads compressing threads, or one per available processor if zero or less
+     */
+    public ParallelGzipOutputStream(OutputStream outputStream, int blockSize, int threads, int level) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive, was " + blockSize);
+        }
+        int compressingThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.outputStream = outputStream;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.executorService = Executors.newFixedThreadPool(compressingThreads);
+        this.maxInFlightBlocks = compressingThreads * IN_FLIGHT_BLOCKS_PER_THREAD;
+        this.block = new byte[blockSize];
+    }
+
+    public ParallelGzipOutputStream(OutputStream outputStream, int threads) {
+        this(outputStream, DEFAULT_BLOCK_SIZE, threads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[blockLength++] = (byte) b;
+        if (blockLength == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            int copied = Math.min(length, blockSize - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, copied);
+            blockLength += copied;
+            offset += copied;
+            length -= copied;
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Compresses what has been written so far, even if that ends the current block early, and writes it through.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (blockLength > 0) {
+            submitBlock();
+        }
+        while (!inFlightBlocks.isEmpty()) {
+            writeOldestBlock();
+        }
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (blockLength > 0 || empty) {
+                submitBlock();
+            }
+            while (!inFlightBlocks.isEmpty()) {
+                writeOldestBlock();
+            }
+        } finally {
+            closed = true;
+            executorService.shutdownNow();
+            outputStream.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        byte[] data = block;
+        int length = blockLength;
+        inFlightBlocks.addLast(executorService.submit(() -> compress(data, length, level)));
+        block = new byte[blockSize];
+        blockLength = 0;
+        empty = false;
+        while (inFlightBlocks.size() > maxInFlightBlocks) {
+            writeOldestBlock();
+        }
+    }
+
+    private void writeOldestBlock() throws IOException {
+        try {
+            outputStream.write(inFlightBlocks.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Compressing block failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * @return the first bytes as a complete gzip member, which does not depend on any other block
+     */
+    static byte[] compress(byte[] data, int length, int level) {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 4 + 64);
+        member.write(MEMBER_HEADER, 0, MEMBER_HEADER.length);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[1 << 16];
+            while (!deflater.finished()) {
+                member.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeIntLittleEndian(member, (int) crc.getValue());
+        writeIntLittleEndian(member, length);
+        return member.toByteArray();
+    }
+
+    private static void writeIntLittleEndian(ByteArrayOutputStream outputStream, int value) {
+        outputStream.write(value);
+        outputStream.write(value >>> 8);
+        outputStream.write(value >>> 16);
+        outputStream.write(value >>> 24);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.util;
+
+import java.util.Arrays;
+
+/**
+ * Dictionary of the few distinct strings that recur in every entity, like code spaces and stop place types, each
+ * encoded as a small int given in order of first use. Looking up part of a string does not allocate unless the value
+ * is new, so values can be taken out of ids without splitting them.
+ * <p>
+ * Safe for use by several threads.
+ */
+public class SymbolTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] values = new String[INITIAL_CAPACITY];
+
+    private int[] hashes = new int[INITIAL_CAPACITY];
+
+    /**
+     * Open addressing table of symbol + 1, with zero for an empty slot.
+     */
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+
+    private int size;
+
+    public int symbol(String value) {
+        return symbol(value, 0, value.length());
+    }
+
+    /**
+     * The symbol of the characters of the source from start, inclusive, to end, exclusive.
+     */
+    public synchronized int symbol(String source, int start, int end) {
+        int hash = hash(source, start, end);
+        int slot = slot(source, start, end, hash);
+        return table[slot] == 0 ? add(source.substring(start, end), hash, slot) : table[slot] - 1;
+    }
+
+    public int find(String value) {
+        return find(value, 0, value.length());
+    }
+
+    /**
+     * Like {@link #symbol(String, int, int)}, without adding the value if it is new.
+     *
+     * @return the symbol, or -1 if the value is not in the table
+     */
+    public synchronized int find(String source, int start, int end) {
+        return table[slot(source, start, end, hash(source, start, end))] - 1;
+    }
+
+    public synchronized String value(int symbol) {
+        if (symbol < 0 || symbol >= size) {
+            throw new IllegalArgumentException("Unknown symbol " + symbol + " in table of " + size);
+        }
+        return values[symbol];
+    }
+
+    /**
+     * The one instance of the value kept by this table.
+     */
+    public String intern(String value) {
+        return value == null ? null : value(symbol(value));
+    }
+
+    public String intern(String source, int start, int end) {
+        return value(symbol(source, start, end));
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * The slot holding the value, or the empty slot where it belongs.
+     */
+    private int slot(String source, int start, int end, int hash) {
+        int mask = table.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return slot;
+            }
+            String value = values[entry - 1];
+            if (hashes[entry - 1] == hash && value.length() == end - start && source.regionMatches(start, value, 0, end - start)) {
+                return slot;
+            }
+        }
+    }
+
+    private int add(String value, int hash, int slot) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        values[size] = value;
+        hashes[size] = hash;
+        table[slot] = ++size;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return size - 1;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int symbol = 0; symbol < size; symbol++) {
+            int slot = spread(hashes[symbol]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = symbol + 1;
+        }
+    }
+
+    /**
+     * Same as {@link String#hashCode()} of the substring.
+     */
+    private static int hash(String source, int start, int end) {
+        int hash = 0;
+        for (int index = start; index < end; index++) {
+            hash = 31 * hash + source.charAt(index);
+        }
+        return hash;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
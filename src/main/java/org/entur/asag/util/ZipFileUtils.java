@@ -15,15 +15,20 @@
 
 package org.entur.asag.util;
 
+import org.apache.commons.io.input.ReadAheadInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Locale;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -31,6 +36,8 @@ import java.util.zip.ZipInputStream;
 public class ZipFileUtils {
     private static Logger logger = LoggerFactory.getLogger(ZipFileUtils.class);
 
+    private static final int BUFFER_SIZE = 1 << 16;
+
     public Set<String> listFilesInZip(InputStream inputStream) {
         Set<String> fileNames = new HashSet<>();
         try (ZipInputStream zipInputStream = new ZipInputStream(inputStream)) {
@@ -50,7 +57,7 @@ public class ZipFileUtils {
     public static void unzipFile(InputStream inputStream, String targetFolder) {
         try {
             File targetDir = new File(targetFolder).getCanonicalFile();
-            byte[] buffer = new byte[1024];
+            byte[] buffer = new byte[BUFFER_SIZE];
             ZipInputStream zis = new ZipInputStream(inputStream);
             ZipEntry zipEntry = zis.getNextEntry();
             while (zipEntry != null) {
@@ -87,4 +94,40 @@ public class ZipFileUtils {
             throw new RuntimeException("Unzipping archive failed: " + ioE.getMessage(), ioE);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @return whether the file starts with the gzip magic bytes, which no JSON or XML document does
+     */
+    public static boolean isGzipped(File file) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return inputStream.read() == 0x1f && inputStream.read() == 0x8b;
+        }
+    }
+
+    /**
+     * Unzip on the fly, returning a stream positioned at the content of the first XML entry of the archive.
+     * The entry is inflated ahead of the reader on a separate thread, into a buffer of the given size.
+     * Closing the returned stream closes the archive stream.
+     *
+     * @throws NoSuchElementException if the archive contains no XML entry
+     */
+    public static InputStream openFirstXmlEntry(InputStream inputStream, int readAheadBufferSize) throws IOException {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("No zip archive to read the XML entry from");
+        }
+        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE));
+        ZipEntry zipEntry = zis.getNextEntry();
+        while (zipEntry != null) {
+            if (!zipEntry.isDirectory() && zipEntry.getName().toLowerCase(Locale.ROOT).endsWith(".xml")) {
+                logger.info("streaming zip entry: {}", zipEntry.getName());
+                return ReadAheadInputStream.builder()
+                        .setInputStream(zis)
+                        .setBufferSize(readAheadBufferSize)
+                        .get();
+            }
+            zipEntry = zis.getNextEntry();
+        }
+        zis.close();
+        throw new NoSuchElementException("No XML file found in zip archive");
+    }
+}
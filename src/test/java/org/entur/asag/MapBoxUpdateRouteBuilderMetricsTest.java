@@ -0,0 +1,124 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Produce;
+import org.apache.camel.ProducerTemplate;
+import org.apache.commons.io.FileUtils;
+import org.entur.asag.mapbox.MapBoxUpdateRouteBuilder;
+import org.entur.asag.service.BlobStoreService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.wiremock.spring.EnableWireMock;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the route once, and checks that the meters of the run are written to the metrics file and pushed to the
+ * Pushgateway at the end of it.
+ */
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@SpringBootTest(classes = MapBoxUpdateRouteBuilder.class,
+        properties = {
+                "spring.main.sources=org.entur.asag",
+                "mapbox.api.url=http://localhost:${wiremock.server.port}",
+                "mapbox.upload.status.poll.delay=0",
+                "mapbox.upload.status.max.retries=3",
+                "mapbox.stream.tiamat.export=true",
+                "asag.transform.mode=STREAMING",
+                "asag.metrics.file=" + MapBoxUpdateRouteBuilderMetricsTest.DOWNLOAD_DIRECTORY + "/asag.prom",
+                "asag.metrics.pushgateway.url=http://localhost:${wiremock.server.port}/pushgateway",
+                "mapbox.download.directory=" + MapBoxUpdateRouteBuilderMetricsTest.DOWNLOAD_DIRECTORY,
+                "blobstore.gcs.container.name=container",
+                "blobstore.gcs.credential.path=credpath",
+                "blobstore.gcs.project.id=123",
+                "helper.slack.endpoint=http://localhost:${wiremock.server.port}/hubot/say/",
+                "camel.springboot.use-advice-with=true",
+                "asag.run.on.startup=false"
+        })
+@EnableWireMock
+public class MapBoxUpdateRouteBuilderMetricsTest extends AsagRouteBuilderIntegrationTestBase {
+
+    static final String DOWNLOAD_DIRECTORY = "target/mapbox-metrics";
+
+    private static final String PUSHGATEWAY_PATH = "/pushgateway/metrics/job/asag";
+
+    private static final String MAPBOX_RESPONSE_COMPLETE = "{\"id\":\"someId\", \"name\":\"tiamat.geojson\", \"complete\":true, \"error\":null, \"created\":\"2018-01-19T10:14:41.359Z\"," +
+            " \"modified\":\"2018-01-19T10:14:41.359Z\", \"tileset\":\"tilesetname\", \"owner\":\"owner\", \"progress\":1}";
+
+    private static final String MAPBOX_CREDENTIALS_RESPONSE = "{ \"bucket\": \"bucket\", \"key\": \"key\", \"accessKeyId\": \"accessKeyId\", " +
+            " \"secretAccessKey\": \"secretAKey\", \"sessionToken\": \"sestoken\", \"url\": \"http://localhost:0000\" }";
+
+    @Produce("direct:uploadTiamatToMapboxAsGeoJson")
+    protected ProducerTemplate producerTemplate;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @BeforeEach
+    public void before() throws Exception {
+        FileUtils.deleteDirectory(new File(DOWNLOAD_DIRECTORY));
+        replaceEndpoint("mapbox-convert-upload-tiamat-data", "direct:uploadMapboxDataAws", "mock:uploadMapboxDataAws");
+
+        when(blobStoreService.getBlob(anyString()))
+                .thenAnswer(invocation -> new FileInputStream(new File(getClass().getResource("/stops.zip").getFile())));
+
+        stubFor(post(urlEqualTo("/hubot/say/")).willReturn(aResponse().withBody("OK")));
+        stubFor(put(urlEqualTo(PUSHGATEWAY_PATH)).willReturn(aResponse().withStatus(200)));
+        stubFor(get(urlPathMatching("/uploads/v1/(\\w+)/credentials"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_CREDENTIALS_RESPONSE)));
+        stubFor(post(urlMatching("/uploads/v1/\\w+\\?{1}access_token.*"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_RESPONSE_COMPLETE)));
+        context.start();
+    }
+
+    @Test
+    public void testMetricsArePublishedAtTheEndOfTheRun() throws Exception {
+        Exchange e = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", exchange -> {});
+
+        assertThat(e.getProperties().get(PROPERTY_STATE)).isEqualTo(STATE_FINISHED);
+
+        String metrics = Files.readString(Path.of(DOWNLOAD_DIRECTORY, "asag.prom"));
+        assertThat(metrics)
+                .contains("asag_entities_total{outcome=\"accepted\",type=\"StopPlace\"}")
+                .contains("asag_parse_seconds_count{type=\"StopPlace\"}")
+                .contains("asag_map_seconds_count{type=\"StopPlace\"}")
+                .contains("asag_export_bytes_total")
+                .contains("asag_geojson_bytes_total")
+                .contains("asag_heap_peak_bytes")
+                .contains("asag_runs_total{state=\"finished\"}")
+                .contains("routeId=\"mapbox-transform-from-tiamat\"");
+        assertThat(metrics).doesNotContain("asag_export_bytes_total 0.0");
+
+        verify(1, putRequestedFor(urlEqualTo(PUSHGATEWAY_PATH))
+                .withHeader("Content-Type", containing("text/plain"))
+                .withRequestBody(containing("asag_runs_total{state=\"finished\"}")));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Produce;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.commons.io.FileUtils;
+import org.entur.asag.mapbox.MapBoxUpdateRouteBuilder;
+import org.entur.asag.service.BlobStoreService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.wiremock.spring.EnableWireMock;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Map;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * Uploads the stop places and quays of the export as a tileset each.
+ */
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@SpringBootTest(classes = MapBoxUpdateRouteBuilder.class,
+        properties = {
+                "spring.main.sources=org.entur.asag",
+                "mapbox.api.url=http://localhost:${wiremock.server.port}",
+                "mapbox.upload.status.poll.delay=0",
+                "mapbox.upload.status.max.retries=3",
+                "mapbox.stream.tiamat.export=true",
+                "asag.transform.mode=STREAMING",
+                "asag.shard.by=ENTITY_TYPE",
+                "mapbox.download.directory=" + MapBoxUpdateRouteBuilderShardTest.DOWNLOAD_DIRECTORY,
+                "blobstore.gcs.container.name=container",
+                "blobstore.gcs.credential.path=credpath",
+                "blobstore.gcs.project.id=123",
+                "helper.slack.endpoint=http://localhost:${wiremock.server.port}/hubot/say/",
+                "camel.springboot.use-advice-with=true",
+                "asag.run.on.startup=false"
+        })
+@EnableWireMock
+public class MapBoxUpdateRouteBuilderShardTest extends AsagRouteBuilderIntegrationTestBase {
+
+    static final String DOWNLOAD_DIRECTORY = "target/mapbox-shard";
+
+    private static final String MAPBOX_RESPONSE_COMPLETE = "{\"id\":\"someId\", \"name\":\"tiamat.geojson\", \"complete\":true, \"error\":null, \"created\":\"2018-01-19T10:14:41.359Z\"," +
+            " \"modified\":\"2018-01-19T10:14:41.359Z\", \"tileset\":\"tilesetname\", \"owner\":\"owner\", \"progress\":1}";
+
+    private static final String MAPBOX_RESPONSE_ERROR = "{\"id\":\"someId\", \"name\":\"tiamat.geojson\", \"complete\":false, \"error\":\"Failure!\", \"created\":\"2018-01-19T10:14:41.359Z\"," +
+            " \"modified\":\"2018-01-19T10:14:41.359Z\", \"tileset\":\"tilesetname\", \"owner\":\"owner\", \"progress\":0}";
+
+    private static final String MAPBOX_CREDENTIALS_RESPONSE = "{ \"bucket\": \"bucket\", \"key\": \"key\", \"accessKeyId\": \"accessKeyId\", " +
+            " \"secretAccessKey\": \"secretAKey\", \"sessionToken\": \"sestoken\", \"url\": \"http://localhost:0000\" }";
+
+    @Produce("direct:uploadTiamatToMapboxAsGeoJson")
+    protected ProducerTemplate producerTemplate;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @BeforeEach
+    public void before() throws Exception {
+        FileUtils.deleteDirectory(new File(DOWNLOAD_DIRECTORY));
+        replaceEndpoint("mapbox-upload-shard", "direct:uploadMapboxDataAws", "mock:uploadMapboxDataAws");
+
+        when(blobStoreService.getBlob(anyString()))
+                .thenAnswer(invocation -> new FileInputStream(new File(getClass().getResource("/stops.zip").getFile())));
+
+        stubFor(post(urlEqualTo("/hubot/say/")).willReturn(aResponse().withBody("OK")));
+        stubFor(get(urlPathMatching("/uploads/v1/(\\w+)/credentials"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_CREDENTIALS_RESPONSE)));
+        stubFor(post(urlMatching("/uploads/v1/\\w+\\?{1}access_token.*"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_RESPONSE_COMPLETE)));
+    }
+
+    @Test
+    public void testEachShardIsUploadedToItsOwnTileset() throws Exception {
+        context.start();
+        MockEndpoint upload = context.getEndpoint("mock:uploadMapboxDataAws", MockEndpoint.class);
+        upload.expectedMessageCount(2);
+
+        Exchange exchange = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", e -> {});
+
+        upload.assertIsSatisfied();
+        assertThat(exchange.getException()).isNull();
+        assertThat(exchange.getProperties().get(PROPERTY_STATE)).isEqualTo(STATE_FINISHED);
+        assertThat((Map<?, ?>) exchange.getProperty(SHARD_STATES, Map.class))
+                .containsOnlyKeys("entur.tileset_quay", "entur.tileset_stop_place");
+        verify(2, getRequestedFor(urlPathMatching("/uploads/v1/(\\w+)/credentials")));
+        verify(postRequestedFor(urlMatching("/uploads/v1/\\w+\\?{1}access_token.*"))
+                .withRequestBody(matchingJsonPath("$.tileset", equalTo("entur.tileset_quay")))
+                .withRequestBody(matchingJsonPath("$.name", equalTo("entur_quay.geojson"))));
+        verify(postRequestedFor(urlMatching("/uploads/v1/\\w+\\?{1}access_token.*"))
+                .withRequestBody(matchingJsonPath("$.tileset", equalTo("entur.tileset_stop_place"))));
+        assertThat(new File(exchange.getIn().getHeader(GEOJSON_FILE, String.class) + ".index")).exists();
+    }
+
+    @Test
+    public void testFailedShardKeepsFeaturesFromBeingAccepted() throws Exception {
+        stubFor(post(urlMatching("/uploads/v1/\\w+\\?{1}access_token.*"))
+                .withRequestBody(matchingJsonPath("$.tileset", equalTo("entur.tileset_quay")))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_RESPONSE_ERROR)));
+        context.start();
+
+        Exchange exchange = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", e -> {});
+
+        assertThat(exchange.getException()).isNull();
+        assertThat(exchange.getProperties().get(PROPERTY_STATE)).isEqualTo(STATE_ERROR);
+        assertThat((Map<?, ?>) exchange.getProperty(SHARD_STATES, Map.class))
+                .containsEntry("entur.tileset_quay", STATE_ERROR)
+                .containsEntry("entur.tileset_stop_place", STATE_FINISHED);
+        assertThat(new File(exchange.getIn().getHeader(GEOJSON_FILE, String.class) + ".index")).doesNotExist();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag;
+package org.entur.asag;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Produce;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.commons.io.FileUtils;
+import org.entur.asag.mapbox.FeatureChangeReport;
+import org.entur.asag.mapbox.MapBoxUpdateRouteBuilder;
+import org.entur.asag.service.BlobStoreService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.wiremock.spring.EnableWireMock;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the route twice on the same export, where the second run should find no changed features and skip the upload.
+ * The download directory is deleted between the runs, like when each run has a pod of its own, so the second run only
+ * knows what was uploaded from the blob store.
+ */
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@SpringBootTest(classes = MapBoxUpdateRouteBuilder.class,
+        properties = {
+                "spring.main.sources=org.entur.asag",
+                "mapbox.api.url=http://localhost:${wiremock.server.port}",
+                "mapbox.upload.status.poll.delay=0",
+                "mapbox.upload.status.max.retries=3",
+                "mapbox.upload.skip.unchanged=true",
+                "mapbox.stream.tiamat.export=true",
+                "mapbox.download.directory=" + MapBoxUpdateRouteBuilderSkipUnchangedTest.DOWNLOAD_DIRECTORY,
+                "blobstore.gcs.container.name=container",
+                "blobstore.gcs.credential.path=credpath",
+                "blobstore.gcs.project.id=123",
+                "helper.slack.endpoint=http://localhost:${wiremock.server.port}/hubot/say/",
+                "camel.springboot.use-advice-with=true",
+                "asag.run.on.startup=false"
+        })
+@EnableWireMock
+public class MapBoxUpdateRouteBuilderSkipUnchangedTest extends AsagRouteBuilderIntegrationTestBase {
+
+    static final String DOWNLOAD_DIRECTORY = "target/mapbox-skip-unchanged";
+
+    private static final String MAPBOX_RESPONSE_COMPLETE = "{\"id\":\"someId\", \"name\":\"tiamat.geojson\", \"complete\":true, \"error\":null, \"created\":\"2018-01-19T10:14:41.359Z\"," +
+            " \"modified\":\"2018-01-19T10:14:41.359Z\", \"tileset\":\"tilesetname\", \"owner\":\"owner\", \"progress\":1}";
+
+    private static final String MAPBOX_CREDENTIALS_RESPONSE = "{ \"bucket\": \"bucket\", \"key\": \"key\", \"accessKeyId\": \"accessKeyId\", " +
+            " \"secretAccessKey\": \"secretAKey\", \"sessionToken\": \"sestoken\", \"url\": \"http://localhost:0000\" }";
+
+    @Produce("direct:uploadTiamatToMapboxAsGeoJson")
+    protected ProducerTemplate producerTemplate;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    public void before() throws Exception {
+        FileUtils.deleteDirectory(new File(DOWNLOAD_DIRECTORY));
+        replaceEndpoint("mapbox-convert-upload-tiamat-data", "direct:uploadMapboxDataAws", "mock:uploadMapboxDataAws");
+
+        when(blobStoreService.getBlob(anyString()))
+                .thenAnswer(invocation -> new FileInputStream(new File(getClass().getResource("/stops.zip").getFile())));
+        when(blobStoreService.readBlob(anyString())).thenAnswer(invocation -> blobs.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> blobs.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(blobStoreService).writeBlob(anyString(), any(byte[].class));
+
+        stubFor(post(urlEqualTo("/hubot/say/")).willReturn(aResponse().withBody("OK")));
+        stubFor(get(urlPathMatching("/uploads/v1/(\\w+)/credentials"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_CREDENTIALS_RESPONSE)));
+        stubFor(post(urlMatching("/uploads/v1/\\w+\\?{1}access_token.*"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_RESPONSE_COMPLETE)));
+        context.start();
+    }
+
+    @Test
+    public void testUploadIsSkippedWhenNoFeatureChanged() throws Exception {
+        MockEndpoint upload = context.getEndpoint("mock:uploadMapboxDataAws", MockEndpoint.class);
+        upload.expectedMessageCount(1);
+
+        Exchange first = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", exchange -> {});
+
+        assertThat(first.getProperties().get(PROPERTY_STATE)).isEqualTo(STATE_FINISHED);
+        assertThat(first.getIn().getHeader(FEATURE_CHANGES, FeatureChangeReport.class).getAdded()).isGreaterThan(0);
+        String geoJsonFile = first.getIn().getHeader(GEOJSON_FILE, String.class);
+        assertThat(new File(geoJsonFile + ".index")).exists();
+        assertThat(blobs).containsKey("asag/state/" + new File(geoJsonFile).getName() + ".index");
+        FileUtils.deleteDirectory(new File(DOWNLOAD_DIRECTORY));
+
+        Exchange second = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", exchange -> {});
+
+        assertThat(second.getProperties().get(PROPERTY_STATE)).isEqualTo(STATE_UNCHANGED);
+        assertThat(second.getIn().getHeader(FEATURE_CHANGES, FeatureChangeReport.class).hasChanges()).isFalse();
+        upload.assertIsSatisfied();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Produce;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.entur.asag.mapbox.MapBoxUpdateRouteBuilder;
+import org.entur.asag.service.BlobStoreService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.wiremock.spring.EnableWireMock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the route with the Tiamat export unzipped and parsed while it is read from the blob store.
+ */
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@SpringBootTest(classes = MapBoxUpdateRouteBuilder.class,
+        properties = {
+                "spring.main.sources=org.entur.asag",
+                "mapbox.api.url=http://localhost:${wiremock.server.port}",
+                "mapbox.upload.status.poll.delay=0",
+                "mapbox.upload.status.max.retries=3",
+                "mapbox.stream.tiamat.export=true",
+                "mapbox.download.directory=target/mapbox-streaming",
+                "blobstore.gcs.container.name=container",
+                "blobstore.gcs.credential.path=credpath",
+                "blobstore.gcs.project.id=123",
+                "helper.slack.endpoint=http://localhost:${wiremock.server.port}/hubot/say/",
+                "camel.springboot.use-advice-with=true",
+                "asag.run.on.startup=false"
+        })
+@EnableWireMock
+public class MapBoxUpdateRouteBuilderStreamingTest extends AsagRouteBuilderIntegrationTestBase {
+
+    private static final String MAPBOX_RESPONSE_COMPLETE = "{\"id\":\"someId\", \"name\":\"tiamat.geojson\", \"complete\":true, \"error\":null, \"created\":\"2018-01-19T10:14:41.359Z\"," +
+            " \"modified\":\"2018-01-19T10:14:41.359Z\", \"tileset\":\"tilesetname\", \"owner\":\"owner\", \"progress\":1}";
+
+    private static final String MAPBOX_CREDENTIALS_RESPONSE = "{ \"bucket\": \"bucket\", \"key\": \"key\", \"accessKeyId\": \"accessKeyId\", " +
+            " \"secretAccessKey\": \"secretAKey\", \"sessionToken\": \"sestoken\", \"url\": \"http://localhost:0000\" }";
+
+    @Produce("direct:uploadTiamatToMapboxAsGeoJson")
+    protected ProducerTemplate producerTemplate;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @BeforeEach
+    public void before() throws Exception {
+        replaceEndpoint("mapbox-convert-upload-tiamat-data", "direct:uploadMapboxDataAws", "mock:uploadMapboxDataAws");
+
+        when(blobStoreService.getBlob(anyString()))
+                .thenReturn(new FileInputStream(new File(getClass().getResource("/stops.zip").getFile())));
+
+        stubFor(post(urlEqualTo("/hubot/say/")).willReturn(aResponse().withBody("OK")));
+        stubFor(get(urlPathMatching("/uploads/v1/(\\w+)/credentials"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_CREDENTIALS_RESPONSE)));
+        stubFor(post(urlMatching("/uploads/v1/\\w+\\?{1}access_token.*"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_RESPONSE_COMPLETE)));
+        context.start();
+    }
+
+    @Test
+    public void testStreamedExportIsTransformedAndUploaded() throws Exception {
+        MockEndpoint upload = context.getEndpoint("mock:uploadMapboxDataAws", MockEndpoint.class);
+        upload.expectedMessageCount(1);
+
+        Exchange e = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", exchange -> {});
+
+        assertThat(e.getProperties().get(PROPERTY_STATE)).isEqualTo(STATE_FINISHED);
+        upload.assertIsSatisfied();
+        File geoJson = upload.getReceivedExchanges().get(0).getIn().getBody(File.class);
+        assertThat(geoJson).exists();
+        assertThat(geoJson.length()).isGreaterThan(0);
+        assertThat(new File("target/mapbox-streaming/tiamat")).doesNotExist();
+    }
+
+    @Test
+    public void testZipWithNoXmlFilesCausesRouteFailure() throws Exception {
+        reset(blobStoreService);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+            zos.putNextEntry(new ZipEntry("data.csv"));
+            zos.write("id,name\n1,stop".getBytes());
+            zos.closeEntry();
+        }
+        when(blobStoreService.getBlob(anyString())).thenReturn(new ByteArrayInputStream(baos.toByteArray()));
+
+        boolean failed;
+        try {
+            failed = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", exchange -> {}).isFailed();
+        } catch (Exception e) {
+            failed = true;
+        }
+
+        assertThat(failed)
+                .as("Route should fail when the streamed ZIP contains no XML files")
+                .isTrue();
+    }
+}
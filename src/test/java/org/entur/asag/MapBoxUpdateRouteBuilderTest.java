@@ -43,6 +43,7 @@ import java.util.zip.ZipOutputStream;
 import org.apache.commons.io.FileUtils;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.*;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -143,7 +144,7 @@ public class MapBoxUpdateRouteBuilderTest extends AsagRouteBuilderIntegrationTes
     }
 
     /**
-     * Test that a state is set when giving up checking the status
+     * Test that a state is set when giving up checking the status, after polling as many times as configured
      */
 
     @Test
@@ -154,6 +155,30 @@ public class MapBoxUpdateRouteBuilderTest extends AsagRouteBuilderIntegrationTes
         stubNotComplete();
         Exchange e = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", System.out::println);
         assertState(e, STATE_TIMEOUT);
+        verify(3, getRequestedFor(urlPathMatching(UPLOAD_STATUS_PATH_PATTERN)));
+    }
+
+    /**
+     * Test that the status fetched by the last poll is checked before giving up
+     */
+    @Test
+    public void testMapLayerDataCompletesOnLastPoll() throws Exception {
+        stubCredentials();
+        stubInitiateUpload();
+        stubFor(get(urlPathMatching(UPLOAD_STATUS_PATH_PATTERN)).inScenario("status")
+                .whenScenarioStateIs(STARTED)
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_RESPONSE_NOT_COMPLETE))
+                .willSetStateTo("second"));
+        stubFor(get(urlPathMatching(UPLOAD_STATUS_PATH_PATTERN)).inScenario("status")
+                .whenScenarioStateIs("second")
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_RESPONSE_NOT_COMPLETE))
+                .willSetStateTo("third"));
+        stubFor(get(urlPathMatching(UPLOAD_STATUS_PATH_PATTERN)).inScenario("status")
+                .whenScenarioStateIs("third")
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(MAPBOX_RESPONSE_COMPLETE)));
+        Exchange e = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", System.out::println);
+        assertState(e, STATE_FINISHED);
+        verify(3, getRequestedFor(urlPathMatching(UPLOAD_STATUS_PATH_PATTERN)));
     }
 
 
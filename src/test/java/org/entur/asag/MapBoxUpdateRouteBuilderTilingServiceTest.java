@@ -0,0 +1,150 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package org.entur.asag;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Produce;
+import org.apache.camel.ProducerTemplate;
+import org.apache.commons.io.FileUtils;
+import org.entur.asag.mapbox.MapBoxUpdateRouteBuilder;
+import org.entur.asag.service.BlobStoreService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.wiremock.spring.EnableWireMock;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * Publishes through a WireMock stand-in for the Mapbox Tiling Service, where the tileset does not exist until the
+ * first run creates it.
+ */
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@SpringBootTest(classes = MapBoxUpdateRouteBuilder.class,
+        properties = {
+                "spring.main.sources=org.entur.asag",
+                "mapbox.api.url=http://localhost:${wiremock.server.port}",
+                "mapbox.upload.status.poll.delay=0",
+                "mapbox.upload.status.max.retries=3",
+                "mapbox.publisher=TILING_SERVICE",
+                "asag.output.format=GEOJSON_SEQ",
+                "asag.transform.mode=STREAMING",
+                "mapbox.stream.tiamat.export=true",
+                "mapbox.download.directory=" + MapBoxUpdateRouteBuilderTilingServiceTest.DOWNLOAD_DIRECTORY,
+                "blobstore.gcs.container.name=container",
+                "blobstore.gcs.credential.path=credpath",
+                "blobstore.gcs.project.id=123",
+                "helper.slack.endpoint=http://localhost:${wiremock.server.port}/hubot/say/",
+                "camel.springboot.use-advice-with=true",
+                "asag.run.on.startup=false"
+        })
+@EnableWireMock
+public class MapBoxUpdateRouteBuilderTilingServiceTest extends AsagRouteBuilderIntegrationTestBase {
+
+    static final String DOWNLOAD_DIRECTORY = "target/mapbox-tiling-service";
+
+    private static final String TILESET = "/tilesets/v1/entur.tileset";
+    private static final String SOURCES_PATH_PATTERN = "/tilesets/v1/sources/entur/\\w+";
+    private static final String TILESET_CREATED = "created";
+
+    private static final String PUBLISH_RESPONSE = "{\"message\":\"Processing entur.tileset\",\"jobId\":\"job1\"}";
+
+    @Produce("direct:uploadTiamatToMapboxAsGeoJson")
+    protected ProducerTemplate producerTemplate;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @BeforeEach
+    public void before() throws Exception {
+        FileUtils.deleteDirectory(new File(DOWNLOAD_DIRECTORY));
+
+        when(blobStoreService.getBlob(anyString()))
+                .thenAnswer(invocation -> new FileInputStream(new File(getClass().getResource("/stops.zip").getFile())));
+
+        stubFor(post(urlEqualTo("/hubot/say/")).willReturn(aResponse().withBody("OK")));
+        stubFor(put(urlPathMatching(SOURCES_PATH_PATTERN))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody("{\"files\":1}")));
+        stubFor(patch(urlPathEqualTo(TILESET + "/recipe")).inScenario("tileset").whenScenarioStateIs(STARTED)
+                .willReturn(aResponse().withStatus(404).withBody("{\"message\":\"Tileset does not exist\"}")));
+        stubFor(post(urlPathEqualTo(TILESET)).inScenario("tileset").whenScenarioStateIs(STARTED)
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody("{\"message\":\"Successfully created empty tileset\"}"))
+                .willSetStateTo(TILESET_CREATED));
+        stubFor(patch(urlPathEqualTo(TILESET + "/recipe")).inScenario("tileset").whenScenarioStateIs(TILESET_CREATED)
+                .willReturn(aResponse().withStatus(204)));
+        stubFor(post(urlPathEqualTo(TILESET + "/publish"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(PUBLISH_RESPONSE)));
+        context.start();
+    }
+
+    @Test
+    public void testOnlyChangedSourcesAreReplaced() throws Exception {
+        stubJob("success");
+
+        Exchange first = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", exchange -> {});
+
+        assertThat(first.getProperties().get(PROPERTY_STATE)).isEqualTo(STATE_FINISHED);
+        int sources = findAll(putRequestedFor(urlPathMatching(SOURCES_PATH_PATTERN))).size();
+        assertThat(sources).isGreaterThan(0);
+        verify(1, postRequestedFor(urlPathEqualTo(TILESET)).withRequestBody(matchingJsonPath("$.recipe.layers.stop_place.source")));
+
+        Exchange second = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", exchange -> {});
+
+        assertThat(second.getProperties().get(PROPERTY_STATE)).isEqualTo(STATE_FINISHED);
+        verify(sources, putRequestedFor(urlPathMatching(SOURCES_PATH_PATTERN)));
+        verify(1, patchRequestedFor(urlPathEqualTo(TILESET + "/recipe")).withRequestBody(matchingJsonPath("$.layers.stop_place")));
+        verify(2, postRequestedFor(urlPathEqualTo(TILESET + "/publish")));
+    }
+
+    @Test
+    public void testSourcesAreReplacedAgainAfterFailedJob() throws Exception {
+        stubJob("failed");
+
+        Exchange first = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", exchange -> {});
+        assertThat(first.getProperties().get(PROPERTY_STATE)).isEqualTo(STATE_ERROR);
+        int sources = findAll(putRequestedFor(urlPathMatching(SOURCES_PATH_PATTERN))).size();
+
+        Exchange second = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", exchange -> {});
+
+        assertThat(second.getProperties().get(PROPERTY_STATE)).isEqualTo(STATE_ERROR);
+        verify(2 * sources, putRequestedFor(urlPathMatching(SOURCES_PATH_PATTERN)));
+    }
+
+    @Test
+    public void testTimeoutWhenJobDoesNotFinish() throws Exception {
+        stubJob("processing");
+
+        Exchange e = producerTemplate.request("direct:uploadTiamatToMapboxAsGeoJson", exchange -> {});
+
+        assertThat(e.getProperties().get(PROPERTY_STATE)).isEqualTo(STATE_TIMEOUT);
+        verify(3, getRequestedFor(urlPathEqualTo(TILESET + "/jobs/job1")));
+    }
+
+    private void stubJob(String stage) {
+        stubFor(get(urlPathEqualTo(TILESET + "/jobs/job1"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\":\"job1\",\"stage\":\"" + stage + "\",\"tilesetId\":\"entur.tileset\",\"errors\":[],\"warnings\":[],\"created\":1}")));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.OptionalDouble;
+
+/**
+ * Runs the benchmarks of this package with the GC profiler, taking the usual JMH command line options. For benchmarks
+ * counting {@code entities}, the allocation rate is also reported per entity.
+ * <p>
+ * Run with <code>mvn -Pbenchmark verify</code>, passing JMH options in <code>-Dbenchmark.args</code>, or from the IDE.
+ */
+public class BenchmarkRunner {
+
+    static final String ENTITIES = "entities";
+
+    static final String ALLOCATION_RATE = "gc.alloc.rate";
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLineOptions);
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            options.include(BenchmarkRunner.class.getPackageName() + "\\.");
+        }
+        if (commandLineOptions.getProfilers().stream().noneMatch(profiler -> "gc".equals(profiler.getKlass())
+                || GCProfiler.class.getName().equals(profiler.getKlass()))) {
+            options.addProfiler(GCProfiler.class);
+        }
+
+        Collection<RunResult> results = new Runner(options.build()).run();
+
+        System.out.println();
+        System.out.println("Allocation per entity:");
+        for (RunResult result : results) {
+            bytesPerEntity(result.getSecondaryResults()).ifPresent(bytesPerEntity ->
+                    System.out.printf("%-60s %12.1f B/entity%n", describe(result), bytesPerEntity));
+        }
+    }
+
+    /**
+     * Both rates are over the same measured time, so their ratio is the bytes allocated for each entity.
+     */
+    static OptionalDouble bytesPerEntity(Map<String, Result> secondaryResults) {
+        Result entities = secondaryResults.get(ENTITIES);
+        Result allocationRate = secondaryResults.get(ALLOCATION_RATE);
+        if (entities == null || allocationRate == null || entities.getScore() <= 0) {
+            return OptionalDouble.empty();
+        }
+        return OptionalDouble.of(allocationRate.getScore() * 1024 * 1024 / entities.getScore());
+    }
+
+    private static String describe(RunResult result) {
+        StringBuilder description = new StringBuilder(result.getParams().getBenchmark()
+                .substring(BenchmarkRunner.class.getPackageName().length() + 1));
+        for (String key : result.getParams().getParamsKeys()) {
+            description.append(' ').append(key).append('=').append(result.getParams().getParam(key));
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.benchmark;
+
+import org.entur.asag.mapbox.mapper.MapperHelper;
+import org.entur.asag.netex.PublicationDeliveryHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rutebanken.netex.model.BusSubmodeEnumeration;
+import org.rutebanken.netex.model.InterchangeWeightingEnumeration;
+import org.rutebanken.netex.model.StopPlace;
+import org.rutebanken.netex.model.StopPlace_VersionStructure;
+import org.rutebanken.netex.model.StopTypeEnumeration;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per stop cost of resolving the submode and enum values of a stop place, compared with the reflective lookup used
+ * before the accessors were cached.
+ * <p>
+ * Run with <code>java -cp target/test-classes:&lt;test classpath&gt; org.entur.asag.benchmark.SubmodeResolutionBenchmark</code>,
+ * or from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubmodeResolutionBenchmark {
+
+    private final StopPlace stopPlaceWithSubmode = new StopPlace()
+            .withId("NSR:StopPlace:1")
+            .withStopPlaceType(StopTypeEnumeration.ONSTREET_BUS)
+            .withBusSubmode(BusSubmodeEnumeration.LOCAL_BUS)
+            .withWeighting(InterchangeWeightingEnumeration.PREFERRED_INTERCHANGE);
+
+    private final StopPlace stopPlaceWithoutSubmode = new StopPlace()
+            .withId("NSR:StopPlace:2")
+            .withStopPlaceType(StopTypeEnumeration.RAIL_STATION);
+
+    @Benchmark
+    public Optional<String> cachedSubmodeWithSubmode() {
+        return PublicationDeliveryHelper.resolveFirstSubmodeToSingleValue(stopPlaceWithSubmode);
+    }
+
+    @Benchmark
+    public Optional<String> cachedSubmodeWithoutSubmode() {
+        return PublicationDeliveryHelper.resolveFirstSubmodeToSingleValue(stopPlaceWithoutSubmode);
+    }
+
+    @Benchmark
+    public Optional<String> reflectiveSubmodeWithSubmode() {
+        return reflectiveResolveFirstSubmode(stopPlaceWithSubmode);
+    }
+
+    @Benchmark
+    public Optional<String> reflectiveSubmodeWithoutSubmode() {
+        return reflectiveResolveFirstSubmode(stopPlaceWithoutSubmode);
+    }
+
+    @Benchmark
+    public Object cachedEnumValue() {
+        return MapperHelper.getEnumValue(stopPlaceWithSubmode.getWeighting());
+    }
+
+    @Benchmark
+    public Object reflectiveEnumValue() {
+        return reflectiveEnumValue(stopPlaceWithSubmode.getWeighting());
+    }
+
+    private static Optional<String> reflectiveResolveFirstSubmode(StopPlace stopPlace) {
+        return Arrays.stream(StopPlace_VersionStructure.class.getDeclaredMethods())
+                .filter(method -> method.getName().startsWith("get") && method.getName().endsWith("Submode"))
+                .map(method -> invoke(method, stopPlace))
+                .filter(Objects::nonNull)
+                .map(SubmodeResolutionBenchmark::reflectiveEnumValue)
+                .filter(Objects::nonNull)
+                .map(String::valueOf)
+                .filter(value -> !"unknown".equals(value))
+                .findAny();
+    }
+
+    private static Object reflectiveEnumValue(Object enumObject) {
+        try {
+            return enumObject.getClass().getMethod("value").invoke(enumObject);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static Object invoke(Method method, Object target) {
+        try {
+            return method.invoke(target);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SubmodeResolutionBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.benchmark;
+
+import org.entur.asag.mapbox.DeliveryPublicationStreamToGeoJson;
+import org.entur.asag.mapbox.EntityReader;
+import org.entur.asag.mapbox.TransformMode;
+import org.entur.asag.mapbox.filter.ValidityFilter;
+import org.entur.asag.mapbox.mapper.ParkingToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.QuayToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.StopPlaceToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.TariffZoneToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.ZoneToGeoJsonFeatureMapper;
+import org.entur.asag.netex.SyntheticPublicationDelivery;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jakarta.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end cost of {@link DeliveryPublicationStreamToGeoJson#transform}, from NeTEx bytes in memory to GeoJSON
+ * written to a discarding stream, for {@link SyntheticPublicationDelivery synthetic documents} of a given number of
+ * stop places and mix of entities.
+ * <p>
+ * Besides operations per second, the {@code entities} and {@code megabytes} counters give the throughput in mapped
+ * entities and NeTEx megabytes per second. Run through {@link BenchmarkRunner}, which adds the GC profiler and
+ * reports the bytes allocated per entity, or with <code>mvn -Pbenchmark verify</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TransformBenchmark {
+
+    @Param({"1000", "10000"})
+    public int stopPlaces;
+
+    @Param({"STOPS", "NATIONAL", "ZONES"})
+    public EntityMix mix;
+
+    @Param({"BUFFERED", "STREAMING", "PARALLEL"})
+    public TransformMode mode;
+
+    @Param({"JAXB", "STAX"})
+    public EntityReader reader;
+
+    private byte[] publicationDelivery;
+
+    private long entities;
+
+    private DeliveryPublicationStreamToGeoJson transformer;
+
+    /**
+     * Proportions of the entities in the generated document, relative to the number of stop places.
+     */
+    public enum EntityMix {
+        /**
+         * Stop places with two quays each, and nothing else.
+         */
+        STOPS {
+            @Override
+            SyntheticPublicationDelivery delivery(int stopPlaces) {
+                return new SyntheticPublicationDelivery()
+                        .withStopPlaces(stopPlaces)
+                        .withQuaysPerStopPlace(2);
+            }
+        },
+        /**
+         * Close to the national stop register: mostly stops and quays, some adjacent sites and parkings, tariff zones
+         * of a couple of dozen vertices, and a few entities that are no longer or not yet valid.
+         */
+        NATIONAL {
+            @Override
+            SyntheticPublicationDelivery delivery(int stopPlaces) {
+                return SyntheticPublicationDelivery.national(stopPlaces);
+            }
+        },
+        /**
+         * Geometry heavy: a tariff zone of a few hundred vertices for every other stop place.
+         */
+        ZONES {
+            @Override
+            SyntheticPublicationDelivery delivery(int stopPlaces) {
+                return new SyntheticPublicationDelivery()
+                        .withStopPlaces(stopPlaces)
+                        .withQuaysPerStopPlace(0)
+                        .withTariffZones(stopPlaces / 2)
+                        .withPolygonVertices(400);
+            }
+        };
+
+        abstract SyntheticPublicationDelivery delivery(int stopPlaces);
+    }
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        SyntheticPublicationDelivery delivery = mix.delivery(stopPlaces);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        delivery.writeTo(outputStream);
+        publicationDelivery = outputStream.toByteArray();
+        entities = delivery.expectedFeatures();
+    }
+
+    @Setup(Level.Trial)
+    public void createTransformer() throws JAXBException {
+        ZoneToGeoJsonFeatureMapper zoneToGeoJsonFeatureMapper = new ZoneToGeoJsonFeatureMapper();
+        transformer = new DeliveryPublicationStreamToGeoJson(
+                new StopPlaceToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper),
+                new ParkingToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper),
+                new QuayToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper),
+                new TariffZoneToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper),
+                new ValidityFilter());
+        transformer.setTransformMode(mode);
+        transformer.setEntityReader(reader);
+    }
+
+    @Benchmark
+    public void transform(Throughput throughput) {
+        transformer.transform(new ByteArrayInputStream(publicationDelivery), OutputStream.nullOutputStream());
+        throughput.entities += entities;
+        throughput.megabytes += publicationDelivery.length / (1024.0 * 1024.0);
+    }
+
+    /**
+     * Counters JMH divides by the measured time, giving entities and megabytes per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+
+        public long entities;
+
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            entities = 0;
+            megabytes = 0;
+        }
+    }
+}
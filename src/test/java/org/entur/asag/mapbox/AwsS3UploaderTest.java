@@ -17,20 +17,50 @@ package org.entur.asag.mapbox;
 
 import org.entur.asag.mapbox.model.MapBoxAwsCredentials;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 
 public class AwsS3UploaderTest {
@@ -45,14 +75,14 @@ public class AwsS3UploaderTest {
     }
 
     @Test
-    public void uploadCallsPutObjectWithCredentialBucketAndKey() throws IOException {
+    public void uploadCallsPutObjectWithCredentialBucketAndKey(@TempDir Path tempDir) throws IOException {
         S3Client mockS3Client = mock(S3Client.class);
         AwsS3Uploader uploader = uploaderWith(mockS3Client);
 
         MapBoxAwsCredentials credentials = credentials("my-bucket", "my/key");
-        InputStream data = new ByteArrayInputStream("{\"type\":\"FeatureCollection\"}".getBytes(StandardCharsets.UTF_8));
+        File file = Files.write(tempDir.resolve("entur.geojson"), "{\"type\":\"FeatureCollection\"}".getBytes(StandardCharsets.UTF_8)).toFile();
 
-        uploader.upload(credentials, "entur.geojson", data);
+        uploader.uploadFile(credentials, file);
 
         ArgumentCaptor<PutObjectRequest> requestCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
         verify(mockS3Client).putObject(requestCaptor.capture(), any(RequestBody.class));
@@ -61,12 +91,12 @@ public class AwsS3UploaderTest {
     }
 
     @Test
-    public void uploadSetsContentTypeToApplicationJson() throws IOException {
+    public void uploadSetsContentTypeToApplicationJson(@TempDir Path tempDir) throws IOException {
         S3Client mockS3Client = mock(S3Client.class);
         AwsS3Uploader uploader = uploaderWith(mockS3Client);
 
-        InputStream data = new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8));
-        uploader.upload(credentials("bucket", "key"), "file.geojson", data);
+        File file = Files.write(tempDir.resolve("file.geojson"), "{}".getBytes(StandardCharsets.UTF_8)).toFile();
+        uploader.uploadFile(credentials("bucket", "key"), file);
 
         ArgumentCaptor<PutObjectRequest> requestCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
         verify(mockS3Client).putObject(requestCaptor.capture(), any(RequestBody.class));
@@ -75,14 +105,14 @@ public class AwsS3UploaderTest {
     }
 
     @Test
-    public void uploadSetsContentLengthFromReadAllBytes() throws IOException {
+    public void uploadSetsContentLengthFromFileLength(@TempDir Path tempDir) throws IOException {
         S3Client mockS3Client = mock(S3Client.class);
         AwsS3Uploader uploader = uploaderWith(mockS3Client);
 
         byte[] payload = "{\"type\":\"FeatureCollection\",\"features\":[]}".getBytes(StandardCharsets.UTF_8);
-        InputStream data = new ByteArrayInputStream(payload);
+        File file = Files.write(tempDir.resolve("file.geojson"), payload).toFile();
 
-        uploader.upload(credentials("bucket", "key"), "file.geojson", data);
+        uploader.uploadFile(credentials("bucket", "key"), file);
 
         ArgumentCaptor<PutObjectRequest> requestCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
         verify(mockS3Client).putObject(requestCaptor.capture(), any(RequestBody.class));
@@ -90,6 +120,190 @@ public class AwsS3UploaderTest {
         assertThat(requestCaptor.getValue().contentLength()).isEqualTo((long) payload.length);
     }
 
+    @Test
+    public void uploadFileStreamsFileWithKnownContentLength(@TempDir Path tempDir) throws IOException {
+        S3Client mockS3Client = mock(S3Client.class);
+        AwsS3Uploader uploader = uploaderWith(mockS3Client);
+
+        byte[] payload = "{\"type\":\"FeatureCollection\",\"features\":[]}".getBytes(StandardCharsets.UTF_8);
+        File file = Files.write(tempDir.resolve("file.geojson"), payload).toFile();
+
+        uploader.uploadFile(credentials("bucket", "key"), file);
+
+        ArgumentCaptor<PutObjectRequest> requestCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        ArgumentCaptor<RequestBody> bodyCaptor = ArgumentCaptor.forClass(RequestBody.class);
+        verify(mockS3Client).putObject(requestCaptor.capture(), bodyCaptor.capture());
+
+        assertThat(requestCaptor.getValue().contentLength()).isEqualTo((long) payload.length);
+        assertThat(requestCaptor.getValue().contentType()).isEqualTo("application/json");
+        assertThat(bodyCaptor.getValue().optionalContentLength()).contains((long) payload.length);
+    }
+
+    @Test
+    public void uploadFileSetsGzipContentEncodingOfGzippedFile(@TempDir Path tempDir) throws IOException {
+        S3Client mockS3Client = mock(S3Client.class);
+        AwsS3Uploader uploader = uploaderWith(mockS3Client);
+
+        File plain = Files.write(tempDir.resolve("file.geojson"), "{}".getBytes(StandardCharsets.UTF_8)).toFile();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write("{}".getBytes(StandardCharsets.UTF_8));
+        }
+        File gzipped = Files.write(tempDir.resolve("file.geojson.gz"), compressed.toByteArray()).toFile();
+
+        uploader.uploadFile(credentials("bucket", "key"), plain);
+        uploader.uploadFile(credentials("bucket", "key"), gzipped);
+
+        ArgumentCaptor<PutObjectRequest> requestCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(mockS3Client, times(2)).putObject(requestCaptor.capture(), any(RequestBody.class));
+        assertThat(requestCaptor.getAllValues())
+                .extracting(PutObjectRequest::contentEncoding)
+                .containsExactly(null, "gzip");
+        assertThat(requestCaptor.getAllValues().get(1).contentType()).isEqualTo("application/json");
+    }
+
+    @Test
+    public void uploadFileSetsSqliteContentTypeOfMbtilesFile(@TempDir Path tempDir) throws IOException {
+        S3Client mockS3Client = mock(S3Client.class);
+        AwsS3Uploader uploader = uploaderWith(mockS3Client);
+
+        File mbtiles = Files.write(tempDir.resolve("entur.mbtiles"), "SQLite format 3".getBytes(StandardCharsets.UTF_8)).toFile();
+
+        uploader.uploadFile(credentials("bucket", "key"), mbtiles);
+
+        ArgumentCaptor<PutObjectRequest> requestCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(mockS3Client).putObject(requestCaptor.capture(), any(RequestBody.class));
+        assertThat(requestCaptor.getValue().contentType()).isEqualTo("application/vnd.sqlite3");
+        assertThat(requestCaptor.getValue().contentEncoding()).isNull();
+    }
+
+    @Test
+    public void uploadFileLargerThanPartSizeUploadsPartsAndRetriesOnlyFailedPart(@TempDir Path tempDir) throws IOException {
+        S3Client mockS3Client = mock(S3Client.class);
+        AwsS3Uploader uploader = uploaderWith(mockS3Client);
+        uploader.setPartSize(4);
+        uploader.setUploadConcurrency(2);
+
+        byte[] payload = "0123456789".getBytes(StandardCharsets.UTF_8);
+        File file = Files.write(tempDir.resolve("file.geojson"), payload).toFile();
+
+        when(mockS3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+
+        Map<Integer, byte[]> receivedParts = new ConcurrentHashMap<>();
+        doAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            RequestBody body = invocation.getArgument(1);
+            try (InputStream part = body.contentStreamProvider().newStream()) {
+                receivedParts.put(request.partNumber(), part.readAllBytes());
+            }
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        }).when(mockS3Client).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        doThrow(SdkClientException.create("Connection reset"))
+                .doAnswer(invocation -> UploadPartResponse.builder().eTag("etag-2").build())
+                .when(mockS3Client).uploadPart(argThat((UploadPartRequest request) -> request != null && request.partNumber() == 2), any(RequestBody.class));
+
+        uploader.uploadFile(credentials("bucket", "key"), file);
+
+        verify(mockS3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(mockS3Client, times(1)).uploadPart(argThat((UploadPartRequest request) -> request != null && request.partNumber() == 1), any(RequestBody.class));
+        verify(mockS3Client, times(2)).uploadPart(argThat((UploadPartRequest request) -> request != null && request.partNumber() == 2), any(RequestBody.class));
+        verify(mockS3Client, times(1)).uploadPart(argThat((UploadPartRequest request) -> request != null && request.partNumber() == 3), any(RequestBody.class));
+
+        assertThat(receivedParts.get(1)).isEqualTo("0123".getBytes(StandardCharsets.UTF_8));
+        assertThat(receivedParts.get(3)).isEqualTo("89".getBytes(StandardCharsets.UTF_8));
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> completeCaptor = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(mockS3Client).completeMultipartUpload(completeCaptor.capture());
+        assertThat(completeCaptor.getValue().uploadId()).isEqualTo("upload-1");
+        assertThat(completeCaptor.getValue().multipartUpload().parts())
+                .extracting(CompletedPart::partNumber, CompletedPart::eTag)
+                .containsExactly(
+                        tuple(1, "etag-1"),
+                        tuple(2, "etag-2"),
+                        tuple(3, "etag-3"));
+    }
+
+    @Test
+    public void uploadsWithSameCredentialsShareOneClientUntilClosed(@TempDir Path tempDir) throws IOException {
+        List<S3Client> created = new ArrayList<>();
+        AwsS3Uploader uploader = new AwsS3Uploader() {
+            @Override
+            public S3Client createClient(MapBoxAwsCredentials creds) {
+                S3Client client = mock(S3Client.class);
+                created.add(client);
+                return client;
+            }
+        };
+        File file = Files.write(tempDir.resolve("file.geojson"), "{}".getBytes(StandardCharsets.UTF_8)).toFile();
+
+        uploader.uploadFile(credentials("bucket", "shard-1"), file);
+        uploader.uploadFile(credentials("bucket", "shard-2"), file);
+
+        assertThat(created).hasSize(1);
+        verify(created.get(0), times(2)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(created.get(0), never()).close();
+
+        uploader.closeClients();
+        uploader.uploadFile(credentials("bucket", "key"), file);
+
+        verify(created.get(0)).close();
+        assertThat(created).hasSize(2);
+    }
+
+    @Test
+    public void uploadsWithDifferentCredentialsAtTheSameTimeKeepTheirClientsOpen(@TempDir Path tempDir) throws Exception {
+        CountDownLatch bothUploading = new CountDownLatch(2);
+        Map<String, S3Client> clients = new ConcurrentHashMap<>();
+        Map<String, Boolean> closedWhileUploading = new ConcurrentHashMap<>();
+        AwsS3Uploader uploader = new AwsS3Uploader() {
+            @Override
+            public S3Client createClient(MapBoxAwsCredentials creds) {
+                S3Client client = mock(S3Client.class);
+                AtomicBoolean closed = new AtomicBoolean();
+                doAnswer(invocation -> {
+                    closed.set(true);
+                    return null;
+                }).when(client).close();
+                when(client.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+                    bothUploading.countDown();
+                    assertThat(bothUploading.await(10, TimeUnit.SECONDS)).isTrue();
+                    closedWhileUploading.put(creds.getAccessKeyId(), closed.get());
+                    return null;
+                });
+                clients.put(creds.getAccessKeyId(), client);
+                return client;
+            }
+        };
+        File first = Files.write(tempDir.resolve("shard-1.geojson"), "{}".getBytes(StandardCharsets.UTF_8)).toFile();
+        File second = Files.write(tempDir.resolve("shard-2.geojson"), "{}".getBytes(StandardCharsets.UTF_8)).toFile();
+        MapBoxAwsCredentials firstCredentials = credentials("bucket", "shard-1");
+        firstCredentials.setAccessKeyId("first");
+        MapBoxAwsCredentials secondCredentials = credentials("bucket", "shard-2");
+        secondCredentials.setAccessKeyId("second");
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> firstUpload = executorService.submit(() -> {
+                uploader.uploadFile(firstCredentials, first);
+                return null;
+            });
+            Future<?> secondUpload = executorService.submit(() -> {
+                uploader.uploadFile(secondCredentials, second);
+                return null;
+            });
+            firstUpload.get(10, TimeUnit.SECONDS);
+            secondUpload.get(10, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertThat(closedWhileUploading).containsOnly(entry("first", false), entry("second", false));
+        uploader.closeClients();
+        verify(clients.get("first")).close();
+        verify(clients.get("second")).close();
+    }
+
     @Test
     public void createClientBuildsClientFromCredentials() {
         AwsS3Uploader uploader = new AwsS3Uploader();
@@ -0,0 +1,168 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+import org.entur.asag.mapbox.mapper.ZoneToGeoJsonFeatureMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutebanken.netex.model.LocationStructure;
+import org.rutebanken.netex.model.MultilingualString;
+import org.rutebanken.netex.model.SimplePoint_VersionStructure;
+import org.rutebanken.netex.model.TariffZone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FeatureHashIndexTest {
+
+    private final ZoneToGeoJsonFeatureMapper zoneToGeoJsonFeatureMapper = new ZoneToGeoJsonFeatureMapper();
+
+    @Test
+    public void writesAndReadsSortedIndex(@TempDir Path tempDir) throws IOException {
+        FeatureHashIndex.Builder builder = new FeatureHashIndex.Builder();
+        builder.add("NSR:StopPlace:10", 3L);
+        builder.add("NSR:Quay:1", -1L);
+        builder.add("NSR:StopPlace:1", Long.MAX_VALUE);
+        FeatureHashIndex index = builder.build();
+
+        Path path = tempDir.resolve("features.index");
+        index.write(path);
+        FeatureHashIndex read = FeatureHashIndex.read(path);
+
+        assertThat(read.size()).isEqualTo(3);
+        assertThat(read.diff(index).hasChanges()).isFalse();
+        assertThat(FeatureHashIndex.read(tempDir.resolve("missing.index")).size()).isZero();
+    }
+
+    @Test
+    public void writesAndReadsConfiguration(@TempDir Path tempDir) throws IOException {
+        FeatureHashIndex.Builder builder = new FeatureHashIndex.Builder();
+        builder.add("NSR:StopPlace:1", 1L);
+        Path path = tempDir.resolve("features.index");
+        builder.build().withConfiguration("format=GEOJSON_SEQ,gzip=true").write(path);
+
+        FeatureHashIndex read = FeatureHashIndex.read(path);
+
+        assertThat(read.getConfiguration()).isEqualTo("format=GEOJSON_SEQ,gzip=true");
+        assertThat(read.hashOf("NSR:StopPlace:1")).isEqualTo(1L);
+    }
+
+    @Test
+    public void readsIndexWrittenWithoutConfiguration(@TempDir Path tempDir) throws IOException {
+        Path path = tempDir.resolve("features.index");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(path))) {
+            out.writeInt(0x41534849);
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeShort(0);
+            out.writeUTF("NSR:StopPlace:1");
+            out.writeLong(1L);
+        }
+
+        FeatureHashIndex read = FeatureHashIndex.read(path);
+        FeatureHashIndex.Builder current = new FeatureHashIndex.Builder();
+        current.add("NSR:StopPlace:1", 1L);
+
+        assertThat(read.getConfiguration()).isNull();
+        assertThat(read.hashOf("NSR:StopPlace:1")).isEqualTo(1L);
+        assertThat(current.build().diff(read).isConfigurationChanged()).isTrue();
+    }
+
+    @Test
+    public void reportsChangedConfigurationOfUnchangedFeatures() {
+        FeatureHashIndex.Builder builder = new FeatureHashIndex.Builder();
+        builder.add("NSR:StopPlace:1", 1L);
+        FeatureHashIndex previous = builder.build().withConfiguration("gzip=false");
+
+        FeatureChangeReport changed = previous.withConfiguration("gzip=true").diff(previous);
+        FeatureChangeReport unchanged = previous.withConfiguration("gzip=false").diff(previous);
+        FeatureChangeReport first = previous.diff(FeatureHashIndex.empty());
+
+        assertThat(changed.hasChanges()).isTrue();
+        assertThat(changed.isConfigurationChanged()).isTrue();
+        assertThat(changed.getChanged()).isZero();
+        assertThat(changed.toString()).contains("configuration=gzip=false -> gzip=true");
+        assertThat(unchanged.hasChanges()).isFalse();
+        assertThat(first.isConfigurationChanged()).isFalse();
+    }
+
+    @Test
+    public void reportsAddedRemovedAndChangedFeatures() {
+        FeatureHashIndex.Builder previous = new FeatureHashIndex.Builder();
+        previous.add("NSR:StopPlace:1", 1L);
+        previous.add("NSR:StopPlace:2", 2L);
+        previous.add("NSR:StopPlace:3", 3L);
+        FeatureHashIndex.Builder current = new FeatureHashIndex.Builder();
+        current.add("NSR:StopPlace:4", 4L);
+        current.add("NSR:StopPlace:3", 33L);
+        current.add("NSR:StopPlace:1", 1L);
+
+        FeatureChangeReport report = current.build().diff(previous.build());
+
+        assertThat(report.hasChanges()).isTrue();
+        assertThat(report.getAddedIds()).containsExactly("NSR:StopPlace:4");
+        assertThat(report.getRemovedIds()).containsExactly("NSR:StopPlace:2");
+        assertThat(report.getChangedIds()).containsExactly("NSR:StopPlace:3");
+    }
+
+    @Test
+    public void combinesDuplicateIdsRegardlessOfOrder() {
+        FeatureHashIndex.Builder first = new FeatureHashIndex.Builder();
+        first.add("NSR:StopPlace:1", 1L);
+        first.add("NSR:StopPlace:1", 2L);
+        FeatureHashIndex.Builder second = new FeatureHashIndex.Builder();
+        second.add("NSR:StopPlace:1", 2L);
+        second.add("NSR:StopPlace:1", 1L);
+
+        assertThat(first.build().size()).isEqualTo(1);
+        assertThat(first.build().diff(second.build()).hasChanges()).isFalse();
+    }
+
+    @Test
+    public void hashChangesWithPropertiesAndWrittenCoordinatesOnly() {
+        long hash = hash(tariffZone("Sone 1", 59.1234561), 6);
+
+        assertThat(hash(tariffZone("Sone 1", 59.1234561), 6)).isEqualTo(hash);
+        assertThat(hash(tariffZone("Sone 1", 59.1234564), 6)).isEqualTo(hash);
+        assertThat(hash(tariffZone("Sone 1", 59.1234571), 6)).isNotEqualTo(hash);
+        assertThat(hash(tariffZone("Sone 2", 59.1234561), 6)).isNotEqualTo(hash);
+    }
+
+    private long hash(TariffZone tariffZone, int precision) {
+        FeatureHashIndex.Builder builder = new FeatureHashIndex.Builder();
+        GeoJsonFeatureWriter writer = new GeoJsonFeatureWriter(new ByteArrayOutputStream(),
+                GeoJsonFeatureWriter.coordinatePrecision(precision, Map.of()), builder);
+        writer.write(zoneToGeoJsonFeatureMapper.mapZone(tariffZone));
+        return builder.build().hashOf(tariffZone.getId());
+    }
+
+    private static TariffZone tariffZone(String name, double latitude) {
+        return new TariffZone()
+                .withId("NSR:TariffZone:1")
+                .withName(new MultilingualString().withValue(name))
+                .withCentroid(new SimplePoint_VersionStructure()
+                        .withLocation(new LocationStructure()
+                                .withLatitude(BigDecimal.valueOf(latitude))
+                                .withLongitude(BigDecimal.valueOf(10.5))));
+    }
+}
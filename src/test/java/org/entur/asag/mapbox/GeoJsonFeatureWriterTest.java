@@ -0,0 +1,216 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.opengis.gml._3.AbstractRingPropertyType;
+import net.opengis.gml._3.DirectPositionListType;
+import net.opengis.gml._3.LinearRingType;
+import net.opengis.gml._3.ObjectFactory;
+import net.opengis.gml._3.PolygonType;
+import org.entur.asag.mapbox.mapper.CompactFeature;
+import org.entur.asag.mapbox.mapper.FeatureType;
+import org.entur.asag.mapbox.mapper.ParkingToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.StopPlaceToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.ZoneToGeoJsonFeatureMapper;
+import org.entur.asag.netex.PackedPositionList;
+import org.geojson.Feature;
+import org.geojson.FeatureCollection;
+import org.geojson.jackson.LngLatAltSerializer;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.*;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class GeoJsonFeatureWriterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ZoneToGeoJsonFeatureMapper zoneToGeoJsonFeatureMapper = new ZoneToGeoJsonFeatureMapper();
+    private final StopPlaceToGeoJsonFeatureMapper stopPlaceToGeoJsonFeatureMapper = new StopPlaceToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper);
+    private final ParkingToGeoJsonFeatureMapper parkingToGeoJsonFeatureMapper = new ParkingToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper);
+
+    @Test
+    public void writesStopPlaceLikeGeoJsonJackson() throws Exception {
+        StopPlace stopPlace = new StopPlace()
+                .withId("NSR:StopPlace:2")
+                .withName(new MultilingualString().withValue("Stasjonen").withLang("nor"))
+                .withStopPlaceType(StopTypeEnumeration.RAIL_STATION)
+                .withWeighting(InterchangeWeightingEnumeration.PREFERRED_INTERCHANGE)
+                .withAdjacentSites(new SiteRefs_RelStructure()
+                        .withSiteRef(new org.rutebanken.netex.model.ObjectFactory().createSiteRef(new SiteRefStructure().withRef("NSR:StopPlace:1"))))
+                .withCentroid(centroid(59.911, 10.75));
+
+        assertWritesSameJson(stopPlaceToGeoJsonFeatureMapper.mapStopPlace(stopPlace, "onstreetBus_railStation"),
+                stopPlaceToGeoJsonFeatureMapper.mapStopPlaceToGeoJson(stopPlace, "onstreetBus_railStation"));
+    }
+
+    @Test
+    public void writesParkingWithPolygonLikeGeoJsonJackson() throws Exception {
+        Parking parking = new Parking()
+                .withId("NSR:Parking:666")
+                .withTotalCapacity(BigInteger.TEN)
+                .withCovered(CoveredEnumeration.MIXED)
+                .withPolygon(polygon(new DirectPositionListType().withValue(59.2649, 9.8468, 59.2654, 9.8456, 59.2655, 9.8457, 59.2649, 9.8468)));
+        parking.getParkingVehicleTypes().add(ParkingVehicleEnumeration.CAR);
+
+        assertWritesSameJson(parkingToGeoJsonFeatureMapper.mapParking(parking),
+                parkingToGeoJsonFeatureMapper.mapParkingToGeoJson(parking));
+    }
+
+    @Test
+    public void writesFeatureCollectionWithSerializedFeatures() throws Exception {
+        TariffZone first = new TariffZone().withId("NSR:TariffZone:1").withCentroid(centroid(60.0, 10.0));
+        TariffZone second = new TariffZone().withId("NSR:TariffZone:2").withCentroid(centroid(61.0, 11.0));
+        TariffZone third = new TariffZone().withId("NSR:TariffZone:3").withCentroid(centroid(62.0, 12.0));
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        GeoJsonFeatureWriter serializedWriter = new GeoJsonFeatureWriter(serialized);
+        serializedWriter.write(zoneToGeoJsonFeatureMapper.mapZone(second));
+        serializedWriter.write(zoneToGeoJsonFeatureMapper.mapZone(third));
+        serializedWriter.flush();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GeoJsonFeatureWriter writer = new GeoJsonFeatureWriter(output);
+        writer.startCollection();
+        writer.write(zoneToGeoJsonFeatureMapper.mapZone(first));
+        writer.writeSerialized(new byte[0]);
+        writer.writeSerialized(serialized.toByteArray());
+        writer.endCollection();
+
+        FeatureCollection featureCollection = objectMapper.readValue(output.toByteArray(), FeatureCollection.class);
+        assertThat(featureCollection.getFeatures())
+                .extracting(Feature::getId)
+                .containsExactly("NSR:TariffZone:1", "NSR:TariffZone:2", "NSR:TariffZone:3");
+    }
+
+    @Test
+    public void writesOneFeaturePerLineAsGeoJsonSeq() throws Exception {
+        TariffZone first = new TariffZone().withId("NSR:TariffZone:1").withCentroid(centroid(60.0, 10.0));
+        TariffZone second = new TariffZone().withId("NSR:TariffZone:2").withCentroid(centroid(61.0, 11.0));
+        TariffZone third = new TariffZone().withId("NSR:TariffZone:3").withCentroid(centroid(62.0, 12.0));
+        int[] precision = GeoJsonFeatureWriter.coordinatePrecision(GeoJsonFeatureWriter.MAX_COORDINATE_PRECISION, Map.of());
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        GeoJsonFeatureWriter serializedWriter = new GeoJsonFeatureWriter(serialized, OutputFormat.GEOJSON_SEQ, precision, null);
+        serializedWriter.write(zoneToGeoJsonFeatureMapper.mapZone(second));
+        serializedWriter.write(zoneToGeoJsonFeatureMapper.mapZone(third));
+        serializedWriter.flush();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GeoJsonFeatureWriter writer = new GeoJsonFeatureWriter(output, OutputFormat.GEOJSON_SEQ, precision, null);
+        writer.startCollection();
+        writer.write(zoneToGeoJsonFeatureMapper.mapZone(first));
+        writer.writeSerialized(serialized.toByteArray());
+        writer.endCollection();
+
+        String written = output.toString(StandardCharsets.UTF_8);
+        assertThat(written).endsWith("}\n");
+        String[] lines = written.split("\n");
+        assertThat(lines).hasSize(3);
+        for (int line = 0; line < lines.length; line++) {
+            Feature feature = objectMapper.readValue(lines[line], Feature.class);
+            assertThat(feature.getId()).isEqualTo("NSR:TariffZone:" + (line + 1));
+        }
+    }
+
+    @Test
+    public void writesPackedPolygonLikeBoxedPolygon() throws Exception {
+        TariffZone boxed = new TariffZone()
+                .withId("NSR:TariffZone:1")
+                .withPolygon(polygon(new DirectPositionListType().withValue(59.2649, 9.8468, 59.2654, 9.8456, 59.2649, 9.8468)));
+        TariffZone packed = new TariffZone()
+                .withId("NSR:TariffZone:1")
+                .withPolygon(polygon(new PackedPositionList(new double[]{59.2649, 9.8468, 59.2654, 9.8456, 59.2649, 9.8468})));
+
+        CompactFeature packedFeature = zoneToGeoJsonFeatureMapper.mapZone(packed);
+        assertThat(packedFeature.getCoordinates()).containsExactly(59.2649, 9.8468, 59.2654, 9.8456, 59.2649, 9.8468);
+        assertWritesSameJson(packedFeature, zoneToGeoJsonFeatureMapper.mapZoneToGeoJson(boxed));
+    }
+
+    @Test
+    public void formatsCoordinatesLikeGeoJsonJackson() {
+        Random random = new Random(42);
+        char[] buffer = new char[32];
+        for (int index = 0; index < 10_000; index++) {
+            double value = (random.nextDouble() - 0.5) * 360;
+            for (int precision = 0; precision <= GeoJsonFeatureWriter.MAX_COORDINATE_PRECISION; precision++) {
+                String formatted = new String(buffer, 0, GeoJsonFeatureWriter.formatCoordinate(value, precision, buffer));
+                assertThat(formatted).isEqualTo(LngLatAltSerializer.fastDoubleToString(value, precision));
+            }
+        }
+        assertThat(new String(buffer, 0, GeoJsonFeatureWriter.formatCoordinate(-0.000001, 5, buffer))).isEqualTo("-0.0");
+        assertThat(new String(buffer, 0, GeoJsonFeatureWriter.formatCoordinate(10.999999, 5, buffer))).isEqualTo("11.0");
+    }
+
+    @Test
+    public void writesCoordinatesWithPrecisionOfFeatureType() throws Exception {
+        TariffZone tariffZone = new TariffZone().withId("NSR:TariffZone:1").withCentroid(centroid(59.123456789, 10.987654321));
+        Parking parking = new Parking().withId("NSR:Parking:1").withCentroid(centroid(59.123456789, 10.987654321));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GeoJsonFeatureWriter writer = new GeoJsonFeatureWriter(output,
+                GeoJsonFeatureWriter.coordinatePrecision(6, Map.of(FeatureType.TARIFF_ZONE, 3)));
+        writer.startCollection();
+        writer.write(zoneToGeoJsonFeatureMapper.mapZone(tariffZone));
+        writer.write(parkingToGeoJsonFeatureMapper.mapParking(parking));
+        writer.endCollection();
+
+        JsonNode features = objectMapper.readTree(output.toByteArray()).get("features");
+        assertThat(features.get(0).at("/geometry/coordinates").toString()).isEqualTo("[10.988,59.123]");
+        assertThat(features.get(1).at("/geometry/coordinates").toString()).isEqualTo("[10.987654,59.123457]");
+    }
+
+    @Test
+    public void rejectsUnsupportedPrecision() {
+        assertThatThrownBy(() -> GeoJsonFeatureWriter.coordinatePrecision(9, Map.of(FeatureType.QUAY, 10)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("QUAY");
+    }
+
+    private void assertWritesSameJson(CompactFeature feature, Feature expected) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GeoJsonFeatureWriter writer = new GeoJsonFeatureWriter(output);
+        writer.write(feature);
+        writer.flush();
+
+        JsonNode written = objectMapper.readTree(output.toByteArray());
+        assertThat(written).isEqualTo(objectMapper.valueToTree(expected));
+    }
+
+    private static SimplePoint_VersionStructure centroid(double latitude, double longitude) {
+        return new SimplePoint_VersionStructure()
+                .withLocation(new LocationStructure()
+                        .withLatitude(BigDecimal.valueOf(latitude))
+                        .withLongitude(BigDecimal.valueOf(longitude)));
+    }
+
+    private static PolygonType polygon(DirectPositionListType posList) {
+        return new PolygonType()
+                .withExterior(new AbstractRingPropertyType()
+                        .withAbstractRing(new ObjectFactory().createLinearRing(new LinearRingType()
+                                .withPosList(posList))));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.entur.asag.mapbox.model.TilesetShard;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class GeoJsonShardWriterTest {
+
+    private static final String STOP_PLACE = "{\"type\":\"Feature\",\"properties\":{\"name\":\"Stasjonen\",\"codeSpace\":\"NSR\",\"entityType\":\"StopPlace\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.750000,59.911]},\"id\":\"NSR:StopPlace:1\"}";
+    private static final String QUAY = "{\"type\":\"Feature\",\"properties\":{\"codeSpace\":\"NSR\",\"entityType\":\"Quay\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.75,59.911]},\"id\":\"NSR:Quay:1\"}";
+    private static final String TARIFF_ZONE = "{\"type\":\"Feature\",\"properties\":{\"codeSpace\":\"RUT\",\"entityType\":\"TariffZone\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.5,60.0]},\"id\":\"RUT:TariffZone:1\"}";
+    private static final String ZONE = "{\"type\":\"Feature\",\"properties\":{\"entityType\":\"TariffZone\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[11.5,61.0]},\"id\":\"Zone\"}";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final GeoJsonShardWriter shardWriter = new GeoJsonShardWriter();
+
+    @Test
+    public void writesOneShardPerEntityType(@TempDir Path tempDir) throws IOException {
+        shardWriter.setShardBy(ShardStrategy.ENTITY_TYPE);
+        shardWriter.setOutputFormat(OutputFormat.GEOJSON_SEQ);
+        Path geoJson = Files.writeString(tempDir.resolve("entur.geojson.ld"), String.join("\n", STOP_PLACE, TARIFF_ZONE, QUAY, ZONE) + "\n");
+
+        List<TilesetShard> shards = shardWriter.writeShards(geoJson.toString(), "entur.tileset");
+
+        assertThat(shards).extracting(TilesetShard::getKey).containsExactly("quay", "stop_place", "tariff_zone");
+        assertThat(shards).extracting(TilesetShard::getTilesetName)
+                .containsExactly("entur.tileset_quay", "entur.tileset_stop_place", "entur.tileset_tariff_zone");
+        assertThat(shards).extracting(TilesetShard::getFeatures).containsExactly(1, 1, 2);
+        assertThat(shards.get(1).getFile().toPath()).isEqualTo(tempDir.resolve("entur_stop_place.geojson.ld"));
+        assertThat(Files.readAllLines(shards.get(1).getFile().toPath())).containsExactly(STOP_PLACE);
+        assertThat(Files.readAllLines(shards.get(2).getFile().toPath())).containsExactly(TARIFF_ZONE, ZONE);
+    }
+
+    @Test
+    public void writesOneShardPerCodeSpace(@TempDir Path tempDir) throws IOException {
+        shardWriter.setShardBy(ShardStrategy.CODE_SPACE);
+        Path geoJson = Files.writeString(tempDir.resolve("entur.geojson"), featureCollection(STOP_PLACE, TARIFF_ZONE, QUAY, ZONE));
+
+        List<TilesetShard> shards = shardWriter.writeShards(geoJson.toString(), "entur.tileset");
+
+        assertThat(shards).extracting(TilesetShard::getKey).containsExactly("nsr", "other", "rut");
+        JsonNode nsr = OBJECT_MAPPER.readTree(shards.get(0).getFile());
+        assertThat(nsr.get("type").asText()).isEqualTo("FeatureCollection");
+        assertThat(nsr.get("features")).containsExactly(OBJECT_MAPPER.readTree(STOP_PLACE), OBJECT_MAPPER.readTree(QUAY));
+    }
+
+    @Test
+    public void spreadsFeaturesOverShardsOfAtMostMaxFeatures(@TempDir Path tempDir) throws IOException {
+        shardWriter.setMaxFeatures(3);
+        shardWriter.setOutputFormat(OutputFormat.GEOJSON_SEQ);
+        Path geoJson = Files.writeString(tempDir.resolve("entur.geojson.ld"),
+                String.join("\n", STOP_PLACE, TARIFF_ZONE, QUAY, ZONE, STOP_PLACE, QUAY, TARIFF_ZONE) + "\n");
+
+        List<TilesetShard> shards = shardWriter.writeShards(geoJson.toString(), "entur.tileset");
+
+        assertThat(shards).extracting(TilesetShard::getKey).containsExactly("1", "2", "3");
+        assertThat(shards).extracting(TilesetShard::getFeatures).containsExactly(3, 3, 1);
+        assertThat(Files.readAllLines(shards.get(2).getFile().toPath())).containsExactly(TARIFF_ZONE);
+    }
+
+    @Test
+    public void gzipsShardsOfGzippedGeoJson(@TempDir Path tempDir) throws IOException {
+        shardWriter.setShardBy(ShardStrategy.ENTITY_TYPE);
+        shardWriter.setOutputFormat(OutputFormat.GEOJSON_SEQ);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write((STOP_PLACE + "\n" + QUAY + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Path geoJson = Files.write(tempDir.resolve("entur.geojson.ld.gz"), compressed.toByteArray());
+
+        List<TilesetShard> shards = shardWriter.writeShards(geoJson.toString(), "entur.tileset");
+
+        assertThat(shards.get(0).getFile().toPath()).isEqualTo(tempDir.resolve("entur_quay.geojson.ld.gz"));
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(shards.get(0).getFile().toPath()))) {
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(QUAY + "\n");
+        }
+    }
+
+    @Test
+    public void rejectsTilesetNameLongerThanMapboxAllows() {
+        assertThat(GeoJsonShardWriter.shardTilesetName("entur.tileset", "stop_place")).isEqualTo("entur.tileset_stop_place");
+        assertThatThrownBy(() -> GeoJsonShardWriter.shardTilesetName("entur.a_rather_long_tileset_name", "stop_place"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String featureCollection(String... features) {
+        return "{\n\"features\": [" + String.join(",\n", features) + "\n], \"type\": \"FeatureCollection\"\n}";
+    }
+}
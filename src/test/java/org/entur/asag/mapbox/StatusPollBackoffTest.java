@@ -0,0 +1,91 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.entur.asag.mapbox.model.MapBoxUploadStatus;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.entur.asag.mapbox.MapBoxUpdateRouteBuilder.LOOP_COUNTER;
+
+public class StatusPollBackoffTest {
+
+    private final StatusPollBackoff backoff = new StatusPollBackoff();
+
+    @Test
+    public void backoffGrowsUpToTheMaxDelay() {
+        backoff.setBackoff(1000, 100, 5000, 2, 0);
+
+        assertThat(backoff.backoff(1)).isEqualTo(1000);
+        assertThat(backoff.backoff(2)).isEqualTo(2000);
+        assertThat(backoff.backoff(3)).isEqualTo(4000);
+        assertThat(backoff.backoff(4)).isEqualTo(5000);
+        assertThat(backoff.backoff(40)).isEqualTo(5000);
+    }
+
+    @Test
+    public void jitterSpreadsTheDelayBothWays() {
+        backoff.setBackoff(1000, 100, 5000, 2, 0.2);
+
+        assertThat(backoff.delay(2, null, 0)).isEqualTo(1600);
+        assertThat(backoff.delay(2, null, 0.5)).isEqualTo(2000);
+        assertThat(backoff.delay(2, null, 0.9999)).isBetween(2399L, 2400L);
+        assertThat(backoff.delay(10, null, 0.9999)).isEqualTo(5000);
+    }
+
+    @Test
+    public void expectedCompletionReplacesTheBackoff() {
+        backoff.setBackoff(1000, 100, 5000, 2, 0);
+
+        assertThat(backoff.delay(3, 300L, 0)).isEqualTo(300);
+        assertThat(backoff.delay(3, 10L, 0)).isEqualTo(100);
+        assertThat(backoff.delay(1, 60000L, 0)).isEqualTo(5000);
+    }
+
+    @Test
+    public void remainingTimeFollowsTheRateOfProgress() {
+        assertThat(StatusPollBackoff.remainingMillis(0.25, 1000, 0.5, 2024)).isEqualTo(2048);
+        assertThat(StatusPollBackoff.remainingMillis(0.2, 1000, 1.0, 4000)).isEqualTo(0);
+        assertThat(StatusPollBackoff.remainingMillis(0.2, 1000, 0.2, 4000)).isNull();
+        assertThat(StatusPollBackoff.remainingMillis(0.2, 1000, 0.5, 1000)).isNull();
+    }
+
+    @Test
+    public void firstProgressIsRememberedOnTheExchange() {
+        backoff.setBackoff(1000, 100, 5000, 2, 0);
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.getIn().setHeader(LOOP_COUNTER, 2);
+        exchange.getIn().setBody(status(0.25));
+
+        assertThat(backoff.nextDelay(exchange)).isEqualTo(2000);
+        assertThat(exchange.getProperty(StatusPollBackoff.FIRST_PROGRESS)).isEqualTo(0.25);
+
+        exchange.setProperty(StatusPollBackoff.FIRST_PROGRESS_AT, System.currentTimeMillis() - 1000);
+        exchange.getIn().setBody(status(0.75));
+
+        assertThat(backoff.nextDelay(exchange)).isBetween(100L, 1000L);
+    }
+
+    private static MapBoxUploadStatus status(double progress) {
+        MapBoxUploadStatus status = new MapBoxUploadStatus();
+        status.setProgress(progress);
+        return status;
+    }
+}
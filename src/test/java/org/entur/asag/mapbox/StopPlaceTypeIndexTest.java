@@ -0,0 +1,109 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StopPlaceTypeIndexTest {
+
+    @Test
+    public void findsTypesOfPackedAndOtherIds() {
+        StopPlaceTypeIndex index = new StopPlaceTypeIndex();
+        index.put("NSR:StopPlace:1", "railStation");
+        index.put("NSR:StopPlace:01", "busStation");
+        index.put("RUT:StopPlace:1", "onstreetBus");
+        index.put("NSR:StopPlace:X", "ferryStop");
+        index.put("NSR:StopPlace:99999999999999", "airport");
+
+        assertThat(index.get("NSR:StopPlace:1")).isEqualTo("railStation");
+        assertThat(index.get("NSR:StopPlace:01")).isEqualTo("busStation");
+        assertThat(index.get("RUT:StopPlace:1")).isEqualTo("onstreetBus");
+        assertThat(index.get("NSR:StopPlace:X")).isEqualTo("ferryStop");
+        assertThat(index.get("NSR:StopPlace:99999999999999")).isEqualTo("airport");
+        assertThat(index.get("NSR:StopPlace:2")).isNull();
+        assertThat(index.get("NSR:Quay:1")).isNull();
+        assertThat(index.size()).isEqualTo(5);
+    }
+
+    @Test
+    public void replacesTypeOfSameId() {
+        StopPlaceTypeIndex index = new StopPlaceTypeIndex();
+        index.put("NSR:StopPlace:1", "railStation");
+        index.put("NSR:StopPlace:1", "busStation");
+
+        assertThat(index.get("NSR:StopPlace:1")).isEqualTo("busStation");
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void keepsTypesWhenGrowing() {
+        StopPlaceTypeIndex index = new StopPlaceTypeIndex();
+        for (int i = 0; i < 100_000; i++) {
+            index.put("NSR:StopPlace:" + i, i % 2 == 0 ? "railStation" : "busStation");
+        }
+
+        assertThat(index.size()).isEqualTo(100_000);
+        for (int i = 0; i < 100_000; i++) {
+            assertThat(index.get("NSR:StopPlace:" + i)).isEqualTo(i % 2 == 0 ? "railStation" : "busStation");
+        }
+    }
+
+    @Test
+    public void joinsSortedTypesOfAdjacentSites() {
+        StopPlaceTypeIndex index = new StopPlaceTypeIndex();
+        index.put("NSR:StopPlace:1", "railStation");
+        index.put("NSR:StopPlace:2", "busStation");
+        index.put("NSR:StopPlace:3", "railStation");
+
+        TreeSet<String> adjacentSites = new TreeSet<>(List.of("NSR:StopPlace:1", "NSR:StopPlace:2", "NSR:StopPlace:4"));
+        String finalType = index.finalStopPlaceType(adjacentSites, "railStation");
+
+        assertThat(finalType).isEqualTo("busStation_railStation");
+        assertThat(index.finalStopPlaceType(new TreeSet<>(List.of("NSR:StopPlace:2", "NSR:StopPlace:3")), "busStation"))
+                .isSameAs(finalType);
+        assertThat(index.finalStopPlaceType(new TreeSet<>(List.of("NSR:StopPlace:4")), "ferryStop")).isEqualTo("ferryStop");
+        assertThat(index.finalStopPlaceType(new TreeSet<>(), "railStation")).isEmpty();
+    }
+
+    @Test
+    public void lookupsOfIdsNeverPutDoNotAddPrefixes() {
+        StopPlaceTypeIndex index = new StopPlaceTypeIndex();
+        index.put("NSR:StopPlace:1", "railStation");
+
+        assertThat(index.get("RUT:StopPlace:1")).isNull();
+        assertThat(index.finalStopPlaceType(new TreeSet<>(List.of("NSR:StopPlace:1", "SKY:StopPlace:2")), "busStation"))
+                .isEqualTo("busStation_railStation");
+
+        assertThat(index.prefixCount()).isEqualTo(1);
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void joinsTypesBeyondSixtyFourSymbols() {
+        StopPlaceTypeIndex index = new StopPlaceTypeIndex();
+        for (int i = 0; i < 70; i++) {
+            index.put("NSR:StopPlace:" + i, "type" + i);
+        }
+
+        TreeSet<String> adjacentSites = new TreeSet<>(List.of("NSR:StopPlace:1", "NSR:StopPlace:69"));
+        assertThat(index.finalStopPlaceType(adjacentSites, "type0")).isEqualTo("type0_type1_type69");
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package org.entur.asag.mapbox;
+
+import org.entur.asag.mapbox.model.TilesetSource;
+import org.entur.asag.service.BlobStoreService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TilesetSourceWriterTest {
+
+    private static final String STOP_PLACE = "{\"type\":\"Feature\",\"properties\":{\"name\":\"Stasjonen\",\"entityType\":\"StopPlace\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.75,59.911]},\"id\":\"NSR:StopPlace:1\"}";
+    private static final String QUAY = "{\"type\":\"Feature\",\"properties\":{\"name\":\"\\\"entityType\\\":\\\"Parking\\\"\",\"entityType\":\"Quay\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.75,59.911]},\"id\":\"NSR:Quay:1\"}";
+    private static final String TARIFF_ZONE = "{\"type\":\"Feature\",\"properties\":{\"entityType\":\"TariffZone\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.5,60.0]},\"id\":\"VKT:TariffZone:1\"}";
+    private static final String OTHER_TARIFF_ZONE = "{\"type\":\"Feature\",\"properties\":{\"entityType\":\"TariffZone\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[11.5,61.0]},\"id\":\"VKT:TariffZone:2\"}";
+
+    private final TilesetSourceWriter tilesetSourceWriter = new TilesetSourceWriter();
+
+    @Test
+    public void writesOneSourcePerEntityType(@TempDir Path tempDir) throws IOException {
+        Path geoJson = write(tempDir, STOP_PLACE, TARIFF_ZONE, QUAY, OTHER_TARIFF_ZONE);
+
+        List<TilesetSource> sources = tilesetSourceWriter.writeSources(geoJson.toString());
+
+        assertThat(sources).extracting(TilesetSource::getLayer).containsExactly("quay", "stop_place", "tariff_zone");
+        assertThat(sources).extracting(TilesetSource::getId).containsExactly("asag_quay", "asag_stop_place", "asag_tariff_zone");
+        assertThat(sources).extracting(TilesetSource::getFeatures).containsExactly(1, 1, 2);
+        assertThat(sources).allMatch(TilesetSource::isChanged);
+        assertThat(Files.readAllLines(sources.get(2).getFile().toPath())).containsExactly(TARIFF_ZONE, OTHER_TARIFF_ZONE);
+    }
+
+    @Test
+    public void marksOnlyChangedSourcesOnceAccepted(@TempDir Path tempDir) throws IOException {
+        Path geoJson = write(tempDir, STOP_PLACE, TARIFF_ZONE, QUAY, OTHER_TARIFF_ZONE);
+        tilesetSourceWriter.writeSources(geoJson.toString());
+
+        write(tempDir, OTHER_TARIFF_ZONE, QUAY, TARIFF_ZONE, STOP_PLACE.replace("Stasjonen", "Stasjon"));
+        assertThat(tilesetSourceWriter.writeSources(geoJson.toString())).allMatch(TilesetSource::isChanged);
+
+        tilesetSourceWriter.acceptSources(geoJson.toString());
+        write(tempDir, OTHER_TARIFF_ZONE, QUAY, TARIFF_ZONE, STOP_PLACE);
+        List<TilesetSource> sources = tilesetSourceWriter.writeSources(geoJson.toString());
+
+        assertThat(sources).filteredOn(TilesetSource::isChanged).extracting(TilesetSource::getLayer).containsExactly("stop_place");
+    }
+
+    @Test
+    public void comparesAgainstHashesAcceptedInAnotherDirectory(@TempDir Path tempDir) throws IOException {
+        Map<String, byte[]> blobs = new HashMap<>();
+        BlobStoreService blobStoreService = mock(BlobStoreService.class);
+        when(blobStoreService.readBlob(anyString())).thenAnswer(invocation -> blobs.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> blobs.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(blobStoreService).writeBlob(anyString(), any(byte[].class));
+        tilesetSourceWriter.setUploadStateStore(new UploadStateStore(blobStoreService, "asag/state"));
+
+        Path geoJson = write(Files.createDirectory(tempDir.resolve("first")), STOP_PLACE, TARIFF_ZONE);
+        tilesetSourceWriter.writeSources(geoJson.toString());
+        tilesetSourceWriter.acceptSources(geoJson.toString());
+        assertThat(blobs).containsOnlyKeys("asag/state/tiamat.geojson.ld" + TilesetSourceWriter.SOURCE_HASHES_SUFFIX);
+
+        Path nextRun = write(Files.createDirectory(tempDir.resolve("second")), TARIFF_ZONE, STOP_PLACE, QUAY);
+        List<TilesetSource> sources = tilesetSourceWriter.writeSources(nextRun.toString());
+
+        assertThat(sources).filteredOn(TilesetSource::isChanged).extracting(TilesetSource::getLayer).containsExactly("quay");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void recipeHasOneLayerPerSource(@TempDir Path tempDir) throws IOException {
+        List<TilesetSource> sources = tilesetSourceWriter.writeSources(write(tempDir, STOP_PLACE, QUAY).toString());
+
+        Map<String, Object> layers = (Map<String, Object>) tilesetSourceWriter.recipe(sources).get("layers");
+
+        assertThat(layers).containsOnlyKeys("quay", "stop_place");
+        assertThat((Map<String, Object>) layers.get("stop_place"))
+                .containsEntry("source", "mapbox://tileset-source/entur/asag_stop_place");
+    }
+
+    @Test
+    public void rejectsFeatureCollection() {
+        assertThatThrownBy(() -> TilesetSourceWriter.layerOf("{"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("entityType");
+    }
+
+    private static Path write(Path directory, String... lines) throws IOException {
+        Path geoJson = directory.resolve("tiamat.geojson.ld");
+        Files.write(geoJson, List.of(lines), StandardCharsets.UTF_8);
+        return geoJson;
+    }
+}
@@ -15,26 +15,42 @@
 
 package org.entur.asag.mapbox.mapper;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.entur.asag.mapbox.DeliveryPublicationStreamToGeoJson;
+import org.entur.asag.mapbox.EntityReader;
+import org.entur.asag.mapbox.EntityStoreType;
+import org.entur.asag.mapbox.OutputFormat;
+import org.entur.asag.mapbox.TransformMode;
 import org.entur.asag.mapbox.filter.ValidityFilter;
+import org.entur.asag.netex.SyntheticPublicationDelivery;
 import org.geojson.Feature;
 import org.geojson.FeatureCollection;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.rutebanken.netex.validation.NeTExValidator;
 import org.xml.sax.SAXException;
 
 import jakarta.xml.bind.JAXBException;
 import javax.xml.transform.stream.StreamSource;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -44,6 +60,7 @@ public class DeliveryPublicationStreamToGeoJsonTest {
 
 
     public static final String SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML = "src/test/resources/publication-delivery.xml";
+    public static final String SRC_TEST_RESOURCES_ADJACENT_SITES_XML = "src/test/resources/adjacent_sites_netex.xml";
     private ZoneToGeoJsonFeatureMapper zoneToGeoJsonFeatureMapper = new ZoneToGeoJsonFeatureMapper();
     private QuayToGeoJsonFeatureMapper quayToGeoJsonFeatureMapper = new QuayToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper);
     private StopPlaceToGeoJsonFeatureMapper stopPlaceToGeoJsonFeatureMapper = new StopPlaceToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper);
@@ -94,15 +111,13 @@ public class DeliveryPublicationStreamToGeoJsonTest {
     /**
      * Regression test for the instance-level statefulness defect in
      * DeliveryPublicationStreamToGeoJson. The stopPlaces, parkings and tariffZones
-     * sets are initialised in the constructor and never cleared between calls.
-     * Calling transform() a second time on the same bean (which Spring uses as a
-     * singleton) accumulates entities from the first call into the output.
-     *
-     * This test documents the current behaviour. A correct fix would clear the
-     * collections at the start of each transform() invocation.
+     * stores, and the stop place types, used to be created in the constructor and
+     * never cleared between calls, so calling transform() a second time on the same
+     * bean (which Spring uses as a singleton) wrote the entities of the first call
+     * again. They are now created at the start of each transform() invocation.
      */
     @Test
-    public void secondTransformCallOnSameInstanceAccumulatesStateFromFirstCall() throws Exception {
+    public void secondTransformCallOnSameInstanceDoesNotAccumulateStateFromFirstCall() throws Exception {
         // First call — valid input
         FileInputStream firstInput = new FileInputStream(SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML);
         ByteArrayOutputStream firstOutput = (ByteArrayOutputStream) deliveryPublicationStreamToGeoJson.transform(firstInput);
@@ -123,15 +138,13 @@ public class DeliveryPublicationStreamToGeoJsonTest {
                 new ByteArrayInputStream(emptyNeTEx.getBytes(StandardCharsets.UTF_8)));
         FeatureCollection secondCollection = new ObjectMapper().readValue(secondOutput.toString(), FeatureCollection.class);
 
-        // A stateless implementation with empty input would produce 0 features.
-        // Due to accumulated state the second call still contains data from the first call.
-        assertThat(secondCollection.getFeatures()).isNotEmpty();
-        List<String> firstIds = firstCollection.getFeatures().stream()
-                .map(Feature::getId)
-                .collect(Collectors.toList());
-        assertThat(secondCollection.getFeatures())
-                .extracting(Feature::getId)
-                .containsAll(firstIds);
+        // Empty input produces 0 features, and the same input the same features again
+        assertThat(firstCount).isPositive();
+        assertThat(secondCollection.getFeatures()).isEmpty();
+
+        ByteArrayOutputStream thirdOutput = (ByteArrayOutputStream) deliveryPublicationStreamToGeoJson.transform(
+                new FileInputStream(SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML));
+        assertThat(thirdOutput.toString()).isEqualTo(firstOutput.toString());
     }
 
     /**
@@ -194,6 +207,239 @@ public class DeliveryPublicationStreamToGeoJsonTest {
                 .doesNotContain("NSR:StopPlace:22");
     }
 
+    /**
+     * Streaming mode must produce the same features as the buffered mode, only in document order.
+     */
+    @Test
+    public void streamingTransformProducesSameFeaturesAsBuffered() throws Exception {
+        FeatureCollection buffered = transform(SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML, TransformMode.BUFFERED);
+        FeatureCollection streamed = transform(SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML, TransformMode.STREAMING);
+
+        assertThat(streamed.getFeatures())
+                .extracting(Feature::getId)
+                .containsExactlyInAnyOrderElementsOf(buffered.getFeatures().stream().map(Feature::getId).collect(toList()))
+                .doesNotContain("NSR:StopPlace:22", "VKT:TariffZone:788");
+        assertThat(resolvePropertiesByValue(streamed, "finalStopPlaceType"))
+                .containsExactlyInAnyOrderElementsOf(resolvePropertiesByValue(buffered, "finalStopPlaceType"));
+    }
+
+    /**
+     * The primary adjacent site is written after the rest of the document, when the types of all its adjacent sites
+     * are known, even if those appear after it in the document.
+     */
+    @Test
+    public void streamingTransformResolvesFinalStopPlaceTypeOfAdjacentSites() throws Exception {
+        FeatureCollection buffered = transform(SRC_TEST_RESOURCES_ADJACENT_SITES_XML, TransformMode.BUFFERED);
+        FeatureCollection streamed = transform(SRC_TEST_RESOURCES_ADJACENT_SITES_XML, TransformMode.STREAMING);
+
+        Map<String, String> bufferedTypes = buffered.getFeatures().stream()
+                .collect(Collectors.toMap(Feature::getId, feature -> String.valueOf(feature.getProperties().get("finalStopPlaceType"))));
+        Map<String, String> streamedTypes = streamed.getFeatures().stream()
+                .collect(Collectors.toMap(Feature::getId, feature -> String.valueOf(feature.getProperties().get("finalStopPlaceType"))));
+
+        assertThat(streamedTypes).isEqualTo(bufferedTypes);
+        assertThat(streamedTypes.get("NSR:StopPlace:59881")).isEqualTo("ferryStop_onstreetBus_railStation");
+    }
+
+    @Test
+    public void streamingTransformDoesNotAccumulateStateBetweenCalls() throws Exception {
+        DeliveryPublicationStreamToGeoJson streaming = newTransformer(TransformMode.STREAMING);
+        streaming.transform(new FileInputStream(SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML));
+
+        ByteArrayOutputStream output = (ByteArrayOutputStream) streaming.transform(new FileInputStream(SRC_TEST_RESOURCES_ADJACENT_SITES_XML));
+        FeatureCollection featureCollection = new ObjectMapper().readValue(output.toString(), FeatureCollection.class);
+
+        assertThat(featureCollection.getFeatures())
+                .extracting(Feature::getId)
+                .doesNotContain("NSR:StopPlace:1", "NSR:Parking:99");
+    }
+
+    @Test
+    public void transformToFileWritesSameGeoJsonAsInMemoryTransform(@TempDir Path tempDir) throws Exception {
+        ByteArrayOutputStream inMemory = (ByteArrayOutputStream) newTransformer(TransformMode.STREAMING)
+                .transform(new FileInputStream(SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML));
+
+        File file = newTransformer(TransformMode.STREAMING).transformToFile(
+                new FileInputStream(SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML), tempDir.resolve("out.geojson").toString());
+
+        assertThat(Files.readAllBytes(file.toPath())).isEqualTo(inMemory.toByteArray());
+    }
+
+    @Test
+    public void gzippedFileInflatesToSameGeoJson(@TempDir Path tempDir) throws Exception {
+        ByteArrayOutputStream inMemory = (ByteArrayOutputStream) newTransformer(TransformMode.PARALLEL)
+                .transform(new FileInputStream(SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML));
+
+        DeliveryPublicationStreamToGeoJson gzipped = newTransformer(TransformMode.PARALLEL);
+        gzipped.setGzipOutput(true);
+        File file = gzipped.transformToFile(
+                new FileInputStream(SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML), tempDir.resolve("out.geojson.gz").toString());
+
+        try (GZIPInputStream inputStream = new GZIPInputStream(new FileInputStream(file))) {
+            assertThat(inputStream.readAllBytes()).isEqualTo(inMemory.toByteArray());
+        }
+        assertThat(file.length()).isLessThan(inMemory.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML, SRC_TEST_RESOURCES_ADJACENT_SITES_XML})
+    public void parallelTransformWritesSameBytesAsStreaming(String path) throws Exception {
+        ByteArrayOutputStream streamed = (ByteArrayOutputStream) newTransformer(TransformMode.STREAMING)
+                .transform(new FileInputStream(path));
+
+        DeliveryPublicationStreamToGeoJson parallel = newTransformer(TransformMode.PARALLEL);
+        parallel.setTransformWorkers(3);
+        ByteArrayOutputStream parallelOutput = (ByteArrayOutputStream) parallel.transform(new FileInputStream(path));
+
+        assertThat(parallelOutput.toByteArray()).isEqualTo(streamed.toByteArray());
+    }
+
+    /**
+     * The StAX extractor must read every field the mappers use, so the output is the same as with JAXB.
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML, SRC_TEST_RESOURCES_ADJACENT_SITES_XML})
+    public void staxReaderWritesSameBytesAsJaxb(String path) throws Exception {
+        ByteArrayOutputStream jaxb = (ByteArrayOutputStream) newTransformer(TransformMode.STREAMING)
+                .transform(new FileInputStream(path));
+
+        DeliveryPublicationStreamToGeoJson stax = newTransformer(TransformMode.STREAMING);
+        stax.setEntityReader(EntityReader.STAX);
+        DeliveryPublicationStreamToGeoJson parallelStax = newTransformer(TransformMode.PARALLEL);
+        parallelStax.setEntityReader(EntityReader.STAX);
+
+        assertThat(((ByteArrayOutputStream) stax.transform(new FileInputStream(path))).toByteArray())
+                .isEqualTo(jaxb.toByteArray());
+        assertThat(((ByteArrayOutputStream) parallelStax.transform(new FileInputStream(path))).toByteArray())
+                .isEqualTo(jaxb.toByteArray());
+    }
+
+    /**
+     * Each line of the newline-delimited output is a feature of the FeatureCollection.
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"BUFFERED", "STREAMING", "PARALLEL"})
+    public void geoJsonSeqHasSameFeaturesAsFeatureCollection(TransformMode transformMode) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ByteArrayOutputStream featureCollection = (ByteArrayOutputStream) newTransformer(transformMode)
+                .transform(new FileInputStream(SRC_TEST_RESOURCES_ADJACENT_SITES_XML));
+        Map<String, JsonNode> expected = new HashMap<>();
+        objectMapper.readTree(featureCollection.toByteArray()).get("features")
+                .forEach(feature -> expected.put(feature.get("id").asText(), feature));
+
+        DeliveryPublicationStreamToGeoJson geoJsonSeq = newTransformer(transformMode);
+        geoJsonSeq.setOutputFormat(OutputFormat.GEOJSON_SEQ);
+        ByteArrayOutputStream output = (ByteArrayOutputStream) geoJsonSeq.transform(new FileInputStream(SRC_TEST_RESOURCES_ADJACENT_SITES_XML));
+        Map<String, JsonNode> written = new HashMap<>();
+        for (String line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            JsonNode feature = objectMapper.readTree(line);
+            written.put(feature.get("id").asText(), feature);
+        }
+
+        assertThat(written).isNotEmpty().isEqualTo(expected);
+    }
+
+    @Test
+    public void parallelTransformThrowsRuntimeExceptionOnMalformedXml() throws JAXBException {
+        DeliveryPublicationStreamToGeoJson parallel = newTransformer(TransformMode.PARALLEL);
+
+        assertThrows(RuntimeException.class, () ->
+                parallel.transform(new ByteArrayInputStream("<<<<not valid xml".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * The tiered store gives the same features as the heap, whether the overflow stays compressed in memory or is
+     * spilled to disk, and deletes its spill files when done.
+     */
+    @ParameterizedTest
+    @ValueSource(longs = {Long.MAX_VALUE, 0})
+    public void tieredStoreWritesSameFeaturesAsHeap(long memoryBudget, @TempDir Path tempDir) throws Exception {
+        FeatureCollection heap = transform(SRC_TEST_RESOURCES_ADJACENT_SITES_XML, TransformMode.BUFFERED);
+
+        DeliveryPublicationStreamToGeoJson transformer = newTransformer(TransformMode.BUFFERED);
+        transformer.setEntityStoreType(EntityStoreType.TIERED);
+        transformer.setStoreLimits(1, memoryBudget, tempDir.toString());
+        ByteArrayOutputStream output = (ByteArrayOutputStream) transformer.transform(new FileInputStream(SRC_TEST_RESOURCES_ADJACENT_SITES_XML));
+        FeatureCollection tiered = new ObjectMapper().readValue(output.toString(), FeatureCollection.class);
+
+        Map<String, String> heapTypes = heap.getFeatures().stream()
+                .collect(Collectors.toMap(Feature::getId, feature -> String.valueOf(feature.getProperties().get("finalStopPlaceType"))));
+        Map<String, String> tieredTypes = tiered.getFeatures().stream()
+                .collect(Collectors.toMap(Feature::getId, feature -> String.valueOf(feature.getProperties().get("finalStopPlaceType"))));
+        assertThat(tieredTypes).hasSizeGreaterThan(1).isEqualTo(heapTypes);
+        try (Stream<Path> spillFiles = Files.list(tempDir)) {
+            assertThat(spillFiles).isEmpty();
+        }
+    }
+
+    /**
+     * The two passes over the mapped file give the same features and final stop place types as buffering every entity,
+     * though in document order.
+     */
+    @ParameterizedTest
+    @CsvSource({
+            SRC_TEST_RESOURCES_PUBLICATION_DELIVERY_XML + ",JAXB",
+            SRC_TEST_RESOURCES_ADJACENT_SITES_XML + ",JAXB",
+            SRC_TEST_RESOURCES_ADJACENT_SITES_XML + ",STAX",
+            "src/test/resources/composite-frame-delivery.xml,STAX"})
+    public void indexedTransformWritesSameFeaturesAsBuffered(String path, EntityReader entityReader, @TempDir Path tempDir) throws Exception {
+        FeatureCollection buffered = transform(path, TransformMode.BUFFERED);
+
+        DeliveryPublicationStreamToGeoJson transformer = newTransformer(TransformMode.INDEXED);
+        transformer.setEntityReader(entityReader);
+        File file = transformer.transformFileToFile(new File(path), tempDir.resolve("out.geojson").toString());
+        FeatureCollection indexed = new ObjectMapper().readValue(file, FeatureCollection.class);
+
+        assertThat(finalStopPlaceTypes(indexed)).isNotEmpty().isEqualTo(finalStopPlaceTypes(buffered));
+    }
+
+    @Test
+    public void indexedTransformOfSyntheticDelivery(@TempDir Path tempDir) throws Exception {
+        Path netex = tempDir.resolve("netex.xml");
+        SyntheticPublicationDelivery delivery = SyntheticPublicationDelivery.national(200).withSiteFrames(2);
+        delivery.writeTo(netex);
+        FeatureCollection buffered = transform(netex.toString(), TransformMode.BUFFERED);
+
+        DeliveryPublicationStreamToGeoJson transformer = newTransformer(TransformMode.INDEXED);
+        transformer.setEntityReader(EntityReader.STAX);
+        File file = transformer.transformFileToFile(netex.toFile(), tempDir.resolve("out.geojson").toString());
+        FeatureCollection indexed = new ObjectMapper().readValue(file, FeatureCollection.class);
+
+        assertThat((long) indexed.getFeatures().size()).isEqualTo(delivery.expectedFeatures());
+        assertThat(finalStopPlaceTypes(indexed)).isEqualTo(finalStopPlaceTypes(buffered));
+    }
+
+    @Test
+    public void indexedModeStreamsWhenNotGivenAFile() throws Exception {
+        ByteArrayOutputStream streamed = (ByteArrayOutputStream) newTransformer(TransformMode.STREAMING)
+                .transform(new FileInputStream(SRC_TEST_RESOURCES_ADJACENT_SITES_XML));
+        ByteArrayOutputStream indexed = (ByteArrayOutputStream) newTransformer(TransformMode.INDEXED)
+                .transform(new FileInputStream(SRC_TEST_RESOURCES_ADJACENT_SITES_XML));
+
+        assertThat(indexed.toByteArray()).isEqualTo(streamed.toByteArray());
+    }
+
+    private Map<String, String> finalStopPlaceTypes(FeatureCollection featureCollection) {
+        return featureCollection.getFeatures().stream()
+                .collect(Collectors.toMap(Feature::getId, feature -> String.valueOf(feature.getProperties().get("finalStopPlaceType"))));
+    }
+
+    private FeatureCollection transform(String path, TransformMode transformMode) throws Exception {
+        ByteArrayOutputStream output = (ByteArrayOutputStream) newTransformer(transformMode).transform(new FileInputStream(path));
+        return new ObjectMapper().readValue(output.toString(), FeatureCollection.class);
+    }
+
+    private DeliveryPublicationStreamToGeoJson newTransformer(TransformMode transformMode) throws JAXBException {
+        DeliveryPublicationStreamToGeoJson transformer = new DeliveryPublicationStreamToGeoJson(
+                stopPlaceToGeoJsonFeatureMapper,
+                parkingToGeoJsonFeatureMapper,
+                quayToGeoJsonFeatureMapper,
+                tariffZoneToGeoJsonFeatureMapper,
+                validityFilter);
+        transformer.setTransformMode(transformMode);
+        return transformer;
+    }
+
     private List<String> resolvePropertiesByValue(FeatureCollection featureCollection, String key) {
         return featureCollection.getFeatures()
                 .stream()
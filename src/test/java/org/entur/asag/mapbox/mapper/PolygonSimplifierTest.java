@@ -0,0 +1,99 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox.mapper;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PolygonSimplifierTest {
+
+    @Test
+    public void simplifiesDenseRingAndKeepsItClosed() {
+        double[] ring = circle(60.0, 10.0, 0.05, 2000);
+        PolygonSimplifier polygonSimplifier = new PolygonSimplifier();
+        polygonSimplifier.setTariffZoneMaxZoom(10);
+
+        double[] simplified = polygonSimplifier.simplify(FeatureType.TARIFF_ZONE, ring);
+
+        assertThat(simplified.length).isLessThan(ring.length / 10).isGreaterThanOrEqualTo(8);
+        assertThat(simplified[0]).isEqualTo(simplified[simplified.length - 2]);
+        assertThat(simplified[1]).isEqualTo(simplified[simplified.length - 1]);
+        assertThat(polygonSimplifier.getVerticesBefore(FeatureType.TARIFF_ZONE)).isEqualTo(2001);
+        assertThat(polygonSimplifier.getVerticesAfter(FeatureType.TARIFF_ZONE)).isEqualTo(simplified.length / 2);
+    }
+
+    @Test
+    public void dropsVerticesOnStraightEdges() {
+        double[] ring = {
+                60.0, 10.0,
+                60.0, 10.5,
+                60.0, 11.0,
+                60.5, 11.0,
+                61.0, 11.0,
+                61.0, 10.0,
+                60.0, 10.0};
+
+        assertThat(PolygonSimplifier.simplify(ring, PolygonSimplifier.toleranceForZoom(14, 0.5)))
+                .containsExactly(60.0, 10.0, 60.0, 11.0, 61.0, 11.0, 61.0, 10.0, 60.0, 10.0);
+    }
+
+    @Test
+    public void keepsRingThatWouldCollapse() {
+        double[] ring = circle(60.0, 10.0, 0.0001, 50);
+
+        assertThat(PolygonSimplifier.simplify(ring, PolygonSimplifier.toleranceForZoom(0, 0.5))).isSameAs(ring);
+    }
+
+    @Test
+    public void detectsSelfIntersections() {
+        // A square with a narrow notch cut into it from the top edge
+        double[] notchedX = {0.0, 4.0, 4.0, 2.1, 2.05, 2.0, 0.0, 0.0};
+        double[] notchedY = {0.0, 0.0, 4.0, 4.0, 0.5, 4.0, 4.0, 0.0};
+        assertThat(PolygonSimplifier.intersectsItself(notchedX, notchedY)).isFalse();
+
+        double[] bowTieX = {0.0, 4.0, 0.0, 4.0, 0.0};
+        double[] bowTieY = {0.0, 4.0, 4.0, 0.0, 0.0};
+        assertThat(PolygonSimplifier.intersectsItself(bowTieX, bowTieY)).isTrue();
+
+        double[] foldedBackX = {0.0, 4.0, 2.0, 0.0};
+        double[] foldedBackY = {0.0, 0.0, 0.0, 0.0};
+        assertThat(PolygonSimplifier.intersectsItself(foldedBackX, foldedBackY)).isTrue();
+    }
+
+    @Test
+    public void leavesTypesWithoutMaxZoomUnchanged() {
+        double[] ring = circle(60.0, 10.0, 0.05, 2000);
+        PolygonSimplifier polygonSimplifier = new PolygonSimplifier();
+        polygonSimplifier.setTariffZoneMaxZoom(10);
+
+        assertThat(polygonSimplifier.simplify(FeatureType.PARKING, ring)).isSameAs(ring);
+        assertThat(polygonSimplifier.simplify(FeatureType.STOP_PLACE, ring)).isSameAs(ring);
+        assertThat(polygonSimplifier.getVerticesBefore(FeatureType.PARKING)).isZero();
+    }
+
+    private static double[] circle(double latitude, double longitude, double radius, int vertices) {
+        double[] ring = new double[(vertices + 1) * 2];
+        for (int index = 0; index < vertices; index++) {
+            double angle = 2 * Math.PI * index / vertices;
+            ring[2 * index] = latitude + radius * Math.sin(angle);
+            ring[2 * index + 1] = longitude + radius * 2 * Math.cos(angle);
+        }
+        ring[2 * vertices] = ring[0];
+        ring[2 * vertices + 1] = ring[1];
+        return ring;
+    }
+}
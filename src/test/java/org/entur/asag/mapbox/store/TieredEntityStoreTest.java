@@ -0,0 +1,132 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.mapbox.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TieredEntityStoreTest {
+
+    private static final EntityCodec<String> STRING_CODEC = new EntityCodec<>() {
+        @Override
+        public byte[] encode(String entity) {
+            return entity.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void keepsEverythingOnHeapBelowHotCapacity() {
+        try (TieredEntityStore<String> store = new TieredEntityStore<>("test", STRING_CODEC, 10, 0, tempDir)) {
+            List<String> entities = entities(10);
+            entities.forEach(store::add);
+
+            assertThat(store).containsExactlyElementsOf(entities);
+            assertThat(store.size()).isEqualTo(10);
+            assertThat(store.hotEntities()).isEqualTo(10);
+            assertThat(store.compressedInMemory()).isZero();
+            assertThat(store.spillFile()).isNull();
+        }
+    }
+
+    @Test
+    public void compressesOverflowInMemoryWithinBudget() {
+        try (TieredEntityStore<String> store = new TieredEntityStore<>("test", STRING_CODEC, 5, Long.MAX_VALUE, tempDir)) {
+            List<String> entities = entities(1000);
+            entities.forEach(store::add);
+
+            assertThat(store).containsExactlyElementsOf(entities);
+            assertThat(store.hotEntities()).isEqualTo(5);
+            assertThat(store.compressedInMemory()).isPositive();
+            assertThat(store.compressedOnDisk()).isZero();
+        }
+    }
+
+    @Test
+    public void spillsBlocksPastBudgetAndDeletesSpillFileOnClose() {
+        // Enough to fill several blocks
+        List<String> entities = entities(3 * TieredEntityStore.BLOCK_SIZE / 20);
+        Path spillFile;
+        try (TieredEntityStore<String> store = new TieredEntityStore<>("test", STRING_CODEC, 5, 1, tempDir)) {
+            entities.forEach(store::add);
+
+            assertThat(store).containsExactlyElementsOf(entities);
+            // Iterating twice gives the same entities
+            assertThat(store).containsExactlyElementsOf(entities);
+            assertThat(store.size()).isEqualTo(entities.size());
+            assertThat(store.compressedInMemory()).isZero();
+            assertThat(store.compressedOnDisk()).isPositive();
+            spillFile = store.spillFile();
+            assertThat(spillFile).exists().hasParent(tempDir);
+        }
+        assertThat(spillFile).doesNotExist();
+    }
+
+    @Test
+    public void keepsBlocksInMemoryUntilBudgetIsUsedUp() {
+        List<String> entities = entities(3 * TieredEntityStore.BLOCK_SIZE / 20);
+        long compressed;
+        try (TieredEntityStore<String> store = new TieredEntityStore<>("test", STRING_CODEC, 0, Long.MAX_VALUE, tempDir)) {
+            entities.forEach(store::add);
+            // Iterating compresses the last, partly filled block
+            store.iterator();
+            compressed = store.compressedInMemory();
+        }
+
+        try (TieredEntityStore<String> store = new TieredEntityStore<>("test", STRING_CODEC, 0, compressed / 2, tempDir)) {
+            entities.forEach(store::add);
+
+            List<String> iterated = new ArrayList<>();
+            store.forEach(iterated::add);
+            assertThat(iterated).isEqualTo(entities);
+            assertThat(store.compressedInMemory()).isPositive().isLessThanOrEqualTo(compressed / 2);
+            assertThat(store.compressedOnDisk()).isPositive();
+        }
+    }
+
+    @Test
+    public void heapStoreKeepsEveryEntity() {
+        try (HeapEntityStore<String> store = new HeapEntityStore<>()) {
+            entities(100).forEach(store::add);
+
+            assertThat(store).containsExactlyInAnyOrderElementsOf(entities(100));
+            assertThat(store.size()).isEqualTo(100);
+        }
+    }
+
+    private static List<String> entities(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> "NSR:StopPlace:" + i + " with some more text " + (i * 31 % 97))
+                .collect(Collectors.toList());
+    }
+}
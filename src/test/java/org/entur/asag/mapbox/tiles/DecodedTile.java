@@ -0,0 +1,153 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.tiles;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads back the single layer of an encoded vector tile, so that tests can check what was encoded.
+ */
+class DecodedTile {
+
+    String layerName;
+    int extent;
+    int version;
+    final List<String> keys = new ArrayList<>();
+    final List<Object> values = new ArrayList<>();
+    final List<Feature> features = new ArrayList<>();
+
+    static class Feature {
+        int type;
+        final List<Integer> tags = new ArrayList<>();
+        final List<Integer> geometry = new ArrayList<>();
+    }
+
+    static DecodedTile decode(byte[] tile) {
+        DecodedTile decoded = new DecodedTile();
+        Reader tileReader = new Reader(tile);
+        while (tileReader.hasMore()) {
+            int tag = (int) tileReader.varint();
+            if (tag >>> 3 != 3) {
+                throw new IllegalArgumentException("Unexpected tile field " + (tag >>> 3));
+            }
+            Reader layer = tileReader.message();
+            while (layer.hasMore()) {
+                int field = (int) layer.varint() >>> 3;
+                switch (field) {
+                    case 1 -> decoded.layerName = layer.string();
+                    case 2 -> decoded.features.add(feature(layer.message()));
+                    case 3 -> decoded.keys.add(layer.string());
+                    case 4 -> decoded.values.add(value(layer.message()));
+                    case 5 -> decoded.extent = (int) layer.varint();
+                    case 15 -> decoded.version = (int) layer.varint();
+                    default -> throw new IllegalArgumentException("Unexpected layer field " + field);
+                }
+            }
+        }
+        return decoded;
+    }
+
+    private static Feature feature(Reader reader) {
+        Feature feature = new Feature();
+        while (reader.hasMore()) {
+            int field = (int) reader.varint() >>> 3;
+            switch (field) {
+                case 2 -> reader.message().packed(feature.tags);
+                case 3 -> feature.type = (int) reader.varint();
+                case 4 -> reader.message().packed(feature.geometry);
+                default -> throw new IllegalArgumentException("Unexpected feature field " + field);
+            }
+        }
+        return feature;
+    }
+
+    private static Object value(Reader reader) {
+        int field = (int) reader.varint() >>> 3;
+        return switch (field) {
+            case 1 -> reader.string();
+            case 3 -> reader.fixed64();
+            case 5 -> reader.varint();
+            case 6 -> {
+                long zigZag = reader.varint();
+                yield (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+            case 7 -> reader.varint() == 1;
+            default -> throw new IllegalArgumentException("Unexpected value field " + field);
+        };
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private int position;
+        private final int end;
+
+        Reader(byte[] bytes) {
+            this(bytes, 0, bytes.length);
+        }
+
+        Reader(byte[] bytes, int position, int end) {
+            this.bytes = bytes;
+            this.position = position;
+            this.end = end;
+        }
+
+        boolean hasMore() {
+            return position < end;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        double fixed64() {
+            double value = ByteBuffer.wrap(bytes, position, 8).order(ByteOrder.LITTLE_ENDIAN).getDouble();
+            position += 8;
+            return value;
+        }
+
+        Reader message() {
+            int length = (int) varint();
+            Reader message = new Reader(bytes, position, position + length);
+            position += length;
+            return message;
+        }
+
+        String string() {
+            int length = (int) varint();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        void packed(List<Integer> values) {
+            while (hasMore()) {
+                values.add((int) varint());
+            }
+        }
+    }
+}
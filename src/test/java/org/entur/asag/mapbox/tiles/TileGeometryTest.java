@@ -0,0 +1,77 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.tiles;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class TileGeometryTest {
+
+    @Test
+    public void projectsToWorldCoordinatesAndBack() {
+        assertThat(TileGeometry.worldX(-180)).isEqualTo(0);
+        assertThat(TileGeometry.worldX(0)).isEqualTo(0.5);
+        assertThat(TileGeometry.worldY(0)).isCloseTo(0.5, within(1e-12));
+        assertThat(TileGeometry.worldY(85.0511287798066)).isCloseTo(0, within(1e-12));
+        assertThat(TileGeometry.longitude(TileGeometry.worldX(10.75))).isCloseTo(10.75, within(1e-9));
+        assertThat(TileGeometry.latitude(TileGeometry.worldY(59.911))).isCloseTo(59.911, within(1e-9));
+    }
+
+    @Test
+    public void clipsRingToSquare() {
+        double[] square = {-10, -10, 10, -10, 10, 10, -10, 10};
+
+        int[] clipped = TileGeometry.quantize(TileGeometry.clip(square, 0, 100));
+
+        assertThat(clipped).containsExactly(0, 0, 10, 0, 10, 10, 0, 10);
+    }
+
+    @Test
+    public void clipsAwayRingOutsideSquare() {
+        double[] square = {200, 200, 210, 200, 210, 210, 200, 210};
+
+        assertThat(TileGeometry.clip(square, 0, 100)).isEmpty();
+    }
+
+    @Test
+    public void keepsSquareOfRingCoveringIt() {
+        double[] square = {-500, -500, 500, -500, 500, 500, -500, 500};
+
+        int[] clipped = TileGeometry.quantize(TileGeometry.clip(square, 0, 100));
+
+        assertThat(TileGeometry.signedArea(clipped)).isEqualTo(2 * 100 * 100);
+    }
+
+    @Test
+    public void quantizeDropsRepeatedPositionsAndCollapsedRings() {
+        assertThat(TileGeometry.quantize(new double[]{0, 0, 0.2, 0.1, 10, 0, 10, 10, 0.1, 0.1}))
+                .containsExactly(0, 0, 10, 0, 10, 10);
+        assertThat(TileGeometry.quantize(new double[]{0, 0, 0.2, 0.1, 0.4, 0.3})).isNull();
+    }
+
+    @Test
+    public void clockwiseRingHasPositiveArea() {
+        int[] clockwise = {0, 0, 10, 0, 10, 10, 0, 10};
+
+        assertThat(TileGeometry.signedArea(clockwise)).isEqualTo(200);
+        TileGeometry.reverse(clockwise);
+        assertThat(clockwise).containsExactly(0, 10, 10, 10, 10, 0, 0, 0);
+        assertThat(TileGeometry.signedArea(clockwise)).isEqualTo(-200);
+    }
+}
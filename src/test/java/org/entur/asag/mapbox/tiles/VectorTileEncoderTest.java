@@ -0,0 +1,71 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.tiles;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VectorTileEncoderTest {
+
+    @Test
+    public void encodesPointAsInTheSpecification() {
+        VectorTileEncoder encoder = new VectorTileEncoder("asag", 4096);
+        encoder.addPoint(new String[]{"name"}, new Object[]{"Stasjonen"}, 25, 17);
+
+        DecodedTile tile = DecodedTile.decode(encoder.encode());
+
+        assertThat(tile.layerName).isEqualTo("asag");
+        assertThat(tile.extent).isEqualTo(4096);
+        assertThat(tile.version).isEqualTo(2);
+        assertThat(tile.features).hasSize(1);
+        assertThat(tile.features.get(0).type).isEqualTo(VectorTileEncoder.GEOMETRY_POINT);
+        assertThat(tile.features.get(0).geometry).containsExactly(9, 50, 34);
+    }
+
+    @Test
+    public void encodesPolygonAsInTheSpecification() {
+        VectorTileEncoder encoder = new VectorTileEncoder("asag", 4096);
+        encoder.addPolygon(new String[0], new Object[0], List.of(new int[]{3, 6, 8, 12, 20, 34}));
+
+        DecodedTile tile = DecodedTile.decode(encoder.encode());
+
+        assertThat(tile.features.get(0).type).isEqualTo(VectorTileEncoder.GEOMETRY_POLYGON);
+        assertThat(tile.features.get(0).geometry).containsExactly(9, 6, 12, 18, 10, 12, 24, 44, 15);
+    }
+
+    @Test
+    public void sharesKeysAndValuesBetweenFeatures() {
+        VectorTileEncoder encoder = new VectorTileEncoder("asag", 4096);
+        encoder.addPoint(new String[]{"name", "weighting", "covered"}, new Object[]{"Stasjonen", 3L, true}, 1, 1);
+        encoder.addPoint(new String[]{"name", "weighting", "publicCode"}, new Object[]{"Stasjonen", -1L, null}, 2, 2);
+
+        DecodedTile tile = DecodedTile.decode(encoder.encode());
+
+        assertThat(tile.keys).containsExactly("name", "weighting", "covered");
+        assertThat(tile.values).containsExactly("Stasjonen", 3L, true, -1L);
+        assertThat(tile.features.get(0).tags).containsExactly(0, 0, 1, 1, 2, 2);
+        assertThat(tile.features.get(1).tags).containsExactly(0, 0, 1, 3);
+    }
+
+    @Test
+    public void isEmptyWithoutFeatures() {
+        assertThat(new VectorTileEncoder("asag", 4096).isEmpty()).isTrue();
+    }
+}
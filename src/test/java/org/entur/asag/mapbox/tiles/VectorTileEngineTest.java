@@ -0,0 +1,129 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.mapbox.tiles;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VectorTileEngineTest {
+
+    private static final String STOP_PLACE = "{\"type\":\"Feature\",\"properties\":{\"name\":\"Stasjonen\",\"entityType\":\"StopPlace\",\"adjacentSites\":[\"NSR:StopPlace:2\"]},\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.75,59.911]},\"id\":\"NSR:StopPlace:1\"}";
+    private static final String TARIFF_ZONE = "{\"type\":\"Feature\",\"properties\":{\"name\":\"Sone 1\",\"entityType\":\"TariffZone\"},\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[[10.0,59.0],[12.0,59.0],[12.0,61.0],[10.0,61.0],[10.0,59.0]]]},\"id\":\"RUT:TariffZone:1\"}";
+
+    private final VectorTileEngine vectorTileEngine = new VectorTileEngine();
+
+    @Test
+    public void writesTilesOfEveryZoomLevel(@TempDir Path tempDir) throws Exception {
+        vectorTileEngine.setZoomLevels(0, 3);
+        vectorTileEngine.setFeatureMinZoom(2, 2, 2);
+        Path geoJson = tempDir.resolve("entur.geojson.ld");
+        Files.write(geoJson, (STOP_PLACE + "\n" + TARIFF_ZONE + "\n").getBytes(StandardCharsets.UTF_8));
+
+        File mbtiles = vectorTileEngine.buildMbtiles(geoJson.toString());
+
+        assertThat(mbtiles.toPath()).isEqualTo(tempDir.resolve("entur.mbtiles"));
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + mbtiles)) {
+            Map<String, String> metadata = metadata(connection);
+            assertThat(metadata).containsEntry("format", "pbf").containsEntry("minzoom", "0").containsEntry("maxzoom", "3");
+            assertThat(metadata.get("json")).contains("\"id\":\"asag\"").contains("\"adjacentSites\":\"String\"");
+
+            // Both features are in the north east quarter of the world, which is the upper right tile, and row 1
+            // counted from the bottom, at zoom level 1.
+            DecodedTile tile = DecodedTile.decode(tileData(connection, 1, 1, 1));
+            assertThat(tile.features).hasSize(1);
+            assertThat(tile.features.get(0).type).isEqualTo(VectorTileEncoder.GEOMETRY_POLYGON);
+
+            tile = DecodedTile.decode(tileData(connection, 3, 4, 5));
+            assertThat(tile.features).extracting(feature -> feature.type)
+                    .containsExactlyInAnyOrder(VectorTileEncoder.GEOMETRY_POINT, VectorTileEncoder.GEOMETRY_POLYGON);
+            assertThat(tile.values).contains("Stasjonen", "[\"NSR:StopPlace:2\"]");
+            assertThat(tileCount(connection)).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void readsFeatureCollection(@TempDir Path tempDir) throws Exception {
+        vectorTileEngine.setZoomLevels(0, 0);
+        vectorTileEngine.setFeatureMinZoom(0, 0, 0);
+        Path geoJson = tempDir.resolve("entur.geojson");
+        Files.write(geoJson, ("{\n\"features\": [" + STOP_PLACE + ",\n" + TARIFF_ZONE + "\n], \"type\": \"FeatureCollection\"\n}")
+                .getBytes(StandardCharsets.UTF_8));
+
+        File mbtiles = vectorTileEngine.buildMbtiles(geoJson.toString());
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + mbtiles)) {
+            assertThat(DecodedTile.decode(tileData(connection, 0, 0, 0)).features).hasSize(2);
+        }
+    }
+
+    @Test
+    public void namesMbtilesFileAfterGeoJsonFile() {
+        assertThat(VectorTileEngine.mbtilesFileName("entur.geojson")).isEqualTo("entur.mbtiles");
+        assertThat(VectorTileEngine.mbtilesFileName("entur.geojson.ld.gz")).isEqualTo("entur.mbtiles");
+        assertThat(VectorTileEngine.mbtilesFileName("entur")).isEqualTo("entur.mbtiles");
+    }
+
+    private static Map<String, String> metadata(Connection connection) throws SQLException {
+        Map<String, String> metadata = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT name, value FROM metadata")) {
+            while (resultSet.next()) {
+                metadata.put(resultSet.getString(1), resultSet.getString(2));
+            }
+        }
+        return metadata;
+    }
+
+    private static byte[] tileData(Connection connection, int zoom, int column, int row) throws SQLException, IOException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?")) {
+            statement.setInt(1, zoom);
+            statement.setInt(2, column);
+            statement.setInt(3, row);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                assertThat(resultSet.next()).as("tile %d/%d/%d", zoom, column, row).isTrue();
+                return new GZIPInputStream(new ByteArrayInputStream(resultSet.getBytes(1))).readAllBytes();
+            }
+        }
+    }
+
+    private static int tileCount(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM tiles")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.netex;
+
+import jakarta.xml.bind.Unmarshaller;
+import org.entur.asag.mapbox.mapper.ParkingToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.StopPlaceToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.ZoneToGeoJsonFeatureMapper;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.Parking;
+import org.rutebanken.netex.model.StopPlace;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NetexEntityExtractorTest {
+
+    private static final String NETEX_NAMESPACES = "xmlns=\"http://www.netex.org.uk/netex\" xmlns:gml=\"http://www.opengis.net/gml/3.2\"";
+
+    private static final String PARKING_XML = "<Parking " + NETEX_NAMESPACES + " version=\"4\" id=\"NSR:Parking:99\">"
+            + "<ValidBetween><FromDate>2017-08-09T12:11:42</FromDate></ValidBetween>"
+            + "<Name lang=\"nor\">Parkeringen</Name>"
+            + "<Centroid><Location><Longitude>10.794161</Longitude><Latitude>63.411566</Latitude></Location></Centroid>"
+            + "<AccessibilityAssessment version=\"1\" id=\"NSR:AccessibilityAssessment:1\"><MobilityImpairedAccess>unknown</MobilityImpairedAccess></AccessibilityAssessment>"
+            + "<ParentSiteRef ref=\"NSR:StopPlace:1\"/>"
+            + "<ParkingVehicleTypes>car pedalCycle</ParkingVehicleTypes>"
+            + "<Covered>covered</Covered>"
+            + "<TotalCapacity>120</TotalCapacity>"
+            + "<PrincipalCapacity>100</PrincipalCapacity>"
+            + "<NumberOfParkingLevels>2</NumberOfParkingLevels>"
+            + "</Parking>";
+
+    private static final String STOP_PLACE_XML = "<StopPlace " + NETEX_NAMESPACES + " version=\"7\" id=\"NSR:StopPlace:2\">"
+            + "<keyList><KeyValue><Key>IS_PARENT_STOP_PLACE</Key><Value>false</Value></KeyValue></keyList>"
+            + "<Name lang=\"nor\">Stasjonen</Name>"
+            + "<Description lang=\"nor\"/>"
+            + "<PrivateCode>12</PrivateCode>"
+            + "<gml:Polygon gml:id=\"P1\"><gml:exterior><gml:LinearRing>"
+            + "<gml:posList>59.1 10.4 59.2 10.5 59.3 10.4 59.1 10.4</gml:posList>"
+            + "</gml:LinearRing></gml:exterior></gml:Polygon>"
+            + "<adjacentSites><SiteRef ref=\"NSR:StopPlace:1\"/><SiteRef ref=\"NSR:StopPlace:3\"/></adjacentSites>"
+            + "<PublicCode>A</PublicCode>"
+            + "<StopPlaceType>railStation</StopPlaceType>"
+            + "<RailSubmode>local</RailSubmode>"
+            + "<Weighting>preferredInterchange</Weighting>"
+            + "<quays><Quay version=\"1\" id=\"NSR:Quay:1\"><Centroid><Location><Longitude>10.1</Longitude><Latitude>59.1</Latitude></Location></Centroid><PublicCode>1</PublicCode></Quay></quays>"
+            + "</StopPlace>";
+
+    private final ZoneToGeoJsonFeatureMapper zoneToGeoJsonFeatureMapper = new ZoneToGeoJsonFeatureMapper();
+
+    @Test
+    public void extractsParkingFieldsLikeJaxb() throws Exception {
+        Parking extracted = (Parking) extract(PARKING_XML);
+        Parking unmarshalled = unmarshal(PARKING_XML, Parking.class);
+
+        ParkingToGeoJsonFeatureMapper mapper = new ParkingToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper);
+        assertThat(mapper.mapParkingToGeoJson(extracted)).isEqualTo(mapper.mapParkingToGeoJson(unmarshalled));
+        assertThat(extracted.getValidBetween().get(0).getFromDate()).isEqualTo(unmarshalled.getValidBetween().get(0).getFromDate());
+        assertThat(extracted.getAccessibilityAssessment()).isNull();
+    }
+
+    @Test
+    public void extractsStopPlaceFieldsLikeJaxb() throws Exception {
+        StopPlace extracted = (StopPlace) extract(STOP_PLACE_XML);
+        StopPlace unmarshalled = unmarshal(STOP_PLACE_XML, StopPlace.class);
+
+        StopPlaceToGeoJsonFeatureMapper mapper = new StopPlaceToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper);
+        assertThat(mapper.mapStopPlaceToGeoJson(extracted, "railStation"))
+                .isEqualTo(mapper.mapStopPlaceToGeoJson(unmarshalled, "railStation"));
+        assertThat(PublicationDeliveryHelper.resolveFirstSubmodeToSingleValue(extracted)).contains("local");
+        assertThat(extracted.getQuays().getQuayRefOrQuay()).hasSize(1);
+    }
+
+    private static Object extract(String xml) throws Exception {
+        XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml));
+        while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+            // Move to the root element
+        }
+        Object entity = NetexEntityExtractor.extract(reader);
+        assertThat(reader.getEventType()).isEqualTo(XMLStreamConstants.END_ELEMENT);
+        return entity;
+    }
+
+    private static <T> T unmarshal(String xml, Class<T> clazz) throws Exception {
+        Unmarshaller unmarshaller = PublicationDeliveryHelper.createUnmarshaller();
+        return unmarshaller.unmarshal(new StreamSource(new StringReader(xml)), clazz).getValue();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.netex;
+
+import org.entur.asag.util.MappedFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutebanken.netex.model.StopPlace;
+import org.rutebanken.netex.model.StopTypeEnumeration;
+import org.rutebanken.netex.model.Zone_VersionStructure;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class NetexOffsetIndexerTest {
+
+    private static final String STOP_PLACE_XML = "<StopPlace version=\"1\" id=\"NSR:StopPlace:1\">"
+            + "<ValidBetween><FromDate>2017-08-09T12:11:42</FromDate><ToDate>2030-01-01T00:00:00</ToDate></ValidBetween>"
+            + "<Name lang=\"nor\">Stasjonen &amp; <![CDATA[<StopPlace>]]></Name>"
+            + "<Centroid><Location><Longitude>10.7</Longitude><Latitude>59.9</Latitude></Location></Centroid>"
+            + "<StopPlaceType>railStation</StopPlaceType>"
+            + "<RailSubmode>regionalRail</RailSubmode>"
+            + "<quays><Quay version=\"1\" id=\"NSR:Quay:1\">"
+            + "<ValidBetween><FromDate>2040-01-01T00:00:00</FromDate></ValidBetween>"
+            + "<Centroid><Location><Longitude>10.7</Longitude><Latitude>59.9</Latitude></Location></Centroid>"
+            + "</Quay></quays>"
+            + "</StopPlace>";
+
+    private static final String PARKING_XML = "<Parking version='1' id='NSR:Parking:1'/>";
+
+    private static final String TARIFF_ZONE_XML = "<netex:TariffZone version=\"1\" id=\"RUT:TariffZone:1\">"
+            + "<gml:Polygon gml:id=\"P1\"><gml:exterior><gml:LinearRing>"
+            + "<gml:posList>59.1 10.4 59.2 10.5 59.3 10.4 59.1 10.4</gml:posList>"
+            + "</gml:LinearRing></gml:exterior></gml:Polygon>"
+            + "</netex:TariffZone>";
+
+    private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!-- <StopPlace id=\"NSR:StopPlace:0\"> -->\n"
+            + "<PublicationDelivery xmlns=\"http://www.netex.org.uk/netex\" xmlns:gml=\"http://www.opengis.net/gml/3.2\" version=\"1.0\">"
+            + "<dataObjects><SiteFrame version=\"1\" id=\"NSR:SiteFrame:1\">"
+            + "<stopPlaces>" + STOP_PLACE_XML + "</stopPlaces>"
+            + "<parkings>" + PARKING_XML + "</parkings>"
+            + "</SiteFrame>"
+            + "<?skip <Parking/>?>"
+            + "<FareFrame xmlns:netex=\"http://www.netex.org.uk/netex\" version=\"1\" id=\"RUT:FareFrame:1\">"
+            + "<tariffZones>" + TARIFF_ZONE_XML + "</tariffZones>"
+            + "</FareFrame></dataObjects></PublicationDelivery>";
+
+    @Test
+    public void findsEntitiesAndSummarizesStopPlaces(@TempDir Path tempDir) throws IOException {
+        Path path = Files.write(tempDir.resolve("netex.xml"), DOCUMENT.getBytes(StandardCharsets.UTF_8));
+        List<String> types = new ArrayList<>();
+        List<String> slices = new ArrayList<>();
+        List<StopPlace> summaries = new ArrayList<>();
+
+        try (MappedFile mappedFile = MappedFile.open(path)) {
+            new NetexOffsetIndexer(mappedFile, Set.of("StopPlace", "Parking", "TariffZone")).scan((type, start, end, summary) -> {
+                types.add(type);
+                slices.add(DOCUMENT.substring((int) start, (int) end));
+                if (summary != null) {
+                    summaries.add(summary);
+                }
+            });
+        }
+
+        assertThat(types).containsExactly("StopPlace", "Parking", "TariffZone");
+        assertThat(slices).containsExactly(STOP_PLACE_XML, PARKING_XML, TARIFF_ZONE_XML);
+        assertThat(summaries).hasSize(1);
+        StopPlace summary = summaries.get(0);
+        assertThat(summary.getId()).isEqualTo("NSR:StopPlace:1");
+        assertThat(summary.getValidBetween()).hasSize(1);
+        assertThat(summary.getValidBetween().get(0).getFromDate()).isEqualTo(LocalDateTime.parse("2017-08-09T12:11:42"));
+        assertThat(summary.getValidBetween().get(0).getToDate()).isEqualTo(LocalDateTime.parse("2030-01-01T00:00:00"));
+        assertThat(summary.getCentroid()).isNotNull();
+        assertThat(summary.getPolygon()).isNull();
+        assertThat(summary.getStopPlaceType()).isEqualTo(StopTypeEnumeration.RAIL_STATION);
+        assertThat(summary.getRailSubmode()).isNotNull();
+        assertThat(summary.getQuays()).isNull();
+    }
+
+    @Test
+    public void opensEntityWithNamespacesInScope(@TempDir Path tempDir) throws Exception {
+        Path path = Files.write(tempDir.resolve("netex.xml"), DOCUMENT.getBytes(StandardCharsets.UTF_8));
+        List<Zone_VersionStructure> entities = new ArrayList<>();
+
+        try (MappedFile mappedFile = MappedFile.open(path)) {
+            NetexOffsetIndexer indexer = new NetexOffsetIndexer(mappedFile, Set.of("StopPlace", "TariffZone"));
+            List<long[]> offsets = new ArrayList<>();
+            indexer.scan((type, start, end, summary) -> offsets.add(new long[]{start, end}));
+            for (long[] offset : offsets) {
+                try (InputStream inputStream = indexer.openEntity(offset[0], offset[1])) {
+                    XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+                    reader.nextTag();
+                    reader.nextTag();
+                    entities.add(NetexEntityExtractor.extract(reader));
+                }
+            }
+        }
+
+        assertThat(entities).extracting(Zone_VersionStructure::getId).containsExactly("NSR:StopPlace:1", "RUT:TariffZone:1");
+        assertThat(((StopPlace) entities.get(0)).getQuays().getQuayRefOrQuay()).hasSize(1);
+        assertThat(entities.get(1).getPolygon()).isNotNull();
+    }
+
+    @Test
+    public void rejectsDocumentTruncatedBetweenEntities(@TempDir Path tempDir) throws IOException {
+        String truncated = DOCUMENT.substring(0, DOCUMENT.indexOf("</parkings>") + "</parkings>".length());
+
+        assertThatThrownBy(() -> scan(tempDir, truncated))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("document element is not closed");
+    }
+
+    @Test
+    public void rejectsDocumentTruncatedInsideEntity(@TempDir Path tempDir) throws IOException {
+        int stopPlace = DOCUMENT.indexOf(STOP_PLACE_XML);
+        String truncated = DOCUMENT.substring(0, DOCUMENT.indexOf("</Centroid>", stopPlace));
+
+        assertThatThrownBy(() -> scan(tempDir, truncated))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("StopPlace at offset " + stopPlace + " is not closed");
+    }
+
+    @Test
+    public void rejectsDocumentTruncatedInsideAttributeValue(@TempDir Path tempDir) throws IOException {
+        String truncated = DOCUMENT.substring(0, DOCUMENT.indexOf("NSR:Parking:1"));
+
+        assertThatThrownBy(() -> scan(tempDir, truncated))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Expected '\'' at offset " + truncated.length());
+    }
+
+    @Test
+    public void rejectsUnreadableTags(@TempDir Path tempDir) {
+        assertThatThrownBy(() -> scan(tempDir, "<PublicationDelivery><Parking id></Parking></PublicationDelivery>"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Expected '=' after the attribute name at offset 32");
+        assertThatThrownBy(() -> scan(tempDir, "<PublicationDelivery><Parking id=NSR:Parking:1/></PublicationDelivery>"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Expected a quoted attribute value at offset 33");
+        assertThatThrownBy(() -> scan(tempDir, "<PublicationDelivery><Parking"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("at offset 29");
+    }
+
+    private static List<String> scan(Path tempDir, String document) throws IOException {
+        Path path = Files.write(tempDir.resolve("netex.xml"), document.getBytes(StandardCharsets.UTF_8));
+        List<String> types = new ArrayList<>();
+        try (MappedFile mappedFile = MappedFile.open(path)) {
+            new NetexOffsetIndexer(mappedFile, Set.of("StopPlace", "Parking", "TariffZone")).scan((type, start, end, summary) -> types.add(type));
+        }
+        return types;
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.netex;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a schema valid NeTEx PublicationDelivery of any size for load testing, shaped like the stop place export:
+ * stop places with quays and groups of adjacent sites, parkings and tariff zones with polygons, all with validity
+ * windows. The document is streamed, so memory use does not depend on the number of entities, and the same settings
+ * always give the same document.
+ * <p>
+ * Run with <code>java -cp target/test-classes:&lt;test classpath&gt; org.entur.asag.netex.SyntheticPublicationDelivery
+ * &lt;file&gt; [stop places]</code> to write a document with the proportions of the national stop register. A file
+ * name ending with <code>.zip</code> gives a zip shaped like <code>tiamat_export_geocoder_latest.zip</code>.
+ */
+public class SyntheticPublicationDelivery {
+
+    public static final String NETEX_NAMESPACE = "http://www.netex.org.uk/netex";
+
+    public static final String GML_NAMESPACE = "http://www.opengis.net/gml/3.2";
+
+    public static final String ZIP_ENTRY_NAME = "tiamat-export.xml";
+
+    static final String VALID_FROM = "2017-01-01T00:00:00";
+
+    static final String EXPIRED_TO = "2018-01-01T00:00:00";
+
+    static final String FUTURE_FROM = "2100-01-01T00:00:00";
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Stop place types written in turn, with the transport mode that goes with each.
+     */
+    private static final String[][] STOP_PLACE_TYPES = {
+            {"onstreetBus", "bus"},
+            {"onstreetBus", "bus"},
+            {"onstreetBus", "bus"},
+            {"busStation", "bus"},
+            {"railStation", "rail"},
+            {"onstreetTram", "tram"},
+            {"metroStation", "metro"},
+            {"ferryStop", "water"},
+            {"harbourPort", "water"},
+            {"airport", "air"}
+    };
+
+    private int stopPlaces = 1000;
+    private int quaysPerStopPlace = 2;
+    private int adjacentSiteGroups;
+    private int adjacentSiteGroupSize = 2;
+    private int parkings;
+    private int tariffZones;
+    private int polygonVertices = 24;
+    private int expiredEvery;
+    private int futureEvery;
+    private int siteFrames = 1;
+    private boolean compositeFrame;
+    private long seed = 1;
+
+    /**
+     * Proportions of the national stop register, for the given number of stop places.
+     */
+    public static SyntheticPublicationDelivery national(int stopPlaces) {
+        return new SyntheticPublicationDelivery()
+                .withStopPlaces(stopPlaces)
+                .withQuaysPerStopPlace(2)
+                .withAdjacentSiteGroups(stopPlaces / 200)
+                .withParkings(stopPlaces / 10)
+                .withTariffZones(Math.max(1, stopPlaces / 50))
+                .withPolygonVertices(24)
+                .withExpiredEvery(40)
+                .withFutureEvery(500)
+                .withCompositeFrame(true);
+    }
+
+    public SyntheticPublicationDelivery withStopPlaces(int stopPlaces) {
+        this.stopPlaces = stopPlaces;
+        return this;
+    }
+
+    public SyntheticPublicationDelivery withQuaysPerStopPlace(int quaysPerStopPlace) {
+        this.quaysPerStopPlace = quaysPerStopPlace;
+        return this;
+    }
+
+    /**
+     * Groups of consecutive stop places, from the first one, that refer to each other as adjacent sites.
+     */
+    public SyntheticPublicationDelivery withAdjacentSiteGroups(int adjacentSiteGroups) {
+        this.adjacentSiteGroups = adjacentSiteGroups;
+        return this;
+    }
+
+    public SyntheticPublicationDelivery withAdjacentSiteGroupSize(int adjacentSiteGroupSize) {
+        this.adjacentSiteGroupSize = adjacentSiteGroupSize;
+        return this;
+    }
+
+    public SyntheticPublicationDelivery withParkings(int parkings) {
+        this.parkings = parkings;
+        return this;
+    }
+
+    public SyntheticPublicationDelivery withTariffZones(int tariffZones) {
+        this.tariffZones = tariffZones;
+        return this;
+    }
+
+    public SyntheticPublicationDelivery withPolygonVertices(int polygonVertices) {
+        this.polygonVertices = polygonVertices;
+        return this;
+    }
+
+    /**
+     * Every n-th entity of each type has a validity window that ended in the past. Zero for none.
+     */
+    public SyntheticPublicationDelivery withExpiredEvery(int expiredEvery) {
+        this.expiredEvery = expiredEvery;
+        return this;
+    }
+
+    /**
+     * Every n-th entity of each type, unless expired, has a validity window that starts in the future. Zero for none.
+     */
+    public SyntheticPublicationDelivery withFutureEvery(int futureEvery) {
+        this.futureEvery = futureEvery;
+        return this;
+    }
+
+    /**
+     * Number of SiteFrames the entities are spread over.
+     */
+    public SyntheticPublicationDelivery withSiteFrames(int siteFrames) {
+        this.siteFrames = siteFrames;
+        return this;
+    }
+
+    /**
+     * Wrap the SiteFrames in a CompositeFrame, as in the exports of full data packages.
+     */
+    public SyntheticPublicationDelivery withCompositeFrame(boolean compositeFrame) {
+        this.compositeFrame = compositeFrame;
+        return this;
+    }
+
+    public SyntheticPublicationDelivery withSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Stop places, quays, parkings and tariff zones in the document.
+     */
+    public long entities() {
+        return stopPlaces + (long) stopPlaces * quaysPerStopPlace + parkings + tariffZones;
+    }
+
+    /**
+     * Features a transform of the document gives: the entities valid now, with the quays of the valid stop places.
+     */
+    public long expectedFeatures() {
+        long validStopPlaces = validCount(stopPlaces);
+        return validStopPlaces + validStopPlaces * quaysPerStopPlace + validCount(parkings) + validCount(tariffZones);
+    }
+
+    private long validCount(int count) {
+        long valid = 0;
+        for (int i = 1; i <= count; i++) {
+            if (!isExpired(i) && !isFuture(i)) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Write the document to the stream, which is flushed but not closed.
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE);
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newFactory().createXMLStreamWriter(bufferedOutputStream, "UTF-8");
+            writePublicationDelivery(writer);
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Writing synthetic PublicationDelivery failed: " + e.getMessage(), e);
+        }
+        bufferedOutputStream.flush();
+    }
+
+    /**
+     * Write the document as the only entry of a zip, which is finished but not closed.
+     */
+    public void writeZipTo(OutputStream outputStream) throws IOException {
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        zipOutputStream.putNextEntry(new ZipEntry(ZIP_ENTRY_NAME));
+        writeTo(zipOutputStream);
+        zipOutputStream.closeEntry();
+        zipOutputStream.finish();
+        outputStream.flush();
+    }
+
+    public void writeTo(Path path) throws IOException {
+        try (OutputStream outputStream = Files.newOutputStream(path)) {
+            if (path.getFileName().toString().endsWith(".zip")) {
+                writeZipTo(outputStream);
+            } else {
+                writeTo(outputStream);
+            }
+        }
+    }
+
+    private void writePublicationDelivery(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.setDefaultNamespace(NETEX_NAMESPACE);
+        writer.setPrefix("gml", GML_NAMESPACE);
+        writer.writeStartElement(NETEX_NAMESPACE, "PublicationDelivery");
+        writer.writeDefaultNamespace(NETEX_NAMESPACE);
+        writer.writeNamespace("gml", GML_NAMESPACE);
+        writer.writeAttribute("version", "1");
+        element(writer, "PublicationTimestamp", VALID_FROM);
+        element(writer, "ParticipantRef", "NSR");
+        writer.writeStartElement("dataObjects");
+        if (compositeFrame) {
+            writer.writeStartElement("CompositeFrame");
+            writer.writeAttribute("version", "1");
+            writer.writeAttribute("id", "NSR:CompositeFrame:1");
+            writer.writeStartElement("frames");
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        int frames = Math.max(1, siteFrames);
+        for (int frame = 0; frame < frames; frame++) {
+            writer.writeStartElement("SiteFrame");
+            writer.writeAttribute("version", "1");
+            writer.writeAttribute("id", "NSR:SiteFrame:" + (frame + 1));
+            writeStopPlaces(writer, random, share(stopPlaces, frame, frames), share(stopPlaces, frame + 1, frames));
+            writeParkings(writer, random, share(parkings, frame, frames), share(parkings, frame + 1, frames));
+            writeTariffZones(writer, random, share(tariffZones, frame, frames), share(tariffZones, frame + 1, frames));
+            writer.writeEndElement();
+        }
+
+        if (compositeFrame) {
+            writer.writeEndElement();
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+    }
+
+    /**
+     * First (one based) number of the given part, when splitting the numbers up to count in parts.
+     */
+    private static int share(int count, int part, int parts) {
+        return (int) ((long) count * part / parts) + 1;
+    }
+
+    private void writeStopPlaces(XMLStreamWriter writer, SplittableRandom random, int from, int to) throws XMLStreamException {
+        if (from >= to) {
+            return;
+        }
+        writer.writeStartElement("stopPlaces");
+        for (int stopPlace = from; stopPlace < to; stopPlace++) {
+            String[] type = STOP_PLACE_TYPES[stopPlace % STOP_PLACE_TYPES.length];
+            double latitude = latitude(random);
+            double longitude = longitude(random);
+
+            startEntity(writer, "StopPlace", "NSR:StopPlace:" + stopPlace);
+            validBetween(writer, stopPlace);
+            keyList(writer, "imported-id", "SYN:StopPlace:" + stopPlace);
+            name(writer, "Stop place " + stopPlace);
+            centroid(writer, latitude, longitude);
+            adjacentSites(writer, stopPlace);
+            element(writer, "TransportMode", type[1]);
+            element(writer, "StopPlaceType", type[0]);
+            if (quaysPerStopPlace > 0) {
+                writer.writeStartElement("quays");
+                for (int i = 0; i < quaysPerStopPlace; i++) {
+                    long quay = (long) (stopPlace - 1) * quaysPerStopPlace + i + 1;
+                    startEntity(writer, "Quay", "NSR:Quay:" + quay);
+                    keyList(writer, "imported-id", "SYN:Quay:" + quay);
+                    centroid(writer, latitude + 0.0001 * (i + 1), longitude);
+                    element(writer, "PublicCode", String.valueOf(i + 1));
+                    writer.writeEndElement();
+                }
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * The other members of the group of adjacent sites of the stop place, if in one.
+     */
+    private void adjacentSites(XMLStreamWriter writer, int stopPlace) throws XMLStreamException {
+        int groupSize = Math.max(2, adjacentSiteGroupSize);
+        int group = (stopPlace - 1) / groupSize;
+        if (group >= adjacentSiteGroups) {
+            return;
+        }
+        int first = group * groupSize + 1;
+        int last = Math.min(first + groupSize - 1, stopPlaces);
+        if (first == last) {
+            return;
+        }
+        writer.writeStartElement("adjacentSites");
+        for (int member = first; member <= last; member++) {
+            if (member != stopPlace) {
+                writer.writeEmptyElement("SiteRef");
+                writer.writeAttribute("ref", "NSR:StopPlace:" + member);
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeParkings(XMLStreamWriter writer, SplittableRandom random, int from, int to) throws XMLStreamException {
+        if (from >= to) {
+            return;
+        }
+        writer.writeStartElement("parkings");
+        for (int parking = from; parking < to; parking++) {
+            startEntity(writer, "Parking", "NSR:Parking:" + parking);
+            validBetween(writer, parking);
+            name(writer, "Parking " + parking);
+            centroid(writer, latitude(random), longitude(random));
+            if (stopPlaces > 0) {
+                writer.writeEmptyElement("ParentSiteRef");
+                writer.writeAttribute("ref", "NSR:StopPlace:" + ((parking - 1) % stopPlaces + 1));
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeTariffZones(XMLStreamWriter writer, SplittableRandom random, int from, int to) throws XMLStreamException {
+        if (from >= to) {
+            return;
+        }
+        writer.writeStartElement("tariffZones");
+        for (int tariffZone = from; tariffZone < to; tariffZone++) {
+            startEntity(writer, "TariffZone", "SYN:TariffZone:" + tariffZone);
+            validBetween(writer, tariffZone);
+            name(writer, "Tariff zone " + tariffZone);
+            polygon(writer, "SYN-Polygon-" + tariffZone, latitude(random), longitude(random), random);
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * A closed ring of distinct vertices around the given position, as the "lat lon" pairs of the export.
+     */
+    private void polygon(XMLStreamWriter writer, String id, double latitude, double longitude, SplittableRandom random) throws XMLStreamException {
+        int vertices = Math.max(3, polygonVertices);
+        writer.writeStartElement("gml", "Polygon", GML_NAMESPACE);
+        writer.writeAttribute("gml", GML_NAMESPACE, "id", id);
+        writer.writeStartElement("gml", "exterior", GML_NAMESPACE);
+        writer.writeStartElement("gml", "LinearRing", GML_NAMESPACE);
+        writer.writeStartElement("gml", "posList", GML_NAMESPACE);
+        String first = null;
+        for (int vertex = 0; vertex < vertices; vertex++) {
+            double angle = 2 * Math.PI * vertex / vertices;
+            double radius = 0.05 + 0.05 * random.nextDouble();
+            String position = (latitude + radius * Math.sin(angle)) + " " + (longitude + 2 * radius * Math.cos(angle));
+            if (first == null) {
+                first = position;
+            } else {
+                writer.writeCharacters(" ");
+            }
+            writer.writeCharacters(position);
+        }
+        writer.writeCharacters(" ");
+        writer.writeCharacters(first);
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private boolean isExpired(int number) {
+        return expiredEvery > 0 && number % expiredEvery == 0;
+    }
+
+    private boolean isFuture(int number) {
+        return !isExpired(number) && futureEvery > 0 && number % futureEvery == 0;
+    }
+
+    private void validBetween(XMLStreamWriter writer, int number) throws XMLStreamException {
+        writer.writeStartElement("ValidBetween");
+        element(writer, "FromDate", isFuture(number) ? FUTURE_FROM : VALID_FROM);
+        if (isExpired(number)) {
+            element(writer, "ToDate", EXPIRED_TO);
+        }
+        writer.writeEndElement();
+    }
+
+    private static void startEntity(XMLStreamWriter writer, String name, String id) throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeAttribute("version", "1");
+        writer.writeAttribute("id", id);
+    }
+
+    private static void keyList(XMLStreamWriter writer, String key, String value) throws XMLStreamException {
+        writer.writeStartElement("keyList");
+        writer.writeStartElement("KeyValue");
+        element(writer, "Key", key);
+        element(writer, "Value", value);
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private static void name(XMLStreamWriter writer, String name) throws XMLStreamException {
+        writer.writeStartElement("Name");
+        writer.writeAttribute("lang", "nor");
+        writer.writeCharacters(name);
+        writer.writeEndElement();
+    }
+
+    private static void centroid(XMLStreamWriter writer, double latitude, double longitude) throws XMLStreamException {
+        writer.writeStartElement("Centroid");
+        writer.writeStartElement("Location");
+        element(writer, "Longitude", String.valueOf(longitude));
+        element(writer, "Latitude", String.valueOf(latitude));
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private static void element(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeCharacters(value);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Somewhere in mainland Norway, roughly.
+     */
+    private static double latitude(SplittableRandom random) {
+        return 58.0 + 12.0 * random.nextDouble();
+    }
+
+    private static double longitude(SplittableRandom random) {
+        return 5.0 + 25.0 * random.nextDouble();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SyntheticPublicationDelivery <file> [stop places]");
+            System.exit(1);
+        }
+        Path path = Paths.get(args[0]);
+        int stopPlaces = args.length > 1 ? Integer.parseInt(args[1]) : 60_000;
+        SyntheticPublicationDelivery delivery = national(stopPlaces);
+        delivery.writeTo(path);
+        System.out.printf("Wrote %d entities to %s (%d bytes)%n", delivery.entities(), path, Files.size(path));
+    }
+}
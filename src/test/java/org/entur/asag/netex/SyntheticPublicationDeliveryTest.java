@@ -0,0 +1,134 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.netex;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.entur.asag.mapbox.DeliveryPublicationStreamToGeoJson;
+import org.entur.asag.mapbox.EntityReader;
+import org.entur.asag.mapbox.TransformMode;
+import org.entur.asag.mapbox.filter.ValidityFilter;
+import org.entur.asag.mapbox.mapper.ParkingToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.QuayToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.StopPlaceToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.TariffZoneToGeoJsonFeatureMapper;
+import org.entur.asag.mapbox.mapper.ZoneToGeoJsonFeatureMapper;
+import org.entur.asag.util.ZipFileUtils;
+import org.geojson.Feature;
+import org.geojson.FeatureCollection;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.rutebanken.netex.validation.NeTExValidator;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SyntheticPublicationDeliveryTest {
+
+    private static SyntheticPublicationDelivery smallDelivery() {
+        return new SyntheticPublicationDelivery()
+                .withStopPlaces(30)
+                .withQuaysPerStopPlace(2)
+                .withAdjacentSiteGroups(3)
+                .withAdjacentSiteGroupSize(3)
+                .withParkings(7)
+                .withTariffZones(5)
+                .withPolygonVertices(8)
+                .withExpiredEvery(4)
+                .withFutureEvery(5);
+    }
+
+    @Test
+    public void validatesAgainstTheNetexSchema() throws Exception {
+        NeTExValidator neTExValidator = new NeTExValidator();
+
+        neTExValidator.validate(new StreamSource(new ByteArrayInputStream(write(smallDelivery()))));
+        neTExValidator.validate(new StreamSource(new ByteArrayInputStream(write(smallDelivery()
+                .withCompositeFrame(true)
+                .withSiteFrames(3)))));
+    }
+
+    @Test
+    public void sameSettingsWriteTheSameDocument() throws Exception {
+        assertThat(write(smallDelivery())).isEqualTo(write(smallDelivery()));
+        assertThat(write(smallDelivery().withSeed(2))).isNotEqualTo(write(smallDelivery()));
+    }
+
+    @Test
+    public void countsEntitiesAndTheFeaturesValidNow() {
+        SyntheticPublicationDelivery delivery = smallDelivery();
+
+        assertThat(delivery.entities()).isEqualTo(30 + 60 + 7 + 5);
+        // Every fourth entity has expired, and every fifth of the others starts in the future
+        assertThat(delivery.expectedFeatures()).isEqualTo(18 + 36 + 5 + 3);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "BUFFERED, JAXB, false, 1",
+            "STREAMING, STAX, true, 3",
+            "PARALLEL, STAX, true, 2"
+    })
+    public void transformsToTheExpectedFeatures(TransformMode mode, EntityReader reader, boolean compositeFrame, int siteFrames) throws Exception {
+        SyntheticPublicationDelivery delivery = smallDelivery()
+                .withCompositeFrame(compositeFrame)
+                .withSiteFrames(siteFrames);
+
+        FeatureCollection featureCollection = transform(new ByteArrayInputStream(write(delivery)), mode, reader);
+
+        assertThat(featureCollection.getFeatures()).hasSize((int) delivery.expectedFeatures());
+        assertThat(featureCollection.getFeatures())
+                .extracting(Feature::getId)
+                .contains("NSR:StopPlace:1", "NSR:Quay:2", "NSR:Parking:1", "SYN:TariffZone:1")
+                .doesNotContain("NSR:StopPlace:4", "NSR:StopPlace:5", "NSR:Quay:8", "NSR:Parking:4", "SYN:TariffZone:4");
+        assertThat(featureCollection.getFeatures())
+                .extracting(Feature::getGeometry).doesNotContainNull();
+    }
+
+    @Test
+    public void zipIsReadLikeTheExport() throws Exception {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        smallDelivery().writeZipTo(zip);
+
+        try (InputStream xml = ZipFileUtils.openFirstXmlEntry(new ByteArrayInputStream(zip.toByteArray()), 1 << 16)) {
+            assertThat(xml.readAllBytes()).isEqualTo(write(smallDelivery()));
+        }
+    }
+
+    private static byte[] write(SyntheticPublicationDelivery delivery) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        delivery.writeTo(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static FeatureCollection transform(InputStream netex, TransformMode mode, EntityReader reader) throws Exception {
+        ZoneToGeoJsonFeatureMapper zoneToGeoJsonFeatureMapper = new ZoneToGeoJsonFeatureMapper();
+        DeliveryPublicationStreamToGeoJson transformer = new DeliveryPublicationStreamToGeoJson(
+                new StopPlaceToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper),
+                new ParkingToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper),
+                new QuayToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper),
+                new TariffZoneToGeoJsonFeatureMapper(zoneToGeoJsonFeatureMapper),
+                new ValidityFilter());
+        transformer.setTransformMode(mode);
+        transformer.setEntityReader(reader);
+        ByteArrayOutputStream geoJson = (ByteArrayOutputStream) transformer.transform(netex);
+        return new ObjectMapper().readValue(geoJson.toByteArray(), FeatureCollection.class);
+    }
+}
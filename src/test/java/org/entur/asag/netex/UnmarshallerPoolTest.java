@@ -0,0 +1,81 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.netex;
+
+import jakarta.xml.bind.Unmarshaller;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.PublicationDeliveryStructure;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UnmarshallerPoolTest {
+
+    private static final String SITE_FRAME_XML = "src/test/resources/publication-delivery.xml";
+
+    @Test
+    public void contextIsCreatedOncePerRootType() throws Exception {
+        assertThat(JaxbContextRegistry.getContext(PublicationDeliveryStructure.class))
+                .isSameAs(JaxbContextRegistry.getContext(PublicationDeliveryStructure.class));
+        assertThat(PublicationDeliveryHelper.unmarshallerPool()).isSameAs(PublicationDeliveryHelper.unmarshallerPool());
+    }
+
+    @Test
+    public void releasedUnmarshallerIsReused() throws Exception {
+        UnmarshallerPool pool = new UnmarshallerPool(JaxbContextRegistry.getContext(PublicationDeliveryStructure.class), 1);
+
+        Unmarshaller first = pool.borrow();
+        pool.release(first);
+
+        assertThat(pool.borrow()).isSameAs(first);
+    }
+
+    @Test
+    public void idleUnmarshallersAreBounded() throws Exception {
+        UnmarshallerPool pool = new UnmarshallerPool(JaxbContextRegistry.getContext(PublicationDeliveryStructure.class), 2);
+
+        List<Unmarshaller> borrowed = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            borrowed.add(pool.borrow());
+        }
+        assertThat(borrowed).doesNotHaveDuplicates();
+        borrowed.forEach(pool::release);
+
+        assertThat(pool.idleCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void concurrentThreadsCanUnmarshallWithPooledUnmarshallers() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<PublicationDeliveryStructure>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executorService.submit(() -> PublicationDeliveryHelper.unmarshall(new FileInputStream(SITE_FRAME_XML))));
+            }
+            for (Future<PublicationDeliveryStructure> future : futures) {
+                assertThat(PublicationDeliveryHelper.resolveStops(future.get()).count()).isEqualTo(3);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package org.entur.asag.service;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PipelineMetricsTest {
+
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics();
+
+    @Test
+    public void countsTheBytesReadAndWritten() throws IOException {
+        try (InputStream inputStream = pipelineMetrics.meterXml(new ByteArrayInputStream(new byte[1000]))) {
+            inputStream.readNBytes(10);
+            inputStream.read();
+            inputStream.readAllBytes();
+        }
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        try (OutputStream outputStream = pipelineMetrics.meterGeoJson(written)) {
+            outputStream.write(new byte[300], 100, 200);
+            outputStream.write('\n');
+        }
+
+        assertThat(pipelineMetrics.getRegistry().get("asag.xml.bytes").counter().count()).isEqualTo(1000);
+        assertThat(pipelineMetrics.getRegistry().get("asag.geojson.bytes").counter().count()).isEqualTo(201);
+        assertThat(written.size()).isEqualTo(201);
+        assertThat(pipelineMetrics.getRegistry().get("asag.write").timer().count()).isGreaterThanOrEqualTo(2);
+    }
+
+    @Test
+    public void noExportIsMeteredAsNone() {
+        assertThat(pipelineMetrics.meterExport(null)).isNull();
+    }
+
+    @Test
+    public void publishWritesTheMetersToTheFile(@TempDir Path tempDir) throws IOException {
+        Path metricsFile = tempDir.resolve("metrics/asag.prom");
+        pipelineMetrics.setMetricsFile(metricsFile.toString());
+        pipelineMetrics.countEntity("StopPlace", PipelineMetrics.OUTCOME_ACCEPTED);
+        pipelineMetrics.countEntity("StopPlace", PipelineMetrics.OUTCOME_ACCEPTED);
+        pipelineMetrics.countEntity("StopPlace", PipelineMetrics.OUTCOME_INVALID);
+        pipelineMetrics.countUpload(42);
+
+        pipelineMetrics.publish("finished", new DefaultExchange(new DefaultCamelContext()));
+
+        assertThat(Files.readString(metricsFile))
+                .contains("asag_entities_total{outcome=\"accepted\",type=\"StopPlace\"} 2.0")
+                .contains("asag_entities_total{outcome=\"invalid\",type=\"StopPlace\"} 1.0")
+                .contains("asag_upload_bytes_total 42.0")
+                .contains("asag_runs_total{state=\"finished\"} 1.0");
+        assertThat(tempDir.resolve("metrics")).isDirectoryNotContaining("glob:**.tmp");
+    }
+
+    @Test
+    public void failedRunIsCountedAsFailed() {
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.setException(new IllegalStateException("Failed"));
+
+        pipelineMetrics.publish(null, exchange);
+
+        assertThat(pipelineMetrics.getRegistry().get("asag.runs").tag("state", "failed").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void peakHeapIsAtLeastTheHeapUsedNow() {
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        assertThat(PipelineMetrics.peakHeapUsed()).isPositive().isGreaterThanOrEqualTo(used);
+    }
+
+    @Test
+    public void peakHeapIsKeptUntilExceeded() {
+        long peak = PipelineMetrics.recordHeapUsed(PipelineMetrics.peakHeapUsed() + 1);
+
+        assertThat(PipelineMetrics.recordHeapUsed(1)).isGreaterThanOrEqualTo(peak);
+        assertThat(PipelineMetrics.peakHeapUsed()).isGreaterThanOrEqualTo(peak);
+    }
+}
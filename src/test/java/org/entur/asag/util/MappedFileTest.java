@@ -0,0 +1,75 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedFileTest {
+
+    @Test
+    public void readsAcrossChunks(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[10_000];
+        new Random(42).nextBytes(data);
+        Path path = Files.write(tempDir.resolve("data"), data);
+
+        try (MappedFile mappedFile = new MappedFile(path, 10)) {
+            assertThat(mappedFile.size()).isEqualTo(data.length);
+            assertThat(mappedFile.get(1023)).isEqualTo(data[1023]);
+            assertThat(mappedFile.get(1024)).isEqualTo(data[1024]);
+            assertThat(mappedFile.get(data.length - 1)).isEqualTo(data[data.length - 1]);
+
+            byte[] range = new byte[3000];
+            mappedFile.get(1000, range, 0, range.length);
+            assertThat(range).isEqualTo(Arrays.copyOfRange(data, 1000, 4000));
+        }
+    }
+
+    @Test
+    public void streamsRange(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[5000];
+        new Random(7).nextBytes(data);
+        Path path = Files.write(tempDir.resolve("data"), data);
+
+        try (MappedFile mappedFile = new MappedFile(path, 10);
+             InputStream inputStream = mappedFile.openStream(1020, 3100)) {
+            assertThat(inputStream.read()).isEqualTo(data[1020] & 0xff);
+            assertThat(inputStream.skip(10)).isEqualTo(10);
+            assertThat(inputStream.readAllBytes()).isEqualTo(Arrays.copyOfRange(data, 1031, 3100));
+            assertThat(inputStream.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    public void mapsEmptyFile(@TempDir Path tempDir) throws IOException {
+        Path path = Files.write(tempDir.resolve("empty"), new byte[0]);
+
+        try (MappedFile mappedFile = MappedFile.open(path);
+             InputStream inputStream = mappedFile.openStream(0, 10)) {
+            assertThat(mappedFile.size()).isZero();
+            assertThat(inputStream.read()).isEqualTo(-1);
+        }
+    }
+}
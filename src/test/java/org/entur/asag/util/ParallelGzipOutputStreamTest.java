@@ -0,0 +1,99 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package org.entur.asag.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ParallelGzipOutputStreamTest {
+
+    @Test
+    public void inflatesToWrittenBytesAcrossManyBlocks() throws IOException {
+        byte[] data = json(100_000);
+        Random random = new Random(42);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream outputStream = new ParallelGzipOutputStream(compressed, 1000, 3, Deflater.DEFAULT_COMPRESSION)) {
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(data.length - offset, random.nextInt(2500) + 1);
+                if (length == 1) {
+                    outputStream.write(data[offset]);
+                } else {
+                    outputStream.write(data, offset, length);
+                }
+                offset += length;
+            }
+        }
+
+        assertThat(gunzip(compressed.toByteArray())).isEqualTo(data);
+        assertThat(compressed.size()).isLessThan(data.length / 2);
+    }
+
+    @Test
+    public void compressesEachBlockIntoIndependentMember() throws IOException {
+        byte[] data = json(2500);
+
+        byte[] first = ParallelGzipOutputStream.compress(Arrays.copyOfRange(data, 0, 1000), 1000, Deflater.DEFAULT_COMPRESSION);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream outputStream = new ParallelGzipOutputStream(compressed, 1000, 2, Deflater.DEFAULT_COMPRESSION)) {
+            outputStream.write(data);
+        }
+
+        assertThat(Arrays.copyOf(compressed.toByteArray(), first.length)).isEqualTo(first);
+        assertThat(gunzip(first)).isEqualTo(Arrays.copyOf(data, 1000));
+    }
+
+    @Test
+    public void writesValidGzipWhenNothingIsWritten() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(compressed, 2).close();
+
+        assertThat(gunzip(compressed.toByteArray())).isEmpty();
+    }
+
+    @Test
+    public void rejectsWritesAfterClose() throws IOException {
+        ParallelGzipOutputStream outputStream = new ParallelGzipOutputStream(new ByteArrayOutputStream(), 1);
+        outputStream.close();
+
+        assertThatThrownBy(() -> outputStream.write(1)).isInstanceOf(IOException.class);
+    }
+
+    private static byte[] json(int length) {
+        StringBuilder json = new StringBuilder();
+        for (int feature = 0; json.length() < length; feature++) {
+            json.append("{\"type\":\"Feature\",\"properties\":{\"name\":\"Stopp ").append(feature)
+                    .append("\"},\"id\":\"NSR:Quay:").append(feature).append("\"}\n");
+        }
+        return json.substring(0, length).getBytes();
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return inputStream.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SymbolTableTest {
+
+    @Test
+    public void encodesValuesInOrderOfFirstUse() {
+        SymbolTable symbolTable = new SymbolTable();
+
+        assertThat(symbolTable.symbol("NSR")).isZero();
+        assertThat(symbolTable.symbol("RUT")).isEqualTo(1);
+        assertThat(symbolTable.symbol("NSR")).isZero();
+        assertThat(symbolTable.value(1)).isEqualTo("RUT");
+        assertThat(symbolTable.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void looksUpPartOfString() {
+        SymbolTable symbolTable = new SymbolTable();
+        String nsr = symbolTable.intern("NSR");
+
+        assertThat(symbolTable.intern("NSR:StopPlace:1", 0, 3)).isSameAs(nsr);
+        assertThat(symbolTable.symbol("RUT:TariffZone:1", 4, 14)).isEqualTo(symbolTable.symbol("TariffZone"));
+        assertThat(symbolTable.symbol("NSRX", 0, 4)).isNotEqualTo(symbolTable.symbol("NSR"));
+    }
+
+    @Test
+    public void keepsSymbolsWhenGrowing() {
+        SymbolTable symbolTable = new SymbolTable();
+        for (int i = 0; i < 1000; i++) {
+            assertThat(symbolTable.symbol("value" + i)).isEqualTo(i);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(symbolTable.symbol("value" + i)).isEqualTo(i);
+            assertThat(symbolTable.value(i)).isEqualTo("value" + i);
+        }
+        assertThat(symbolTable.size()).isEqualTo(1000);
+    }
+
+    @Test
+    public void findsWithoutAdding() {
+        SymbolTable symbolTable = new SymbolTable();
+        symbolTable.symbol("NSR");
+
+        assertThat(symbolTable.find("NSR:StopPlace:1", 0, 3)).isZero();
+        assertThat(symbolTable.find("RUT:StopPlace:1", 0, 3)).isEqualTo(-1);
+        assertThat(symbolTable.find("NS")).isEqualTo(-1);
+        assertThat(symbolTable.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsUnknownSymbol() {
+        SymbolTable symbolTable = new SymbolTable();
+        symbolTable.symbol("NSR");
+
+        assertThatThrownBy(() -> symbolTable.value(1)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(symbolTable.intern(null)).isNull();
+    }
+}
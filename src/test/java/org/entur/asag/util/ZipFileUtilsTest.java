@@ -0,0 +1,70 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package org.entur.asag.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ZipFileUtilsTest {
+
+    @Test
+    public void openFirstXmlEntryStreamsContentOfXmlEntry() throws Exception {
+        byte[] zip = zip("readme.txt", "not this one", "export/tiamat-export.xml", "<PublicationDelivery/>");
+
+        try (InputStream xml = ZipFileUtils.openFirstXmlEntry(new ByteArrayInputStream(zip), 16)) {
+            assertThat(new String(xml.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("<PublicationDelivery/>");
+        }
+    }
+
+    @Test
+    public void openFirstXmlEntryReadsTiamatExport() throws Exception {
+        try (InputStream xml = ZipFileUtils.openFirstXmlEntry(new FileInputStream("src/test/resources/stops.zip"), 1024)) {
+            assertThat(new String(xml.readAllBytes(), StandardCharsets.UTF_8)).contains("PublicationDelivery");
+        }
+    }
+
+    @Test
+    public void openFirstXmlEntryThrowsWhenArchiveHasNoXml() throws Exception {
+        byte[] zip = zip("data.csv", "id,name\n1,stop", "other.txt", "text");
+
+        assertThrows(NoSuchElementException.class,
+                () -> ZipFileUtils.openFirstXmlEntry(new ByteArrayInputStream(zip), 1024));
+    }
+
+    private byte[] zip(String firstName, String firstContent, String secondName, String secondContent) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+            zos.putNextEntry(new ZipEntry(firstName));
+            zos.write(firstContent.getBytes(StandardCharsets.UTF_8));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry(secondName));
+            zos.write(secondContent.getBytes(StandardCharsets.UTF_8));
+            zos.closeEntry();
+        }
+        return baos.toByteArray();
+    }
+}